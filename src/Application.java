@@ -1,9 +1,13 @@
+import java.util.Properties;
+
 import javax.swing.JFrame;
 import javax.swing.SwingUtilities;
 
+import watermark.cli.CommandLineApp;
 import watermark.core.cipher.PublicKeyCipher;
-import watermark.core.service.WatermarkService;
 import watermark.core.service.WatermarkServiceImpl;
+import watermark.core.tuning.TuningProfile;
+import watermark.core.util.FileUtil;
 import watermark.gui.AppConfig;
 import watermark.gui.AppIcons;
 import watermark.gui.controller.MainViewContoller;
@@ -16,14 +20,23 @@ import watermark.gui.view.MainView;
  * @author Ryan M. Kane
  */
 public class Application {
+	private static final String CONFIG_FILENAME = "appconfig.properties";
+
 	public static void main(String[] args) {
+		// Any arguments run a command without the user interface.
+		if (args.length > 0) {
+			CommandLineApp.main(args);
+			return;
+		}
+
 		SwingUtilities.invokeLater(new Runnable() {
 			@Override
 			public void run() {
 				JFrame frame = new JFrame();
 				MainView view = new MainView(AppConfig.APP_TITLE);
 				MainViewContoller controller = new MainViewContoller();
-				WatermarkService service = new WatermarkServiceImpl();
+				Properties props = FileUtil.loadProperties(CONFIG_FILENAME);
+				WatermarkServiceImpl service = TuningProfile.createService(props, Runtime.getRuntime().availableProcessors());
 
 				controller.setWatermarkService(service);
 				view.setController(controller);
@@ -43,5 +56,4 @@ public class Application {
 			}
 		});
 	}
-
 }
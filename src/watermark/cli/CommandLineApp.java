@@ -0,0 +1,617 @@
+package watermark.cli;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.security.Key;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import watermark.core.cipher.PublicKeyCipher;
+import watermark.core.datatypes.embedding.ChannelEmbedding;
+import watermark.core.datatypes.request.WatermarkRequest;
+import watermark.core.datatypes.result.EntryResult;
+import watermark.core.io.ArchiveWriter;
+import watermark.core.io.PngWriter;
+import watermark.core.partition.GridPartitioner;
+import watermark.core.partition.QuadtreePartitioner;
+import watermark.core.service.ArchiveBatch;
+import watermark.core.service.WatermarkServiceImpl;
+import watermark.core.tuning.TuningProfile;
+import watermark.core.util.ExecutorUtil;
+import watermark.core.util.FileUtil;
+import watermark.core.util.ImageUtil;
+
+/**
+ * This class runs the watermark engine from the command line, without a
+ * display. It encodes, decodes or verifies image files, the images of
+ * directories and glob patterns, and the images of ZIP and TAR archives.
+ *
+ * Settings which are not given as options are read from
+ * appconfig.properties, and a tuning profile is applied as it is by the
+ * application. The exit code is {@link #EXIT_OK} when every image was
+ * processed and verified, {@link #EXIT_TAMPERED} when an image was tampered
+ * with or failed verification, {@link #EXIT_USAGE} for invalid arguments and
+ * {@link #EXIT_ERROR} when an image could not be processed.
+ *
+ * @author Ryan M. Kane
+ */
+public class CommandLineApp {
+	public static final int EXIT_OK = 0;
+	public static final int EXIT_TAMPERED = 1;
+	public static final int EXIT_USAGE = 2;
+	public static final int EXIT_ERROR = 3;
+
+	private static final String CONFIG_FILENAME = "appconfig.properties";
+
+	private static final String USAGE = String.join(FileUtil.ENDL,
+			"Usage: java -jar FragileWatermark.jar <command> [options] <file, directory, glob or archive>...",
+			"",
+			"Commands:",
+			"  encode    watermark the images and write them to the output directory",
+			"  decode    decode the images, write the decoded images and report tampering",
+			"  verify    report tampering without writing any image",
+			"",
+			"Options:",
+			"  -o, --output <dir>         the directory to write the images or archives to",
+			"      --private-key <file>   the key to encode with (default: privateKeyLoc)",
+			"      --public-key <file>    the key to decode and verify with (default: publicKeyLoc)",
+			"  -w, --watermark <file>     the watermark image (default: a blank 8x8 image)",
+			"  -b, --block-size <pixels>  the block size (default: blockSize)",
+			"  -p, --parallelism <n>      the threads which process blocks (default: processors)",
+			"      --verify               check every block of an encode right after writing it",
+			"      --report <file>        append a JSON line per decoded image to a file",
+			"  -q, --quiet                only print failures and the summary",
+			"  -h, --help                 print this message",
+			"",
+			"Exit codes: 0 verified, 1 tampered or failed verification, 2 invalid arguments, 3 errors.");
+
+	private final PrintStream out;
+	private final PrintStream err;
+
+	private String command;
+	private final List<String> inputs = new ArrayList<String>();
+	private File output;
+	private File report;
+	private String privateKeyLoc;
+	private String publicKeyLoc;
+	private File watermarkFile;
+	private int blockSize;
+	private int parallelism;
+	private boolean verify;
+	private boolean quiet;
+	private Properties props;
+
+	private PublicKeyCipher cipher;
+	private Key key;
+	private PublicKey verificationKey;
+	private BufferedImage watermark;
+	private WatermarkServiceImpl service;
+	private PngWriter pngWriter;
+	private Writer reportWriter;
+	private final Set<String> outputNames = new HashSet<String>();
+	private int processed;
+	private int tampered;
+	private int failed;
+
+	/**
+	 * @param out - the stream which the results are printed to.
+	 * @param err - the stream which errors are printed to.
+	 */
+	public CommandLineApp(PrintStream out, PrintStream err) {
+		this.out = out;
+		this.err = err;
+	}
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		System.exit(new CommandLineApp(System.out, System.err).run(args));
+	}
+
+	/**
+	 * Runs a command.
+	 *
+	 * @param args - the command, its options and its inputs.
+	 * @return the exit code.
+	 */
+	public int run(String[] args) {
+		try {
+			parse(args);
+		} catch (IllegalArgumentException e) {
+			err.println(e.getMessage());
+			err.println(USAGE);
+			return EXIT_USAGE;
+		}
+
+		if (command == null) {
+			out.println(USAGE);
+			return EXIT_OK;
+		}
+
+		try {
+			setup();
+		} catch (IllegalArgumentException e) {
+			err.println(e.getMessage());
+			return EXIT_USAGE;
+		} catch (IOException e) {
+			err.println(e.getMessage());
+			return EXIT_ERROR;
+		}
+
+		try {
+			List<Input> files = expand();
+
+			if (files.isEmpty()) {
+				err.println("No input images were found.");
+				return EXIT_ERROR;
+			}
+
+			process(files);
+		} catch (IOException e) {
+			err.println(e.getMessage());
+			failed++;
+		} finally {
+			closeReport();
+		}
+
+		out.println(String.format("%d images, %d tampered, %d failed", processed, tampered, failed));
+
+		return failed > 0 ? EXIT_ERROR : tampered > 0 ? EXIT_TAMPERED : EXIT_OK;
+	}
+
+	private void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+
+			switch (arg) {
+				case "-h":
+				case "--help":
+					command = null;
+					return;
+				case "-o":
+				case "--output":
+					output = new File(value(args, ++i, arg));
+					break;
+				case "--private-key":
+					privateKeyLoc = value(args, ++i, arg);
+					break;
+				case "--public-key":
+					publicKeyLoc = value(args, ++i, arg);
+					break;
+				case "-w":
+				case "--watermark":
+					watermarkFile = new File(value(args, ++i, arg));
+					break;
+				case "-b":
+				case "--block-size":
+					blockSize = number(value(args, ++i, arg), arg);
+					break;
+				case "-p":
+				case "--parallelism":
+					parallelism = number(value(args, ++i, arg), arg);
+					break;
+				case "--verify":
+					verify = true;
+					break;
+				case "--report":
+					report = new File(value(args, ++i, arg));
+					break;
+				case "-q":
+				case "--quiet":
+					quiet = true;
+					break;
+				default:
+					if (arg.startsWith("-") && arg.length() > 1) {
+						throw new IllegalArgumentException("Unknown option: " + arg);
+					} else if (command == null) {
+						if (!Arrays.asList("encode", "decode", "verify").contains(arg)) {
+							throw new IllegalArgumentException("Unknown command: " + arg);
+						}
+
+						command = arg;
+					} else {
+						inputs.add(arg);
+					}
+			}
+		}
+
+		if (command == null) {
+			if (args.length > 0) {
+				throw new IllegalArgumentException("No command was given.");
+			}
+
+			return;
+		}
+
+		if (inputs.isEmpty()) {
+			throw new IllegalArgumentException("No inputs were given.");
+		}
+
+		if (output == null && !"verify".equals(command)) {
+			throw new IllegalArgumentException("The " + command + " command needs an output directory (-o).");
+		}
+	}
+
+	private static String value(String[] args, int index, String option) {
+		if (index >= args.length) {
+			throw new IllegalArgumentException("Missing value for " + option);
+		}
+
+		return args[index];
+	}
+
+	private static int number(String value, String option) {
+		try {
+			int number = Integer.parseInt(value.trim());
+
+			if (number > 0) {
+				return number;
+			}
+		} catch (NumberFormatException e) {
+		}
+
+		throw new IllegalArgumentException("Expected a positive number for " + option + ": " + value);
+	}
+
+	/**
+	 * Loads the configuration, keys and watermark, and creates the service.
+	 */
+	private void setup() throws IOException {
+		props = FileUtil.fileExists(CONFIG_FILENAME) || CommandLineApp.class.getResource("/resources/" + CONFIG_FILENAME) != null
+				? FileUtil.loadProperties(CONFIG_FILENAME) : new Properties();
+
+		if (blockSize == 0) {
+			blockSize = Integer.parseInt(props.getProperty("blockSize", "32").trim());
+		}
+
+		cipher = new PublicKeyCipher("RSA");
+
+		boolean encode = "encode".equals(command);
+		String keyLoc = encode ? option(privateKeyLoc, "privateKeyLoc") : option(publicKeyLoc, "publicKeyLoc");
+
+		if (keyLoc == null || !new File(keyLoc).isFile()) {
+			throw new IllegalArgumentException("The " + (encode ? "private" : "public") + " key does not exist: " + keyLoc);
+		}
+
+		key = readKey(keyLoc, encode ? PrivateKey.class : PublicKey.class);
+
+		if (encode && verify && option(publicKeyLoc, "publicKeyLoc") != null && new File(option(publicKeyLoc, "publicKeyLoc")).isFile()) {
+			verificationKey = (PublicKey) readKey(option(publicKeyLoc, "publicKeyLoc"), PublicKey.class);
+		}
+
+		if (watermarkFile != null) {
+			watermark = ImageUtil.readImage(watermarkFile);
+
+			if (watermark == null) {
+				throw new IOException("Not an image: " + watermarkFile);
+			}
+		} else {
+			watermark = new BufferedImage(8, 8, BufferedImage.TYPE_INT_ARGB);
+		}
+
+		int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+
+		service = TuningProfile.createService(props, threads);
+
+		if (parallelism > 0) {
+			service.setBlockPool(ExecutorUtil.createWorkStealingPool(parallelism));
+		}
+
+		pngWriter = new PngWriter();
+		pngWriter.setCompressionLevel(Integer.parseInt(props.getProperty("pngCompression", "4").trim()));
+		pngWriter.setFilter(PngWriter.parseFilter(props.getProperty("pngFilter", "adaptive")));
+		pngWriter.setPool(service.getBlockPool());
+
+		if (output != null) {
+			output.mkdirs();
+		}
+
+		if (report != null) {
+			reportWriter = new FileWriter(report, true);
+		}
+	}
+
+	/**
+	 * Reads a key file, which must hold a key of the type the command uses.
+	 */
+	private Key readKey(String keyLoc, Class<? extends Key> type) throws IOException {
+		Object key;
+
+		try {
+			key = cipher.getKey(keyLoc);
+		} catch (ClassCastException e) {
+			throw new IllegalArgumentException("Not a key file: " + keyLoc);
+		}
+
+		if (key == null) {
+			throw new IOException("Could not read the key: " + keyLoc);
+		}
+
+		if (!type.isInstance(key)) {
+			throw new IllegalArgumentException("Expected a " + (type == PrivateKey.class ? "private" : "public") + " key: " + keyLoc);
+		}
+
+		return (Key) key;
+	}
+
+	private String option(String value, String property) {
+		return value != null ? value : props.getProperty(property);
+	}
+
+	/**
+	 * Creates the request of an image from the options and configuration.
+	 */
+	private WatermarkRequest createRequest(BufferedImage img) {
+		WatermarkRequest request = new WatermarkRequest(cipher, key, img, watermark);
+
+		request.setBlockSize(blockSize);
+
+		if ("encode".equals(command)) {
+			request.setEmbedding(ChannelEmbedding.parse(props.getProperty("embedChannels", "B"),
+					Integer.parseInt(props.getProperty("embedBits", "1").trim())));
+
+			if ("quadtree".equalsIgnoreCase(props.getProperty("partition", "grid").trim())) {
+				request.setPartitioner(new QuadtreePartitioner(Double.parseDouble(props.getProperty("quadtreeThreshold",
+						Double.toString(QuadtreePartitioner.DEFAULT_THRESHOLD)))));
+			} else {
+				request.setPartitioner(new GridPartitioner());
+			}
+
+			request.setVerify(verify);
+			request.setVerificationKey(verificationKey);
+		}
+
+		return request;
+	}
+
+	/**
+	 * Expands the inputs into files. A directory stands for the files within
+	 * it, and a path with *, ?, [ or { for the files which match it.
+	 */
+	private List<Input> expand() throws IOException {
+		List<Input> files = new ArrayList<Input>();
+
+		for (String input : inputs) {
+			int glob = indexOfGlob(input);
+
+			if (glob >= 0) {
+				int slash = Math.max(input.lastIndexOf('/', glob), input.lastIndexOf(File.separatorChar, glob));
+				Path base = Paths.get(slash >= 0 ? input.substring(0, slash + 1) : ".");
+				String pattern = input.substring(slash + 1);
+				PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+				int depth = pattern.contains("**") ? Integer.MAX_VALUE : pattern.split("/").length;
+
+				if (!Files.isDirectory(base)) {
+					throw new IOException("No such directory: " + base);
+				}
+
+				try (Stream<Path> paths = Files.walk(base, depth)) {
+					for (Path path : paths.filter(p -> Files.isRegularFile(p) && matcher.matches(base.relativize(p)))
+							.sorted().collect(Collectors.toList())) {
+						files.add(new Input(path.toFile(), base.relativize(path).toString(), false));
+					}
+				}
+			} else {
+				File file = new File(input);
+
+				if (file.isDirectory()) {
+					File[] children = file.listFiles();
+
+					if (children != null) {
+						Arrays.sort(children);
+
+						for (File child : children) {
+							if (child.isFile()) {
+								files.add(new Input(child, child.getName(), false));
+							}
+						}
+					}
+				} else {
+					files.add(new Input(file, file.getName(), true));
+				}
+			}
+		}
+
+		return files;
+	}
+
+	private static int indexOfGlob(String input) {
+		for (int i = 0; i < input.length(); i++) {
+			if ("*?[{".indexOf(input.charAt(i)) >= 0) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Processes the files in order, reading ahead while the images before them
+	 * are encoded or decoded. Archives are processed as a batch of their own.
+	 */
+	private void process(List<Input> files) throws IOException {
+		Deque<Pending> pending = new ArrayDeque<Pending>();
+		int window = Math.max(2, service.getBlockPool().getParallelism() * 2);
+
+		try {
+			for (Input input : files) {
+				if (ArchiveWriter.getFormat(input.file) >= 0) {
+					while (!pending.isEmpty()) {
+						complete(pending.removeFirst());
+					}
+
+					processArchive(input);
+					continue;
+				}
+
+				Pending entry = new Pending(input);
+
+				try {
+					BufferedImage img = input.file.isFile() ? ImageUtil.readImage(input.file) : null;
+
+					if (img == null) {
+						if (input.explicit) {
+							err.println(input.name + ": not a readable image");
+							failed++;
+						}
+
+						continue;
+					}
+
+					entry.request = createRequest(img);
+					entry.future = "encode".equals(command) ? service.encodeAsync(entry.request) : service.decodeAsync(entry.request);
+				} catch (IOException | RuntimeException e) {
+					entry.future = CompletableFuture.failedFuture(e);
+				}
+
+				pending.add(entry);
+
+				while (pending.size() >= window) {
+					complete(pending.removeFirst());
+				}
+			}
+
+			while (!pending.isEmpty()) {
+				complete(pending.removeFirst());
+			}
+		} finally {
+			for (Pending entry : pending) {
+				entry.future.cancel(true);
+			}
+		}
+	}
+
+	private void complete(Pending entry) {
+		BufferedImage img;
+
+		try {
+			img = entry.future.get();
+		} catch (ExecutionException e) {
+			err.println(entry.input.name + ": failed: " + e.getCause().getMessage());
+			failed++;
+			return;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failed++;
+			return;
+		}
+
+		try {
+			if (output != null && !"verify".equals(command)) {
+				pngWriter.write(img, new File(output, FileUtil.getUniqueName(entry.input.name, ".png", outputNames)));
+			}
+		} catch (IOException e) {
+			err.println(entry.input.name + ": could not write: " + e.getMessage());
+			failed++;
+			return;
+		}
+
+		report(new EntryResult(entry.input.name, null, entry.request.getTamperReport(), entry.request.getVerification(), null));
+	}
+
+	private void processArchive(Input input) throws IOException {
+		ArchiveBatch batch = new ArchiveBatch(service);
+		File archive = null;
+
+		if (output != null && !"verify".equals(command)) {
+			archive = new File(output, input.name);
+			archive.getParentFile().mkdirs();
+		}
+
+		List<EntryResult> results = "encode".equals(command) ? batch.encode(input.file, archive, this::createRequest)
+				: batch.decode(input.file, archive, this::createRequest);
+
+		for (EntryResult result : results) {
+			if (result.getError() != null) {
+				err.println(input.name + "!" + result);
+				failed++;
+			} else {
+				report(new EntryResult(input.name + "!" + result.getName(), result.getOutputName(), result.getTamperReport(),
+						result.getVerification(), null));
+			}
+		}
+	}
+
+	/**
+	 * Counts and prints the outcome of an image, and appends it to the report.
+	 */
+	private void report(EntryResult result) {
+		processed++;
+
+		if (!result.isSuccess()) {
+			tampered++;
+			err.println(result);
+		} else if (!quiet) {
+			out.println(result);
+		}
+
+		if (reportWriter != null && result.getTamperReport() != null) {
+			try {
+				reportWriter.write(result.getTamperReport().toJson(result.getName()));
+				reportWriter.write(FileUtil.ENDL);
+			} catch (IOException e) {
+				err.println("Could not write the report: " + e.getMessage());
+				reportWriter = null;
+			}
+		}
+	}
+
+	private void closeReport() {
+		if (reportWriter != null) {
+			try {
+				reportWriter.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * A file to process, with its name relative to the directory or glob
+	 * which found it.
+	 */
+	private static class Input {
+		final File file;
+		final String name;
+		final boolean explicit;
+
+		Input(File file, String name, boolean explicit) {
+			this.file = file;
+			this.name = name;
+			this.explicit = explicit;
+		}
+	}
+
+	/**
+	 * An image which was read and is being processed.
+	 */
+	private static class Pending {
+		final Input input;
+		WatermarkRequest request;
+		CompletableFuture<BufferedImage> future;
+
+		Pending(Input input) {
+			this.input = input;
+		}
+	}
+}
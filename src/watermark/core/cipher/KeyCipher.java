@@ -3,6 +3,7 @@ package watermark.core.cipher;
 import java.security.Key;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.util.Arrays;
 
 /**
  * This interface describes a key cipher that will be injected.
@@ -19,4 +20,43 @@ public interface KeyCipher {
 	byte[] encrypt(byte[] data, PrivateKey key);
 
 	byte[] decrypt(byte[] data, PublicKey key);
+
+	/**
+	 * Encrypts part of an array into a provided output array. Ciphers which
+	 * can reuse their state override this to avoid allocating per call.
+	 *
+	 * @param data - the array which holds the data to encrypt.
+	 * @param offset - the first byte of the data.
+	 * @param length - the number of bytes to encrypt.
+	 * @param key - the private key.
+	 * @param output - the array which receives the encrypted data.
+	 * @return the number of bytes written, or -1 if the encryption failed.
+	 */
+	default int encrypt(byte[] data, int offset, int length, PrivateKey key, byte[] output) {
+		return copyResult(encrypt(Arrays.copyOfRange(data, offset, offset + length), key), output);
+	}
+
+	/**
+	 * Decrypts part of an array into a provided output array. Ciphers which
+	 * can reuse their state override this to avoid allocating per call.
+	 *
+	 * @param data - the array which holds the data to decrypt.
+	 * @param offset - the first byte of the data.
+	 * @param length - the number of bytes to decrypt.
+	 * @param key - the public key.
+	 * @param output - the array which receives the decrypted data.
+	 * @return the number of bytes written, or -1 if the decryption failed.
+	 */
+	default int decrypt(byte[] data, int offset, int length, PublicKey key, byte[] output) {
+		return copyResult(decrypt(Arrays.copyOfRange(data, offset, offset + length), key), output);
+	}
+
+	private static int copyResult(byte[] result, byte[] output) {
+		if (result == null || result.length > output.length) {
+			return -1;
+		}
+
+		System.arraycopy(result, 0, output, 0, result.length);
+		return result.length;
+	}
 }
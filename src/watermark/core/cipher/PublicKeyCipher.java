@@ -6,6 +6,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
@@ -23,6 +24,15 @@ import javax.crypto.Cipher;
 public class PublicKeyCipher implements KeyCipher {
 	private String algorithm;
 
+	// Each thread keeps its initialized cipher, which is reused while the
+	// algorithm, mode and key stay the same.
+	private final ThreadLocal<CipherState> cipherStates = new ThreadLocal<CipherState>() {
+		@Override
+		protected CipherState initialValue() {
+			return new CipherState();
+		}
+	};
+
 	public String getAlgorithm() {
 		return algorithm;
 	}
@@ -114,13 +124,18 @@ public class PublicKeyCipher implements KeyCipher {
 		} catch (Exception e) {
 			e.printStackTrace();
 		} finally {
+			// The object stream is null if the file is not a serialized object.
 			try {
-				fileInputStream.close();
+				if (fileInputStream != null) {
+					fileInputStream.close();
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 			try {
-				objInputStream.close();
+				if (objInputStream != null) {
+					objInputStream.close();
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -141,9 +156,8 @@ public class PublicKeyCipher implements KeyCipher {
 	public byte[] encrypt(byte[] data, PrivateKey key) {
 		byte[] cipherText = null;
 		try {
-			final Cipher cipher = Cipher.getInstance(getAlgorithm());
+			final Cipher cipher = getCipher(Cipher.ENCRYPT_MODE, key);
 
-			cipher.init(Cipher.ENCRYPT_MODE, key);
 			cipherText = cipher.doFinal(data);
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -152,6 +166,22 @@ public class PublicKeyCipher implements KeyCipher {
 		return cipherText;
 	}
 
+	/**
+	 * Encrypt part of an array using private key, reusing the thread's cipher.
+	 *
+	 * @return the number of bytes written, or -1 if the encryption failed.
+	 */
+	@Override
+	public int encrypt(byte[] data, int offset, int length, PrivateKey key, byte[] output) {
+		try {
+			return getCipher(Cipher.ENCRYPT_MODE, key).doFinal(data, offset, length, output, 0);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+
+		return -1;
+	}
+
 	/**
 	 * Decrypt byte data using public key.
 	 *
@@ -162,9 +192,8 @@ public class PublicKeyCipher implements KeyCipher {
 	@Override
 	public byte[] decrypt(byte[] data, PublicKey key) {
 		try {
-			final Cipher cipher = Cipher.getInstance(getAlgorithm());
+			final Cipher cipher = getCipher(Cipher.DECRYPT_MODE, key);
 
-			cipher.init(Cipher.DECRYPT_MODE, key);
 			return cipher.doFinal(data);
 		} catch (Exception e) {
 			//e.printStackTrace();
@@ -173,6 +202,53 @@ public class PublicKeyCipher implements KeyCipher {
 		return null;
 	}
 
+	/**
+	 * Decrypt part of an array using public key, reusing the thread's cipher.
+	 *
+	 * @return the number of bytes written, or -1 if the decryption failed.
+	 */
+	@Override
+	public int decrypt(byte[] data, int offset, int length, PublicKey key, byte[] output) {
+		try {
+			return getCipher(Cipher.DECRYPT_MODE, key).doFinal(data, offset, length, output, 0);
+		} catch (Exception e) {
+			//e.printStackTrace();
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns the thread's cipher, initialized for a mode and key. A cipher
+	 * returns to its initialized state after doFinal, even when it fails, so
+	 * it is only initialized again when the mode or key changes.
+	 */
+	private Cipher getCipher(int mode, Key key) throws GeneralSecurityException {
+		CipherState state = cipherStates.get();
+
+		if (state.cipher == null || !state.algorithm.equals(getAlgorithm())) {
+			state.cipher = Cipher.getInstance(getAlgorithm());
+			state.algorithm = getAlgorithm();
+			state.key = null;
+		}
+
+		if (state.key != key || state.mode != mode) {
+			state.key = null;
+			state.cipher.init(mode, key);
+			state.key = key;
+			state.mode = mode;
+		}
+
+		return state.cipher;
+	}
+
+	private static class CipherState {
+		private Cipher cipher;
+		private String algorithm;
+		private Key key;
+		private int mode;
+	}
+
 	/**
 	 * Decrypt text using private key.
 	 *
@@ -0,0 +1,70 @@
+package watermark.core.datatypes.buffer;
+
+import java.awt.image.DataBuffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * This class is a data buffer whose samples live in an NIO buffer, such as a
+ * memory-mapped file or direct memory, rather than in a Java array. A raster
+ * built on it reads and writes the buffer in place, so an image can be
+ * processed without a copy on the heap.
+ *
+ * The buffer holds bytes, or big-endian ints for the {@link DataBuffer#TYPE_INT}
+ * type. Element indices are counted in samples from the start of the buffer.
+ *
+ * @author Ryan M. Kane
+ */
+public class NioDataBuffer extends DataBuffer {
+	private final ByteBuffer bytes;
+	private final IntBuffer ints;
+
+	/**
+	 * @param dataType - {@link DataBuffer#TYPE_BYTE} or {@link DataBuffer#TYPE_INT}.
+	 * @param buffer - the buffer which holds the samples, from its position.
+	 * @param size - the number of samples.
+	 */
+	public NioDataBuffer(int dataType, ByteBuffer buffer, int size) {
+		super(dataType, size);
+
+		if (dataType != TYPE_BYTE && dataType != TYPE_INT) {
+			throw new IllegalArgumentException("Unsupported data type: " + dataType);
+		}
+
+		if ((long) size * getDataTypeSize(dataType) / 8 > buffer.remaining()) {
+			throw new IllegalArgumentException("The buffer is too small for " + size + " samples.");
+		}
+
+		this.bytes = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+		this.ints = dataType == TYPE_INT ? bytes.asIntBuffer() : null;
+	}
+
+	/**
+	 * @return the byte samples, positioned at the first sample.
+	 */
+	public ByteBuffer getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return the int samples, or null for a byte buffer.
+	 */
+	public IntBuffer getInts() {
+		return ints;
+	}
+
+	@Override
+	public int getElem(int bank, int i) {
+		return ints != null ? ints.get(i) : bytes.get(i) & 0xFF;
+	}
+
+	@Override
+	public void setElem(int bank, int i, int val) {
+		if (ints != null) {
+			ints.put(i, val);
+		} else {
+			bytes.put(i, (byte) val);
+		}
+	}
+}
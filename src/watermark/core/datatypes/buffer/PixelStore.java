@@ -0,0 +1,270 @@
+package watermark.core.datatypes.buffer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+
+import watermark.core.pixel.PixelSink;
+
+/**
+ * This class stores the ARGB pixels of an image outside the Java heap, in
+ * direct or memory-mapped buffers. A {@link BufferedImage} indexes its
+ * samples with an int, which caps it at about 2^31 pixels, and its array is
+ * traced and copied by the garbage collector. A store is split into segments
+ * of whole rows, each small enough for a single buffer, so its size is only
+ * limited by the int width and height.
+ *
+ * Each row starts on a 64-byte boundary of its segment, and holds the pixels
+ * as big-endian ints, in the same layout as the raw format of
+ * {@link watermark.core.io.MappedImage}. Distinct regions may be read and
+ * written concurrently.
+ *
+ * @author Ryan M. Kane
+ */
+public class PixelStore implements PixelSink {
+	public static final int ROW_ALIGNMENT = 64;
+
+	// The largest segment in bytes, which keeps int offsets within a segment.
+	public static final int MAX_SEGMENT_SIZE = 1 << 30;
+
+	private static final int[] MASKS = { 0xFF0000, 0xFF00, 0xFF, 0xFF000000 };
+
+	private final int width;
+	private final int height;
+	private final int stride;
+	private final int segmentRows;
+	private final ByteBuffer[] buffers;
+	private final IntBuffer[] segments;
+
+	/**
+	 * Creates a store over existing segments, such as the mapped regions of a
+	 * file.
+	 *
+	 * @param width - the width of the image.
+	 * @param height - the height of the image.
+	 * @param stride - the distance between rows in pixels.
+	 * @param buffers - the segments, from their positions, each holding
+	 *        {@link #getSegmentRows(int)} rows except the last.
+	 */
+	public PixelStore(int width, int height, int stride, ByteBuffer[] buffers) {
+		if (width < 1 || height < 1 || stride < width) {
+			throw new IllegalArgumentException("Invalid store size: " + width + "x" + height + ", stride " + stride);
+		}
+
+		this.width = width;
+		this.height = height;
+		this.stride = stride;
+		this.segmentRows = getSegmentRows(stride);
+		this.buffers = buffers;
+		this.segments = new IntBuffer[buffers.length];
+
+		if (buffers.length != getSegmentCount(height, stride)) {
+			throw new IllegalArgumentException("Expected " + getSegmentCount(height, stride) + " segments, not " + buffers.length);
+		}
+
+		for (int i = 0; i < buffers.length; i++) {
+			long rows = Math.min(segmentRows, height - (long) i * segmentRows);
+
+			if (buffers[i].remaining() < rows * stride * 4) {
+				throw new IllegalArgumentException("Segment " + i + " is too small for " + rows + " rows.");
+			}
+
+			segments[i] = buffers[i].slice().order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+		}
+	}
+
+	/**
+	 * Allocates a store in direct memory. The pixels start out as zeros. The
+	 * memory is released once the store is no longer referenced, and counts
+	 * against the JVM's limit on direct memory.
+	 *
+	 * @param width - the width of the image.
+	 * @param height - the height of the image.
+	 * @return the new store.
+	 */
+	public static PixelStore allocate(int width, int height) {
+		int stride = getStride(width);
+		int segmentRows = getSegmentRows(stride);
+		ByteBuffer[] buffers = new ByteBuffer[getSegmentCount(height, stride)];
+
+		for (int i = 0; i < buffers.length; i++) {
+			int rows = Math.min(segmentRows, height - i * segmentRows);
+			buffers[i] = ByteBuffer.allocateDirect(rows * stride * 4);
+		}
+
+		return new PixelStore(width, height, stride, buffers);
+	}
+
+	/**
+	 * Returns the aligned distance between rows of the given width.
+	 *
+	 * @param width - the width of the image.
+	 * @return the stride in pixels.
+	 */
+	public static int getStride(int width) {
+		int alignment = ROW_ALIGNMENT / 4;
+		return (width + alignment - 1) / alignment * alignment;
+	}
+
+	/**
+	 * @param stride - the distance between rows in pixels.
+	 * @return the number of rows in each segment but the last.
+	 */
+	public static int getSegmentRows(int stride) {
+		return Math.max(1, MAX_SEGMENT_SIZE / 4 / stride);
+	}
+
+	/**
+	 * @param height - the height of the image.
+	 * @param stride - the distance between rows in pixels.
+	 * @return the number of segments which hold the rows.
+	 */
+	public static int getSegmentCount(int height, int stride) {
+		int segmentRows = getSegmentRows(stride);
+		return (height + segmentRows - 1) / segmentRows;
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return the distance between rows in pixels.
+	 */
+	public int getStride() {
+		return stride;
+	}
+
+	/**
+	 * @return the number of pixels, which may exceed an int.
+	 */
+	public long getPixelCount() {
+		return (long) width * height;
+	}
+
+	/**
+	 * Returns a region of the store as packed ARGB integers in row-major
+	 * order.
+	 *
+	 * @param x - the left of the region.
+	 * @param y - the top of the region.
+	 * @param w - the width of the region.
+	 * @param h - the height of the region.
+	 * @param pixels - the array to fill, or null to allocate one.
+	 * @return the pixels of the region.
+	 */
+	@Override
+	public int[] getPixels(int x, int y, int w, int h, int[] pixels) {
+		checkRegion(x, y, w, h);
+
+		if (pixels == null) {
+			pixels = new int[w * h];
+		}
+
+		for (int row = 0; row < h; row++) {
+			int r = y + row;
+			segments[r / segmentRows].get((r % segmentRows) * stride + x, pixels, row * w, w);
+		}
+
+		return pixels;
+	}
+
+	/**
+	 * Writes a region of the store from packed ARGB integers in row-major
+	 * order.
+	 *
+	 * @param x - the left of the region.
+	 * @param y - the top of the region.
+	 * @param w - the width of the region.
+	 * @param h - the height of the region.
+	 * @param pixels - the pixels to write.
+	 */
+	@Override
+	public void setPixels(int x, int y, int w, int h, int[] pixels) {
+		checkRegion(x, y, w, h);
+
+		for (int row = 0; row < h; row++) {
+			int r = y + row;
+			segments[r / segmentRows].put((r % segmentRows) * stride + x, pixels, row * w, w);
+		}
+	}
+
+	/**
+	 * Fills a region of the store with a color.
+	 *
+	 * @param x - the left of the region.
+	 * @param y - the top of the region.
+	 * @param w - the width of the region.
+	 * @param h - the height of the region.
+	 * @param argb - the color.
+	 */
+	public void fill(int x, int y, int w, int h, int argb) {
+		checkRegion(x, y, w, h);
+
+		for (int row = 0; row < h; row++) {
+			int r = y + row;
+			IntBuffer segment = segments[r / segmentRows];
+			int base = (r % segmentRows) * stride + x;
+
+			for (int col = 0; col < w; col++) {
+				segment.put(base + col, argb);
+			}
+		}
+	}
+
+	/**
+	 * Returns a band of rows as an image which reads and writes the store in
+	 * place. The band must lie within a single segment, which holds at least
+	 * {@link #getSegmentRows(int)} rows.
+	 *
+	 * @param y - the first row of the band.
+	 * @param h - the number of rows.
+	 * @return an ARGB image of the band.
+	 */
+	public BufferedImage getRows(int y, int h) {
+		checkRegion(0, y, width, h);
+
+		if (y / segmentRows != (y + h - 1) / segmentRows) {
+			throw new IllegalArgumentException("Rows " + y + " to " + (y + h) + " span more than one segment.");
+		}
+
+		ByteBuffer band = buffers[y / segmentRows].duplicate();
+		band.position(band.position() + (y % segmentRows) * stride * 4);
+
+		NioDataBuffer db = new NioDataBuffer(DataBuffer.TYPE_INT, band, h * stride);
+		SinglePixelPackedSampleModel sm = new SinglePixelPackedSampleModel(DataBuffer.TYPE_INT, width, h, stride, MASKS);
+		WritableRaster raster = Raster.createWritableRaster(sm, db, null);
+
+		return new BufferedImage(new DirectColorModel(32, MASKS[0], MASKS[1], MASKS[2], MASKS[3]), raster, false, null);
+	}
+
+	/**
+	 * Writes the changes to a store of mapped segments through to the file.
+	 */
+	public void force() {
+		for (ByteBuffer buffer : buffers) {
+			if (buffer instanceof MappedByteBuffer && !buffer.isReadOnly()) {
+				((MappedByteBuffer) buffer).force();
+			}
+		}
+	}
+
+	private void checkRegion(int x, int y, int w, int h) {
+		if (x < 0 || y < 0 || w < 0 || h < 0 || x + w > width || y + h > height) {
+			throw new IndexOutOfBoundsException("Region " + w + "x" + h + " at " + x + "," + y + " is outside the store.");
+		}
+	}
+}
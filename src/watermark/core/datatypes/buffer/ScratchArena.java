@@ -0,0 +1,147 @@
+package watermark.core.datatypes.buffer;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * This class holds the scratch buffers used while a block is encoded or
+ * decoded. Each thread has its own arena, and every buffer only grows, so once
+ * a thread has processed its largest block it stops allocating.
+ *
+ * A buffer may be longer than requested, so callers must pass the length they
+ * use alongside it. A buffer is only valid until the next block is processed
+ * on the same thread.
+ *
+ * @author Ryan M. Kane
+ */
+public class ScratchArena {
+	public static final int HASH_SIZE = 16;
+
+	private static final ThreadLocal<ScratchArena> ARENAS = new ThreadLocal<ScratchArena>() {
+		@Override
+		protected ScratchArena initialValue() {
+			return new ScratchArena();
+		}
+	};
+
+	private int[] pixels = new int[0];
+	private byte[] payload = new byte[0];
+	private byte[] cipherText = new byte[0];
+	private byte[] digestInput = new byte[0];
+	private final byte[] params = new byte[3];
+	private final byte[] hash = new byte[HASH_SIZE];
+	private final byte[] xor = new byte[HASH_SIZE];
+	private final byte[] digest = new byte[HASH_SIZE];
+	private MessageDigest md5;
+
+	/**
+	 * Returns the arena of the current thread.
+	 *
+	 * @return the thread's arena.
+	 */
+	public static ScratchArena get() {
+		return ARENAS.get();
+	}
+
+	/**
+	 * Returns a buffer for the pixels of a block.
+	 *
+	 * @param size - the number of pixels needed.
+	 * @return a buffer of at least the requested size.
+	 */
+	public int[] getPixels(int size) {
+		if (pixels.length < size) {
+			pixels = new int[size];
+		}
+
+		return pixels;
+	}
+
+	/**
+	 * Returns a buffer for the payload bits extracted from a block.
+	 *
+	 * @param size - the number of bytes needed.
+	 * @return a buffer of at least the requested size.
+	 */
+	public byte[] getPayload(int size) {
+		if (payload.length < size) {
+			payload = new byte[size];
+		}
+
+		return payload;
+	}
+
+	/**
+	 * Returns a buffer for the output of the cipher.
+	 *
+	 * @param size - the number of bytes needed.
+	 * @return a buffer of at least the requested size.
+	 */
+	public byte[] getCipherText(int size) {
+		if (cipherText.length < size) {
+			cipherText = new byte[size];
+		}
+
+		return cipherText;
+	}
+
+	/**
+	 * Returns a buffer for the bytes of a block which are digested.
+	 *
+	 * @param size - the number of bytes needed.
+	 * @return a buffer of at least the requested size.
+	 */
+	public byte[] getDigestInput(int size) {
+		if (digestInput.length < size) {
+			digestInput = new byte[size];
+		}
+
+		return digestInput;
+	}
+
+	/**
+	 * @return the buffer for the hash parameters of a block.
+	 */
+	public byte[] getParams() {
+		return params;
+	}
+
+	/**
+	 * @return the buffer for the MD5 hash of a block.
+	 */
+	public byte[] getHash() {
+		return hash;
+	}
+
+	/**
+	 * @return the buffer for the hash XORed with the watermark.
+	 */
+	public byte[] getXor() {
+		return xor;
+	}
+
+	/**
+	 * @return the buffer for the content digest of a block.
+	 */
+	public byte[] getDigest() {
+		return digest;
+	}
+
+	/**
+	 * Returns the thread's MD5 instance, which is reset before it is returned.
+	 *
+	 * @return the MD5 message digest.
+	 */
+	public MessageDigest getMD5() {
+		if (md5 == null) {
+			try {
+				md5 = MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		md5.reset();
+		return md5;
+	}
+}
@@ -0,0 +1,165 @@
+package watermark.core.datatypes.embedding;
+
+/**
+ * This class describes which color channels of a pixel carry payload bits and
+ * how many of the least significant bits of each channel are used. Payload
+ * bits are written pixel by pixel, in red, green, blue, alpha order, from the
+ * highest embedded bit of a channel to its LSB.
+ *
+ * The legacy embedding stores one bit in the LSB of the blue channel, which is
+ * the LSB of the packed ARGB integer.
+ *
+ * @author Ryan M. Kane
+ */
+public class ChannelEmbedding {
+	public static final int BLUE = 1;
+	public static final int GREEN = 1 << 1;
+	public static final int RED = 1 << 2;
+	public static final int ALPHA = 1 << 3;
+	public static final int MAX_BITS_PER_CHANNEL = 4;
+
+	public static final ChannelEmbedding LEGACY = new ChannelEmbedding(BLUE, 1);
+
+	private final int channels;
+	private final int bitsPerChannel;
+
+	public ChannelEmbedding(int channels, int bitsPerChannel) {
+		if ((channels & 0xF) == 0 || (channels & ~0xF) != 0) {
+			throw new IllegalArgumentException("Invalid channel mask: " + channels);
+		}
+
+		if (bitsPerChannel < 1 || bitsPerChannel > MAX_BITS_PER_CHANNEL) {
+			throw new IllegalArgumentException("Bits per channel must be between 1 and "
+					+ MAX_BITS_PER_CHANNEL + ": " + bitsPerChannel);
+		}
+
+		this.channels = channels;
+		this.bitsPerChannel = bitsPerChannel;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	public int getBitsPerChannel() {
+		return bitsPerChannel;
+	}
+
+	public int getChannelCount() {
+		return Integer.bitCount(channels);
+	}
+
+	public int getBitsPerPixel() {
+		return getChannelCount() * bitsPerChannel;
+	}
+
+	/**
+	 * Returns the number of payload bits a block of pixels can hold.
+	 *
+	 * @param pixelCount - the number of pixels in the block.
+	 * @return the number of bits the pixels can hold.
+	 */
+	public long getCapacity(int pixelCount) {
+		return (long) pixelCount * getBitsPerPixel();
+	}
+
+	/**
+	 * Returns the smallest square block size which can hold a payload.
+	 *
+	 * @param payloadLength - the payload size in bytes.
+	 * @return the smallest block size for the payload.
+	 */
+	public int getMinBlockSize(int payloadLength) {
+		int pixels = (payloadLength * 8 + getBitsPerPixel() - 1) / getBitsPerPixel();
+		int size = (int) Math.ceil(Math.sqrt(pixels));
+
+		return size * size < pixels ? size + 1 : size;
+	}
+
+	/**
+	 * Encodes the embedding into a header flag byte. The low nibble holds the
+	 * channel mask and the next two bits hold the bits per channel minus one.
+	 *
+	 * @return the flag byte for the header.
+	 */
+	public int toFlags() {
+		return channels | ((bitsPerChannel - 1) << 4);
+	}
+
+	/**
+	 * Decodes an embedding from a header flag byte. A flag byte of zero
+	 * represents the legacy embedding.
+	 *
+	 * @param flags - the flag byte from the header.
+	 * @return the embedding described by the flags.
+	 */
+	public static ChannelEmbedding fromFlags(int flags) {
+		if ((flags & 0xF) == 0) {
+			return LEGACY;
+		}
+
+		return new ChannelEmbedding(flags & 0xF, ((flags >>> 4) & 0x3) + 1);
+	}
+
+	/**
+	 * Parses an embedding from a channel list such as "RGB" or "RGBA".
+	 *
+	 * @param channelList - the letters of the channels to embed into.
+	 * @param bitsPerChannel - the number of LSBs to use in each channel.
+	 * @return the parsed embedding.
+	 */
+	public static ChannelEmbedding parse(String channelList, int bitsPerChannel) {
+		int channels = 0;
+
+		for (char c : channelList.trim().toUpperCase().toCharArray()) {
+			switch (c) {
+				case 'R': channels |= RED; break;
+				case 'G': channels |= GREEN; break;
+				case 'B': channels |= BLUE; break;
+				case 'A': channels |= ALPHA; break;
+				default:
+					throw new IllegalArgumentException("Unknown channel: " + c);
+			}
+		}
+
+		return new ChannelEmbedding(channels, bitsPerChannel);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof ChannelEmbedding)) {
+			return false;
+		}
+
+		ChannelEmbedding other = (ChannelEmbedding) obj;
+
+		return channels == other.channels && bitsPerChannel == other.bitsPerChannel;
+	}
+
+	@Override
+	public int hashCode() {
+		return toFlags();
+	}
+
+	/**
+	 * Returns the letters of the selected channels, as accepted by
+	 * {@link #parse(String, int)}.
+	 *
+	 * @return the channel list such as "RGB".
+	 */
+	public String getChannelList() {
+		StringBuilder sb = new StringBuilder();
+
+		if ((channels & RED) != 0) sb.append('R');
+		if ((channels & GREEN) != 0) sb.append('G');
+		if ((channels & BLUE) != 0) sb.append('B');
+		if ((channels & ALPHA) != 0) sb.append('A');
+
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return getChannelList() + " x" + bitsPerChannel;
+	}
+}
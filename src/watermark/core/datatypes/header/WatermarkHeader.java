@@ -0,0 +1,260 @@
+package watermark.core.datatypes.header;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import watermark.core.util.CommonUtil;
+import watermark.core.util.ImageUtil;
+
+/**
+ * This class represents the header which the encoder embeds into the LSB of
+ * the first pixels of an image. The header is stored in a strip of rows at the
+ * top of the image which is reserved from the block grid, so a decoder can
+ * read the parameters used at encode before it touches any block.
+ *
+ * The flags hold the channel embedding of the blocks and whether they follow
+ * an adaptive partition. The header itself is always stored in the LSB of the
+ * blue channel.
+ *
+ * <pre>
+ * magic "FW" (2) | version (1) | flags (1) | blockSize (2) | payloadLength (2)
+ * | algorithm (4) | keyId (4) | CRC32 (4)
+ * </pre>
+ *
+ * The checksum only catches damage. Since version 2 the header is followed by
+ * a signature of payloadLength bytes over the whole strip, including the
+ * partition stored below the header, so the strip is signed with the key like
+ * the blocks are. Version 1 strips are not signed.
+ *
+ * @author Ryan M. Kane
+ */
+public class WatermarkHeader {
+	public static final int VERSION = 2;
+	// The first version whose strip is signed.
+	public static final int VERSION_SIGNED_STRIP = 2;
+	public static final int SIZE = 20;
+	public static final int BITS = SIZE * 8;
+
+	// Set when the blocks follow an adaptive partition stored below the header.
+	public static final int FLAG_ADAPTIVE_PARTITION = 1 << 6;
+
+	// The block size and payload length of images encoded without a header.
+	public static final int LEGACY_BLOCK_SIZE = 32;
+	public static final int LEGACY_PAYLOAD_LENGTH = 128;
+
+	private static final byte MAGIC_0 = 'F';
+	private static final byte MAGIC_1 = 'W';
+	private static final int ALGORITHM_SIZE = 4;
+
+	private int version;
+	private int flags;
+	private int blockSize;
+	private int payloadLength;
+	private String algorithm;
+	private int keyId;
+
+	public WatermarkHeader(int blockSize, int payloadLength, String algorithm, int keyId) {
+		this(VERSION, 0, blockSize, payloadLength, algorithm, keyId);
+	}
+
+	public WatermarkHeader(int flags, int blockSize, int payloadLength, String algorithm, int keyId) {
+		this(VERSION, flags, blockSize, payloadLength, algorithm, keyId);
+	}
+
+	private WatermarkHeader(int version, int flags, int blockSize, int payloadLength, String algorithm, int keyId) {
+		this.version = version;
+		this.flags = flags;
+		this.blockSize = blockSize;
+		this.payloadLength = payloadLength;
+		this.algorithm = truncateAlgorithm(algorithm);
+		this.keyId = keyId;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public int getFlags() {
+		return flags;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public int getPayloadLength() {
+		return payloadLength;
+	}
+
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	public int getKeyId() {
+		return keyId;
+	}
+
+	/**
+	 * @return whether the strip is signed, which holds for version 2 and up.
+	 */
+	public boolean isStripSigned() {
+		return version >= VERSION_SIGNED_STRIP;
+	}
+
+	/**
+	 * Returns the number of rows at the top of an image which are reserved for
+	 * this header and its signature.
+	 *
+	 * @param width - the width of the image.
+	 * @param height - the height of the image.
+	 * @return the number of reserved rows, or 0 if the image cannot hold them.
+	 */
+	public int getStripHeight(int width, int height) {
+		return isStripSigned() ? getStripHeight(width, height, payloadLength) : getStripHeight(width, height, 0);
+	}
+
+	/**
+	 * Determines if a key can verify an image with this header. An unknown key
+	 * id on either side is treated as a match.
+	 *
+	 * @param key - the key to check.
+	 * @return whether the key's algorithm and id match the header.
+	 */
+	public boolean matches(Key key) {
+		if (!algorithm.equals(truncateAlgorithm(key.getAlgorithm()))) {
+			return false;
+		}
+
+		int otherId = CommonUtil.getKeyId(key);
+
+		return keyId == 0 || otherId == 0 || keyId == otherId;
+	}
+
+	/**
+	 * Returns the serialized header including its checksum.
+	 *
+	 * @return the header as an array of bytes.
+	 */
+	public byte[] toBytes() {
+		ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+		buffer.put(MAGIC_0);
+		buffer.put(MAGIC_1);
+		buffer.put((byte) version);
+		buffer.put((byte) flags);
+		buffer.putShort((short) blockSize);
+		buffer.putShort((short) payloadLength);
+		buffer.put(Arrays.copyOf(algorithm.getBytes(StandardCharsets.US_ASCII), ALGORITHM_SIZE));
+		buffer.putInt(keyId);
+		buffer.putInt(checksum(buffer.array()));
+		return buffer.array();
+	}
+
+	/**
+	 * Parses a serialized header.
+	 *
+	 * @param data - the serialized header.
+	 * @return the header, or null if the data is not a valid header.
+	 */
+	public static WatermarkHeader fromBytes(byte[] data) {
+		if (data == null || data.length < SIZE || data[0] != MAGIC_0 || data[1] != MAGIC_1) {
+			return null;
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(data, 0, SIZE);
+
+		if (buffer.getInt(SIZE - 4) != checksum(data)) {
+			return null;
+		}
+
+		int version = data[2] & 0xFF;
+		int flags = data[3] & 0xFF;
+		int blockSize = buffer.getShort(4) & 0xFFFF;
+		int payloadLength = buffer.getShort(6) & 0xFFFF;
+		String algorithm = new String(data, 8, ALGORITHM_SIZE, StandardCharsets.US_ASCII);
+		int keyId = buffer.getInt(12);
+
+		if (version > VERSION || blockSize == 0) {
+			return null;
+		}
+
+		return new WatermarkHeader(version, flags, blockSize, payloadLength, algorithm, keyId);
+	}
+
+	/**
+	 * Returns the number of rows at the top of an image which hold the header
+	 * itself, without its signature.
+	 *
+	 * @param width - the width of the image.
+	 * @param height - the height of the image.
+	 * @return the number of rows, or 0 if the image cannot hold a header.
+	 */
+	public static int getHeaderRows(int width, int height) {
+		return getStripHeight(width, height, 0);
+	}
+
+	/**
+	 * Returns the number of rows at the top of an image which are reserved for
+	 * the header and its signature. Images which are too small to hold them
+	 * reserve no rows and are encoded without a header.
+	 *
+	 * @param width - the width of the image.
+	 * @param height - the height of the image.
+	 * @param signatureLength - the number of bytes of the strip signature.
+	 * @return the number of reserved rows.
+	 */
+	public static int getStripHeight(int width, int height, int signatureLength) {
+		if (width <= 0) {
+			return 0;
+		}
+
+		int rows = ImageUtil.getStripRows(width, BITS + signatureLength * 8L);
+
+		return rows < height ? rows : 0;
+	}
+
+	/**
+	 * Embeds the header into the LSB of the first pixels of an image.
+	 *
+	 * @param img - the image to write the header to.
+	 */
+	public void write(BufferedImage img) {
+		ImageUtil.writeStripBits(img, 0, toBytes());
+	}
+
+	/**
+	 * Reads the header embedded in an image.
+	 *
+	 * @param img - the image to read the header from.
+	 * @return the header, or null if the image does not contain one.
+	 */
+	public static WatermarkHeader read(BufferedImage img) {
+		if (getHeaderRows(img.getWidth(), img.getHeight()) == 0) {
+			return null;
+		}
+
+		return fromBytes(ImageUtil.readStripBits(img, 0, SIZE));
+	}
+
+	private static int checksum(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, SIZE - 4);
+		return (int) crc.getValue();
+	}
+
+	private static String truncateAlgorithm(String algorithm) {
+		String name = algorithm == null ? "" : algorithm.trim();
+
+		if (name.length() > ALGORITHM_SIZE) {
+			name = name.substring(0, ALGORITHM_SIZE);
+		}
+
+		// Strip the padding of a parsed name.
+		int end = name.indexOf('\0');
+
+		return end >= 0 ? name.substring(0, end) : name;
+	}
+}
@@ -0,0 +1,243 @@
+package watermark.core.datatypes.index;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * This class represents a sidecar index which stores a content digest and the
+ * last verification status of every block in a watermarked image. The index is
+ * a fixed-size binary file which is memory-mapped, so looking up or updating a
+ * single block only touches that block's entry.
+ *
+ * <pre>
+ * header:  magic (4) | version (2) | flags (2) | width (4) | height (4)
+ *          | blockSize (4) | blockCount (4) | layout (4)
+ *          | key digest (16) | watermark digest (16)
+ * entries: digest (16) | status (1)  x blockCount
+ * </pre>
+ *
+ * The entries are mapped in segments of {@link #SEGMENT_ENTRIES}, so an index
+ * may be larger than the 2 GB a single mapping can hold.
+ *
+ * @author Ryan M. Kane
+ */
+public class BlockIndex implements Closeable {
+	public static final int MAGIC = 0x46574958; // "FWIX"
+	public static final short VERSION = 2;
+	public static final int DIGEST_SIZE = 16;
+	public static final int HEADER_SIZE = 60;
+	public static final int ENTRY_SIZE = DIGEST_SIZE + 1;
+	public static final int SEGMENT_ENTRIES = 1 << 26;
+
+	public static final byte STATUS_UNKNOWN = 0;
+	public static final byte STATUS_VERIFIED = 1;
+	public static final byte STATUS_TAMPERED = 2;
+	public static final byte STATUS_SKIPPED = 3;
+
+	private RandomAccessFile file;
+	private MappedByteBuffer header;
+	private MappedByteBuffer[] segments;
+	private int blockCount;
+
+	private BlockIndex(RandomAccessFile file, MappedByteBuffer header, MappedByteBuffer[] segments, int blockCount) {
+		this.file = file;
+		this.header = header;
+		this.segments = segments;
+		this.blockCount = blockCount;
+	}
+
+	/**
+	 * Opens an index for an image. If the file already holds an index for the
+	 * same image size, block layout, embedding, key and watermark, its entries
+	 * are kept. Otherwise the file is (re)initialized and all entries are
+	 * unknown.
+	 *
+	 * @param indexFile - the sidecar file.
+	 * @param width - the width of the whole image.
+	 * @param height - the height of the whole image.
+	 * @param blockSize - image blocks pixel size.
+	 * @param flags - the header flags which describe the block embedding.
+	 * @param blockCount - the number of blocks in the image.
+	 * @param layout - a hash of the block rectangles.
+	 * @param keyDigest - a digest of the key used to verify the blocks.
+	 * @param watermarkDigest - a digest of the watermark mask.
+	 * @return the opened index.
+	 * @throws IOException if the file cannot be mapped.
+	 */
+	public static BlockIndex open(File indexFile, int width, int height, int blockSize, int flags, int blockCount,
+			int layout, byte[] keyDigest, byte[] watermarkDigest) throws IOException {
+		long size = HEADER_SIZE + (long) blockCount * ENTRY_SIZE;
+
+		if (indexFile.getParentFile() != null) {
+			indexFile.getParentFile().mkdirs();
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+
+		try {
+			boolean compatible = raf.length() == size;
+
+			if (raf.length() != size) {
+				raf.setLength(size);
+			}
+
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+			MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((blockCount + (long) SEGMENT_ENTRIES - 1) / SEGMENT_ENTRIES)];
+
+			for (int i = 0; i < segments.length; i++) {
+				int entries = Math.min(SEGMENT_ENTRIES, blockCount - i * SEGMENT_ENTRIES);
+				long offset = HEADER_SIZE + (long) i * SEGMENT_ENTRIES * ENTRY_SIZE;
+				segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, offset, (long) entries * ENTRY_SIZE);
+			}
+
+			if (compatible) {
+				compatible = buffer.getInt(0) == MAGIC
+						&& buffer.getShort(4) == VERSION
+						&& buffer.getShort(6) == (short) flags
+						&& buffer.getInt(8) == width
+						&& buffer.getInt(12) == height
+						&& buffer.getInt(16) == blockSize
+						&& buffer.getInt(20) == blockCount
+						&& buffer.getInt(24) == layout
+						&& Arrays.equals(getBytes(buffer, 28, DIGEST_SIZE), keyDigest)
+						&& Arrays.equals(getBytes(buffer, 44, DIGEST_SIZE), watermarkDigest);
+			}
+
+			if (!compatible) {
+				buffer.putInt(0, MAGIC);
+				buffer.putShort(4, VERSION);
+				buffer.putShort(6, (short) flags);
+				buffer.putInt(8, width);
+				buffer.putInt(12, height);
+				buffer.putInt(16, blockSize);
+				buffer.putInt(20, blockCount);
+				buffer.putInt(24, layout);
+				putBytes(buffer, 28, keyDigest);
+				putBytes(buffer, 44, watermarkDigest);
+
+				for (MappedByteBuffer segment : segments) {
+					for (int i = 0; i < segment.capacity(); i++) {
+						segment.put(i, (byte) 0);
+					}
+				}
+			}
+
+			return new BlockIndex(raf, buffer, segments, blockCount);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the number of block entries in the index.
+	 *
+	 * @return the number of block entries.
+	 */
+	public int getBlockCount() {
+		return blockCount;
+	}
+
+	/**
+	 * Returns the stored status of a block.
+	 *
+	 * @param index - the block index.
+	 * @return the stored status of the block.
+	 */
+	public byte getStatus(int index) {
+		return getSegment(index).get(entryOffset(index) + DIGEST_SIZE);
+	}
+
+	/**
+	 * Determines if the stored digest of a block equals the provided digest
+	 * and the block has a known status.
+	 *
+	 * @param index - the block index.
+	 * @param digest - the digest of the block's current content.
+	 * @return whether the stored entry is still valid for the block.
+	 */
+	public boolean matches(int index, byte[] digest) {
+		MappedByteBuffer buffer = getSegment(index);
+		int offset = entryOffset(index);
+
+		if (buffer.get(offset + DIGEST_SIZE) == STATUS_UNKNOWN) {
+			return false;
+		}
+
+		for (int i = 0; i < DIGEST_SIZE; i++) {
+			if (buffer.get(offset + i) != digest[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Stores the digest and status of a block.
+	 *
+	 * @param index - the block index.
+	 * @param digest - the digest of the block's content.
+	 * @param status - the verification status of the block.
+	 */
+	public void put(int index, byte[] digest, byte status) {
+		MappedByteBuffer buffer = getSegment(index);
+		int offset = entryOffset(index);
+		putBytes(buffer, offset, digest);
+		buffer.put(offset + DIGEST_SIZE, status);
+	}
+
+	/**
+	 * Flushes the mapped entries to disk and releases the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			header.force();
+
+			for (MappedByteBuffer segment : segments) {
+				segment.force();
+			}
+		} finally {
+			file.close();
+		}
+	}
+
+	private MappedByteBuffer getSegment(int index) {
+		if (index < 0 || index >= blockCount) {
+			throw new IndexOutOfBoundsException("Block index: " + index);
+		}
+
+		return segments[index / SEGMENT_ENTRIES];
+	}
+
+	/**
+	 * Returns the offset of an entry within its segment, which stays below
+	 * 2 GB since a segment holds {@link #SEGMENT_ENTRIES} entries.
+	 */
+	private static int entryOffset(int index) {
+		return (index % SEGMENT_ENTRIES) * ENTRY_SIZE;
+	}
+
+	private static byte[] getBytes(MappedByteBuffer buffer, int offset, int length) {
+		byte[] bytes = new byte[length];
+
+		for (int i = 0; i < length; i++) {
+			bytes[i] = buffer.get(offset + i);
+		}
+
+		return bytes;
+	}
+
+	private static void putBytes(MappedByteBuffer buffer, int offset, byte[] bytes) {
+		for (int i = 0; i < DIGEST_SIZE; i++) {
+			buffer.put(offset + i, i < bytes.length ? bytes[i] : 0);
+		}
+	}
+}
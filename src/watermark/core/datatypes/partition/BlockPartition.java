@@ -0,0 +1,191 @@
+package watermark.core.datatypes.partition;
+
+import java.awt.Rectangle;
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class represents the blocks an image is divided into for encoding and
+ * decoding. Each block is a rectangle in image coordinates which holds one
+ * signature. An adaptive partition also carries its encoded structure, which
+ * is stored in the image so a decoder can rebuild the same blocks.
+ *
+ * A grid holds no rectangles: each block is computed from its index when it
+ * is asked for, so a partition costs the same however many blocks it has.
+ *
+ * @author Ryan M. Kane
+ */
+public class BlockPartition {
+	private final List<Rectangle> blocks;
+	private final byte[] structure;
+	private final int structureBits;
+
+	// The shape of a grid, whose columns are 0 for a list of blocks.
+	private final int columns;
+	private final int rows;
+	private final int top;
+	private final int blockSize;
+
+	/**
+	 * Creates a fixed partition which does not need to be stored in the image.
+	 *
+	 * @param blocks - the blocks in image coordinates.
+	 */
+	public BlockPartition(List<Rectangle> blocks) {
+		this(blocks, null, 0);
+	}
+
+	/**
+	 * Creates an adaptive partition.
+	 *
+	 * @param blocks - the blocks in image coordinates.
+	 * @param structure - the encoded structure of the partition.
+	 * @param structureBits - the number of bits used in the structure.
+	 */
+	public BlockPartition(List<Rectangle> blocks, byte[] structure, int structureBits) {
+		this.blocks = Collections.unmodifiableList(blocks);
+		this.structure = structure;
+		this.structureBits = structureBits;
+		this.columns = 0;
+		this.rows = 0;
+		this.top = 0;
+		this.blockSize = 0;
+	}
+
+	/**
+	 * Creates a fixed grid of square blocks, in row-major order.
+	 *
+	 * @param columns - the number of blocks in each row.
+	 * @param rows - the number of rows of blocks.
+	 * @param top - the first row of pixels which belongs to the blocks.
+	 * @param blockSize - image blocks pixel size.
+	 */
+	public BlockPartition(int columns, int rows, int top, int blockSize) {
+		if ((long) columns * rows > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many blocks: " + columns + "x" + rows);
+		}
+
+		this.columns = rows > 0 ? columns : 0;
+		this.rows = columns > 0 ? rows : 0;
+		this.top = top;
+		this.blockSize = blockSize;
+		this.structure = null;
+		this.structureBits = 0;
+		this.blocks = new AbstractList<Rectangle>() {
+			@Override
+			public Rectangle get(int index) {
+				return getBlock(index);
+			}
+
+			@Override
+			public int size() {
+				return getBlockCount();
+			}
+		};
+	}
+
+	/**
+	 * @return the blocks, which are computed as they are read for a grid.
+	 */
+	public List<Rectangle> getBlocks() {
+		return blocks;
+	}
+
+	public int getBlockCount() {
+		return isGrid() ? columns * rows : blocks.size();
+	}
+
+	/**
+	 * @param index - the position of the block in the partition.
+	 * @return the block, a new rectangle for a grid.
+	 */
+	public Rectangle getBlock(int index) {
+		if (!isGrid()) {
+			return blocks.get(index);
+		}
+
+		if (index < 0 || index >= columns * rows) {
+			throw new IndexOutOfBoundsException("Block index: " + index);
+		}
+
+		return new Rectangle(index % columns * blockSize, top + index / columns * blockSize, blockSize, blockSize);
+	}
+
+	/**
+	 * Determines if the blocks are a grid, computed from their index.
+	 *
+	 * @return whether the partition is a grid.
+	 */
+	public boolean isGrid() {
+		return blockSize > 0;
+	}
+
+	/**
+	 * Returns the block of a grid which covers a pixel.
+	 *
+	 * @param x - the column of the pixel.
+	 * @param y - the row of the pixel.
+	 * @return the index of the block, or -1 if no block covers the pixel or
+	 *         the partition is not a grid.
+	 */
+	public int indexOf(int x, int y) {
+		if (!isGrid() || x < 0 || y < top) {
+			return -1;
+		}
+
+		int col = x / blockSize;
+		int row = (y - top) / blockSize;
+
+		return col < columns && row < rows ? row * columns + col : -1;
+	}
+
+	/**
+	 * Determines if the partition must be stored in the image.
+	 *
+	 * @return whether the partition is adaptive.
+	 */
+	public boolean isAdaptive() {
+		return structure != null;
+	}
+
+	public byte[] getStructure() {
+		return structure;
+	}
+
+	public int getStructureBits() {
+		return structureBits;
+	}
+
+	/**
+	 * Returns a hash of the block rectangles, used to tell two layouts of the
+	 * same image apart.
+	 *
+	 * @return the hash of the block layout.
+	 */
+	public int getLayoutHash() {
+		int hash = 1;
+
+		if (isGrid()) {
+			for (int row = 0; row < rows; row++) {
+				for (int col = 0; col < columns; col++) {
+					hash = 31 * hash + col * blockSize;
+					hash = 31 * hash + top + row * blockSize;
+					hash = 31 * hash + blockSize;
+					hash = 31 * hash + blockSize;
+				}
+			}
+
+			return hash;
+		}
+
+		for (Rectangle r : blocks) {
+			hash = 31 * hash + r.x;
+			hash = 31 * hash + r.y;
+			hash = 31 * hash + r.width;
+			hash = 31 * hash + r.height;
+		}
+
+		return hash;
+	}
+}
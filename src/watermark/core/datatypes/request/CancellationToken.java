@@ -0,0 +1,23 @@
+package watermark.core.datatypes.request;
+
+/**
+ * This class represents a flag which a caller sets to abort a running encode
+ * or decode. The engine checks the token between blocks, so a cancelled
+ * request stops after the block which is currently being processed.
+ *
+ * @author Ryan M. Kane
+ */
+public class CancellationToken {
+	private volatile boolean cancelled;
+
+	/**
+	 * Requests that every operation using this token stops.
+	 */
+	public void cancel() {
+		this.cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+}
@@ -0,0 +1,270 @@
+package watermark.core.datatypes.request;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.security.Key;
+import java.security.PublicKey;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import watermark.core.cipher.KeyCipher;
+import watermark.core.datatypes.embedding.ChannelEmbedding;
+import watermark.core.datatypes.header.WatermarkHeader;
+import watermark.core.datatypes.result.TamperReport;
+import watermark.core.datatypes.result.VerificationResult;
+import watermark.core.partition.BlockOrder;
+import watermark.core.partition.BlockPartitioner;
+import watermark.core.service.BlockListener;
+
+/**
+ * This class represents a single encode or decode with all of its parameters.
+ * Besides the image parameters, a request carries an optional deadline, a
+ * cancellation token and a listener for its progress.
+ *
+ * Encoding uses the private key, decoding uses the public key. The block size,
+ * embedding and partitioner are only used when encoding, or when decoding an
+ * image without a header. An encode which verifies its blocks records the
+ * outcome in the request's verification result, and a decode records its
+ * tampered regions in the request's tamper report.
+ *
+ * @author Ryan M. Kane
+ */
+public class WatermarkRequest {
+	private KeyCipher cipher;
+	private Key key;
+	private BufferedImage source;
+	private BufferedImage watermark;
+	private int blockSize;
+	private ChannelEmbedding embedding;
+	private BlockPartitioner partitioner;
+	private BlockOrder blockOrder;
+	private File indexFile;
+	private long deadline;
+	private boolean hasDeadline;
+	private CancellationToken cancellationToken;
+	private BlockListener listener;
+	private boolean inPlace;
+	private boolean verify;
+	private PublicKey verificationKey;
+	private VerificationResult verification;
+	private TamperReport tamperReport;
+
+	public WatermarkRequest(KeyCipher cipher, Key key, BufferedImage source, BufferedImage watermark) {
+		this.cipher = cipher;
+		this.key = key;
+		this.source = source;
+		this.watermark = watermark;
+		this.blockSize = WatermarkHeader.LEGACY_BLOCK_SIZE;
+		this.embedding = ChannelEmbedding.LEGACY;
+	}
+
+	public KeyCipher getCipher() {
+		return cipher;
+	}
+
+	public void setCipher(KeyCipher cipher) {
+		this.cipher = cipher;
+	}
+
+	public Key getKey() {
+		return key;
+	}
+
+	public void setKey(Key key) {
+		this.key = key;
+	}
+
+	public BufferedImage getSource() {
+		return source;
+	}
+
+	public void setSource(BufferedImage source) {
+		this.source = source;
+	}
+
+	public BufferedImage getWatermark() {
+		return watermark;
+	}
+
+	public void setWatermark(BufferedImage watermark) {
+		this.watermark = watermark;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public void setBlockSize(int blockSize) {
+		this.blockSize = blockSize;
+	}
+
+	public ChannelEmbedding getEmbedding() {
+		return embedding;
+	}
+
+	public void setEmbedding(ChannelEmbedding embedding) {
+		this.embedding = embedding;
+	}
+
+	/**
+	 * @return the partitioner, or null for the fixed grid.
+	 */
+	public BlockPartitioner getPartitioner() {
+		return partitioner;
+	}
+
+	public void setPartitioner(BlockPartitioner partitioner) {
+		this.partitioner = partitioner;
+	}
+
+	/**
+	 * @return the order in which the blocks are processed, or null for the
+	 *         service's order.
+	 */
+	public BlockOrder getBlockOrder() {
+		return blockOrder;
+	}
+
+	public void setBlockOrder(BlockOrder blockOrder) {
+		this.blockOrder = blockOrder;
+	}
+
+	/**
+	 * @return the sidecar index used when decoding, or null.
+	 */
+	public File getIndexFile() {
+		return indexFile;
+	}
+
+	public void setIndexFile(File indexFile) {
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * Sets a deadline relative to now. A request which is still running after
+	 * the deadline stops as if it was cancelled.
+	 *
+	 * @param timeout - the time the request may take.
+	 * @param unit - the unit of the timeout.
+	 */
+	public void setTimeout(long timeout, TimeUnit unit) {
+		this.deadline = System.nanoTime() + unit.toNanos(timeout);
+		this.hasDeadline = true;
+	}
+
+	/**
+	 * Removes the deadline of the request.
+	 */
+	public void clearTimeout() {
+		this.hasDeadline = false;
+	}
+
+	/**
+	 * Determines if the request has a deadline which has passed.
+	 *
+	 * @return whether the deadline has expired.
+	 */
+	public boolean isExpired() {
+		return hasDeadline && System.nanoTime() - deadline >= 0;
+	}
+
+	public CancellationToken getCancellationToken() {
+		return cancellationToken;
+	}
+
+	public void setCancellationToken(CancellationToken cancellationToken) {
+		this.cancellationToken = cancellationToken;
+	}
+
+	public BlockListener getListener() {
+		return listener;
+	}
+
+	public void setListener(BlockListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @return whether the source image is encoded or decoded in place, rather
+	 *         than in a copy. A source backed by a mapped file is then written
+	 *         straight to the file.
+	 */
+	public boolean isInPlace() {
+		return inPlace;
+	}
+
+	public void setInPlace(boolean inPlace) {
+		this.inPlace = inPlace;
+	}
+
+	/**
+	 * @return whether an encode checks each block right after writing it.
+	 */
+	public boolean isVerify() {
+		return verify;
+	}
+
+	public void setVerify(boolean verify) {
+		this.verify = verify;
+	}
+
+	/**
+	 * @return the public key used to verify an encode, or null to derive it
+	 *         from the private key.
+	 */
+	public PublicKey getVerificationKey() {
+		return verificationKey;
+	}
+
+	public void setVerificationKey(PublicKey verificationKey) {
+		this.verificationKey = verificationKey;
+	}
+
+	/**
+	 * @return the outcome of the last verified encode, or null.
+	 */
+	public VerificationResult getVerification() {
+		return verification;
+	}
+
+	public void setVerification(VerificationResult verification) {
+		this.verification = verification;
+	}
+
+	/**
+	 * @return the tampered regions of the last decode, or null.
+	 */
+	public TamperReport getTamperReport() {
+		return tamperReport;
+	}
+
+	public void setTamperReport(TamperReport tamperReport) {
+		this.tamperReport = tamperReport;
+	}
+
+	/**
+	 * Determines if the request has been cancelled through its token.
+	 *
+	 * @return whether the request is cancelled.
+	 */
+	public boolean isCancelled() {
+		return cancellationToken != null && cancellationToken.isCancelled();
+	}
+
+	/**
+	 * Stops the request if it was cancelled or its deadline has passed.
+	 *
+	 * @param done - the number of blocks processed so far.
+	 * @param total - the number of blocks in the image.
+	 * @throws CancellationException if the request must stop.
+	 */
+	public void checkCancelled(int done, int total) {
+		if (isCancelled()) {
+			throw new CancellationException(String.format("Cancelled after %d of %d blocks.", done, total));
+		}
+
+		if (isExpired()) {
+			throw new CancellationException(String.format("Deadline exceeded after %d of %d blocks.", done, total));
+		}
+	}
+}
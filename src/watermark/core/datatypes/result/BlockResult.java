@@ -0,0 +1,94 @@
+package watermark.core.datatypes.result;
+
+import java.awt.Rectangle;
+
+import watermark.core.datatypes.index.BlockIndex;
+
+/**
+ * This class represents the outcome of decoding a single block of a
+ * watermarked image.
+ *
+ * @author Ryan M. Kane
+ */
+public class BlockResult {
+	public static final byte STATUS_VERIFIED = BlockIndex.STATUS_VERIFIED;
+	public static final byte STATUS_TAMPERED = BlockIndex.STATUS_TAMPERED;
+
+	private final int index;
+	private final int total;
+	private final Rectangle bounds;
+	private final byte status;
+	private final long nanos;
+	private final boolean cached;
+
+	/**
+	 * @param index - the position of the block in the partition.
+	 * @param total - the number of blocks in the image.
+	 * @param bounds - the block in image coordinates.
+	 * @param status - the verification status of the block.
+	 * @param nanos - the time spent on the block in nanoseconds.
+	 * @param cached - whether the status was read from the block index.
+	 */
+	public BlockResult(int index, int total, Rectangle bounds, byte status, long nanos, boolean cached) {
+		this.index = index;
+		this.total = total;
+		this.bounds = new Rectangle(bounds);
+		this.status = status;
+		this.nanos = nanos;
+		this.cached = cached;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public int getTotal() {
+		return total;
+	}
+
+	public Rectangle getBounds() {
+		return new Rectangle(bounds);
+	}
+
+	public int getX() {
+		return bounds.x;
+	}
+
+	public int getY() {
+		return bounds.y;
+	}
+
+	public int getWidth() {
+		return bounds.width;
+	}
+
+	public int getHeight() {
+		return bounds.height;
+	}
+
+	public byte getStatus() {
+		return status;
+	}
+
+	public boolean isVerified() {
+		return status == STATUS_VERIFIED;
+	}
+
+	public boolean isTampered() {
+		return status == STATUS_TAMPERED;
+	}
+
+	public long getNanos() {
+		return nanos;
+	}
+
+	public boolean isCached() {
+		return cached;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Block %d/%d [%d,%d %dx%d] %s", index + 1, total, bounds.x, bounds.y, bounds.width, bounds.height,
+				isVerified() ? "verified" : "tampered");
+	}
+}
@@ -0,0 +1,73 @@
+package watermark.core.datatypes.result;
+
+/**
+ * This class represents the outcome of encoding or decoding a single image of
+ * a batch, such as an entry of an archive.
+ *
+ * @author Ryan M. Kane
+ */
+public class EntryResult {
+	private final String name;
+	private final String outputName;
+	private final TamperReport tamperReport;
+	private final VerificationResult verification;
+	private final Throwable error;
+
+	/**
+	 * @param name - the name of the input.
+	 * @param outputName - the name the output was written as, or null if none
+	 *            was written.
+	 * @param tamperReport - the tampered regions of a decode, or null.
+	 * @param verification - the verification of an encode, or null.
+	 * @param error - the reason the image failed, or null if it succeeded.
+	 */
+	public EntryResult(String name, String outputName, TamperReport tamperReport, VerificationResult verification, Throwable error) {
+		this.name = name;
+		this.outputName = outputName;
+		this.tamperReport = tamperReport;
+		this.verification = verification;
+		this.error = error;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getOutputName() {
+		return outputName;
+	}
+
+	public TamperReport getTamperReport() {
+		return tamperReport;
+	}
+
+	public VerificationResult getVerification() {
+		return verification;
+	}
+
+	public Throwable getError() {
+		return error;
+	}
+
+	/**
+	 * @return whether the image was processed, was not tampered with and
+	 *         verified.
+	 */
+	public boolean isSuccess() {
+		return error == null && (tamperReport == null || tamperReport.isVerified())
+				&& (verification == null || verification.isVerified());
+	}
+
+	@Override
+	public String toString() {
+		if (error != null) {
+			return name + ": failed: " + error.getMessage();
+		} else if (tamperReport != null) {
+			return name + ": " + (tamperReport.isVerified() ? "verified" : tamperReport.toString());
+		} else if (verification != null) {
+			return name + ": " + verification;
+		}
+
+		return name + ": ok";
+	}
+}
@@ -0,0 +1,305 @@
+package watermark.core.datatypes.result;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.BitSet;
+
+/**
+ * This class represents the tamper status of every block of a decoded image
+ * as a bitset, in a compact versioned binary form. The blocks are stored
+ * either as a plain bitset or as alternating runs of clean and tampered
+ * blocks, whichever is smaller, so a clean image takes a few bytes beyond the
+ * header however large it is.
+ *
+ * <pre>
+ * header: magic (4) | version (2) | encoding (1) | width (4) | height (4)
+ *         | blockCount (4) | layout (4) | strip status (1)
+ * bitset: ceil(blockCount / 8) bytes, block i in bit (i % 8) of byte i / 8
+ * runs:   varint run lengths, starting with a clean run, until blockCount
+ * </pre>
+ *
+ * Version 1 maps have no strip status, and are read as
+ * {@link TamperReport#STRIP_NONE}.
+ *
+ * @author Ryan M. Kane
+ */
+public class TamperMap {
+	public static final int MAGIC = 0x4657544D; // "FWTM"
+	public static final short VERSION = 2;
+	public static final int HEADER_SIZE = 24;
+
+	public static final byte ENCODING_BITSET = 0;
+	public static final byte ENCODING_RUNS = 1;
+
+	private final int width;
+	private final int height;
+	private final int blockCount;
+	private final int layout;
+	private final int stripStatus;
+	private final BitSet tampered;
+
+	/**
+	 * Creates a map without a strip status.
+	 *
+	 * @param width - the width of the decoded image.
+	 * @param height - the height of the decoded image.
+	 * @param blockCount - the number of blocks in the image.
+	 * @param layout - a hash of the block rectangles.
+	 * @param tampered - the tampered blocks, by partition index.
+	 */
+	public TamperMap(int width, int height, int blockCount, int layout, BitSet tampered) {
+		this(width, height, blockCount, layout, TamperReport.STRIP_NONE, tampered);
+	}
+
+	/**
+	 * @param width - the width of the decoded image.
+	 * @param height - the height of the decoded image.
+	 * @param blockCount - the number of blocks in the image.
+	 * @param layout - a hash of the block rectangles.
+	 * @param stripStatus - the status of the header strip, as one of the
+	 *        strip statuses of {@link TamperReport}.
+	 * @param tampered - the tampered blocks, by partition index.
+	 */
+	public TamperMap(int width, int height, int blockCount, int layout, int stripStatus, BitSet tampered) {
+		if (stripStatus < TamperReport.STRIP_NONE || stripStatus > TamperReport.STRIP_TAMPERED) {
+			throw new IllegalArgumentException("Unknown strip status: " + stripStatus);
+		}
+
+		this.width = width;
+		this.height = height;
+		this.blockCount = blockCount;
+		this.layout = layout;
+		this.stripStatus = stripStatus;
+		this.tampered = (BitSet) tampered.clone();
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getBlockCount() {
+		return blockCount;
+	}
+
+	/**
+	 * @return the hash of the block layout, which identifies the partition the
+	 *         indices refer to.
+	 */
+	public int getLayout() {
+		return layout;
+	}
+
+	/**
+	 * @return the status of the header strip, as one of the strip statuses of
+	 *         {@link TamperReport}.
+	 */
+	public int getStripStatus() {
+		return stripStatus;
+	}
+
+	public boolean isTampered(int index) {
+		return tampered.get(index);
+	}
+
+	public int getTamperedCount() {
+		return tampered.cardinality();
+	}
+
+	public BitSet getTampered() {
+		return (BitSet) tampered.clone();
+	}
+
+	/**
+	 * Writes the map in the smaller of its two encodings.
+	 *
+	 * @param out - the stream to write to.
+	 * @throws IOException if the stream cannot be written.
+	 */
+	public void write(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		byte[] runs = encodeRuns();
+		int bitsetSize = (int) ((blockCount + 7L) / 8);
+
+		data.writeInt(MAGIC);
+		data.writeShort(VERSION);
+		data.writeByte(runs.length < bitsetSize ? ENCODING_RUNS : ENCODING_BITSET);
+		data.writeInt(width);
+		data.writeInt(height);
+		data.writeInt(blockCount);
+		data.writeInt(layout);
+		data.writeByte(stripStatus);
+
+		if (runs.length < bitsetSize) {
+			data.write(runs);
+		} else {
+			byte[] bits = tampered.toByteArray();
+			data.write(bits, 0, Math.min(bits.length, bitsetSize));
+
+			for (int i = bits.length; i < bitsetSize; i++) {
+				data.writeByte(0);
+			}
+		}
+
+		data.flush();
+	}
+
+	/**
+	 * @return the encoded map.
+	 */
+	public byte[] toByteArray() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_SIZE + 8);
+
+		try {
+			write(out);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Reads a map written by {@link #write(OutputStream)}.
+	 *
+	 * @param in - the stream to read from.
+	 * @return the map.
+	 * @throws IOException if the stream does not hold a supported map.
+	 */
+	public static TamperMap read(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+
+		if (data.readInt() != MAGIC) {
+			throw new IOException("Not a tamper map.");
+		}
+
+		short version = data.readShort();
+
+		if (version > VERSION) {
+			throw new IOException("Unsupported tamper map version: " + version);
+		}
+
+		byte encoding = data.readByte();
+		int width = data.readInt();
+		int height = data.readInt();
+		int blockCount = data.readInt();
+		int layout = data.readInt();
+		int stripStatus = version >= 2 ? data.readUnsignedByte() : TamperReport.STRIP_NONE;
+		BitSet tampered;
+
+		// Every block holds at least one pixel.
+		if (width < 0 || height < 0 || blockCount < 0 || blockCount > (long) width * height) {
+			throw new IOException("Corrupt tamper map size: " + blockCount + " blocks in " + width + "x" + height);
+		}
+
+		if (stripStatus > TamperReport.STRIP_TAMPERED) {
+			throw new IOException("Unknown tamper map strip status: " + stripStatus);
+		}
+
+		if (encoding == ENCODING_RUNS) {
+			tampered = decodeRuns(data, blockCount);
+		} else if (encoding == ENCODING_BITSET) {
+			// Read in chunks, so a corrupt count cannot allocate more than the stream holds.
+			int size = (int) ((blockCount + 7L) / 8);
+			byte[] bits = data.readNBytes(size);
+
+			if (bits.length < size) {
+				throw new EOFException("The tamper map is truncated.");
+			}
+
+			tampered = BitSet.valueOf(bits);
+		} else {
+			throw new IOException("Unknown tamper map encoding: " + encoding);
+		}
+
+		return new TamperMap(width, height, blockCount, layout, stripStatus, tampered);
+	}
+
+	/**
+	 * @param bytes - an encoded map.
+	 * @return the map.
+	 * @throws IOException if the bytes do not hold a supported map.
+	 */
+	public static TamperMap fromByteArray(byte[] bytes) throws IOException {
+		return read(new ByteArrayInputStream(bytes));
+	}
+
+	private byte[] encodeRuns() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int position = 0;
+		boolean tamperedRun = false;
+
+		while (position < blockCount) {
+			int end = tamperedRun ? tampered.nextClearBit(position) : tampered.nextSetBit(position);
+
+			if (end < 0 || end > blockCount) {
+				end = blockCount;
+			}
+
+			writeVarint(out, end - position);
+			position = end;
+			tamperedRun = !tamperedRun;
+		}
+
+		return out.toByteArray();
+	}
+
+	private static BitSet decodeRuns(DataInputStream in, int blockCount) throws IOException {
+		BitSet tampered = new BitSet();
+		int position = 0;
+		boolean tamperedRun = false;
+
+		while (position < blockCount) {
+			int length = readVarint(in);
+
+			if (length < 0 || length > blockCount - position) {
+				throw new IOException("Corrupt tamper map run.");
+			}
+
+			if (tamperedRun) {
+				tampered.set(position, position + length);
+			}
+
+			position += length;
+			tamperedRun = !tamperedRun;
+		}
+
+		return tampered;
+	}
+
+	/**
+	 * Writes an unsigned value, seven bits per byte, low bits first.
+	 */
+	private static void writeVarint(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+
+		out.write(value);
+	}
+
+	private static int readVarint(DataInputStream in) throws IOException {
+		int value = 0;
+
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+
+		throw new IOException("Corrupt tamper map varint.");
+	}
+}
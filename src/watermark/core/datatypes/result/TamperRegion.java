@@ -0,0 +1,52 @@
+package watermark.core.datatypes.result;
+
+import java.awt.Rectangle;
+
+/**
+ * This class represents a group of tampered blocks which are connected
+ * through shared edges.
+ *
+ * @author Ryan M. Kane
+ */
+public class TamperRegion {
+	private final Rectangle bounds;
+	private final int blockCount;
+
+	/**
+	 * @param bounds - the bounding box of the blocks in image coordinates.
+	 * @param blockCount - the number of blocks in the region.
+	 */
+	public TamperRegion(Rectangle bounds, int blockCount) {
+		this.bounds = new Rectangle(bounds);
+		this.blockCount = blockCount;
+	}
+
+	public Rectangle getBounds() {
+		return new Rectangle(bounds);
+	}
+
+	public int getX() {
+		return bounds.x;
+	}
+
+	public int getY() {
+		return bounds.y;
+	}
+
+	public int getWidth() {
+		return bounds.width;
+	}
+
+	public int getHeight() {
+		return bounds.height;
+	}
+
+	public int getBlockCount() {
+		return blockCount;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Region [%d,%d %dx%d] %d blocks", bounds.x, bounds.y, bounds.width, bounds.height, blockCount);
+	}
+}
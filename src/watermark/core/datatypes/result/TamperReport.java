@@ -0,0 +1,469 @@
+package watermark.core.datatypes.result;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import watermark.core.datatypes.partition.BlockPartition;
+
+/**
+ * This class groups the tampered blocks of a decode into regions as the
+ * blocks complete. Each tampered block is joined with the tampered blocks it
+ * shares an edge with using a union-find, whose roots keep the bounding box
+ * and size of their region, so no overlay image is needed. Only the parent
+ * links take an entry per block; the regions are kept for tampered roots.
+ *
+ * Neighbours of a grid block are found from the grid itself. For other
+ * partitions, a lattice of cells the size of the smallest block maps each
+ * cell corner to the block covering it. The lattice and the union-find are
+ * allocated when the first tampered block is added, so a clean decode costs
+ * nothing.
+ *
+ * The strip at the top of an image, which holds the header and the stored
+ * partition, is signed as a whole and reported apart from the blocks.
+ *
+ * A report is exported as a compact {@link TamperMap}, or summarized as a
+ * single line of JSON which can be appended to an NDJSON file.
+ *
+ * @author Ryan M. Kane
+ */
+public class TamperReport {
+	// The image has no header, so there is no strip to check.
+	public static final int STRIP_NONE = 0;
+	public static final int STRIP_VERIFIED = 1;
+	// The strip was written by a version which did not sign it.
+	public static final int STRIP_UNSIGNED = 2;
+	public static final int STRIP_TAMPERED = 3;
+
+	private static final String[] STRIP_NAMES = { "none", "verified", "unsigned", "tampered" };
+	private static final int NONE = -1;
+
+	private final BlockPartition partition;
+	private final int width;
+	private final int height;
+	private int tamperedCount;
+	private int stripStatus = STRIP_NONE;
+	private int stripRows;
+
+	// Union-find over the block indices, with the region of each root.
+	private int[] parent;
+	private Map<Integer, Region> regions;
+
+	// The lattice of cells, holding the block which covers each cell corner.
+	// A grid has no lattice, only the cell size.
+	private int left;
+	private int top;
+	private int cellWidth;
+	private int cellHeight;
+	private int cols;
+	private int rows;
+	private int[] cells;
+
+	/**
+	 * @param partition - the blocks of the decoded image.
+	 * @param width - the width of the decoded image.
+	 * @param height - the height of the decoded image.
+	 */
+	public TamperReport(BlockPartition partition, int width, int height) {
+		this.partition = partition;
+		this.width = width;
+		this.height = height;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getTotal() {
+		return partition.getBlockCount();
+	}
+
+	public synchronized int getTamperedCount() {
+		return tamperedCount;
+	}
+
+	/**
+	 * @return whether any block or the strip was tampered.
+	 */
+	public synchronized boolean isTampered() {
+		return tamperedCount > 0 || stripStatus == STRIP_TAMPERED;
+	}
+
+	/**
+	 * @return whether nothing was tampered and the strip, if any, is signed.
+	 */
+	public synchronized boolean isVerified() {
+		return !isTampered() && stripStatus != STRIP_UNSIGNED;
+	}
+
+	/**
+	 * @return the status of the strip, one of the STRIP constants.
+	 */
+	public synchronized int getStripStatus() {
+		return stripStatus;
+	}
+
+	/**
+	 * @return the number of rows at the top of the image held by the strip.
+	 */
+	public synchronized int getStripRows() {
+		return stripRows;
+	}
+
+	/**
+	 * Records the outcome of checking the strip.
+	 *
+	 * @param status - one of the STRIP constants.
+	 * @param rows - the number of rows held by the strip.
+	 */
+	public synchronized void setStrip(int status, int rows) {
+		this.stripStatus = status;
+		this.stripRows = rows;
+	}
+
+	/**
+	 * Adds a tampered block and joins it with its tampered neighbours. Adding
+	 * a block twice has no effect.
+	 *
+	 * @param index - the position of the block in the partition.
+	 */
+	public synchronized void addTampered(int index) {
+		if (parent == null) {
+			allocate();
+		}
+
+		if (parent[index] != NONE) {
+			return;
+		}
+
+		Rectangle r = partition.getBlock(index);
+		int right = r.x + r.width - 1;
+		int bottom = r.y + r.height - 1;
+
+		parent[index] = index;
+		regions.put(index, new Region(r));
+		tamperedCount++;
+
+		// Every neighbour is at least a cell wide, so probing each cell along
+		// the edges, and the last pixel of each edge, finds all of them.
+		for (int x = r.x; ; x += cellWidth) {
+			int px = Math.min(x, right);
+			join(index, px, r.y - 1);
+			join(index, px, bottom + 1);
+
+			if (px == right) {
+				break;
+			}
+		}
+
+		for (int y = r.y; ; y += cellHeight) {
+			int py = Math.min(y, bottom);
+			join(index, r.x - 1, py);
+			join(index, right + 1, py);
+
+			if (py == bottom) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Returns the connected regions of tampered blocks, ordered by their top
+	 * left corner.
+	 *
+	 * @return the tampered regions.
+	 */
+	public synchronized List<TamperRegion> getRegions() {
+		List<TamperRegion> result = new ArrayList<TamperRegion>();
+
+		if (parent == null) {
+			return result;
+		}
+
+		for (Region region : regions.values()) {
+			Rectangle bounds = new Rectangle(region.minX, region.minY, region.maxX - region.minX, region.maxY - region.minY);
+			result.add(new TamperRegion(bounds, region.blockCount));
+		}
+
+		Collections.sort(result, new Comparator<TamperRegion>() {
+			@Override
+			public int compare(TamperRegion a, TamperRegion b) {
+				return a.getY() != b.getY() ? Integer.compare(a.getY(), b.getY()) : Integer.compare(a.getX(), b.getX());
+			}
+		});
+
+		return result;
+	}
+
+	/**
+	 * Returns the tamper status of every block as a compact map.
+	 *
+	 * @return the tamper map.
+	 */
+	public synchronized TamperMap getTamperMap() {
+		BitSet tampered = new BitSet(partition.getBlockCount());
+
+		if (parent != null) {
+			for (int i = 0; i < parent.length; i++) {
+				if (parent[i] != NONE) {
+					tampered.set(i);
+				}
+			}
+		}
+
+		return new TamperMap(width, height, partition.getBlockCount(), partition.getLayoutHash(), stripStatus, tampered);
+	}
+
+	/**
+	 * Summarizes the report as a single line of JSON, with the image size, the
+	 * block counts and the tampered regions.
+	 *
+	 * @param source - the name of the decoded image, or null to leave it out.
+	 * @return the JSON summary, without a line break.
+	 */
+	public synchronized String toJson(String source) {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append('{');
+
+		if (source != null) {
+			sb.append("\"source\":");
+			appendString(sb, source);
+			sb.append(',');
+		}
+
+		sb.append("\"version\":").append(TamperMap.VERSION);
+		sb.append(",\"width\":").append(width);
+		sb.append(",\"height\":").append(height);
+		sb.append(",\"blocks\":").append(partition.getBlockCount());
+		sb.append(",\"tampered\":").append(tamperedCount);
+		sb.append(",\"strip\":\"").append(STRIP_NAMES[stripStatus]).append('"');
+		sb.append(",\"regions\":[");
+
+		List<TamperRegion> regions = getRegions();
+
+		for (int i = 0; i < regions.size(); i++) {
+			TamperRegion region = regions.get(i);
+
+			if (i > 0) {
+				sb.append(',');
+			}
+
+			sb.append("{\"x\":").append(region.getX());
+			sb.append(",\"y\":").append(region.getY());
+			sb.append(",\"width\":").append(region.getWidth());
+			sb.append(",\"height\":").append(region.getHeight());
+			sb.append(",\"blocks\":").append(region.getBlockCount());
+			sb.append('}');
+		}
+
+		sb.append("]}");
+
+		return sb.toString();
+	}
+
+	@Override
+	public synchronized String toString() {
+		String blocks = String.format("%d of %d blocks tampered", tamperedCount, partition.getBlockCount());
+
+		if (stripStatus == STRIP_TAMPERED || stripStatus == STRIP_UNSIGNED) {
+			return blocks + ", header strip " + STRIP_NAMES[stripStatus];
+		}
+
+		return blocks;
+	}
+
+	private void allocate() {
+		int count = partition.getBlockCount();
+
+		parent = new int[count];
+		regions = new HashMap<Integer, Region>();
+
+		for (int i = 0; i < count; i++) {
+			parent[i] = NONE;
+		}
+
+		if (partition.isGrid()) {
+			Rectangle first = partition.getBlock(0);
+			cellWidth = first.width;
+			cellHeight = first.height;
+			return;
+		}
+
+		left = Integer.MAX_VALUE;
+		top = Integer.MAX_VALUE;
+		cellWidth = Integer.MAX_VALUE;
+		cellHeight = Integer.MAX_VALUE;
+		int right = 0;
+		int bottom = 0;
+
+		for (Rectangle r : partition.getBlocks()) {
+			left = Math.min(left, r.x);
+			top = Math.min(top, r.y);
+			right = Math.max(right, r.x + r.width);
+			bottom = Math.max(bottom, r.y + r.height);
+			cellWidth = Math.min(cellWidth, r.width);
+			cellHeight = Math.min(cellHeight, r.height);
+		}
+
+		cols = (right - left + cellWidth - 1) / cellWidth;
+		rows = (bottom - top + cellHeight - 1) / cellHeight;
+		cells = new int[cols * rows];
+
+		for (int i = 0; i < cells.length; i++) {
+			cells[i] = NONE;
+		}
+
+		// Each block covers the cell corners which fall inside it.
+		for (int i = 0; i < count; i++) {
+			Rectangle r = partition.getBlock(i);
+			int col0 = ceilDiv(r.x - left, cellWidth);
+			int col1 = ceilDiv(r.x + r.width - left, cellWidth);
+			int row0 = ceilDiv(r.y - top, cellHeight);
+			int row1 = ceilDiv(r.y + r.height - top, cellHeight);
+
+			for (int row = row0; row < row1; row++) {
+				for (int col = col0; col < col1; col++) {
+					cells[row * cols + col] = i;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Joins a block with the block covering a pixel, if that block is
+	 * tampered.
+	 */
+	private void join(int index, int x, int y) {
+		int neighbour = findBlock(x, y);
+
+		if (neighbour != NONE && parent[neighbour] != NONE) {
+			union(index, neighbour);
+		}
+	}
+
+	/**
+	 * Returns the block which covers a pixel. The block holds the corner of
+	 * the pixel's cell or of the next cell in either direction, since every
+	 * block is at least a cell in size.
+	 */
+	private int findBlock(int x, int y) {
+		if (partition.isGrid()) {
+			return partition.indexOf(x, y);
+		}
+
+		if (x < left || y < top) {
+			return NONE;
+		}
+
+		int col = (x - left) / cellWidth;
+		int row = (y - top) / cellHeight;
+
+		for (int dy = 0; dy < 2; dy++) {
+			for (int dx = 0; dx < 2; dx++) {
+				if (col + dx < cols && row + dy < rows) {
+					int block = cells[(row + dy) * cols + col + dx];
+
+					if (block != NONE && partition.getBlock(block).contains(x, y)) {
+						return block;
+					}
+				}
+			}
+		}
+
+		return NONE;
+	}
+
+	private int find(int index) {
+		while (parent[index] != index) {
+			// Path halving.
+			parent[index] = parent[parent[index]];
+			index = parent[index];
+		}
+
+		return index;
+	}
+
+	private void union(int a, int b) {
+		int rootA = find(a);
+		int rootB = find(b);
+
+		if (rootA == rootB) {
+			return;
+		}
+
+		// Attach the smaller region to the larger one.
+		if (regions.get(rootA).blockCount < regions.get(rootB).blockCount) {
+			int swap = rootA;
+			rootA = rootB;
+			rootB = swap;
+		}
+
+		parent[rootB] = rootA;
+		regions.get(rootA).add(regions.remove(rootB));
+	}
+
+	private static void appendString(StringBuilder sb, String value) {
+		sb.append('"');
+
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+
+			switch (c) {
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if (c < 0x20) {
+						sb.append(String.format("\\u%04x", (int) c));
+					} else {
+						sb.append(c);
+					}
+			}
+		}
+
+		sb.append('"');
+	}
+
+	private static int ceilDiv(int a, int b) {
+		return (a + b - 1) / b;
+	}
+
+	/**
+	 * The size and bounding box of a region, kept by its root.
+	 */
+	private static class Region {
+		int blockCount;
+		int minX;
+		int minY;
+		int maxX;
+		int maxY;
+
+		Region(Rectangle block) {
+			blockCount = 1;
+			minX = block.x;
+			minY = block.y;
+			maxX = block.x + block.width;
+			maxY = block.y + block.height;
+		}
+
+		void add(Region other) {
+			blockCount += other.blockCount;
+			minX = Math.min(minX, other.minX);
+			minY = Math.min(minY, other.minY);
+			maxX = Math.max(maxX, other.maxX);
+			maxY = Math.max(maxY, other.maxY);
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package watermark.core.datatypes.result;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This class collects the blocks of an encode which did not verify when they
+ * were checked right after being written. Blocks are checked concurrently, so
+ * failures may be added from several threads.
+ *
+ * @author Ryan M. Kane
+ */
+public class VerificationResult {
+	private final int total;
+	private final List<BlockResult> failures = new ArrayList<BlockResult>();
+
+	/**
+	 * @param total - the number of blocks in the image.
+	 */
+	public VerificationResult(int total) {
+		this.total = total;
+	}
+
+	public int getTotal() {
+		return total;
+	}
+
+	/**
+	 * Records a block which did not verify.
+	 *
+	 * @param failure - the result of the block.
+	 */
+	public synchronized void addFailure(BlockResult failure) {
+		failures.add(failure);
+	}
+
+	/**
+	 * @return the blocks which did not verify, in partition order.
+	 */
+	public synchronized List<BlockResult> getFailures() {
+		List<BlockResult> sorted = new ArrayList<BlockResult>(failures);
+
+		Collections.sort(sorted, new Comparator<BlockResult>() {
+			@Override
+			public int compare(BlockResult a, BlockResult b) {
+				return Integer.compare(a.getIndex(), b.getIndex());
+			}
+		});
+
+		return sorted;
+	}
+
+	public synchronized int getFailureCount() {
+		return failures.size();
+	}
+
+	/**
+	 * @return whether every block verified.
+	 */
+	public synchronized boolean isVerified() {
+		return failures.isEmpty();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d of %d blocks failed verification", failures.size(), total);
+	}
+}
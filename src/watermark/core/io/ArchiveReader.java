@@ -0,0 +1,496 @@
+package watermark.core.io;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import watermark.core.util.ImageUtil;
+
+/**
+ * This class reads the files of a ZIP or TAR archive, optionally compressed
+ * with gzip, in a single pass over the archive stream. Each entry is read
+ * straight out of the archive, so the archive is never extracted to disk.
+ *
+ * The entries are visited in the order of the archive by {@link #next()}.
+ * Directories, links and other special entries are skipped. The stream of an
+ * entry is only valid until the next entry is visited.
+ *
+ * @author Ryan M. Kane
+ */
+public class ArchiveReader implements Closeable {
+	public static final int FORMAT_ZIP = 0;
+	public static final int FORMAT_TAR = 1;
+
+	private static final int TAR_BLOCK = 512;
+	// The largest long name or pax header which is read into memory.
+	private static final int MAX_HEADER_DATA = 1 << 20;
+
+	private final InputStream in;
+	private final int format;
+	private final ZipInputStream zip;
+	private final byte[] header = new byte[TAR_BLOCK];
+	private String name;
+	private long size;
+	private EntryStream entry;
+
+	private ArchiveReader(InputStream in, int format) {
+		this.in = in;
+		this.format = format;
+		this.zip = format == FORMAT_ZIP ? new ZipInputStream(in) : null;
+	}
+
+	/**
+	 * Opens an archive file.
+	 *
+	 * @see ArchiveReader#open(InputStream)
+	 */
+	public static ArchiveReader open(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+
+		try {
+			return open(in);
+		} catch (IOException e) {
+			in.close();
+			throw new IOException(e.getMessage() + ": " + file, e);
+		}
+	}
+
+	/**
+	 * Opens an archive from a stream. The format is found from the first bytes
+	 * of the stream, and a gzip stream is decompressed first.
+	 *
+	 * @param in - the archive stream, which is closed with the reader.
+	 * @return the reader, positioned before the first entry.
+	 * @throws IOException if the stream is not a ZIP or TAR archive.
+	 */
+	public static ArchiveReader open(InputStream in) throws IOException {
+		in = new BufferedInputStream(in, 1 << 16);
+
+		byte[] magic = peek(in, 2);
+
+		if ((magic[0] & 0xFF) == 0x1F && (magic[1] & 0xFF) == 0x8B) {
+			in = new BufferedInputStream(new GZIPInputStream(in, 1 << 16), 1 << 16);
+		}
+
+		byte[] head = peek(in, TAR_BLOCK);
+
+		if (head[0] == 'P' && head[1] == 'K' && (head[2] == 3 || head[2] == 5)) {
+			return new ArchiveReader(in, FORMAT_ZIP);
+		}
+
+		if (isTarHeader(head)) {
+			return new ArchiveReader(in, FORMAT_TAR);
+		}
+
+		throw new IOException("Not a ZIP or TAR archive");
+	}
+
+	/**
+	 * Determines if a file is an archive, from its first bytes.
+	 *
+	 * @param file - the file.
+	 * @return whether the file can be opened by this class.
+	 */
+	public static boolean isArchive(File file) {
+		if (!file.isFile()) {
+			return false;
+		}
+
+		try {
+			open(file).close();
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the format of the archive: {@link #FORMAT_ZIP} or
+	 *         {@link #FORMAT_TAR}.
+	 */
+	public int getFormat() {
+		return format;
+	}
+
+	/**
+	 * Moves to the next file of the archive, skipping whatever is left of the
+	 * current one.
+	 *
+	 * @return whether there is another file.
+	 * @throws IOException if the archive cannot be read.
+	 */
+	public boolean next() throws IOException {
+		if (entry != null) {
+			entry.skipRest();
+			entry = null;
+		}
+
+		name = format == FORMAT_ZIP ? nextZip() : nextTar();
+
+		return name != null;
+	}
+
+	/**
+	 * @return the path of the current file within the archive.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the size of the current file, or -1 if it is not known before
+	 *         the file is read.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the content of the current file. Closing the stream does not
+	 * close the archive.
+	 *
+	 * @return the stream of the current file.
+	 */
+	public InputStream getStream() {
+		return entry;
+	}
+
+	/**
+	 * Decodes the current file as an image. Uncompressed PPM, PAM and raw ARGB
+	 * files are read row by row into an ARGB image, and other files through
+	 * ImageIO.
+	 *
+	 * @return the image, or null if the file is not an image.
+	 * @throws IOException if the image cannot be decoded.
+	 */
+	public BufferedImage readImage() throws IOException {
+		if (MappedImage.getFormat(new File(name)) >= 0) {
+			StreamPixelSource source = new StreamPixelSource(entry);
+			BufferedImage img = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_ARGB);
+			int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+
+			source.getPixels(0, 0, img.getWidth(), img.getHeight(), pixels);
+
+			return img;
+		}
+
+		return ImageUtil.readImage(entry);
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private String nextZip() throws IOException {
+		ZipEntry zipEntry;
+
+		while ((zipEntry = zip.getNextEntry()) != null) {
+			if (!zipEntry.isDirectory()) {
+				size = zipEntry.getSize();
+				entry = new EntryStream(zip, -1);
+				return zipEntry.getName();
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Reads the headers up to the next regular file. Long names are taken from
+	 * GNU long name entries and pax headers.
+	 */
+	private String nextTar() throws IOException {
+		String longName = null;
+
+		while (true) {
+			if (in.readNBytes(header, 0, TAR_BLOCK) < TAR_BLOCK) {
+				throw new EOFException("The archive ended without its end marker.");
+			}
+
+			if (isZero(header)) {
+				// The end of the archive.
+				return null;
+			}
+
+			if (!isTarHeader(header)) {
+				throw new IOException("Corrupt TAR header.");
+			}
+
+			char type = (char) header[156];
+			long length = parseNumber(header, 124, 12);
+
+			if (length < 0 || length > Long.MAX_VALUE - TAR_BLOCK) {
+				throw new IOException("Invalid TAR entry size.");
+			}
+
+			long padded = (length + TAR_BLOCK - 1) / TAR_BLOCK * TAR_BLOCK;
+
+			if (type == 'L' || type == 'x') {
+				if (length > MAX_HEADER_DATA) {
+					throw new IOException("TAR long name or pax header too large: " + length);
+				}
+
+				byte[] data = in.readNBytes((int) length);
+				in.skipNBytes(padded - length);
+
+				String value = type == 'L' ? readString(data, 0, data.length) : parsePaxPath(data);
+				longName = value != null ? value : longName;
+				continue;
+			}
+
+			if (type != '0' && type != '\0' && type != '7') {
+				// Skip directories, links and other special entries.
+				in.skipNBytes(padded);
+				continue;
+			}
+
+			String path = readString(header, 0, 100);
+			String prefix = readString(header, 345, 155);
+
+			if (longName != null) {
+				path = longName;
+			} else if (isUstar(header) && !prefix.isEmpty()) {
+				path = prefix + "/" + path;
+			}
+
+			size = length;
+			entry = new EntryStream(in, length, padded - length);
+
+			return path;
+		}
+	}
+
+	private static byte[] peek(InputStream in, int length) throws IOException {
+		in.mark(length);
+		byte[] data = in.readNBytes(length);
+		in.reset();
+
+		return data.length == length ? data : Arrays.copyOf(data, length);
+	}
+
+	private static boolean isUstar(byte[] header) {
+		return header[257] == 'u' && header[258] == 's' && header[259] == 't' && header[260] == 'a' && header[261] == 'r';
+	}
+
+	/**
+	 * Checks the magic or, for old archives without one, the checksum of a
+	 * header block.
+	 */
+	private static boolean isTarHeader(byte[] header) {
+		if (isUstar(header)) {
+			return true;
+		}
+
+		long expected = parseNumber(header, 148, 8);
+		long sum = 0;
+
+		for (int i = 0; i < TAR_BLOCK; i++) {
+			sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xFF;
+		}
+
+		return expected > 0 && sum == expected;
+	}
+
+	private static boolean isZero(byte[] block) {
+		for (byte b : block) {
+			if (b != 0) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Parses a numeric header field, which is octal digits or, for values
+	 * too large for them, a GNU base-256 number: a big-endian two's
+	 * complement number whose first byte has its high bit set as a marker.
+	 *
+	 * @return the value, which is negative if the field is invalid or holds
+	 *         a negative number.
+	 */
+	private static long parseNumber(byte[] data, int offset, int length) {
+		if ((data[offset] & 0x80) != 0) {
+			// Drop the marker bit, keeping the sign of the remaining bits.
+			long value = (byte) (data[offset] << 1) >> 1;
+
+			for (int i = offset + 1; i < offset + length; i++) {
+				if (value > Long.MAX_VALUE >> 8 || value < Long.MIN_VALUE >> 8) {
+					return -1;
+				}
+
+				value = (value << 8) | (data[i] & 0xFF);
+			}
+
+			return value;
+		}
+
+		long value = 0;
+
+		for (int i = offset; i < offset + length; i++) {
+			byte b = data[i];
+
+			if (b >= '0' && b <= '7') {
+				value = value * 8 + (b - '0');
+			} else if (b != ' ' || value > 0) {
+				if (b == 0 || b == ' ') {
+					break;
+				}
+
+				return -1;
+			}
+		}
+
+		return value;
+	}
+
+	private static String readString(byte[] data, int offset, int length) {
+		int end = offset;
+
+		while (end < offset + length && data[end] != 0) {
+			end++;
+		}
+
+		return new String(data, offset, end - offset, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the path of a pax header, whose records are "length key=value\n".
+	 */
+	private static String parsePaxPath(byte[] data) {
+		String records = new String(data, StandardCharsets.UTF_8);
+		int start = 0;
+
+		while (start < records.length()) {
+			int space = records.indexOf(' ', start);
+			int end = records.indexOf('\n', space);
+
+			if (space < 0 || end < 0) {
+				break;
+			}
+
+			String record = records.substring(space + 1, end);
+
+			if (record.startsWith("path=")) {
+				return record.substring(5);
+			}
+
+			start = end + 1;
+		}
+
+		return null;
+	}
+
+	/**
+	 * The content of one entry, which leaves the archive open when closed.
+	 */
+	private static class EntryStream extends FilterInputStream {
+		private long remaining;
+		private final long padding;
+
+		/**
+		 * @param in - the archive stream.
+		 * @param length - the length of the entry, or -1 if the archive stream
+		 *        ends the entry itself.
+		 * @param padding - the bytes which follow the entry.
+		 */
+		EntryStream(InputStream in, long length, long padding) {
+			super(in);
+			this.remaining = length;
+			this.padding = padding;
+		}
+
+		EntryStream(InputStream in, long length) {
+			this(in, length, 0);
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining == 0) {
+				return -1;
+			}
+
+			int b = super.read();
+
+			if (b >= 0 && remaining > 0) {
+				remaining--;
+			}
+
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining == 0) {
+				return -1;
+			}
+
+			int n = super.read(b, off, remaining > 0 ? (int) Math.min(len, remaining) : len);
+
+			if (n > 0 && remaining > 0) {
+				remaining -= n;
+			}
+
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			if (remaining == 0) {
+				return 0;
+			}
+
+			long skipped = super.skip(remaining > 0 ? Math.min(n, remaining) : n);
+
+			if (remaining > 0) {
+				remaining -= skipped;
+			}
+
+			return skipped;
+		}
+
+		@Override
+		public int available() throws IOException {
+			if (remaining == 0) {
+				return 0;
+			}
+
+			return remaining > 0 ? (int) Math.min(super.available(), remaining) : super.available();
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() {
+		}
+
+		/**
+		 * Skips the rest of the entry and its padding.
+		 */
+		void skipRest() throws IOException {
+			if (remaining < 0) {
+				// The ZIP stream skips to the next entry itself.
+				return;
+			}
+
+			in.skipNBytes(remaining + padding);
+			remaining = 0;
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package watermark.core.io;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import watermark.core.util.ImageUtil;
+
+/**
+ * This class writes files into a new ZIP or TAR archive, optionally
+ * compressed with gzip, as a single stream. It is the counterpart of
+ * {@link ArchiveReader}, so the outputs of a batch are written into an
+ * archive as they complete rather than into a directory.
+ *
+ * The entries of a ZIP archive are stored without compression, since images
+ * are compressed already. Entries are written whole, and may be written from
+ * several threads.
+ *
+ * @author Ryan M. Kane
+ */
+public class ArchiveWriter implements Closeable {
+	public static final int FORMAT_ZIP = ArchiveReader.FORMAT_ZIP;
+	public static final int FORMAT_TAR = ArchiveReader.FORMAT_TAR;
+	public static final int FORMAT_TAR_GZ = 2;
+
+	private static final int TAR_BLOCK = 512;
+
+	private final OutputStream out;
+	private final int format;
+	private final ZipOutputStream zip;
+
+	private ArchiveWriter(OutputStream out, int format) throws IOException {
+		this.format = format;
+
+		if (format == FORMAT_TAR_GZ) {
+			out = new GZIPOutputStream(out, 1 << 16);
+		}
+
+		this.out = out;
+		this.zip = format == FORMAT_ZIP ? new ZipOutputStream(out, StandardCharsets.UTF_8) : null;
+	}
+
+	/**
+	 * Determines the format of an archive from the extension of its file.
+	 *
+	 * @param file - the archive file.
+	 * @return one of the formats of this class, or -1 if the file is not named
+	 *         as an archive.
+	 */
+	public static int getFormat(File file) {
+		String name = file.getName().toLowerCase();
+
+		if (name.endsWith(".zip")) {
+			return FORMAT_ZIP;
+		} else if (name.endsWith(".tar")) {
+			return FORMAT_TAR;
+		} else if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+			return FORMAT_TAR_GZ;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Creates an archive file, in the format named by its extension.
+	 *
+	 * @param file - the archive file, which is replaced.
+	 * @return the writer, which must be closed to finish the archive.
+	 * @throws IOException if the file cannot be created or is not named as an
+	 *             archive.
+	 */
+	public static ArchiveWriter create(File file) throws IOException {
+		int format = getFormat(file);
+
+		if (format < 0) {
+			throw new IOException("Not a .zip, .tar, .tar.gz or .tgz file: " + file.getName());
+		}
+
+		return create(new FileOutputStream(file), format);
+	}
+
+	/**
+	 * Creates an archive on a stream.
+	 *
+	 * @param out - the stream, which is closed with the writer.
+	 * @param format - one of the formats of this class.
+	 * @return the writer, which must be closed to finish the archive.
+	 * @throws IOException if the stream cannot be written.
+	 */
+	public static ArchiveWriter create(OutputStream out, int format) throws IOException {
+		return new ArchiveWriter(new BufferedOutputStream(out, 1 << 16), format);
+	}
+
+	public int getFormat() {
+		return format;
+	}
+
+	/**
+	 * Writes a file into the archive.
+	 *
+	 * @param name - the path of the file within the archive.
+	 * @param data - the content of the file.
+	 * @throws IOException if the archive cannot be written.
+	 */
+	public synchronized void write(String name, byte[] data) throws IOException {
+		if (zip != null) {
+			CRC32 crc = new CRC32();
+			crc.update(data);
+
+			ZipEntry entry = new ZipEntry(name);
+			entry.setMethod(ZipEntry.STORED);
+			entry.setSize(data.length);
+			entry.setCompressedSize(data.length);
+			entry.setCrc(crc.getValue());
+
+			zip.putNextEntry(entry);
+			zip.write(data);
+			zip.closeEntry();
+			return;
+		}
+
+		byte[] path = name.getBytes(StandardCharsets.UTF_8);
+
+		if (path.length > 100) {
+			// Longer names are carried by a GNU long name entry.
+			byte[] longName = new byte[path.length + 1];
+			System.arraycopy(path, 0, longName, 0, path.length);
+			writeTarEntry("././@LongLink", 'L', longName);
+		}
+
+		writeTarEntry(name, '0', data);
+	}
+
+	/**
+	 * Writes an image into the archive as a PNG file.
+	 *
+	 * @param name - the path of the file within the archive.
+	 * @param img - the image.
+	 * @throws IOException if the image cannot be encoded or the archive
+	 *             cannot be written.
+	 */
+	public void writeImage(String name, BufferedImage img) throws IOException {
+		byte[] data = ImageUtil.imageToBytes(img, "png");
+
+		if (data == null) {
+			throw new IOException("Cannot encode image: " + name);
+		}
+
+		write(name, data);
+	}
+
+	/**
+	 * Finishes the archive and closes the stream.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (zip != null) {
+			zip.close();
+			return;
+		}
+
+		// A TAR archive ends with two zero blocks.
+		out.write(new byte[TAR_BLOCK * 2]);
+		out.close();
+	}
+
+	private void writeTarEntry(String name, char type, byte[] data) throws IOException {
+		byte[] header = new byte[TAR_BLOCK];
+		byte[] path = name.getBytes(StandardCharsets.UTF_8);
+
+		System.arraycopy(path, 0, header, 0, Math.min(path.length, 100));
+		writeOctal(header, 100, 8, 0644);
+		writeOctal(header, 108, 8, 0);
+		writeOctal(header, 116, 8, 0);
+		writeOctal(header, 124, 12, data.length);
+		writeOctal(header, 136, 12, System.currentTimeMillis() / 1000);
+		header[156] = (byte) type;
+		System.arraycopy("ustar\00000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+
+		// The checksum is taken with its own field as spaces.
+		long sum = 0;
+
+		for (int i = 0; i < TAR_BLOCK; i++) {
+			sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xFF;
+		}
+
+		writeOctal(header, 148, 7, sum);
+		header[155] = ' ';
+
+		out.write(header);
+		out.write(data);
+		out.write(new byte[(TAR_BLOCK - data.length % TAR_BLOCK) % TAR_BLOCK]);
+	}
+
+	/**
+	 * Writes a zero-padded octal number ending with a NUL.
+	 */
+	private static void writeOctal(byte[] header, int offset, int length, long value) {
+		String digits = Long.toOctalString(value);
+
+		if (digits.length() > length - 1) {
+			throw new IllegalArgumentException("Value too large for a TAR header: " + value);
+		}
+
+		for (int i = 0; i < length - 1; i++) {
+			int digit = i - (length - 1 - digits.length());
+			header[offset + i] = (byte) (digit < 0 ? '0' : digits.charAt(digit));
+		}
+
+		header[offset + length - 1] = 0;
+	}
+}
@@ -0,0 +1,152 @@
+package watermark.core.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * This class reads an image file through a file channel. The stream reads
+ * ahead into a buffer with positional reads, so the single bytes and short
+ * fields a reader parses cost no system call each, and seeking only moves
+ * the position. The file is read in place, so nothing is cached in memory or
+ * on disk.
+ *
+ * @author Ryan M. Kane
+ */
+public class ChannelImageInputStream extends ImageInputStreamImpl {
+	public static final int BUFFER_SIZE = 1 << 16;
+
+	private final FileChannel channel;
+	private final boolean ownsChannel;
+	private final ByteBuffer buffer;
+	// The position in the file of the first byte of the buffer.
+	private long bufferStart;
+
+	/**
+	 * Creates a stream over an open channel, which is left open when the
+	 * stream is closed. The stream starts at position 0 of the channel.
+	 *
+	 * @param channel - the channel of the image file.
+	 */
+	public ChannelImageInputStream(FileChannel channel) {
+		this(channel, false);
+	}
+
+	private ChannelImageInputStream(FileChannel channel, boolean ownsChannel) {
+		this.channel = channel;
+		this.ownsChannel = ownsChannel;
+		this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		this.buffer.limit(0);
+	}
+
+	/**
+	 * Opens an image file.
+	 *
+	 * @param file - the image file.
+	 * @return the stream, which closes the file when it is closed.
+	 * @throws IOException if the file cannot be opened.
+	 */
+	public static ChannelImageInputStream open(File file) throws IOException {
+		return new ChannelImageInputStream(FileChannel.open(file.toPath(), StandardOpenOption.READ), true);
+	}
+
+	@Override
+	public int read() throws IOException {
+		checkClosed();
+		bitOffset = 0;
+
+		if (!fill()) {
+			return -1;
+		}
+
+		return buffer.get((int) (streamPos++ - bufferStart)) & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		checkClosed();
+
+		if (off < 0 || len < 0 || off + len > b.length) {
+			throw new IndexOutOfBoundsException();
+		}
+
+		if (len == 0) {
+			return 0;
+		}
+
+		bitOffset = 0;
+
+		if (!isBuffered(streamPos) && len >= BUFFER_SIZE) {
+			// Large reads go straight into the array.
+			int n = channel.read(ByteBuffer.wrap(b, off, len), streamPos);
+
+			if (n > 0) {
+				streamPos += n;
+			}
+
+			return n > 0 ? n : -1;
+		}
+
+		if (!fill()) {
+			return -1;
+		}
+
+		int index = (int) (streamPos - bufferStart);
+		int n = Math.min(len, buffer.limit() - index);
+
+		buffer.get(index, b, off, n);
+		streamPos += n;
+
+		return n;
+	}
+
+	@Override
+	public long length() {
+		try {
+			return channel.size();
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		super.close();
+
+		if (ownsChannel) {
+			channel.close();
+		}
+	}
+
+	private boolean isBuffered(long pos) {
+		return pos >= bufferStart && pos < bufferStart + buffer.limit();
+	}
+
+	/**
+	 * Reads the buffer from the stream position, unless it already holds it.
+	 *
+	 * @return whether a byte is available.
+	 */
+	private boolean fill() throws IOException {
+		if (isBuffered(streamPos)) {
+			return true;
+		}
+
+		buffer.clear();
+		bufferStart = streamPos;
+
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, bufferStart + buffer.position()) < 0) {
+				break;
+			}
+		}
+
+		buffer.flip();
+
+		return buffer.hasRemaining();
+	}
+}
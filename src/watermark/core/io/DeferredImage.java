@@ -0,0 +1,217 @@
+package watermark.core.io;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import watermark.core.util.ExecutorUtil;
+import watermark.core.util.ImageUtil;
+import watermark.core.util.RasterUtil;
+
+/**
+ * This class represents an image file which is shown from a subsampled
+ * preview, and decoded at full resolution only when it is needed. The preview
+ * reads every n-th row and column through the source subsampling of the image
+ * reader, so a large file is shown without building its full raster.
+ *
+ * The full image is decoded in the background on the first call to
+ * {@link #getImageAsync()}, and kept for later calls. A file which is no
+ * larger than the preview is read once, and its preview is the full image.
+ * A file in one of the formats of {@link MappedImage} is mapped rather than
+ * decoded, so its full image is ready at once.
+ *
+ * @author Ryan M. Kane
+ */
+public class DeferredImage {
+	private final File file;
+	private final int width;
+	private final int height;
+	private final int subsampling;
+	private final BufferedImage preview;
+	private final Executor executor;
+	private CompletableFuture<BufferedImage> image;
+
+	private DeferredImage(File file, int width, int height, int subsampling, BufferedImage preview, Executor executor) {
+		this.file = file;
+		this.width = width;
+		this.height = height;
+		this.subsampling = subsampling;
+		this.preview = preview;
+		this.executor = executor;
+
+		if (subsampling == 1) {
+			this.image = CompletableFuture.completedFuture(preview);
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the width of the full image.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return the height of the full image.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return the step between the rows and columns read for the preview.
+	 */
+	public int getSubsampling() {
+		return subsampling;
+	}
+
+	public BufferedImage getPreview() {
+		return preview;
+	}
+
+	/**
+	 * Returns the full image, and starts decoding it in the background if it
+	 * has not been requested before.
+	 *
+	 * @return the future of the full image.
+	 */
+	public synchronized CompletableFuture<BufferedImage> getImageAsync() {
+		if (image == null) {
+			image = CompletableFuture.supplyAsync(() -> {
+				try {
+					BufferedImage full = ImageUtil.readImage(file);
+
+					if (full == null) {
+						throw new IOException("Not a valid image file: " + file.getName());
+					}
+
+					return full;
+				} catch (IOException e) {
+					throw new CompletionException(e);
+				}
+			}, executor);
+		}
+
+		return image;
+	}
+
+	/**
+	 * @return the full image if it has been decoded, otherwise null.
+	 */
+	public synchronized BufferedImage getImageIfLoaded() {
+		if (image == null || !image.isDone() || image.isCompletedExceptionally()) {
+			return null;
+		}
+
+		return image.join();
+	}
+
+	/**
+	 * Loads the preview of an image file, decoding the full image on the
+	 * shared executor.
+	 *
+	 * @see DeferredImage#load(File, int, Executor)
+	 */
+	public static DeferredImage load(File file, int previewSize) {
+		return load(file, previewSize, ExecutorUtil.getDefaultExecutor());
+	}
+
+	/**
+	 * Loads the preview of an image file. The preview is the smallest
+	 * subsampling of the image which is at least the preview size on its
+	 * longer side.
+	 *
+	 * @param file - the image file.
+	 * @param previewSize - the minimum size of the longer side of the preview.
+	 * @param executor - the executor which decodes the full image.
+	 * @return the image, or null if the file cannot be read.
+	 */
+	public static DeferredImage load(File file, int previewSize, Executor executor) {
+		ImageInputStream stream = null;
+		ImageReader reader = null;
+
+		try {
+			if (MappedImage.getFormat(file) >= 0) {
+				return loadMapped(file, previewSize, executor);
+			}
+
+			stream = ImageUtil.createImageInputStream(file);
+			reader = ImageUtil.createImageReader(stream);
+
+			if (reader == null) {
+				return null;
+			}
+
+			int width = reader.getWidth(0);
+			int height = reader.getHeight(0);
+			int subsampling = Math.max(1, Math.max(width, height) / Math.max(1, previewSize));
+			ImageReadParam param = reader.getDefaultReadParam();
+
+			param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+			return new DeferredImage(file, width, height, subsampling, reader.read(0, param), executor);
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			if (reader != null) {
+				reader.dispose();
+			}
+
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Maps an image file, and reads its preview from every n-th pixel of the
+	 * mapping.
+	 */
+	private static DeferredImage loadMapped(File file, int previewSize, Executor executor) throws IOException {
+		BufferedImage full = MappedImage.open(file, false);
+		int width = full.getWidth();
+		int height = full.getHeight();
+		int subsampling = Math.max(1, Math.max(width, height) / Math.max(1, previewSize));
+
+		if (subsampling == 1) {
+			return new DeferredImage(file, width, height, 1, full, executor);
+		}
+
+		int previewWidth = (width + subsampling - 1) / subsampling;
+		int previewHeight = (height + subsampling - 1) / subsampling;
+		BufferedImage preview = new BufferedImage(previewWidth, previewHeight, BufferedImage.TYPE_INT_ARGB);
+		int[] row = new int[width];
+		int[] previewRow = new int[previewWidth];
+
+		for (int y = 0; y < previewHeight; y++) {
+			RasterUtil.getPixels(full, 0, y * subsampling, width, 1, row);
+
+			for (int x = 0; x < previewWidth; x++) {
+				previewRow[x] = row[x * subsampling];
+			}
+
+			RasterUtil.setPixels(preview, 0, y, previewWidth, 1, previewRow);
+		}
+
+		DeferredImage image = new DeferredImage(file, width, height, subsampling, preview, executor);
+		image.image = CompletableFuture.completedFuture(full);
+
+		return image;
+	}
+}
@@ -0,0 +1,547 @@
+package watermark.core.io;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import watermark.core.datatypes.buffer.NioDataBuffer;
+import watermark.core.datatypes.buffer.PixelStore;
+import watermark.core.util.RasterUtil;
+
+/**
+ * This class maps uncompressed image files into memory, as images whose
+ * rasters read and write the mapped file directly. An image opened for
+ * writing and encoded or decoded in place is changed in the file itself, with
+ * no copy of its pixels on the heap.
+ *
+ * Three formats are supported, all with 8-bit samples:
+ *
+ * <pre>
+ * PPM: "P6" header, RGB rows
+ * PAM: "P7" header, gray, gray and alpha, RGB or RGBA rows
+ * raw: 64-byte header, then ARGB ints in big-endian order (A, R, G, B bytes)
+ *
+ * raw header: magic "FWRA" (4) | version (2) | reserved (2) | width (4)
+ *             | height (4) | stride in bytes (4) | data offset (4) | zeros
+ * </pre>
+ *
+ * The pixel data of every format starts at a multiple of {@link #ALIGNMENT}
+ * bytes, which PPM and PAM headers reach with a padding comment. Only the
+ * rows of the raw format are padded to a multiple of {@link #ALIGNMENT} bytes
+ * as well. PPM and PAM define no row padding, so their rows follow each other
+ * with a stride of width * channels bytes and, past the first, start wherever
+ * that puts them; use the raw format where aligned rows matter. A mapped
+ * image holds at most 2 GB of pixels. A raw file of any size can be
+ * mapped as a {@link PixelStore} instead, one segment of rows at a time.
+ *
+ * @author Ryan M. Kane
+ */
+public class MappedImage {
+	public static final int FORMAT_PPM = 0;
+	public static final int FORMAT_PAM = 1;
+	public static final int FORMAT_RAW = 2;
+
+	public static final int ALIGNMENT = 64;
+	public static final int RAW_MAGIC = 0x46575241; // "FWRA"
+	public static final short RAW_VERSION = 1;
+
+	private static final int RAW_HEADER_SIZE = 24;
+	private static final String[] EXTENSIONS = { "ppm", "pam", "argb" };
+
+	/**
+	 * Returns the format of a file name by its extension: ".ppm", ".pam" or
+	 * ".argb".
+	 *
+	 * @param file - the file.
+	 * @return the format, or -1 if the extension is not known.
+	 */
+	public static int getFormat(File file) {
+		String name = file.getName();
+		String extension = name.substring(name.lastIndexOf('.') + 1);
+
+		for (int i = 0; i < EXTENSIONS.length; i++) {
+			if (EXTENSIONS[i].equalsIgnoreCase(extension)) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Maps an image file. The format is read from the file's header.
+	 *
+	 * @param file - the image file.
+	 * @param writable - whether changes to the image are written to the file.
+	 * @return an image backed by the mapped file.
+	 * @throws IOException if the file cannot be mapped or is not supported.
+	 */
+	public static BufferedImage open(File file, boolean writable) throws IOException {
+		FileChannel channel = writable
+				? FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+				: FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+		try {
+			ByteBuffer head = ByteBuffer.allocate((int) Math.min(channel.size(), 4096));
+			channel.read(head, 0);
+			head.flip();
+
+			Layout layout = readLayout(head);
+			long size = layout.dataOffset + (long) layout.stride * layout.height;
+
+			if (size > channel.size()) {
+				throw new IOException("The image file is truncated: " + file);
+			}
+
+			MappedByteBuffer data = map(channel, writable, layout.dataOffset, size - layout.dataOffset);
+
+			return createImage(layout, data);
+		} finally {
+			// The mapping stays valid after its channel is closed.
+			channel.close();
+		}
+	}
+
+	/**
+	 * Creates an image file of the given size and maps it for writing. The
+	 * pixels start out as zeros.
+	 *
+	 * @param file - the file to create, which is replaced if it exists.
+	 * @param width - the width of the image.
+	 * @param height - the height of the image.
+	 * @param format - the file format.
+	 * @param channels - the samples per pixel: 1 for gray, 2 for gray and
+	 *        alpha, 3 for RGB or 4 for RGBA. PPM only holds RGB and the raw
+	 *        format always holds ARGB.
+	 * @return an image backed by the mapped file.
+	 * @throws IOException if the file cannot be created.
+	 */
+	public static BufferedImage create(File file, int width, int height, int format, int channels) throws IOException {
+		if (width < 1 || height < 1) {
+			throw new IllegalArgumentException("Invalid image size: " + width + "x" + height);
+		}
+
+		if (format == FORMAT_RAW || format == FORMAT_PPM) {
+			channels = format == FORMAT_RAW ? 4 : 3;
+		} else if (format != FORMAT_PAM || channels < 1 || channels > 4) {
+			throw new IllegalArgumentException("Unsupported format " + format + " with " + channels + " channels.");
+		}
+
+		byte[] header = writeHeader(format, width, height, channels);
+		Layout layout = readLayout(ByteBuffer.wrap(header));
+		long size = layout.dataOffset + (long) layout.stride * height;
+
+		if (file.getParentFile() != null) {
+			file.getParentFile().mkdirs();
+		}
+
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		try {
+			channel.write(ByteBuffer.wrap(header), 0);
+			MappedByteBuffer data = map(channel, true, layout.dataOffset, size - layout.dataOffset);
+
+			return createImage(layout, data);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Maps a raw image file as a pixel store, which may exceed the size of a
+	 * single mapping.
+	 *
+	 * @param file - the raw image file.
+	 * @param writable - whether changes to the store are written to the file.
+	 * @return a store backed by the mapped file.
+	 * @throws IOException if the file cannot be mapped or is not a raw image.
+	 */
+	public static PixelStore openStore(File file, boolean writable) throws IOException {
+		FileChannel channel = writable
+				? FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+				: FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+		try {
+			ByteBuffer head = ByteBuffer.allocate((int) Math.min(channel.size(), 4096));
+			channel.read(head, 0);
+			head.flip();
+
+			Layout layout = readLayout(head);
+
+			if (layout.format != FORMAT_RAW) {
+				throw new IOException("Only raw images can be mapped as a pixel store: " + file);
+			}
+
+			if (layout.dataOffset + (long) layout.stride * layout.height > channel.size()) {
+				throw new IOException("The image file is truncated: " + file);
+			}
+
+			return mapStore(channel, writable, layout);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Creates a raw image file of the given size and maps it as a pixel store.
+	 * The pixels start out as zeros, and the file is sparse on file systems
+	 * which support it until the pixels are written.
+	 *
+	 * @param file - the file to create, which is replaced if it exists.
+	 * @param width - the width of the image.
+	 * @param height - the height of the image.
+	 * @return a store backed by the mapped file.
+	 * @throws IOException if the file cannot be created.
+	 */
+	public static PixelStore createStore(File file, int width, int height) throws IOException {
+		if (width < 1 || height < 1) {
+			throw new IllegalArgumentException("Invalid image size: " + width + "x" + height);
+		}
+
+		byte[] header = writeHeader(FORMAT_RAW, width, height, 4);
+		Layout layout = readLayout(ByteBuffer.wrap(header));
+
+		if (file.getParentFile() != null) {
+			file.getParentFile().mkdirs();
+		}
+
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		try {
+			channel.write(ByteBuffer.wrap(header), 0);
+
+			return mapStore(channel, true, layout);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Writes an image to a mapped file. PAM files keep the gray and alpha
+	 * channels of the image. PPM files have no alpha channel, so images with
+	 * alpha are refused rather than written without it.
+	 *
+	 * @param img - the image to write.
+	 * @param file - the file to write to.
+	 * @param format - the file format.
+	 * @return the written image, backed by the mapped file.
+	 * @throws IOException if the file cannot be written, or would lose the
+	 *         alpha channel of the image.
+	 */
+	public static BufferedImage write(BufferedImage img, File file, int format) throws IOException {
+		ColorModel cm = img.getColorModel();
+		int channels = 4;
+
+		if (format == FORMAT_PAM) {
+			channels = (cm.getNumColorComponents() == 1 ? 1 : 3) + (cm.hasAlpha() ? 1 : 0);
+		} else if (format == FORMAT_PPM && cm.hasAlpha()) {
+			throw new IOException("PPM images cannot hold an alpha channel; use a PAM or raw image instead: " + file);
+		}
+
+		BufferedImage mapped = create(file, img.getWidth(), img.getHeight(), format, channels);
+		int width = img.getWidth();
+		int rows = Math.max(1, (1 << 16) / width);
+		int[] pixels = new int[width * rows];
+
+		for (int y = 0; y < img.getHeight(); y += rows) {
+			int h = Math.min(rows, img.getHeight() - y);
+			RasterUtil.getPixels(img, 0, y, width, h, pixels);
+			RasterUtil.setPixels(mapped, 0, y, width, h, pixels);
+		}
+
+		force(mapped);
+
+		return mapped;
+	}
+
+	/**
+	 * Writes the changes to a mapped image through to its file.
+	 *
+	 * @param img - an image returned by this class.
+	 */
+	public static void force(BufferedImage img) {
+		DataBuffer db = img.getRaster().getDataBuffer();
+
+		if (db instanceof NioDataBuffer && ((NioDataBuffer) db).getBytes() instanceof MappedByteBuffer) {
+			((MappedByteBuffer) ((NioDataBuffer) db).getBytes()).force();
+		}
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, boolean writable, long offset, long length) throws IOException {
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("The image is too large to map: " + length + " bytes.");
+		}
+
+		return channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, offset, length);
+	}
+
+	/**
+	 * Maps the rows of a raw image one segment at a time.
+	 */
+	private static PixelStore mapStore(FileChannel channel, boolean writable, Layout layout) throws IOException {
+		int stride = layout.stride / 4;
+		int segmentRows = PixelStore.getSegmentRows(stride);
+		ByteBuffer[] segments = new ByteBuffer[PixelStore.getSegmentCount(layout.height, stride)];
+
+		for (int i = 0; i < segments.length; i++) {
+			long rows = Math.min(segmentRows, layout.height - (long) i * segmentRows);
+			long offset = layout.dataOffset + (long) i * segmentRows * layout.stride;
+			segments[i] = map(channel, writable, offset, rows * layout.stride);
+		}
+
+		return new PixelStore(layout.width, layout.height, stride, segments);
+	}
+
+	/**
+	 * Builds an image over the mapped pixel data.
+	 */
+	private static BufferedImage createImage(Layout layout, ByteBuffer data) {
+		int width = layout.width;
+		int height = layout.height;
+		SampleModel sm;
+		ColorModel cm;
+		NioDataBuffer db;
+
+		if (layout.format == FORMAT_RAW) {
+			int[] masks = { 0xFF0000, 0xFF00, 0xFF, 0xFF000000 };
+			db = new NioDataBuffer(DataBuffer.TYPE_INT, data, layout.stride / 4 * height);
+			sm = new SinglePixelPackedSampleModel(DataBuffer.TYPE_INT, width, height, layout.stride / 4, masks);
+			cm = new DirectColorModel(32, masks[0], masks[1], masks[2], masks[3]);
+		} else {
+			int channels = layout.channels;
+			boolean alpha = channels == 2 || channels == 4;
+			int[] bandOffsets = new int[channels];
+
+			for (int i = 0; i < channels; i++) {
+				bandOffsets[i] = i;
+			}
+
+			ColorSpace cs = ColorSpace.getInstance(channels <= 2 ? ColorSpace.CS_GRAY : ColorSpace.CS_sRGB);
+			db = new NioDataBuffer(DataBuffer.TYPE_BYTE, data, layout.stride * height);
+			sm = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, width, height, channels, layout.stride, bandOffsets);
+			cm = new ComponentColorModel(cs, alpha, false, alpha ? ColorModel.TRANSLUCENT : ColorModel.OPAQUE, DataBuffer.TYPE_BYTE);
+		}
+
+		WritableRaster raster = Raster.createWritableRaster(sm, db, null);
+
+		return new BufferedImage(cm, raster, false, null);
+	}
+
+	/**
+	 * Returns the header of a new file, padded so the pixel data is aligned.
+	 */
+	private static byte[] writeHeader(int format, int width, int height, int channels) {
+		if (format == FORMAT_RAW) {
+			ByteBuffer header = ByteBuffer.allocate(ALIGNMENT).order(ByteOrder.BIG_ENDIAN);
+			header.putInt(RAW_MAGIC);
+			header.putShort(RAW_VERSION);
+			header.putShort((short) 0);
+			header.putInt(width);
+			header.putInt(height);
+			header.putInt(align(width * 4L));
+			header.putInt(ALIGNMENT);
+			return header.array();
+		}
+
+		String start;
+		String end;
+
+		if (format == FORMAT_PPM) {
+			start = "P6\n";
+			end = width + " " + height + "\n255\n";
+		} else {
+			String[] types = { "GRAYSCALE", "GRAYSCALE_ALPHA", "RGB", "RGB_ALPHA" };
+			start = "P7\nWIDTH " + width + "\nHEIGHT " + height + "\nDEPTH " + channels + "\nMAXVAL 255\nTUPLTYPE "
+					+ types[channels - 1] + "\n";
+			end = "ENDHDR\n";
+		}
+
+		// A comment line pads the header to the alignment.
+		int length = start.length() + end.length() + 2;
+		StringBuilder sb = new StringBuilder(start).append('#');
+
+		for (int i = length; i % ALIGNMENT != 0; i++) {
+			sb.append(' ');
+		}
+
+		sb.append('\n').append(end);
+
+		return sb.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Reads the layout of the pixel data from the start of a file. The stride
+	 * is in bytes.
+	 */
+	static Layout readLayout(ByteBuffer head) throws IOException {
+		Layout layout = new Layout();
+
+		if (head.remaining() >= RAW_HEADER_SIZE && head.getInt(0) == RAW_MAGIC) {
+			head.order(ByteOrder.BIG_ENDIAN);
+
+			if (head.getShort(4) > RAW_VERSION) {
+				throw new IOException("Unsupported raw image version: " + head.getShort(4));
+			}
+
+			layout.format = FORMAT_RAW;
+			layout.width = head.getInt(8);
+			layout.height = head.getInt(12);
+			layout.stride = head.getInt(16);
+			layout.dataOffset = head.getInt(20);
+			layout.channels = 4;
+
+			if (layout.width < 1 || layout.height < 1 || layout.stride < layout.width * 4L || layout.stride % 4 != 0
+					|| layout.dataOffset < RAW_HEADER_SIZE) {
+				throw new IOException("Corrupt raw image header.");
+			}
+
+			return layout;
+		}
+
+		try {
+			return readNetpbmLayout(new HeaderTokens(head), layout);
+		} catch (IllegalArgumentException e) {
+			// Includes number format errors in untrusted headers.
+			throw new IOException("Corrupt image header: " + e.getMessage(), e);
+		}
+	}
+
+	private static Layout readNetpbmLayout(HeaderTokens tokens, Layout layout) throws IOException {
+		String magic = tokens.next();
+
+		if ("P6".equals(magic)) {
+			layout.format = FORMAT_PPM;
+			layout.width = Integer.parseInt(tokens.next());
+			layout.height = Integer.parseInt(tokens.next());
+			layout.channels = 3;
+
+			if (!"255".equals(tokens.next())) {
+				throw new IOException("Only 8-bit PPM images are supported.");
+			}
+
+			// A single whitespace byte separates the header from the pixels.
+			layout.dataOffset = tokens.position() + 1;
+		} else if ("P7".equals(magic)) {
+			layout.format = FORMAT_PAM;
+
+			for (String key = tokens.next(); !"ENDHDR".equals(key); key = tokens.next()) {
+				if ("WIDTH".equals(key)) {
+					layout.width = Integer.parseInt(tokens.next());
+				} else if ("HEIGHT".equals(key)) {
+					layout.height = Integer.parseInt(tokens.next());
+				} else if ("DEPTH".equals(key)) {
+					layout.channels = Integer.parseInt(tokens.next());
+				} else if ("MAXVAL".equals(key)) {
+					if (!"255".equals(tokens.next())) {
+						throw new IOException("Only 8-bit PAM images are supported.");
+					}
+				} else if ("TUPLTYPE".equals(key)) {
+					tokens.next();
+				} else {
+					throw new IOException("Unknown PAM header field: " + key);
+				}
+			}
+
+			layout.dataOffset = tokens.position() + 1;
+
+			if (layout.channels < 1 || layout.channels > 4) {
+				throw new IOException("Unsupported PAM depth: " + layout.channels);
+			}
+		} else {
+			throw new IOException("Not a PPM, PAM or raw image.");
+		}
+
+		if (layout.width < 1 || layout.height < 1) {
+			throw new IOException("Invalid image size: " + layout.width + "x" + layout.height);
+		}
+
+		// Netpbm rows are packed, so only the first row is aligned.
+		long stride = (long) layout.width * layout.channels;
+
+		if (stride > Integer.MAX_VALUE) {
+			throw new IOException("The image rows are too wide: " + layout.width + " pixels.");
+		}
+
+		layout.stride = (int) stride;
+
+		return layout;
+	}
+
+	private static int align(long value) {
+		return (int) ((value + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT);
+	}
+
+	/**
+	 * The position and shape of the pixel data of a file.
+	 */
+	static class Layout {
+		int format;
+		int width;
+		int height;
+		int channels;
+		int stride;
+		int dataOffset;
+	}
+
+	/**
+	 * Splits a PPM or PAM header into tokens, skipping comments.
+	 */
+	private static class HeaderTokens {
+		private final ByteBuffer head;
+		private int position;
+
+		HeaderTokens(ByteBuffer head) {
+			this.head = head;
+		}
+
+		String next() throws IOException {
+			StringBuilder sb = new StringBuilder();
+
+			while (position < head.limit()) {
+				char c = (char) (head.get(position) & 0xFF);
+
+				if (c == '#' && sb.length() == 0) {
+					while (position < head.limit() && head.get(position) != '\n') {
+						position++;
+					}
+				} else if (Character.isWhitespace(c)) {
+					if (sb.length() > 0) {
+						return sb.toString();
+					}
+
+					position++;
+				} else {
+					sb.append(c);
+					position++;
+				}
+			}
+
+			throw new IOException("The image header is truncated.");
+		}
+
+		/**
+		 * @return the position of the whitespace which ended the last token.
+		 */
+		int position() {
+			return position;
+		}
+	}
+}
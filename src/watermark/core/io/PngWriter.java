@@ -0,0 +1,570 @@
+package watermark.core.io;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import javax.imageio.ImageIO;
+
+import watermark.core.datatypes.embedding.ChannelEmbedding;
+import watermark.core.util.ExecutorUtil;
+import watermark.core.util.RasterUtil;
+
+/**
+ * This class writes images as PNG files, deflating independent chunks of rows
+ * in parallel. Each chunk is filtered and deflated on its own, primed with the
+ * last 32 KB of the chunk before it, and ends on a byte boundary, so the
+ * chunks join into a single standard zlib stream. Every chunk is written as
+ * its own IDAT chunk.
+ *
+ * The samples are written exactly as the raster holds them, 8 or 16 bits per
+ * sample, so the embedded bits of an encoded image survive. Images which
+ * RasterUtil does not read natively, such as indexed images, are written by
+ * ImageIO.
+ *
+ * @author Ryan M. Kane
+ */
+public class PngWriter {
+	public static final int FILTER_NONE = 0;
+	public static final int FILTER_SUB = 1;
+	public static final int FILTER_UP = 2;
+	public static final int FILTER_AVERAGE = 3;
+	public static final int FILTER_PAETH = 4;
+	public static final int FILTER_ADAPTIVE = 5;
+
+	public static final int DEFAULT_COMPRESSION_LEVEL = 4;
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 18;
+
+	private static final String[] FILTER_NAMES = { "none", "sub", "up", "average", "paeth", "adaptive" };
+	private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+	private static final int DICTIONARY_SIZE = 1 << 15;
+
+	private static final int COLOR_GRAY = 0;
+	private static final int COLOR_RGB = 2;
+	private static final int COLOR_GRAY_ALPHA = 4;
+	private static final int COLOR_RGBA = 6;
+
+	private int compressionLevel = DEFAULT_COMPRESSION_LEVEL;
+	private int filter = FILTER_ADAPTIVE;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private ForkJoinPool pool = ExecutorUtil.getWorkStealingPool();
+
+	/**
+	 * @return the deflate level, from 0 for none to 9 for the smallest file.
+	 */
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	public void setCompressionLevel(int compressionLevel) {
+		if (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("The compression level must be between 0 and 9: " + compressionLevel);
+		}
+
+		this.compressionLevel = compressionLevel;
+	}
+
+	/**
+	 * @return the filter applied to every row, or {@link #FILTER_ADAPTIVE} to
+	 *         choose the filter of each row by the smallest sum of absolute
+	 *         differences.
+	 */
+	public int getFilter() {
+		return filter;
+	}
+
+	public void setFilter(int filter) {
+		if (filter < FILTER_NONE || filter > FILTER_ADAPTIVE) {
+			throw new IllegalArgumentException("Unknown PNG filter: " + filter);
+		}
+
+		this.filter = filter;
+	}
+
+	/**
+	 * @return the approximate number of uncompressed bytes deflated by one
+	 *         task.
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = Math.max(1, chunkSize);
+	}
+
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Parses a filter name, which is one of "none", "sub", "up", "average",
+	 * "paeth" or "adaptive".
+	 *
+	 * @param name - the name of the filter.
+	 * @return the filter.
+	 */
+	public static int parseFilter(String name) {
+		for (int i = 0; i < FILTER_NAMES.length; i++) {
+			if (FILTER_NAMES[i].equalsIgnoreCase(name.trim())) {
+				return i;
+			}
+		}
+
+		throw new IllegalArgumentException("Unknown PNG filter: " + name);
+	}
+
+	/**
+	 * @param filter - a filter.
+	 * @return the name of the filter, as {@link #parseFilter(String)} reads it.
+	 */
+	public static String getFilterName(int filter) {
+		return FILTER_NAMES[filter];
+	}
+
+	/**
+	 * Determines if an image is written by this writer rather than by ImageIO.
+	 *
+	 * @param img - the image to check.
+	 * @return whether the samples of the image are written in parallel.
+	 */
+	public boolean canWrite(BufferedImage img) {
+		return RasterUtil.isNative(img);
+	}
+
+	/**
+	 * Writes an image to a file.
+	 *
+	 * @param img - the image to write.
+	 * @param file - the file to write to.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public void write(BufferedImage img, File file) throws IOException {
+		if (file.getParentFile() != null) {
+			file.getParentFile().mkdirs();
+		}
+
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+
+		try {
+			write(img, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Returns an image as the bytes of a PNG file.
+	 *
+	 * @param img - the image to write.
+	 * @return the PNG file.
+	 * @throws IOException if the image cannot be written.
+	 */
+	public byte[] toByteArray(BufferedImage img) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write(img, out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Writes an image to a stream. The stream is not closed.
+	 *
+	 * @param img - the image to write.
+	 * @param out - the stream to write to.
+	 * @throws IOException if the stream cannot be written.
+	 */
+	public void write(BufferedImage img, OutputStream out) throws IOException {
+		if (!canWrite(img)) {
+			if (!ImageIO.write(img, "png", out)) {
+				throw new IOException("No PNG writer for the image type: " + img.getType());
+			}
+
+			return;
+		}
+
+		RowFormat format = new RowFormat(img);
+		int width = img.getWidth();
+		int height = img.getHeight();
+		int chunkRows = Math.max(1, chunkSize / (format.rowBytes + 1));
+		int window = Math.max(2, pool.getParallelism() * 2);
+		Deque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+		DataOutputStream data = new DataOutputStream(out);
+		long adler = 1;
+		boolean first = true;
+
+		data.write(SIGNATURE);
+
+		ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+		DataOutputStream headerData = new DataOutputStream(header);
+		headerData.writeInt(width);
+		headerData.writeInt(height);
+		headerData.writeByte(format.bitDepth);
+		headerData.writeByte(format.colorType);
+		headerData.writeByte(0); // Deflate.
+		headerData.writeByte(0); // Adaptive filtering.
+		headerData.writeByte(0); // No interlace.
+		writeChunk(data, "IHDR", header.toByteArray(), 0, header.size());
+
+		for (int top = 0; top < height || !pending.isEmpty(); ) {
+			// Keep a bounded number of chunks in flight, and write them in order.
+			while (top < height && pending.size() < window) {
+				int bottom = Math.min(height, top + chunkRows);
+				pending.add(pool.submit(new ChunkTask(format, top, bottom, bottom == height)));
+				top = bottom;
+			}
+
+			Chunk chunk = join(pending.removeFirst());
+			ByteArrayOutputStream idat = new ByteArrayOutputStream(chunk.data.length + 6);
+
+			if (first) {
+				idat.write(0x78);
+				idat.write(getZlibFlags());
+				first = false;
+			}
+
+			idat.write(chunk.data, 0, chunk.data.length);
+			adler = combineAdler(adler, chunk.adler, chunk.length);
+
+			if (pending.isEmpty() && top >= height) {
+				idat.write((int) (adler >>> 24));
+				idat.write((int) (adler >>> 16));
+				idat.write((int) (adler >>> 8));
+				idat.write((int) adler);
+			}
+
+			writeChunk(data, "IDAT", idat.toByteArray(), 0, idat.size());
+		}
+
+		writeChunk(data, "IEND", new byte[0], 0, 0);
+		data.flush();
+	}
+
+	/**
+	 * Returns the second zlib header byte for the compression level, which
+	 * makes the header a multiple of 31.
+	 */
+	private int getZlibFlags() {
+		if (compressionLevel <= 1) {
+			return 0x01;
+		} else if (compressionLevel <= 5) {
+			return 0x5E;
+		} else if (compressionLevel == 6) {
+			return 0x9C;
+		}
+
+		return 0xDA;
+	}
+
+	private static Chunk join(Future<Chunk> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing the image.", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Could not deflate the image.", e.getCause());
+		}
+	}
+
+	private static void writeChunk(DataOutputStream out, String type, byte[] data, int off, int len) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] typeBytes = type.getBytes("US-ASCII");
+
+		crc.update(typeBytes);
+		crc.update(data, off, len);
+
+		out.writeInt(len);
+		out.write(typeBytes);
+		out.write(data, off, len);
+		out.writeInt((int) crc.getValue());
+	}
+
+	/**
+	 * Returns the Adler-32 checksum of two joined sequences from their own
+	 * checksums and the length of the second.
+	 */
+	static long combineAdler(long adler1, long adler2, long length2) {
+		final long base = 65521;
+		long rem = length2 % base;
+		long sum1 = adler1 & 0xFFFF;
+		long sum2 = (rem * sum1) % base;
+
+		sum1 += (adler2 & 0xFFFF) + base - 1;
+		sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + base - rem;
+
+		if (sum1 >= base) sum1 -= base;
+		if (sum1 >= base) sum1 -= base;
+		if (sum2 >= base << 1) sum2 -= base << 1;
+		if (sum2 >= base) sum2 -= base;
+
+		return sum1 | (sum2 << 16);
+	}
+
+	/**
+	 * The PNG layout of the rows of an image, and the way they are read.
+	 */
+	private static class RowFormat {
+		private final BufferedImage img;
+		private final int width;
+		private final int bitDepth;
+		private final int colorType;
+		private final int bytesPerPixel;
+		private final int rowBytes;
+		private final boolean gray;
+		private final boolean alpha;
+
+		RowFormat(BufferedImage img) {
+			ColorModel cm = img.getColorModel();
+			Raster raster = img.getRaster();
+
+			this.img = img;
+			this.width = img.getWidth();
+
+			if (raster.getDataBuffer() instanceof DataBufferUShort) {
+				this.gray = cm.getNumColorComponents() == 1;
+				this.alpha = cm.hasAlpha();
+				this.bitDepth = 16;
+			} else {
+				int channels = RasterUtil.getChannels(img);
+				this.gray = (channels & (ChannelEmbedding.RED | ChannelEmbedding.GREEN)) == 0;
+				this.alpha = (channels & ChannelEmbedding.ALPHA) != 0;
+				this.bitDepth = 8;
+			}
+
+			this.colorType = gray ? (alpha ? COLOR_GRAY_ALPHA : COLOR_GRAY) : (alpha ? COLOR_RGBA : COLOR_RGB);
+			this.bytesPerPixel = ((gray ? 1 : 3) + (alpha ? 1 : 0)) * (bitDepth / 8);
+			this.rowBytes = width * bytesPerPixel;
+		}
+
+		/**
+		 * Reads a row of the image in PNG sample order.
+		 */
+		void readRow(int y, int[] buffer, byte[] row) {
+			if (bitDepth == 16) {
+				img.getRaster().getPixels(0, y, width, 1, buffer);
+
+				for (int i = 0, j = 0; j < rowBytes; i++) {
+					row[j++] = (byte) (buffer[i] >>> 8);
+					row[j++] = (byte) buffer[i];
+				}
+
+				return;
+			}
+
+			RasterUtil.getPixels(img, 0, y, width, 1, buffer);
+
+			for (int x = 0, j = 0; x < width; x++) {
+				int pixel = buffer[x];
+
+				if (gray) {
+					row[j++] = (byte) pixel;
+				} else {
+					row[j++] = (byte) (pixel >>> 16);
+					row[j++] = (byte) (pixel >>> 8);
+					row[j++] = (byte) pixel;
+				}
+
+				if (alpha) {
+					row[j++] = (byte) (pixel >>> 24);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The deflated rows of a chunk, with the checksum and length of its
+	 * filtered data.
+	 */
+	private static class Chunk {
+		private final byte[] data;
+		private final long adler;
+		private final int length;
+
+		Chunk(byte[] data, long adler, int length) {
+			this.data = data;
+			this.adler = adler;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * Filters and deflates a range of rows. The rows before the range which
+	 * fill the deflate window are filtered again to prime the dictionary.
+	 */
+	private class ChunkTask implements Callable<Chunk> {
+		private final RowFormat format;
+		private final int top;
+		private final int bottom;
+		private final boolean last;
+
+		ChunkTask(RowFormat format, int top, int bottom, boolean last) {
+			this.format = format;
+			this.top = top;
+			this.bottom = bottom;
+			this.last = last;
+		}
+
+		@Override
+		public Chunk call() {
+			int lineBytes = format.rowBytes + 1;
+			int dictionaryRows = Math.min(top, (DICTIONARY_SIZE + lineBytes - 1) / lineBytes);
+			int start = top - dictionaryRows;
+			byte[] filtered = new byte[(bottom - start) * lineBytes];
+			int[] buffer = new int[format.width * (format.bitDepth == 16 ? 4 : 1)];
+			byte[] prev = new byte[format.rowBytes];
+			byte[] row = new byte[format.rowBytes];
+			byte[][] candidates = filter == FILTER_ADAPTIVE ? new byte[5][format.rowBytes] : null;
+
+			if (start > 0) {
+				format.readRow(start - 1, buffer, prev);
+			}
+
+			for (int y = start; y < bottom; y++) {
+				format.readRow(y, buffer, row);
+				filterRow(row, prev, format.bytesPerPixel, filtered, (y - start) * lineBytes, candidates);
+
+				byte[] swap = prev;
+				prev = row;
+				row = swap;
+			}
+
+			int offset = dictionaryRows * lineBytes;
+			int length = filtered.length - offset;
+			Adler32 adler = new Adler32();
+			adler.update(filtered, offset, length);
+
+			Deflater deflater = new Deflater(compressionLevel, true);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+			byte[] buf = new byte[1 << 16];
+
+			try {
+				if (offset > 0) {
+					int dictionaryLength = Math.min(offset, DICTIONARY_SIZE);
+					deflater.setDictionary(filtered, offset - dictionaryLength, dictionaryLength);
+				}
+
+				deflater.setInput(filtered, offset, length);
+
+				if (last) {
+					deflater.finish();
+
+					while (!deflater.finished()) {
+						out.write(buf, 0, deflater.deflate(buf));
+					}
+				} else {
+					// A sync flush ends the chunk on a byte boundary without
+					// ending the stream.
+					int n;
+
+					do {
+						n = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+						out.write(buf, 0, n);
+					} while (n == buf.length);
+				}
+			} finally {
+				deflater.end();
+			}
+
+			return new Chunk(out.toByteArray(), adler.getValue(), length);
+		}
+
+		/**
+		 * Writes the filter type and the filtered bytes of a row.
+		 */
+		private void filterRow(byte[] row, byte[] prev, int bpp, byte[] out, int off, byte[][] candidates) {
+			if (candidates == null) {
+				out[off] = (byte) filter;
+				applyFilter(filter, row, prev, bpp, out, off + 1);
+				return;
+			}
+
+			int best = FILTER_NONE;
+			long bestSum = Long.MAX_VALUE;
+
+			for (int type = FILTER_NONE; type <= FILTER_PAETH; type++) {
+				byte[] candidate = candidates[type];
+				applyFilter(type, row, prev, bpp, candidate, 0);
+				long sum = 0;
+
+				for (int i = 0; i < candidate.length && sum < bestSum; i++) {
+					sum += Math.abs(candidate[i]);
+				}
+
+				if (sum < bestSum) {
+					best = type;
+					bestSum = sum;
+				}
+			}
+
+			out[off] = (byte) best;
+			System.arraycopy(candidates[best], 0, out, off + 1, row.length);
+		}
+	}
+
+	private static void applyFilter(int type, byte[] row, byte[] prev, int bpp, byte[] out, int off) {
+		int length = row.length;
+
+		switch (type) {
+			case FILTER_SUB:
+				for (int i = 0; i < length; i++) {
+					int left = i >= bpp ? row[i - bpp] & 0xFF : 0;
+					out[off + i] = (byte) (row[i] - left);
+				}
+				break;
+			case FILTER_UP:
+				for (int i = 0; i < length; i++) {
+					out[off + i] = (byte) (row[i] - prev[i]);
+				}
+				break;
+			case FILTER_AVERAGE:
+				for (int i = 0; i < length; i++) {
+					int left = i >= bpp ? row[i - bpp] & 0xFF : 0;
+					out[off + i] = (byte) (row[i] - ((left + (prev[i] & 0xFF)) >>> 1));
+				}
+				break;
+			case FILTER_PAETH:
+				for (int i = 0; i < length; i++) {
+					int left = i >= bpp ? row[i - bpp] & 0xFF : 0;
+					int upLeft = i >= bpp ? prev[i - bpp] & 0xFF : 0;
+					out[off + i] = (byte) (row[i] - paeth(left, prev[i] & 0xFF, upLeft));
+				}
+				break;
+			default:
+				System.arraycopy(row, 0, out, off, length);
+		}
+	}
+
+	private static int paeth(int a, int b, int c) {
+		int p = a + b - c;
+		int pa = Math.abs(p - a);
+		int pb = Math.abs(p - b);
+		int pc = Math.abs(p - c);
+
+		if (pa <= pb && pa <= pc) {
+			return a;
+		}
+
+		return pb <= pc ? b : c;
+	}
+}
@@ -0,0 +1,310 @@
+package watermark.core.io;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import watermark.core.pixel.ImagePixels;
+import watermark.core.pixel.PixelSource;
+import watermark.core.util.ExecutorUtil;
+
+/**
+ * This class writes an image as a multi-resolution pyramid of PNG tiles in the
+ * Deep Zoom layout, which tiled viewers open without decoding the whole image.
+ * The index "name.dzi" describes the image, and the tiles of each level are
+ * written to "name_files/level/column_row.png". The top level holds the image
+ * at full size, and each level below it halves the one above, down to a
+ * single pixel.
+ *
+ * The image is read a band of tile rows at a time. The tiles of a band are
+ * compressed in parallel while the band is averaged down into the levels
+ * below, which hold a band each, so only a few bands are held however large
+ * the image is. The index is written last, so an interrupted export leaves no
+ * index.
+ *
+ * @author Ryan M. Kane
+ */
+public class PyramidWriter {
+	public static final int DEFAULT_TILE_SIZE = 256;
+	public static final String EXTENSION = ".dzi";
+
+	private int tileSize = DEFAULT_TILE_SIZE;
+	private PngWriter pngWriter = new PngWriter();
+	private ForkJoinPool pool = ExecutorUtil.getWorkStealingPool();
+
+	/**
+	 * @return the width and height of the tiles in pixels.
+	 */
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	/**
+	 * @param tileSize - the width and height of the tiles, an even number of
+	 *        pixels.
+	 */
+	public void setTileSize(int tileSize) {
+		if (tileSize < 2 || tileSize % 2 != 0) {
+			throw new IllegalArgumentException("The tile size must be a positive even number: " + tileSize);
+		}
+
+		this.tileSize = tileSize;
+	}
+
+	public PngWriter getPngWriter() {
+		return pngWriter;
+	}
+
+	/**
+	 * @param pngWriter - the writer which compresses each tile.
+	 */
+	public void setPngWriter(PngWriter pngWriter) {
+		this.pngWriter = pngWriter;
+	}
+
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * @param pool - the pool which writes the tiles.
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Determines if a file is named as the index of a pyramid.
+	 *
+	 * @param file - the file.
+	 * @return whether the file has the .dzi extension.
+	 */
+	public static boolean isPyramid(File file) {
+		return file.getName().toLowerCase().endsWith(EXTENSION);
+	}
+
+	/**
+	 * Returns the directory which holds the tiles of a pyramid.
+	 *
+	 * @param index - the index of the pyramid.
+	 * @return the tile directory, next to the index.
+	 */
+	public static File getTileDirectory(File index) {
+		String name = index.getName();
+
+		if (isPyramid(index)) {
+			name = name.substring(0, name.length() - EXTENSION.length());
+		}
+
+		return new File(index.getAbsoluteFile().getParentFile(), name + "_files");
+	}
+
+	/**
+	 * Returns the top level of the pyramid of an image, which is the number of
+	 * halvings it takes to reduce the image to a single pixel.
+	 *
+	 * @param width - the width of the image.
+	 * @param height - the height of the image.
+	 * @return the level which holds the image at full size.
+	 */
+	public static int getMaxLevel(int width, int height) {
+		int size = Math.max(width, height);
+		return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+	}
+
+	/**
+	 * Writes an image as a pyramid.
+	 *
+	 * @see PyramidWriter#write(PixelSource, File)
+	 */
+	public void write(BufferedImage img, File index) throws IOException {
+		write(new ImagePixels(img), index);
+	}
+
+	/**
+	 * Writes the pixels of a source as a pyramid. The source is read once,
+	 * from top to bottom.
+	 *
+	 * @param source - the pixels to write.
+	 * @param index - the index file, whose tile directory is created next to
+	 *        it.
+	 * @throws IOException if a tile or the index cannot be written.
+	 */
+	public void write(PixelSource source, File index) throws IOException {
+		int width = source.getWidth();
+		int height = source.getHeight();
+		int maxLevel = getMaxLevel(width, height);
+		File directory = getTileDirectory(index);
+		Level[] levels = new Level[maxLevel + 1];
+
+		for (int level = 0; level <= maxLevel; level++) {
+			int shift = maxLevel - level;
+			levels[level] = new Level(new File(directory, Integer.toString(level)), ceilShift(width, shift), ceilShift(height, shift));
+			levels[level].directory.mkdirs();
+		}
+
+		Deque<Future<Void>> pending = new ArrayDeque<Future<Void>>();
+		int window = Math.max(2, pool.getParallelism() * 4);
+		int[] band = null;
+
+		try {
+			for (int y = 0; y < height; y += tileSize) {
+				int rows = Math.min(tileSize, height - y);
+
+				band = source.getPixels(0, y, width, rows, band != null && band.length == width * rows ? band : null);
+				flush(levels, maxLevel, band, rows, pending, window);
+			}
+
+			while (!pending.isEmpty()) {
+				join(pending.removeFirst());
+			}
+		} finally {
+			for (Future<Void> future : pending) {
+				future.cancel(true);
+			}
+		}
+
+		String xml = String.format("<?xml version=\"1.0\" encoding=\"UTF-8\"?>%n"
+				+ "<Image xmlns=\"http://schemas.microsoft.com/deepzoom/2008\" TileSize=\"%d\" Overlap=\"0\" Format=\"png\">%n"
+				+ "  <Size Width=\"%d\" Height=\"%d\"/>%n</Image>%n", tileSize, width, height);
+
+		Files.write(index.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Writes the tiles of a full band of a level, and averages the band into
+	 * the level below.
+	 */
+	private void flush(Level[] levels, int level, int[] band, int rows, Deque<Future<Void>> pending, int window) throws IOException {
+		Level current = levels[level];
+		int width = current.width;
+
+		for (int x = 0, col = 0; x < width; x += tileSize, col++) {
+			int tileWidth = Math.min(tileSize, width - x);
+			int[] tile = new int[tileWidth * rows];
+
+			for (int row = 0; row < rows; row++) {
+				System.arraycopy(band, row * width + x, tile, row * tileWidth, tileWidth);
+			}
+
+			File file = new File(current.directory, col + "_" + current.tileRow + ".png");
+
+			while (pending.size() >= window) {
+				join(pending.removeFirst());
+			}
+
+			pending.add(pool.submit(() -> {
+				writeTile(tile, tileWidth, rows, file);
+				return null;
+			}));
+		}
+
+		current.tileRow++;
+
+		if (level == 0) {
+			return;
+		}
+
+		Level below = levels[level - 1];
+		below.reduce(band, width, rows);
+
+		if (below.count == tileSize || below.top + below.count == below.height) {
+			flush(levels, level - 1, below.rows, below.count, pending, window);
+			below.top += below.count;
+			below.count = 0;
+		}
+	}
+
+	private void writeTile(int[] pixels, int width, int height, File file) throws IOException {
+		boolean opaque = true;
+
+		for (int i = 0; i < pixels.length && opaque; i++) {
+			opaque = pixels[i] >>> 24 == 0xFF;
+		}
+
+		BufferedImage img = new BufferedImage(width, height, opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+		int[] data = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+
+		System.arraycopy(pixels, 0, data, 0, pixels.length);
+		pngWriter.write(img, file);
+	}
+
+	private static void join(Future<Void> future) throws IOException {
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing tiles.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+
+			throw new IOException("Could not write a tile.", e.getCause());
+		}
+	}
+
+	private static int ceilShift(int value, int shift) {
+		return (int) (((long) value + (1L << shift) - 1) >> shift);
+	}
+
+	/**
+	 * A level of the pyramid, with the band of rows it is collecting from the
+	 * level above.
+	 */
+	private class Level {
+		final File directory;
+		final int width;
+		final int height;
+		final int[] rows;
+		// The first row of the band, and the number of rows it holds.
+		int top;
+		int count;
+		int tileRow;
+
+		Level(File directory, int width, int height) {
+			this.directory = directory;
+			this.width = width;
+			this.height = height;
+			this.rows = new int[width * Math.min(tileSize, height)];
+		}
+
+		/**
+		 * Appends a band of the level above, averaging each 2x2 square of its
+		 * pixels into one pixel.
+		 */
+		void reduce(int[] src, int srcWidth, int srcRows) {
+			for (int y = 0; y < srcRows; y += 2) {
+				int dest = (count + y / 2) * width;
+				int top = y * srcWidth;
+				int bottom = y + 1 < srcRows ? top + srcWidth : top;
+
+				for (int x = 0; x < srcWidth; x += 2) {
+					int right = x + 1 < srcWidth ? 1 : 0;
+					rows[dest + x / 2] = average(src[top + x], src[top + x + right], src[bottom + x], src[bottom + x + right]);
+				}
+			}
+
+			count += (srcRows + 1) / 2;
+		}
+	}
+
+	private static int average(int a, int b, int c, int d) {
+		int result = 0;
+
+		for (int shift = 0; shift < 32; shift += 8) {
+			int sum = ((a >>> shift) & 0xFF) + ((b >>> shift) & 0xFF) + ((c >>> shift) & 0xFF) + ((d >>> shift) & 0xFF);
+			result |= ((sum + 2) >> 2) << shift;
+		}
+
+		return result;
+	}
+}
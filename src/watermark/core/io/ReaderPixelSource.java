@@ -0,0 +1,155 @@
+package watermark.core.io;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import watermark.core.pixel.PixelSource;
+import watermark.core.util.ImageUtil;
+import watermark.core.util.RasterUtil;
+
+/**
+ * This class reads the pixels of an image file through its ImageIO reader, a
+ * band of rows at a time, so the decoded image is never held as a whole. Each
+ * band is read as a source region of the image, and the last band is kept
+ * until a region outside it is read.
+ *
+ * Readers which can seek within the file, such as those for TIFF and BMP,
+ * only decode the rows of each band. Readers of compressed streams, such as
+ * those for PNG and JPEG, decode the image from its start for every band, so
+ * a large band keeps the number of passes down.
+ *
+ * @author Ryan M. Kane
+ */
+public class ReaderPixelSource implements PixelSource, Closeable {
+	public static final int DEFAULT_BAND_PIXELS = 1 << 22;
+
+	private final ImageInputStream stream;
+	private final ImageReader reader;
+	private final int width;
+	private final int height;
+	private final int bandRows;
+	private BufferedImage band;
+	private int bandTop;
+
+	private ReaderPixelSource(ImageInputStream stream, ImageReader reader, int bandPixels) throws IOException {
+		this.stream = stream;
+		this.reader = reader;
+		this.width = reader.getWidth(0);
+		this.height = reader.getHeight(0);
+		this.bandRows = Math.max(1, bandPixels / width);
+	}
+
+	/**
+	 * Opens an image file with bands of the default size.
+	 *
+	 * @see ReaderPixelSource#open(File, int)
+	 */
+	public static ReaderPixelSource open(File file) throws IOException {
+		return open(file, DEFAULT_BAND_PIXELS);
+	}
+
+	/**
+	 * Opens an image file.
+	 *
+	 * @param file - the image file.
+	 * @param bandPixels - the number of pixels decoded at a time, which is
+	 *        rounded down to whole rows.
+	 * @return the source, which must be closed.
+	 * @throws IOException if the file cannot be read by any reader.
+	 */
+	public static ReaderPixelSource open(File file, int bandPixels) throws IOException {
+		ImageInputStream stream = ImageUtil.createImageInputStream(file);
+		ImageReader reader;
+
+		try {
+			reader = ImageUtil.createImageReader(stream);
+		} catch (IOException e) {
+			stream.close();
+			throw e;
+		}
+
+		if (reader == null) {
+			stream.close();
+			throw new IOException("Not a supported image file: " + file.getName());
+		}
+
+		try {
+			return new ReaderPixelSource(stream, reader, bandPixels);
+		} catch (IOException e) {
+			reader.dispose();
+			stream.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @throws UncheckedIOException if a band cannot be decoded.
+	 */
+	@Override
+	public synchronized int[] getPixels(int x, int y, int w, int h, int[] pixels) {
+		if (pixels == null) {
+			pixels = new int[w * h];
+		}
+
+		int[] part = null;
+
+		for (int row = y; row < y + h;) {
+			loadBand(row);
+
+			int rows = Math.min(y + h, bandTop + band.getHeight()) - row;
+
+			if (row == y && rows == h) {
+				return RasterUtil.getPixels(band, x, row - bandTop, w, h, pixels);
+			}
+
+			// The region spans bands, so each part is copied into place.
+			part = RasterUtil.getPixels(band, x, row - bandTop, w, rows, part != null && part.length >= w * rows ? part : null);
+			System.arraycopy(part, 0, pixels, (row - y) * w, w * rows);
+			row += rows;
+		}
+
+		return pixels;
+	}
+
+	private void loadBand(int row) {
+		if (band != null && row >= bandTop && row < bandTop + band.getHeight()) {
+			return;
+		}
+
+		int top = row / bandRows * bandRows;
+		ImageReadParam param = reader.getDefaultReadParam();
+		param.setSourceRegion(new Rectangle(0, top, width, Math.min(bandRows, height - top)));
+
+		try {
+			band = null;
+			band = reader.read(0, param);
+			bandTop = top;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.dispose();
+		stream.close();
+	}
+}
@@ -0,0 +1,192 @@
+package watermark.core.io;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import watermark.core.pixel.PixelSource;
+
+/**
+ * This class reads the pixels of an uncompressed PPM, PAM or raw ARGB image
+ * from a stream, so an image arriving from a pipe, a socket or an archive is
+ * encoded or decoded in a single pass without holding all of its pixels.
+ *
+ * Rows are read in increasing order. The rows of the last region read are
+ * kept, so the next region may overlap it, but rows above it are discarded
+ * and cannot be read again.
+ *
+ * @author Ryan M. Kane
+ */
+public class StreamPixelSource implements PixelSource, Closeable {
+	// The most bytes a header may take before the pixel data.
+	private static final int HEADER_LIMIT = 4096;
+
+	private final InputStream in;
+	private final MappedImage.Layout layout;
+	private final byte[] rowBytes;
+	private int[] rows = new int[0];
+	private int top;
+	private int bottom;
+
+	/**
+	 * Reads the header of an image from a stream.
+	 *
+	 * @param in - the stream, positioned at the start of the image.
+	 * @throws IOException if the header cannot be read or is not supported.
+	 */
+	public StreamPixelSource(InputStream in) throws IOException {
+		this.in = in.markSupported() ? in : new BufferedInputStream(in);
+
+		this.in.mark(HEADER_LIMIT);
+		byte[] head = this.in.readNBytes(HEADER_LIMIT);
+		this.in.reset();
+
+		this.layout = MappedImage.readLayout(ByteBuffer.wrap(head));
+		this.rowBytes = new byte[layout.stride];
+		this.in.skipNBytes(layout.dataOffset);
+	}
+
+	@Override
+	public int getWidth() {
+		return layout.width;
+	}
+
+	@Override
+	public int getHeight() {
+		return layout.height;
+	}
+
+	/**
+	 * @return the format of the image, as one of the formats of
+	 *         {@link MappedImage}.
+	 */
+	public int getFormat() {
+		return layout.format;
+	}
+
+	/**
+	 * Reads a region, which must not start above the last region read.
+	 *
+	 * @throws IllegalStateException if the rows of the region were discarded.
+	 * @throws UncheckedIOException if the stream cannot be read.
+	 */
+	@Override
+	public int[] getPixels(int x, int y, int w, int h, int[] pixels) {
+		int width = layout.width;
+
+		if (y < top) {
+			throw new IllegalStateException("Row " + y + " was discarded, since the stream is at row " + top + ".");
+		}
+
+		if (x < 0 || w < 0 || h < 0 || x + w > width || y + h > layout.height) {
+			throw new IndexOutOfBoundsException("Region " + w + "x" + h + " at " + x + "," + y + " is outside the image.");
+		}
+
+		try {
+			advance(y, y + h);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		if (pixels == null) {
+			pixels = new int[w * h];
+		}
+
+		for (int row = 0; row < h; row++) {
+			System.arraycopy(rows, (y - top + row) * width + x, pixels, row * w, w);
+		}
+
+		return pixels;
+	}
+
+	/**
+	 * Discards the rows above the first row, and reads rows until the last
+	 * row is held.
+	 */
+	private void advance(int first, int last) throws IOException {
+		int width = layout.width;
+
+		if (first >= bottom) {
+			while (bottom < first) {
+				readRow(null, 0);
+				bottom++;
+			}
+
+			top = bottom;
+		} else if (first > top) {
+			System.arraycopy(rows, (first - top) * width, rows, 0, (bottom - first) * width);
+			top = first;
+		}
+
+		if (last > bottom) {
+			int needed = (last - top) * width;
+
+			if (rows.length < needed) {
+				rows = Arrays.copyOf(rows, needed);
+			}
+
+			for (; bottom < last; bottom++) {
+				readRow(rows, (bottom - top) * width);
+			}
+		}
+	}
+
+	/**
+	 * Reads the next row of the stream as packed ARGB integers.
+	 *
+	 * @param dest - the array to write to, or null to skip the row.
+	 * @param offset - the index of the first pixel.
+	 */
+	private void readRow(int[] dest, int offset) throws IOException {
+		if (in.readNBytes(rowBytes, 0, rowBytes.length) < rowBytes.length) {
+			throw new EOFException("The image stream ended at row " + bottom + " of " + layout.height + ".");
+		}
+
+		if (dest == null) {
+			return;
+		}
+
+		byte[] b = rowBytes;
+		int width = layout.width;
+
+		if (layout.format == MappedImage.FORMAT_RAW) {
+			for (int i = 0, j = 0; i < width; i++, j += 4) {
+				dest[offset + i] = (b[j] << 24) | ((b[j + 1] & 0xFF) << 16) | ((b[j + 2] & 0xFF) << 8) | (b[j + 3] & 0xFF);
+			}
+
+			return;
+		}
+
+		switch (layout.channels) {
+			case 1:
+				for (int i = 0; i < width; i++) {
+					dest[offset + i] = 0xFF000000 | (b[i] & 0xFF) * 0x010101;
+				}
+				break;
+			case 2:
+				for (int i = 0, j = 0; i < width; i++, j += 2) {
+					dest[offset + i] = (b[j + 1] << 24) | (b[j] & 0xFF) * 0x010101;
+				}
+				break;
+			case 3:
+				for (int i = 0, j = 0; i < width; i++, j += 3) {
+					dest[offset + i] = 0xFF000000 | ((b[j] & 0xFF) << 16) | ((b[j + 1] & 0xFF) << 8) | (b[j + 2] & 0xFF);
+				}
+				break;
+			default:
+				for (int i = 0, j = 0; i < width; i++, j += 4) {
+					dest[offset + i] = (b[j + 3] << 24) | ((b[j] & 0xFF) << 16) | ((b[j + 1] & 0xFF) << 8) | (b[j + 2] & 0xFF);
+				}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
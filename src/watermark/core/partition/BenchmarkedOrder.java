@@ -0,0 +1,234 @@
+package watermark.core.partition;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import watermark.core.datatypes.buffer.ScratchArena;
+import watermark.core.datatypes.partition.BlockPartition;
+import watermark.core.util.ExecutorUtil;
+import watermark.core.util.RasterUtil;
+
+/**
+ * This class picks the fastest of several orders for each image shape. The
+ * orders are timed by {@link #benchmark(BufferedImage, BlockPartition)},
+ * which scans an image block by block in every candidate order. The
+ * {@link watermark.core.tuning.AutoTuner} runs it on its samples and records
+ * the choices in the tuning profile, which restores them with
+ * {@link #setChoice(String, int)}.
+ *
+ * Requests never wait for a benchmark. The first image of a shape without a
+ * choice is benchmarked on a background executor while its request uses the
+ * fallback order, and later images of that shape use the choice. Images too
+ * small to leave the processor caches are not benchmarked.
+ *
+ * @author Ryan M. Kane
+ */
+public class BenchmarkedOrder implements BlockOrder {
+	public static final int DEFAULT_MIN_PIXELS = 1 << 18;
+	public static final int ROUNDS = 3;
+
+	private static volatile int sink;
+
+	private final BlockOrder[] candidates;
+	private final Map<String, Integer> choices = new ConcurrentHashMap<String, Integer>();
+	private final Set<String> pending = ConcurrentHashMap.newKeySet();
+	private int minPixels;
+	private int fallback;
+	private Executor executor = ExecutorUtil.getBackgroundExecutor();
+
+	public BenchmarkedOrder() {
+		this(new RowMajorOrder(), new MortonOrder(), new TiledOrder());
+	}
+
+	/**
+	 * @param candidates - the orders to choose from. The first is the
+	 *            fallback for shapes which have not been benchmarked.
+	 */
+	public BenchmarkedOrder(BlockOrder... candidates) {
+		if (candidates.length == 0) {
+			throw new IllegalArgumentException("At least one block order is required.");
+		}
+
+		this.candidates = candidates.clone();
+		this.minPixels = DEFAULT_MIN_PIXELS;
+	}
+
+	public int getMinPixels() {
+		return minPixels;
+	}
+
+	public void setMinPixels(int minPixels) {
+		this.minPixels = minPixels;
+	}
+
+	/**
+	 * @return the index of the candidate used for shapes without a choice.
+	 */
+	public int getFallback() {
+		return fallback;
+	}
+
+	public void setFallback(int fallback) {
+		if (fallback < 0 || fallback >= candidates.length) {
+			throw new IllegalArgumentException("No block order " + fallback);
+		}
+
+		this.fallback = fallback;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * @param executor - the executor which benchmarks new shapes, or null to
+	 *        only use recorded choices.
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	@Override
+	public int[] order(BufferedImage image, BlockPartition partition) {
+		return choose(image, partition).order(image, partition);
+	}
+
+	/**
+	 * Returns the order chosen for the shape of an image. A shape without a
+	 * choice uses the fallback, and is benchmarked in the background.
+	 *
+	 * @param image - the image which holds the blocks, or null if they are
+	 *        held by a pixel store, which uses the fallback.
+	 * @param partition - the blocks of the image.
+	 * @return the fastest order for the shape.
+	 */
+	public BlockOrder choose(BufferedImage image, BlockPartition partition) {
+		if (image == null || partition.getBlockCount() == 0) {
+			return candidates[fallback];
+		}
+
+		String shape = getShapeKey(image, partition);
+		Integer choice = choices.get(shape);
+
+		if (choice != null) {
+			return candidates[choice];
+		}
+
+		if (executor != null && isLarge(image) && pending.add(shape)) {
+			try {
+				executor.execute(() -> benchmark(image, partition));
+			} catch (RejectedExecutionException e) {
+				pending.remove(shape);
+			}
+		}
+
+		return candidates[fallback];
+	}
+
+	/**
+	 * Times every candidate on an image and records the fastest for its
+	 * shape. Images too small to leave the processor caches are not timed.
+	 *
+	 * @param image - the sample image.
+	 * @param partition - the blocks of the image.
+	 * @return the fastest order for the shape.
+	 */
+	public BlockOrder benchmark(BufferedImage image, BlockPartition partition) {
+		if (!isLarge(image) || partition.getBlockCount() == 0) {
+			return candidates[fallback];
+		}
+
+		int fastest = time(image, partition);
+		choices.put(getShapeKey(image, partition), fastest);
+
+		return candidates[fastest];
+	}
+
+	/**
+	 * @return the index of the candidate chosen for each benchmarked shape.
+	 */
+	public Map<String, Integer> getChoices() {
+		return new TreeMap<String, Integer>(choices);
+	}
+
+	/**
+	 * Records the candidate for a shape, as benchmarked earlier.
+	 *
+	 * @param shape - the key of the shape, from {@link #getChoices()}.
+	 * @param candidate - the index of the candidate.
+	 */
+	public void setChoice(String shape, int candidate) {
+		if (candidate < 0 || candidate >= candidates.length) {
+			throw new IllegalArgumentException("No block order " + candidate + " for shape " + shape);
+		}
+
+		choices.put(shape, candidate);
+	}
+
+	private boolean isLarge(BufferedImage image) {
+		return (long) image.getWidth() * image.getHeight() >= minPixels;
+	}
+
+	/**
+	 * Groups images by type, the power of two below each dimension and the
+	 * size of the first block.
+	 */
+	private static String getShapeKey(BufferedImage image, BlockPartition partition) {
+		Rectangle first = partition.getBlock(0);
+
+		return image.getType() + ":" + Integer.highestOneBit(image.getWidth()) + "x" + Integer.highestOneBit(image.getHeight())
+				+ ":" + first.width + "x" + first.height + (partition.isAdaptive() ? ":adaptive" : "");
+	}
+
+	private int time(BufferedImage image, BlockPartition partition) {
+		int[][] orders = new int[candidates.length][];
+		long[] best = new long[candidates.length];
+
+		for (int i = 0; i < candidates.length; i++) {
+			orders[i] = candidates[i].order(image, partition);
+			best[i] = Long.MAX_VALUE;
+		}
+
+		// The rounds interleave the candidates so none is favoured by a cache
+		// warmed up by the one before it.
+		for (int round = 0; round < ROUNDS; round++) {
+			for (int i = 0; i < candidates.length; i++) {
+				long start = System.nanoTime();
+				scan(image, partition, orders[i]);
+				best[i] = Math.min(best[i], System.nanoTime() - start);
+			}
+		}
+
+		int fastest = 0;
+
+		for (int i = 1; i < candidates.length; i++) {
+			if (best[i] < best[fastest]) {
+				fastest = i;
+			}
+		}
+
+		return fastest;
+	}
+
+	/**
+	 * Reads every block in the given order, as an encode or decode would.
+	 */
+	private static void scan(BufferedImage image, BlockPartition partition, int[] order) {
+		ScratchArena arena = ScratchArena.get();
+		int checksum = 0;
+
+		for (int i = 0; i < partition.getBlockCount(); i++) {
+			Rectangle r = partition.getBlock(order != null ? order[i] : i);
+			int[] pixels = RasterUtil.getPixels(image, r.x, r.y, r.width, r.height, arena.getPixels(r.width * r.height));
+			checksum += pixels[0];
+		}
+
+		sink = checksum;
+	}
+}
@@ -0,0 +1,26 @@
+package watermark.core.partition;
+
+import java.awt.image.BufferedImage;
+
+import watermark.core.datatypes.partition.BlockPartition;
+
+/**
+ * This interface describes the order in which the blocks of a partition are
+ * visited. Workers take contiguous runs of the order, so an order which keeps
+ * neighbouring positions close in the image keeps each worker within a small
+ * region of the raster.
+ *
+ * @author Ryan M. Kane
+ */
+public interface BlockOrder {
+	/**
+	 * Orders the blocks of a partition.
+	 *
+	 * @param image - the image which holds the blocks, or null if they are
+	 *        held by a pixel store.
+	 * @param partition - the blocks of the image.
+	 * @return the block indices in visiting order, or null to visit them in
+	 *         the order of the partition.
+	 */
+	int[] order(BufferedImage image, BlockPartition partition);
+}
@@ -0,0 +1,26 @@
+package watermark.core.partition;
+
+import java.awt.image.BufferedImage;
+
+import watermark.core.datatypes.embedding.ChannelEmbedding;
+import watermark.core.datatypes.partition.BlockPartition;
+
+/**
+ * This interface describes a strategy for dividing an image into the blocks
+ * which are signed individually.
+ *
+ * @author Ryan M. Kane
+ */
+public interface BlockPartitioner {
+	/**
+	 * Partitions the rows of an image below a reserved strip into blocks.
+	 *
+	 * @param image - the image to partition.
+	 * @param top - the first row which belongs to the blocks.
+	 * @param blockSize - image blocks pixel size.
+	 * @param embedding - the channels and bits which carry the payload.
+	 * @param payloadLength - the number of cipher bytes each block must hold.
+	 * @return the blocks of the image.
+	 */
+	BlockPartition partition(BufferedImage image, int top, int blockSize, ChannelEmbedding embedding, int payloadLength);
+}
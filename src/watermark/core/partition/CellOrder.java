@@ -0,0 +1,74 @@
+package watermark.core.partition;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import watermark.core.datatypes.partition.BlockPartition;
+
+/**
+ * This class orders blocks by a key of the cell each block starts in. The
+ * cells are the size of the smallest block, so an adaptive partition is
+ * ordered on the same lattice as a grid.
+ *
+ * @author Ryan M. Kane
+ */
+abstract class CellOrder implements BlockOrder {
+	@Override
+	public int[] order(BufferedImage image, BlockPartition partition) {
+		int count = partition.getBlockCount();
+		int[] order = new int[count];
+
+		if (count == 0) {
+			return order;
+		}
+
+		int left = Integer.MAX_VALUE;
+		int top = Integer.MAX_VALUE;
+		int right = 0;
+		int bottom = 0;
+		int cellWidth = Integer.MAX_VALUE;
+		int cellHeight = Integer.MAX_VALUE;
+
+		for (Rectangle r : partition.getBlocks()) {
+			left = Math.min(left, r.x);
+			top = Math.min(top, r.y);
+			right = Math.max(right, r.x + r.width);
+			bottom = Math.max(bottom, r.y + r.height);
+			cellWidth = Math.min(cellWidth, r.width);
+			cellHeight = Math.min(cellHeight, r.height);
+		}
+
+		int cols = (right - left + cellWidth - 1) / cellWidth;
+		int rows = (bottom - top + cellHeight - 1) / cellHeight;
+
+		// Each key holds the cell key in the high half and the block index in
+		// the low half, so sorting the keys sorts the indices.
+		long[] keys = new long[count];
+
+		for (int i = 0; i < count; i++) {
+			Rectangle r = partition.getBlock(i);
+			long key = getKey((r.x - left) / cellWidth, (r.y - top) / cellHeight, cols, rows);
+			keys[i] = (key << 32) | i;
+		}
+
+		Arrays.sort(keys);
+
+		for (int i = 0; i < count; i++) {
+			order[i] = (int) keys[i];
+		}
+
+		return order;
+	}
+
+	/**
+	 * Returns the sort key of a cell. The key must fit in 31 bits.
+	 *
+	 * @param col - the column of the cell.
+	 * @param row - the row of the cell.
+	 * @param cols - the number of columns.
+	 * @param rows - the number of rows.
+	 * @return the sort key of the cell.
+	 */
+	protected abstract long getKey(int col, int row, int cols, int rows);
+}
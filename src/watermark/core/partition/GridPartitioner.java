@@ -0,0 +1,38 @@
+package watermark.core.partition;
+
+import java.awt.image.BufferedImage;
+
+import watermark.core.datatypes.embedding.ChannelEmbedding;
+import watermark.core.datatypes.partition.BlockPartition;
+
+/**
+ * This class partitions an image into a fixed grid of square blocks. Only
+ * full blocks are part of the partition, so the partial blocks along the
+ * right and bottom edges are not signed.
+ *
+ * @author Ryan M. Kane
+ */
+public class GridPartitioner implements BlockPartitioner {
+	@Override
+	public BlockPartition partition(BufferedImage image, int top, int blockSize, ChannelEmbedding embedding, int payloadLength) {
+		return partition(image.getWidth(), image.getHeight(), top, blockSize);
+	}
+
+	/**
+	 * Partitions the rows of an image below a reserved strip into a grid of
+	 * full blocks, in row-major order. The blocks are computed from their
+	 * index rather than held.
+	 *
+	 * @param width - the width of the image.
+	 * @param height - the height of the image.
+	 * @param top - the first row which belongs to the blocks.
+	 * @param blockSize - image blocks pixel size.
+	 * @return the blocks of the image.
+	 */
+	public static BlockPartition partition(int width, int height, int top, int blockSize) {
+		int rows = Math.max(0, height - top) / blockSize;
+		int cols = width / blockSize;
+
+		return new BlockPartition(cols, rows, top, blockSize);
+	}
+}
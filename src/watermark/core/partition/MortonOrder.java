@@ -0,0 +1,29 @@
+package watermark.core.partition;
+
+/**
+ * This class visits the blocks along a Z-order (Morton) curve. Any aligned
+ * run of 4^n positions covers a square of cells, so a worker's range stays
+ * compact in both directions however wide the image is.
+ *
+ * @author Ryan M. Kane
+ */
+public class MortonOrder extends CellOrder {
+	@Override
+	protected long getKey(int col, int row, int cols, int rows) {
+		return spread(col) | (spread(row) << 1);
+	}
+
+	/**
+	 * Spreads the low 15 bits of a value to the even bits of the result.
+	 */
+	private static long spread(int value) {
+		long x = value & 0x7FFF;
+
+		x = (x | (x << 8)) & 0x00FF00FFL;
+		x = (x | (x << 4)) & 0x0F0F0F0FL;
+		x = (x | (x << 2)) & 0x33333333L;
+		x = (x | (x << 1)) & 0x55555555L;
+
+		return x;
+	}
+}
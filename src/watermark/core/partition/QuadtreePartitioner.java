@@ -0,0 +1,338 @@
+package watermark.core.partition;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import watermark.core.datatypes.embedding.ChannelEmbedding;
+import watermark.core.datatypes.partition.BlockPartition;
+import watermark.core.util.BitUtil;
+import watermark.core.util.ImageUtil;
+
+/**
+ * This class partitions an image adaptively. The image is first divided into
+ * root tiles of the block size, where the last tile of each row and column
+ * absorbs the remainder so the edges are covered. Each tile is then split into
+ * quadrants while its content is busy and each quadrant can still hold the
+ * payload. Flat regions therefore get few large blocks and detailed regions
+ * get many small ones.
+ *
+ * The structure is encoded as one bit per node which could be split, in
+ * pre-order, and is stored in the LSB of a strip of rows below the header:
+ *
+ * <pre>
+ * rows (4) | bit count (4) | CRC32 (4) | structure bits
+ * </pre>
+ *
+ * The checksum only rejects a damaged structure. The whole strip, including
+ * its unused bits, is signed with the header, so a changed structure which
+ * still reads is reported as a tampered strip.
+ *
+ * @author Ryan M. Kane
+ */
+public class QuadtreePartitioner implements BlockPartitioner {
+	public static final double DEFAULT_THRESHOLD = 8.0;
+	public static final int PREFIX_SIZE = 12;
+
+	private double threshold;
+
+	public QuadtreePartitioner() {
+		this(DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * @param threshold - the mean absolute luminance difference between
+	 *            neighboring pixels above which a block is split.
+	 */
+	public QuadtreePartitioner(double threshold) {
+		this.threshold = threshold;
+	}
+
+	public double getThreshold() {
+		return threshold;
+	}
+
+	public void setThreshold(double threshold) {
+		this.threshold = threshold;
+	}
+
+	@Override
+	public BlockPartition partition(BufferedImage image, int top, int blockSize, ChannelEmbedding embedding, int payloadLength) {
+		Walker walker = new Walker(embedding, payloadLength);
+		walker.owner = this;
+		walker.image = image;
+		walker.keep = ~BitUtil.getEmbeddingMask(embedding.getChannels(), embedding.getBitsPerChannel());
+		walker.walkTiles(image.getWidth(), image.getHeight(), top, blockSize);
+
+		return walker.toPartition();
+	}
+
+	/**
+	 * Rebuilds the partition described by an encoded structure.
+	 *
+	 * @param width - the width of the image.
+	 * @param height - the height of the image.
+	 * @param top - the first row which belongs to the blocks.
+	 * @param blockSize - the size of the root tiles.
+	 * @param embedding - the channels and bits which carry the payload.
+	 * @param payloadLength - the number of cipher bytes each block holds.
+	 * @param structure - the encoded structure.
+	 * @param structureBits - the number of bits used in the structure.
+	 * @return the rebuilt partition, or null if the structure is invalid.
+	 */
+	public static BlockPartition rebuild(int width, int height, int top, int blockSize, ChannelEmbedding embedding,
+			int payloadLength, byte[] structure, int structureBits) {
+		Walker walker = new Walker(embedding, payloadLength);
+		walker.input = BitSet.valueOf(structure);
+		walker.inputBits = structureBits;
+		walker.output = walker.input;
+		walker.walkTiles(width, height, top, blockSize);
+
+		if (walker.bitCount != structureBits) {
+			return null;
+		}
+
+		return walker.toPartition();
+	}
+
+	/**
+	 * Returns the number of rows needed to store an adaptive partition.
+	 *
+	 * @param partition - the adaptive partition.
+	 * @param width - the width of the image.
+	 * @return the number of rows needed for the structure.
+	 */
+	public static int getStructureRows(BlockPartition partition, int width) {
+		return ImageUtil.getStripRows(width, (PREFIX_SIZE + partition.getStructure().length) * 8L);
+	}
+
+	/**
+	 * Stores the structure of an adaptive partition in a strip of rows.
+	 *
+	 * @param img - the image to write to.
+	 * @param top - the first row of the strip.
+	 * @param rows - the height of the strip, which may exceed the rows needed.
+	 * @param partition - the adaptive partition.
+	 */
+	public static void writeStructure(BufferedImage img, int top, int rows, BlockPartition partition) {
+		byte[] structure = partition.getStructure();
+		ByteBuffer buffer = ByteBuffer.allocate(PREFIX_SIZE + structure.length);
+		buffer.putInt(rows);
+		buffer.putInt(partition.getStructureBits());
+		buffer.putInt(checksum(structure));
+		buffer.put(structure);
+
+		ImageUtil.writeStripBits(img, top, buffer.array());
+	}
+
+	/**
+	 * Reads the height of the strip which stores a structure.
+	 *
+	 * @param img - the image to read from.
+	 * @param top - the first row of the strip.
+	 * @return the number of rows of the strip, or 0 if it cannot be read or
+	 *         does not fit in the image.
+	 */
+	public static int readStructureRows(BufferedImage img, int top) {
+		byte[] prefix = ImageUtil.readStripBits(img, top, PREFIX_SIZE);
+
+		if (prefix == null) {
+			return 0;
+		}
+
+		int rows = ByteBuffer.wrap(prefix).getInt();
+
+		return rows > 0 && rows < img.getHeight() - top ? rows : 0;
+	}
+
+	/**
+	 * Reads the structure stored in a strip of rows and rebuilds the
+	 * partition of the rows below it.
+	 *
+	 * @param img - the image to read from.
+	 * @param top - the first row of the strip.
+	 * @param blockSize - the size of the root tiles.
+	 * @param embedding - the channels and bits which carry the payload.
+	 * @param payloadLength - the number of cipher bytes each block holds.
+	 * @return the partition, or null if the strip is not valid.
+	 */
+	public static BlockPartition read(BufferedImage img, int top, int blockSize, ChannelEmbedding embedding, int payloadLength) {
+		byte[] prefix = ImageUtil.readStripBits(img, top, PREFIX_SIZE);
+
+		if (prefix == null) {
+			return null;
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(prefix);
+		int rows = buffer.getInt();
+		int structureBits = buffer.getInt();
+		int crc = buffer.getInt();
+
+		if (rows <= 0 || structureBits < 0 || (long) top + rows >= img.getHeight()) {
+			return null;
+		}
+
+		// A tampered prefix may claim more bits than the strip holds.
+		long length = (structureBits + 7L) / 8;
+
+		if ((PREFIX_SIZE + length) * 8 > (long) img.getWidth() * rows) {
+			return null;
+		}
+
+		byte[] data = ImageUtil.readStripBits(img, top, PREFIX_SIZE + (int) length);
+		byte[] structure = Arrays.copyOfRange(data, PREFIX_SIZE, data.length);
+
+		if (checksum(structure) != crc) {
+			return null;
+		}
+
+		return rebuild(img.getWidth(), img.getHeight(), top + rows, blockSize, embedding, payloadLength, structure, structureBits);
+	}
+
+	/**
+	 * Returns the mean absolute luminance difference between horizontally and
+	 * vertically neighboring pixels of a region, ignoring the embedding bits.
+	 */
+	private static double getActivity(BufferedImage image, int keep, int x, int y, int w, int h) {
+		int[] pixels = image.getRGB(x, y, w, h, null, 0, w);
+		long total = 0;
+		long pairs = 0;
+
+		for (int i = 0; i < pixels.length; i++) {
+			pixels[i] = luminance(pixels[i] & keep);
+		}
+
+		for (int row = 0; row < h; row++) {
+			int offset = row * w;
+
+			for (int col = 0; col < w; col++) {
+				int value = pixels[offset + col];
+
+				if (col + 1 < w) {
+					total += Math.abs(value - pixels[offset + col + 1]);
+					pairs++;
+				}
+				if (row + 1 < h) {
+					total += Math.abs(value - pixels[offset + col + w]);
+					pairs++;
+				}
+			}
+		}
+
+		return pairs == 0 ? 0 : (double) total / pairs;
+	}
+
+	private static int luminance(int argb) {
+		int r = (argb >> 16) & 0xFF;
+		int g = (argb >> 8) & 0xFF;
+		int b = argb & 0xFF;
+		return (r * 2 + g * 5 + b) >> 3;
+	}
+
+	private static int checksum(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Walks the quadtree of every root tile, either deciding the splits from
+	 * the image content or reading them from an encoded structure.
+	 */
+	private static class Walker {
+		private final long payloadBits;
+		private final int bitsPerPixel;
+		private final List<Rectangle> blocks = new ArrayList<Rectangle>();
+
+		// Set when building from the image content.
+		private QuadtreePartitioner owner;
+		private BufferedImage image;
+		private int keep;
+		private BitSet output = new BitSet();
+
+		// Set when rebuilding from a structure.
+		private BitSet input;
+		private int inputBits;
+
+		private int bitCount;
+		private boolean invalid;
+
+		Walker(ChannelEmbedding embedding, int payloadLength) {
+			this.payloadBits = payloadLength * 8L;
+			this.bitsPerPixel = embedding.getBitsPerPixel();
+		}
+
+		void walkTiles(int width, int height, int top, int tileSize) {
+			int bodyHeight = height - top;
+
+			if (width <= 0 || bodyHeight <= 0) {
+				return;
+			}
+
+			int cols = Math.max(1, width / tileSize);
+			int rows = Math.max(1, bodyHeight / tileSize);
+
+			for (int row = 0; row < rows && !invalid; row++) {
+				int y = top + row * tileSize;
+				int h = row < rows - 1 ? tileSize : bodyHeight - row * tileSize;
+
+				for (int col = 0; col < cols && !invalid; col++) {
+					int x = col * tileSize;
+					int w = col < cols - 1 ? tileSize : width - col * tileSize;
+
+					walk(x, y, w, h);
+				}
+			}
+		}
+
+		void walk(int x, int y, int w, int h) {
+			int w1 = w / 2;
+			int h1 = h / 2;
+
+			// Only nodes whose smallest quadrant can hold the payload have a bit.
+			if (w1 > 0 && h1 > 0 && (long) w1 * h1 * bitsPerPixel >= payloadBits) {
+				boolean split;
+
+				if (input != null) {
+					if (bitCount >= inputBits) {
+						invalid = true;
+						return;
+					}
+					split = input.get(bitCount);
+				} else {
+					split = getActivity(image, keep, x, y, w, h) > owner.threshold;
+					output.set(bitCount, split);
+				}
+
+				bitCount++;
+
+				if (split) {
+					walk(x, y, w1, h1);
+					walk(x + w1, y, w - w1, h1);
+					walk(x, y + h1, w1, h - h1);
+					walk(x + w1, y + h1, w - w1, h - h1);
+					return;
+				}
+			}
+
+			if ((long) w * h * bitsPerPixel >= payloadBits) {
+				blocks.add(new Rectangle(x, y, w, h));
+			}
+		}
+
+		BlockPartition toPartition() {
+			if (invalid) {
+				return null;
+			}
+
+			byte[] structure = Arrays.copyOf(output.toByteArray(), (bitCount + 7) / 8);
+
+			return new BlockPartition(blocks, structure, bitCount);
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package watermark.core.partition;
+
+import java.awt.image.BufferedImage;
+
+import watermark.core.datatypes.partition.BlockPartition;
+
+/**
+ * This class visits the blocks in the order of the partition, which is
+ * row-major for a grid. No index array is built for it.
+ *
+ * @author Ryan M. Kane
+ */
+public class RowMajorOrder implements BlockOrder {
+	@Override
+	public int[] order(BufferedImage image, BlockPartition partition) {
+		return null;
+	}
+}
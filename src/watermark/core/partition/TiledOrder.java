@@ -0,0 +1,41 @@
+package watermark.core.partition;
+
+/**
+ * This class visits the blocks tile by tile, where a tile is a square of
+ * cells, and row by row within each tile. The tiles are visited in row-major
+ * order.
+ *
+ * @author Ryan M. Kane
+ */
+public class TiledOrder extends CellOrder {
+	public static final int DEFAULT_TILE_CELLS = 8;
+
+	private int tileCells;
+
+	public TiledOrder() {
+		this(DEFAULT_TILE_CELLS);
+	}
+
+	/**
+	 * @param tileCells - the width and height of a tile in cells.
+	 */
+	public TiledOrder(int tileCells) {
+		this.tileCells = Math.max(1, tileCells);
+	}
+
+	public int getTileCells() {
+		return tileCells;
+	}
+
+	public void setTileCells(int tileCells) {
+		this.tileCells = Math.max(1, tileCells);
+	}
+
+	@Override
+	protected long getKey(int col, int row, int cols, int rows) {
+		int tilesAcross = (cols + tileCells - 1) / tileCells;
+		long tile = (long) (row / tileCells) * tilesAcross + col / tileCells;
+
+		return tile * tileCells * tileCells + (row % tileCells) * tileCells + col % tileCells;
+	}
+}
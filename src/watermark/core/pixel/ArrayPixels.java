@@ -0,0 +1,77 @@
+package watermark.core.pixel;
+
+/**
+ * This class reads and writes packed ARGB pixels held in an int array, which
+ * is used in place.
+ *
+ * @author Ryan M. Kane
+ */
+public class ArrayPixels implements PixelSink {
+	private final int[] data;
+	private final int offset;
+	private final int width;
+	private final int height;
+	private final int stride;
+
+	/**
+	 * @param data - the pixels, row by row without padding.
+	 * @param width - the width of the image.
+	 * @param height - the height of the image.
+	 */
+	public ArrayPixels(int[] data, int width, int height) {
+		this(data, 0, width, height, width);
+	}
+
+	/**
+	 * @param data - the array which holds the pixels.
+	 * @param offset - the index of the first pixel.
+	 * @param width - the width of the image.
+	 * @param height - the height of the image.
+	 * @param stride - the distance between rows in the array.
+	 */
+	public ArrayPixels(int[] data, int offset, int width, int height, int stride) {
+		if (width < 1 || height < 1 || stride < width || offset < 0 || offset + (long) stride * (height - 1) + width > data.length) {
+			throw new IllegalArgumentException("A " + data.length + "-pixel array cannot hold a " + width + "x" + height + " image.");
+		}
+
+		this.data = data;
+		this.offset = offset;
+		this.width = width;
+		this.height = height;
+		this.stride = stride;
+	}
+
+	public int[] getData() {
+		return data;
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public int[] getPixels(int x, int y, int w, int h, int[] pixels) {
+		if (pixels == null) {
+			pixels = new int[w * h];
+		}
+
+		for (int row = 0; row < h; row++) {
+			System.arraycopy(data, offset + (y + row) * stride + x, pixels, row * w, w);
+		}
+
+		return pixels;
+	}
+
+	@Override
+	public void setPixels(int x, int y, int w, int h, int[] pixels) {
+		for (int row = 0; row < h; row++) {
+			System.arraycopy(pixels, row * w, data, offset + (y + row) * stride + x, w);
+		}
+	}
+}
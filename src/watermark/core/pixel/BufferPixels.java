@@ -0,0 +1,76 @@
+package watermark.core.pixel;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * This class reads and writes packed ARGB pixels held in an NIO buffer, such
+ * as direct memory or a mapped file, in place. The buffer is only accessed
+ * by absolute index, so its position is left as it was. A read-only buffer
+ * can only be used as a source.
+ *
+ * @author Ryan M. Kane
+ */
+public class BufferPixels implements PixelSink {
+	private final IntBuffer buffer;
+	private final int width;
+	private final int height;
+	private final int stride;
+
+	/**
+	 * @param buffer - the pixels as ints in the buffer's byte order, row by row
+	 *        without padding, from the buffer's position.
+	 * @param width - the width of the image.
+	 * @param height - the height of the image.
+	 */
+	public BufferPixels(ByteBuffer buffer, int width, int height) {
+		this(buffer.slice().order(buffer.order()).asIntBuffer(), width, height, width);
+	}
+
+	/**
+	 * @param buffer - the pixels, from the buffer's position.
+	 * @param width - the width of the image.
+	 * @param height - the height of the image.
+	 * @param stride - the distance between rows in the buffer.
+	 */
+	public BufferPixels(IntBuffer buffer, int width, int height, int stride) {
+		if (width < 1 || height < 1 || stride < width || (long) stride * (height - 1) + width > buffer.remaining()) {
+			throw new IllegalArgumentException("A " + buffer.remaining() + "-pixel buffer cannot hold a " + width + "x" + height + " image.");
+		}
+
+		this.buffer = buffer.slice();
+		this.width = width;
+		this.height = height;
+		this.stride = stride;
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public int[] getPixels(int x, int y, int w, int h, int[] pixels) {
+		if (pixels == null) {
+			pixels = new int[w * h];
+		}
+
+		for (int row = 0; row < h; row++) {
+			buffer.get((y + row) * stride + x, pixels, row * w, w);
+		}
+
+		return pixels;
+	}
+
+	@Override
+	public void setPixels(int x, int y, int w, int h, int[] pixels) {
+		for (int row = 0; row < h; row++) {
+			buffer.put((y + row) * stride + x, pixels, row * w, w);
+		}
+	}
+}
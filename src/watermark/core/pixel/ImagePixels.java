@@ -0,0 +1,43 @@
+package watermark.core.pixel;
+
+import java.awt.image.BufferedImage;
+
+import watermark.core.util.RasterUtil;
+
+/**
+ * This class reads and writes the pixels of an image through its raster. As
+ * a sink, the image must be able to hold the embedding bits of the encode.
+ *
+ * @author Ryan M. Kane
+ */
+public class ImagePixels implements PixelSink {
+	private final BufferedImage image;
+
+	public ImagePixels(BufferedImage image) {
+		this.image = image;
+	}
+
+	public BufferedImage getImage() {
+		return image;
+	}
+
+	@Override
+	public int getWidth() {
+		return image.getWidth();
+	}
+
+	@Override
+	public int getHeight() {
+		return image.getHeight();
+	}
+
+	@Override
+	public int[] getPixels(int x, int y, int w, int h, int[] pixels) {
+		return RasterUtil.getPixels(image, x, y, w, h, pixels);
+	}
+
+	@Override
+	public void setPixels(int x, int y, int w, int h, int[] pixels) {
+		RasterUtil.setPixels(image, x, y, w, h, pixels);
+	}
+}
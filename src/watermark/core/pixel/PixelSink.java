@@ -0,0 +1,26 @@
+package watermark.core.pixel;
+
+/**
+ * This interface describes pixels which an encode or decode writes its
+ * output to. The blocks are read back from the sink while they are processed,
+ * so a sink must hold every bit of the pixels written to it and allow any
+ * region to be read and written, by several threads at once for distinct
+ * regions.
+ *
+ * A sink which is also the source of an operation is processed in place,
+ * without copying its pixels.
+ *
+ * @author Ryan M. Kane
+ */
+public interface PixelSink extends PixelSource {
+	/**
+	 * Writes a region from packed ARGB integers in row-major order.
+	 *
+	 * @param x - the left of the region.
+	 * @param y - the top of the region.
+	 * @param w - the width of the region.
+	 * @param h - the height of the region.
+	 * @param pixels - the pixels to write.
+	 */
+	void setPixels(int x, int y, int w, int h, int[] pixels);
+}
@@ -0,0 +1,31 @@
+package watermark.core.pixel;
+
+/**
+ * This interface describes pixels which an encode or decode reads, as packed
+ * ARGB integers. It lets the engine read pixels wherever they are held, such
+ * as an image, an array, an NIO buffer or a stream being decoded, without
+ * first copying them into a BufferedImage.
+ *
+ * The engine reads a source once, in bands of whole rows from top to bottom,
+ * so a source which reads a stream only needs to support rows in increasing
+ * order.
+ *
+ * @author Ryan M. Kane
+ */
+public interface PixelSource {
+	int getWidth();
+
+	int getHeight();
+
+	/**
+	 * Reads a region as packed ARGB integers in row-major order.
+	 *
+	 * @param x - the left of the region.
+	 * @param y - the top of the region.
+	 * @param w - the width of the region.
+	 * @param h - the height of the region.
+	 * @param pixels - the array to fill, or null to allocate one.
+	 * @return the pixels of the region.
+	 */
+	int[] getPixels(int x, int y, int w, int h, int[] pixels);
+}
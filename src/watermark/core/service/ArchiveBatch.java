@@ -0,0 +1,168 @@
+package watermark.core.service;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import watermark.core.datatypes.request.WatermarkRequest;
+import watermark.core.datatypes.result.EntryResult;
+import watermark.core.io.ArchiveReader;
+import watermark.core.io.ArchiveWriter;
+import watermark.core.util.FileUtil;
+
+/**
+ * This class encodes or decodes every image of a ZIP or TAR archive in a
+ * single pass, without extracting the archive. Entries are decoded from the
+ * archive stream one after another while the images read before them are
+ * processed asynchronously, and the outputs are written into a new archive
+ * in the order of the input.
+ *
+ * At most a window of images is in flight at once, which bounds the memory
+ * a batch holds however large the archive is. Entries which are not images
+ * are skipped. Outputs are named after their entries with a .png extension,
+ * numbered where two entries would share a name.
+ *
+ * @author Ryan M. Kane
+ */
+public class ArchiveBatch {
+	private final WatermarkService service;
+	private int window = Runtime.getRuntime().availableProcessors() * 2;
+
+	/**
+	 * @param service - the service which encodes and decodes the images.
+	 */
+	public ArchiveBatch(WatermarkService service) {
+		this.service = service;
+	}
+
+	public int getWindow() {
+		return window;
+	}
+
+	/**
+	 * @param window - the most images which are read ahead of the image
+	 *            being written.
+	 */
+	public void setWindow(int window) {
+		this.window = Math.max(1, window);
+	}
+
+	/**
+	 * Encodes every image of an archive into a new archive.
+	 *
+	 * @param input - the archive of images to watermark.
+	 * @param output - the archive to write the encoded images to, as PNG.
+	 * @param requests - creates the encode parameters of each image.
+	 * @return the outcome of each image, in the order of the archive.
+	 * @throws IOException if an archive cannot be read or written.
+	 */
+	public List<EntryResult> encode(File input, File output, Function<BufferedImage, WatermarkRequest> requests) throws IOException {
+		return process(input, output, requests, true);
+	}
+
+	/**
+	 * Decodes every image of an archive, and reports which were tampered
+	 * with.
+	 *
+	 * @param input - the archive of watermarked images.
+	 * @param output - the archive to write the decoded images to, as PNG, or
+	 *            null to only verify the images.
+	 * @param requests - creates the decode parameters of each image.
+	 * @return the outcome of each image, in the order of the archive.
+	 * @throws IOException if an archive cannot be read or written.
+	 */
+	public List<EntryResult> decode(File input, File output, Function<BufferedImage, WatermarkRequest> requests) throws IOException {
+		return process(input, output, requests, false);
+	}
+
+	private List<EntryResult> process(File input, File output, Function<BufferedImage, WatermarkRequest> requests, boolean encode)
+			throws IOException {
+		List<EntryResult> results = new ArrayList<EntryResult>();
+		Deque<Pending> pending = new ArrayDeque<Pending>();
+		Set<String> outputNames = new HashSet<String>();
+
+		try (ArchiveReader reader = ArchiveReader.open(input);
+				ArchiveWriter writer = output != null ? ArchiveWriter.create(output) : null) {
+			while (reader.next()) {
+				Pending entry = new Pending(reader.getName());
+
+				try {
+					BufferedImage img = reader.readImage();
+
+					if (img == null) {
+						continue;
+					}
+
+					entry.request = requests.apply(img);
+					entry.future = encode ? service.encodeAsync(entry.request) : service.decodeAsync(entry.request);
+				} catch (IOException | RuntimeException e) {
+					entry.future = CompletableFuture.failedFuture(e);
+				}
+
+				pending.add(entry);
+
+				while (pending.size() >= window) {
+					results.add(complete(pending.poll(), writer, outputNames));
+				}
+			}
+
+			while (!pending.isEmpty()) {
+				results.add(complete(pending.poll(), writer, outputNames));
+			}
+		} finally {
+			for (Pending entry : pending) {
+				entry.future.cancel(true);
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Waits for an image and writes its output.
+	 */
+	private EntryResult complete(Pending entry, ArchiveWriter writer, Set<String> outputNames) throws IOException {
+		BufferedImage img;
+
+		try {
+			img = entry.future.get();
+		} catch (ExecutionException | CompletionException e) {
+			return new EntryResult(entry.name, null, null, null, e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while processing: " + entry.name, e);
+		}
+
+		String outputName = null;
+
+		if (writer != null) {
+			outputName = FileUtil.getUniqueName(entry.name, ".png", outputNames);
+			writer.writeImage(outputName, img);
+		}
+
+		return new EntryResult(entry.name, outputName, entry.request.getTamperReport(), entry.request.getVerification(), null);
+	}
+
+	/**
+	 * An entry which was read and is being processed.
+	 */
+	private static class Pending {
+		final String name;
+		WatermarkRequest request;
+		CompletableFuture<BufferedImage> future;
+
+		Pending(String name) {
+			this.name = name;
+		}
+	}
+}
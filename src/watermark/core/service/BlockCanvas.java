@@ -0,0 +1,70 @@
+package watermark.core.service;
+
+import java.awt.image.BufferedImage;
+
+import watermark.core.datatypes.header.WatermarkHeader;
+
+/**
+ * The pixels an encode or decode reads and writes its blocks through, which
+ * are held either by an image or by a pixel sink. Distinct regions may be
+ * read and written concurrently.
+ *
+ * @author Ryan M. Kane
+ */
+interface BlockCanvas {
+	int getWidth();
+
+	int getHeight();
+
+	/**
+	 * Reads a region as packed ARGB integers in row-major order.
+	 *
+	 * @param x - the left of the region.
+	 * @param y - the top of the region.
+	 * @param w - the width of the region.
+	 * @param h - the height of the region.
+	 * @param pixels - the array to fill, or null to allocate one.
+	 * @return the pixels of the region.
+	 */
+	int[] getPixels(int x, int y, int w, int h, int[] pixels);
+
+	/**
+	 * Writes a region from packed ARGB integers in row-major order.
+	 *
+	 * @param x - the left of the region.
+	 * @param y - the top of the region.
+	 * @param w - the width of the region.
+	 * @param h - the height of the region.
+	 * @param pixels - the pixels to write.
+	 */
+	void setPixels(int x, int y, int w, int h, int[] pixels);
+
+	/**
+	 * Fills a region with a color.
+	 *
+	 * @param x - the left of the region.
+	 * @param y - the top of the region.
+	 * @param w - the width of the region.
+	 * @param h - the height of the region.
+	 * @param argb - the color.
+	 */
+	void fill(int x, int y, int w, int h, int argb);
+
+	/**
+	 * @return the header embedded in the top rows, or null if there is none.
+	 */
+	WatermarkHeader readHeader();
+
+	/**
+	 * Embeds a header into the top rows.
+	 *
+	 * @param header - the header to write.
+	 */
+	void writeHeader(WatermarkHeader header);
+
+	/**
+	 * @return the image which holds the pixels, or null if they are not held
+	 *         by an image.
+	 */
+	BufferedImage getImage();
+}
@@ -0,0 +1,38 @@
+package watermark.core.service;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * An encode or decode which is split into blocks that can be processed in
+ * any order and on any thread. The blocks of a job write to disjoint regions
+ * of its output image.
+ *
+ * @author Ryan M. Kane
+ */
+interface BlockJob {
+	/**
+	 * Prepares the output image and partition.
+	 *
+	 * @return the number of blocks to process.
+	 */
+	int open();
+
+	/**
+	 * Processes a single block. Blocks may be processed concurrently.
+	 *
+	 * @param position - the position of the block in the job's block order.
+	 */
+	void process(int position);
+
+	/**
+	 * Completes the job once every block is processed.
+	 *
+	 * @return the output image, or null if the job ran in a pixel store.
+	 */
+	BufferedImage finish();
+
+	/**
+	 * Releases the resources of the job.
+	 */
+	void close();
+}
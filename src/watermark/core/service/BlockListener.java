@@ -0,0 +1,17 @@
+package watermark.core.service;
+
+/**
+ * This interface receives the progress of an encode or decode. It is called
+ * on the thread which runs the operation, after each block.
+ *
+ * @author Ryan M. Kane
+ */
+public interface BlockListener {
+	/**
+	 * Called after a block has been encoded or decoded.
+	 *
+	 * @param done - the number of blocks processed so far.
+	 * @param total - the number of blocks in the image.
+	 */
+	void blockProcessed(int done, int total);
+}
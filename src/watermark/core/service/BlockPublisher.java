@@ -0,0 +1,178 @@
+package watermark.core.service;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import watermark.core.datatypes.result.BlockResult;
+
+/**
+ * This class publishes the block results of a single decode. Blocks are only
+ * decoded when the subscriber requests them, so the subscriber's demand
+ * bounds the work done ahead of it. The publisher accepts one subscriber.
+ *
+ * Without an executor the blocks are decoded on the thread which calls
+ * {@link Flow.Subscription#request(long)}. With an executor they are decoded
+ * on a task submitted to it.
+ *
+ * @author Ryan M. Kane
+ */
+class BlockPublisher implements Flow.Publisher<BlockResult> {
+	/**
+	 * The decode which produces the results.
+	 */
+	interface BlockSource {
+		/**
+		 * @return whether another block remains.
+		 */
+		boolean hasNext();
+
+		/**
+		 * Decodes the next block.
+		 *
+		 * @return the result of the block.
+		 */
+		BlockResult next();
+
+		/**
+		 * Releases the resources of the decode.
+		 */
+		void close();
+	}
+
+	private final BlockSource source;
+	private final Executor executor;
+	private final AtomicBoolean subscribed = new AtomicBoolean();
+
+	BlockPublisher(BlockSource source, Executor executor) {
+		this.source = source;
+		this.executor = executor;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super BlockResult> subscriber) {
+		if (!subscribed.compareAndSet(false, true)) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				@Override
+				public void request(long n) {
+				}
+
+				@Override
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException("A decode can only be subscribed to once."));
+			return;
+		}
+
+		BlockSubscription subscription = new BlockSubscription(subscriber);
+		subscriber.onSubscribe(subscription);
+	}
+
+	private class BlockSubscription implements Flow.Subscription {
+		private final Flow.Subscriber<? super BlockResult> subscriber;
+		private final AtomicLong demand = new AtomicLong();
+		private final AtomicInteger pending = new AtomicInteger();
+		private volatile boolean cancelled;
+		private volatile Throwable invalidRequest;
+		private boolean done;
+
+		BlockSubscription(Flow.Subscriber<? super BlockResult> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				invalidRequest = new IllegalArgumentException("Requested a non-positive number of blocks: " + n);
+			} else {
+				long current;
+				long next;
+
+				do {
+					current = demand.get();
+					next = current + n < 0 ? Long.MAX_VALUE : current + n;
+				} while (!demand.compareAndSet(current, next));
+			}
+
+			schedule();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			schedule();
+		}
+
+		private void schedule() {
+			// Only one thread drains at a time. Signals which arrive while it
+			// runs, including requests made from onNext, are picked up by it.
+			if (pending.getAndIncrement() == 0) {
+				if (executor != null) {
+					executor.execute(this::drain);
+				} else {
+					drain();
+				}
+			}
+		}
+
+		private void drain() {
+			int missed = 1;
+
+			do {
+				if (!done) {
+					emit();
+				}
+
+				missed = pending.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		private void emit() {
+			try {
+				while (!cancelled) {
+					if (invalidRequest != null) {
+						finish(invalidRequest);
+						return;
+					}
+
+					if (!source.hasNext()) {
+						finish(null);
+						return;
+					}
+
+					if (demand.get() == 0) {
+						return;
+					}
+
+					BlockResult result = source.next();
+
+					if (demand.get() != Long.MAX_VALUE) {
+						demand.decrementAndGet();
+					}
+
+					subscriber.onNext(result);
+				}
+
+				// The subscriber stopped early, so release the decode.
+				done = true;
+				source.close();
+			} catch (Throwable t) {
+				finish(t);
+			}
+		}
+
+		private void finish(Throwable error) {
+			done = true;
+			source.close();
+
+			if (error == null) {
+				subscriber.onComplete();
+			} else {
+				subscriber.onError(error);
+			}
+		}
+	}
+}
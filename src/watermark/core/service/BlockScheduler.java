@@ -0,0 +1,156 @@
+package watermark.core.service;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This class runs the blocks of many jobs on one work-stealing pool. Each job
+ * is opened by a pool task, which then forks its blocks as ranges that are
+ * split in half until they are small enough. Idle workers steal ranges from
+ * busy ones, so blocks of every image share the pool however the images are
+ * sized. A job is finished by whichever worker completes its last block.
+ *
+ * The ranges are positions in the job's block order, so each worker owns
+ * contiguous runs of the order and, with a compact order, a compact region of
+ * the output raster.
+ *
+ * @author Ryan M. Kane
+ */
+class BlockScheduler {
+	/**
+	 * The number of blocks below which a range is no longer split. Four blocks
+	 * are a 2x2 square of a Z-order.
+	 */
+	public static final int DEFAULT_GRAIN = 4;
+
+	private final ForkJoinPool pool;
+	private final int grain;
+
+	/**
+	 * @param pool - the pool which runs the blocks.
+	 */
+	BlockScheduler(ForkJoinPool pool) {
+		this(pool, DEFAULT_GRAIN);
+	}
+
+	/**
+	 * @param pool - the pool which runs the blocks.
+	 * @param grain - the number of blocks below which a range is not split.
+	 */
+	BlockScheduler(ForkJoinPool pool, int grain) {
+		this.pool = pool;
+		this.grain = Math.max(1, grain);
+	}
+
+	/**
+	 * Schedules a job. A block which fails completes the future exceptionally
+	 * and the job's remaining blocks are skipped.
+	 *
+	 * @param job - the job to run.
+	 * @return a future of the job's output image.
+	 */
+	CompletableFuture<BufferedImage> submit(BlockJob job) {
+		CompletableFuture<BufferedImage> future = new CompletableFuture<BufferedImage>();
+		pool.execute(new JobTask(job, future));
+		return future;
+	}
+
+	/**
+	 * The root task of a job, which completes once all of its ranges have.
+	 */
+	private class JobTask extends CountedCompleter<Void> {
+		private static final long serialVersionUID = 1L;
+
+		private final BlockJob job;
+		private final CompletableFuture<BufferedImage> future;
+
+		JobTask(BlockJob job, CompletableFuture<BufferedImage> future) {
+			this.job = job;
+			this.future = future;
+		}
+
+		@Override
+		public void compute() {
+			int total = job.open();
+
+			if (total > 0) {
+				addToPendingCount(1);
+				new RangeTask(this, this, 0, total).fork();
+			}
+
+			tryComplete();
+		}
+
+		@Override
+		public void onCompletion(CountedCompleter<?> caller) {
+			// Ranges which finish after a failure still count down to here.
+			if (isCompletedAbnormally()) {
+				return;
+			}
+
+			try {
+				future.complete(job.finish());
+			} catch (Throwable t) {
+				future.completeExceptionally(t);
+			} finally {
+				job.close();
+			}
+		}
+
+		@Override
+		public boolean onExceptionalCompletion(Throwable ex, CountedCompleter<?> caller) {
+			job.close();
+			future.completeExceptionally(ex);
+			return false;
+		}
+
+		boolean isStopped() {
+			return isCompletedAbnormally() || future.isDone();
+		}
+	}
+
+	/**
+	 * A range of blocks of a job.
+	 */
+	private class RangeTask extends CountedCompleter<Void> {
+		private static final long serialVersionUID = 1L;
+
+		private final JobTask root;
+		private final int lo;
+		private int hi;
+
+		RangeTask(CountedCompleter<?> parent, JobTask root, int lo, int hi) {
+			super(parent);
+			this.root = root;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		public void compute() {
+			// Keep the first half and fork the rest, so thieves take the
+			// largest ranges. Ranges are split on multiples of the grain, so
+			// each one is a run of the block order which starts on an aligned
+			// group of blocks, such as a square of a Z-order.
+			while (hi - lo > grain) {
+				int mid = ((lo + hi) >>> 1) / grain * grain;
+
+				if (mid <= lo) {
+					mid = lo + grain;
+				}
+
+				addToPendingCount(1);
+				new RangeTask(this, root, mid, hi).fork();
+				hi = mid;
+			}
+
+			for (int position = lo; position < hi && !root.isStopped(); position++) {
+				root.job.process(position);
+			}
+
+			tryComplete();
+		}
+	}
+}
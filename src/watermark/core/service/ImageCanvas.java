@@ -0,0 +1,60 @@
+package watermark.core.service;
+
+import java.awt.image.BufferedImage;
+
+import watermark.core.datatypes.header.WatermarkHeader;
+import watermark.core.util.ImageUtil;
+import watermark.core.util.RasterUtil;
+
+/**
+ * A canvas over the raster of an image.
+ *
+ * @author Ryan M. Kane
+ */
+class ImageCanvas implements BlockCanvas {
+	private final BufferedImage image;
+
+	ImageCanvas(BufferedImage image) {
+		this.image = image;
+	}
+
+	@Override
+	public int getWidth() {
+		return image.getWidth();
+	}
+
+	@Override
+	public int getHeight() {
+		return image.getHeight();
+	}
+
+	@Override
+	public int[] getPixels(int x, int y, int w, int h, int[] pixels) {
+		return RasterUtil.getPixels(image, x, y, w, h, pixels);
+	}
+
+	@Override
+	public void setPixels(int x, int y, int w, int h, int[] pixels) {
+		RasterUtil.setPixels(image, x, y, w, h, pixels);
+	}
+
+	@Override
+	public void fill(int x, int y, int w, int h, int argb) {
+		ImageUtil.fillImage(image.getSubimage(x, y, w, h), argb);
+	}
+
+	@Override
+	public WatermarkHeader readHeader() {
+		return WatermarkHeader.read(image);
+	}
+
+	@Override
+	public void writeHeader(WatermarkHeader header) {
+		header.write(image);
+	}
+
+	@Override
+	public BufferedImage getImage() {
+		return image;
+	}
+}
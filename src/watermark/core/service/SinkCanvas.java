@@ -0,0 +1,88 @@
+package watermark.core.service;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import watermark.core.datatypes.buffer.PixelStore;
+import watermark.core.datatypes.header.WatermarkHeader;
+import watermark.core.pixel.ImagePixels;
+import watermark.core.pixel.PixelSink;
+import watermark.core.util.BitUtil;
+import watermark.core.util.RasterUtil;
+
+/**
+ * A canvas over a pixel sink, which is encoded and decoded in place. The
+ * header is read from the top rows, and written through a copy of them.
+ *
+ * @author Ryan M. Kane
+ */
+class SinkCanvas implements BlockCanvas {
+	private final PixelSink sink;
+
+	SinkCanvas(PixelSink sink) {
+		this.sink = sink;
+	}
+
+	@Override
+	public int getWidth() {
+		return sink.getWidth();
+	}
+
+	@Override
+	public int getHeight() {
+		return sink.getHeight();
+	}
+
+	@Override
+	public int[] getPixels(int x, int y, int w, int h, int[] pixels) {
+		return sink.getPixels(x, y, w, h, pixels);
+	}
+
+	@Override
+	public void setPixels(int x, int y, int w, int h, int[] pixels) {
+		sink.setPixels(x, y, w, h, pixels);
+	}
+
+	@Override
+	public void fill(int x, int y, int w, int h, int argb) {
+		if (sink instanceof PixelStore) {
+			((PixelStore) sink).fill(x, y, w, h, argb);
+			return;
+		}
+
+		int[] row = new int[w];
+		Arrays.fill(row, argb);
+
+		for (int i = 0; i < h; i++) {
+			sink.setPixels(x, y + i, w, 1, row);
+		}
+	}
+
+	@Override
+	public WatermarkHeader readHeader() {
+		int width = sink.getWidth();
+		int rows = WatermarkHeader.getHeaderRows(width, sink.getHeight());
+
+		if (rows == 0) {
+			return null;
+		}
+
+		return WatermarkHeader.fromBytes(BitUtil.extractLsb(sink.getPixels(0, 0, width, rows, null), WatermarkHeader.SIZE));
+	}
+
+	@Override
+	public void writeHeader(WatermarkHeader header) {
+		int width = sink.getWidth();
+		int rows = WatermarkHeader.getHeaderRows(width, sink.getHeight());
+		BufferedImage strip = new BufferedImage(width, rows, BufferedImage.TYPE_INT_ARGB);
+
+		RasterUtil.setPixels(strip, sink.getPixels(0, 0, width, rows, null));
+		header.write(strip);
+		sink.setPixels(0, 0, width, rows, RasterUtil.getPixels(strip));
+	}
+
+	@Override
+	public BufferedImage getImage() {
+		return sink instanceof ImagePixels ? ((ImagePixels) sink).getImage() : null;
+	}
+}
@@ -1,10 +1,22 @@
 package watermark.core.service;
 
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
 
 import watermark.core.cipher.KeyCipher;
+import watermark.core.datatypes.buffer.PixelStore;
+import watermark.core.datatypes.embedding.ChannelEmbedding;
+import watermark.core.datatypes.request.WatermarkRequest;
+import watermark.core.datatypes.result.BlockResult;
+import watermark.core.partition.BlockPartitioner;
+import watermark.core.pixel.PixelSink;
+import watermark.core.pixel.PixelSource;
 
 /**
  * This interface will be injected into the a controller.
@@ -24,6 +36,89 @@ public interface WatermarkService {
 	 */
 	BufferedImage encode(KeyCipher cipher, PrivateKey key, BufferedImage source, BufferedImage watermark, int blockSize);
 
+	/**
+	 * Encode a watermark into the selected channel bits of an image. Using
+	 * more bits per pixel lets a payload fit into smaller blocks.
+	 *
+	 * @param cipher - the cipher method for encoding.
+	 * @param key - the private key.
+	 * @param source - the image to be watermarked.
+	 * @param watermark - the watermark to apply to the image.
+	 * @param blockSize - image blocks pixel size.
+	 * @param embedding - the channels and bits which carry the payload.
+	 * @return an image encoded with an encrypted watermark hash.
+	 */
+	BufferedImage encode(KeyCipher cipher, PrivateKey key, BufferedImage source, BufferedImage watermark, int blockSize, ChannelEmbedding embedding);
+
+	/**
+	 * Encode a watermark into the blocks chosen by a partitioner. An adaptive
+	 * partition is recorded in the image so the decoder can rebuild it.
+	 *
+	 * @param cipher - the cipher method for encoding.
+	 * @param key - the private key.
+	 * @param source - the image to be watermarked.
+	 * @param watermark - the watermark to apply to the image.
+	 * @param blockSize - image blocks pixel size, or the largest block size of
+	 *            an adaptive partition.
+	 * @param embedding - the channels and bits which carry the payload.
+	 * @param partitioner - the strategy which divides the image into blocks.
+	 * @return an image encoded with an encrypted watermark hash.
+	 */
+	BufferedImage encode(KeyCipher cipher, PrivateKey key, BufferedImage source, BufferedImage watermark, int blockSize,
+			ChannelEmbedding embedding, BlockPartitioner partitioner);
+
+	/**
+	 * Encode a watermark as described by a request. The encode stops between
+	 * blocks when the request is cancelled or its deadline passes, and reports
+	 * its progress to the request's listener.
+	 *
+	 * A request which verifies has each block checked with the public key
+	 * right after it is written. Blocks which fail are listed in the request's
+	 * verification result instead of stopping the encode.
+	 *
+	 * @param request - the encode parameters, which must hold a private key.
+	 * @return an image encoded with an encrypted watermark hash.
+	 * @throws java.util.concurrent.CancellationException if the request stops.
+	 */
+	BufferedImage encode(WatermarkRequest request);
+
+	/**
+	 * Encode a watermark into an off-heap pixel store, in place, so an image
+	 * beyond the size of a BufferedImage is never copied onto the heap. The
+	 * source of the request is ignored. Only the fixed grid partition is
+	 * supported.
+	 *
+	 * @param request - the encode parameters, which must hold a private key.
+	 * @param store - the pixels to watermark.
+	 * @throws java.util.concurrent.CancellationException if the request stops,
+	 *             leaving the store partially encoded.
+	 */
+	void encode(WatermarkRequest request, PixelStore store);
+
+	/**
+	 * Encode a watermark from a pixel source into a pixel sink, so pixels held
+	 * in an array, a buffer or a stream are encoded without building a
+	 * BufferedImage. The source of the request is ignored. The source is read
+	 * once, from top to bottom, and a sink which is the source is encoded in
+	 * place. Pixels which are not held by an image only support the fixed grid
+	 * partition.
+	 *
+	 * @param request - the encode parameters, which must hold a private key.
+	 * @param source - the pixels to watermark.
+	 * @param sink - the pixels to write the encoded image to.
+	 * @throws java.util.concurrent.CancellationException if the request stops.
+	 */
+	void encode(WatermarkRequest request, PixelSource source, PixelSink sink);
+
+	/**
+	 * Encode a watermark asynchronously. Cancelling the future cancels the
+	 * request, and a request without a cancellation token is given one.
+	 *
+	 * @param request - the encode parameters, which must hold a private key.
+	 * @return a future of the encoded image.
+	 */
+	CompletableFuture<BufferedImage> encodeAsync(WatermarkRequest request);
+
 	/**
 	 * Decode a watermarked image.
 	 *
@@ -31,8 +126,117 @@ public interface WatermarkService {
 	 * @param key - the public key.
 	 * @param source - the image that is watermarked.
 	 * @param watermark - the watermark to compare to the extracted hash.
-	 * @param blockSize - image blocks pixel size.
+	 * @param blockSize - image blocks pixel size of images without a header.
 	 * @return the XORed watermark hash.
 	 */
 	BufferedImage decode(KeyCipher cipher, PublicKey key, BufferedImage source, BufferedImage watermark, int blockSize);
+
+	/**
+	 * Decode a watermarked image using the block size, payload length and
+	 * embedding recorded in the header which the encoder embedded into the
+	 * image.
+	 *
+	 * @param cipher - the cipher method for decoding.
+	 * @param key - the public key.
+	 * @param source - the image that is watermarked.
+	 * @param watermark - the watermark to compare to the extracted hash.
+	 * @return the XORed watermark hash.
+	 */
+	BufferedImage decode(KeyCipher cipher, PublicKey key, BufferedImage source, BufferedImage watermark);
+
+	/**
+	 * Decode a watermarked image and record the outcome in a sidecar index of
+	 * per-block content digests. If the index already describes this image,
+	 * key and watermark, only the blocks whose digest changed since it was
+	 * written are decrypted again.
+	 *
+	 * @param cipher - the cipher method for decoding.
+	 * @param key - the public key.
+	 * @param source - the image that is watermarked.
+	 * @param watermark - the watermark to compare to the extracted hash.
+	 * @param blockSize - image blocks pixel size of images without a header.
+	 * @param indexFile - the sidecar index to read and update.
+	 * @return the XORed watermark hash.
+	 */
+	BufferedImage decode(KeyCipher cipher, PublicKey key, BufferedImage source, BufferedImage watermark, int blockSize, File indexFile);
+
+	/**
+	 * Decode a watermarked image as described by a request. The decode stops
+	 * between blocks when the request is cancelled or its deadline passes, and
+	 * reports its progress to the request's listener.
+	 *
+	 * The tampered blocks are grouped into connected regions as they are
+	 * decoded, and the regions are available from the request's tamper report.
+	 *
+	 * @param request - the decode parameters, which must hold a public key.
+	 * @return the XORed watermark hash.
+	 * @throws java.util.concurrent.CancellationException if the request stops.
+	 */
+	BufferedImage decode(WatermarkRequest request);
+
+	/**
+	 * Decode a watermarked off-heap pixel store, in place. The source of the
+	 * request is ignored, and the tampered regions are available from the
+	 * request's tamper report.
+	 *
+	 * @param request - the decode parameters, which must hold a public key.
+	 * @param store - the watermarked pixels, which are replaced by the
+	 *            decoded pixels.
+	 * @throws java.util.concurrent.CancellationException if the request stops.
+	 */
+	void decode(WatermarkRequest request, PixelStore store);
+
+	/**
+	 * Decode watermarked pixels from a pixel source into a pixel sink. The
+	 * source of the request is ignored, and the tampered regions are available
+	 * from the request's tamper report. The source is read once, from top to
+	 * bottom, and a sink which is the source is decoded in place.
+	 *
+	 * @param request - the decode parameters, which must hold a public key.
+	 * @param source - the watermarked pixels.
+	 * @param sink - the pixels to write the decoded image to.
+	 * @throws java.util.concurrent.CancellationException if the request stops.
+	 */
+	void decode(WatermarkRequest request, PixelSource source, PixelSink sink);
+
+	/**
+	 * Decode a watermarked image asynchronously. Cancelling the future cancels
+	 * the request, and a request without a cancellation token is given one.
+	 *
+	 * @param request - the decode parameters, which must hold a public key.
+	 * @return a future of the decoded image.
+	 */
+	CompletableFuture<BufferedImage> decodeAsync(WatermarkRequest request);
+
+	/**
+	 * Encode many images at once. The blocks of all the images are processed
+	 * on one work-stealing pool, so the processors stay busy however small the
+	 * images are. A request's listener may be called from several threads.
+	 *
+	 * @param requests - the encode parameters, which must hold private keys.
+	 * @return a future of each encoded image, in the order of the requests.
+	 */
+	List<CompletableFuture<BufferedImage>> encodeAll(List<WatermarkRequest> requests);
+
+	/**
+	 * Decode many images at once. The blocks of all the images are processed
+	 * on one work-stealing pool, so the processors stay busy however small the
+	 * images are. A request's listener may be called from several threads.
+	 *
+	 * @param requests - the decode parameters, which must hold public keys.
+	 * @return a future of each decoded image, in the order of the requests.
+	 */
+	List<CompletableFuture<BufferedImage>> decodeAll(List<WatermarkRequest> requests);
+
+	/**
+	 * Decode a watermarked image block by block. The result of each block is
+	 * published as soon as it is decoded, and blocks are only decoded as the
+	 * subscriber requests them. Cancelling the subscription stops the decode.
+	 *
+	 * @param request - the decode parameters, which must hold a public key.
+	 * @param executor - runs the decode, or null to decode on the thread which
+	 *            requests blocks.
+	 * @return a publisher of the block results, for a single subscriber.
+	 */
+	Flow.Publisher<BlockResult> decodeBlocks(WatermarkRequest request, Executor executor);
 }
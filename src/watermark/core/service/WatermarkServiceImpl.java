@@ -1,14 +1,48 @@
 package watermark.core.service;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.security.Key;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.security.interfaces.RSAKey;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import watermark.core.cipher.KeyCipher;
+import watermark.core.datatypes.buffer.PixelStore;
+import watermark.core.datatypes.buffer.ScratchArena;
+import watermark.core.datatypes.embedding.ChannelEmbedding;
+import watermark.core.datatypes.header.WatermarkHeader;
+import watermark.core.datatypes.index.BlockIndex;
+import watermark.core.datatypes.partition.BlockPartition;
+import watermark.core.datatypes.request.CancellationToken;
+import watermark.core.datatypes.request.WatermarkRequest;
+import watermark.core.datatypes.result.BlockResult;
+import watermark.core.datatypes.result.TamperReport;
+import watermark.core.datatypes.result.VerificationResult;
+import watermark.core.partition.BlockOrder;
+import watermark.core.partition.BlockPartitioner;
+import watermark.core.partition.GridPartitioner;
+import watermark.core.partition.QuadtreePartitioner;
+import watermark.core.partition.RowMajorOrder;
+import watermark.core.pixel.PixelSink;
+import watermark.core.pixel.PixelSource;
 import watermark.core.util.BitUtil;
 import watermark.core.util.CommonUtil;
+import watermark.core.util.ExecutorUtil;
 import watermark.core.util.ImageUtil;
+import watermark.core.util.RasterUtil;
 
 /**
  * This is an implementation of the WatermarkService. This handles the encoding
@@ -17,6 +51,71 @@ import watermark.core.util.ImageUtil;
  * @author Ryan M. Kane
  */
 public class WatermarkServiceImpl implements WatermarkService {
+	private static final int TAMPERED_COLOR = 0xFF000000;
+
+	// The number of pixels copied at a time from a source into a sink.
+	private static final int COPY_BAND_PIXELS = 1 << 20;
+	public static final int DEFAULT_BLOCK_GRAIN = BlockScheduler.DEFAULT_GRAIN;
+
+	// The outcome of decoding a block.
+	private static final int DECODE_VERIFIED = 1;
+	private static final int DECODE_CACHED = 2;
+
+	private Executor executor;
+	private ForkJoinPool blockPool = ExecutorUtil.getWorkStealingPool();
+	private BlockOrder blockOrder = new RowMajorOrder();
+	private int blockGrain = DEFAULT_BLOCK_GRAIN;
+
+	public WatermarkServiceImpl() {
+		this(ExecutorUtil.getDefaultExecutor());
+	}
+
+	/**
+	 * @param executor - runs the asynchronous encodes and decodes.
+	 */
+	public WatermarkServiceImpl(Executor executor) {
+		this.executor = executor;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	public ForkJoinPool getBlockPool() {
+		return blockPool;
+	}
+
+	public void setBlockPool(ForkJoinPool blockPool) {
+		this.blockPool = blockPool;
+	}
+
+	/**
+	 * @return the order of the blocks for requests which do not set one.
+	 */
+	public BlockOrder getBlockOrder() {
+		return blockOrder;
+	}
+
+	public void setBlockOrder(BlockOrder blockOrder) {
+		this.blockOrder = blockOrder;
+	}
+
+	/**
+	 * @return the number of blocks below which the block pool stops splitting
+	 *         a range of blocks.
+	 */
+	public int getBlockGrain() {
+		return blockGrain;
+	}
+
+	public void setBlockGrain(int blockGrain) {
+		this.blockGrain = blockGrain;
+	}
+
 	/**
 	 * Encode a watermark into an image.
 	 *
@@ -29,61 +128,163 @@ public class WatermarkServiceImpl implements WatermarkService {
 	 */
 	@Override
 	public BufferedImage encode(KeyCipher cipher, PrivateKey key, BufferedImage source, BufferedImage watermark, int blockSize) {
-		int imgWidth = source.getWidth();
-		int imgHeight = source.getHeight();
+		return encode(cipher, key, source, watermark, blockSize, ChannelEmbedding.LEGACY);
+	}
 
-		// Partition the image into blocks.
-		BufferedImage[][] blocks = ImageUtil.partitionImage(source, blockSize);
+	/**
+	 * Encode a watermark into the selected channel bits of an image.
+	 *
+	 * @param cipher - the cipher method for encoding.
+	 * @param key - the private key.
+	 * @param source - the image to be watermarked.
+	 * @param watermark - the watermark to apply to the image.
+	 * @param blockSize - image blocks pixel size.
+	 * @param embedding - the channels and bits which carry the payload.
+	 * @return an image encoded with an encrypted watermark hash.
+	 */
+	@Override
+	public BufferedImage encode(KeyCipher cipher, PrivateKey key, BufferedImage source, BufferedImage watermark, int blockSize, ChannelEmbedding embedding) {
+		return encode(cipher, key, source, watermark, blockSize, embedding, new GridPartitioner());
+	}
 
-		// Truncate the watermark to fit 16 bytes (128 bits) since the MD5 hash
-		// outputs the hashed image, to be XORed, in 16 bytes.
-		int[] watermarkPixels = ImageUtil.getPixels(watermark);
-		byte[] watermarkBytes = CommonUtil.integersToBytes(watermarkPixels);
-		byte[] watermarkMask = new byte[16];
-		System.arraycopy(watermarkBytes, 0, watermarkMask, 0, watermarkMask.length);
+	/**
+	 * Encode a watermark into the blocks chosen by a partitioner.
+	 *
+	 * @param cipher - the cipher method for encoding.
+	 * @param key - the private key.
+	 * @param source - the image to be watermarked.
+	 * @param watermark - the watermark to apply to the image.
+	 * @param blockSize - image blocks pixel size, or the largest block size of
+	 *            an adaptive partition.
+	 * @param embedding - the channels and bits which carry the payload.
+	 * @param partitioner - the strategy which divides the image into blocks.
+	 * @return an image encoded with an encrypted watermark hash.
+	 */
+	@Override
+	public BufferedImage encode(KeyCipher cipher, PrivateKey key, BufferedImage source, BufferedImage watermark, int blockSize,
+			ChannelEmbedding embedding, BlockPartitioner partitioner) {
+		WatermarkRequest request = new WatermarkRequest(cipher, key, source, watermark);
+		request.setBlockSize(blockSize);
+		request.setEmbedding(embedding);
+		request.setPartitioner(partitioner);
+		return encode(request);
+	}
 
-		for (int row = 0; row < blocks.length; row++) {
-			for (int col = 0; col < blocks[row].length; col++) {
-				BufferedImage block = blocks[row][col];
+	/**
+	 * Encode a watermark as described by a request. The request is checked for
+	 * cancellation and its deadline between blocks.
+	 *
+	 * @param request - the encode parameters, which must hold a private key.
+	 * @return an image encoded with an encrypted watermark hash.
+	 */
+	@Override
+	public BufferedImage encode(WatermarkRequest request) {
+		return encode(new EncodeSession(request, null, null));
+	}
 
-				// Only watermark full image blocks.
-				if (block.getWidth() == blockSize && block.getHeight() == blockSize) {
-					encodeBlock(cipher, key, block, watermarkMask, imgWidth, imgHeight);
-				}
-			}
+	/**
+	 * Encode a watermark into an off-heap pixel store, in place. The source of
+	 * the request is ignored. Only the fixed grid partition is supported, and
+	 * a mapped store is not forced to its file.
+	 *
+	 * @param request - the encode parameters, which must hold a private key.
+	 * @param store - the pixels to watermark.
+	 */
+	@Override
+	public void encode(WatermarkRequest request, PixelStore store) {
+		encode(request, store, store);
+	}
+
+	/**
+	 * Encode a watermark from a pixel source into a pixel sink. The source of
+	 * the request is ignored. The source is copied into the sink a band of
+	 * rows at a time, unless they are the same, and the sink is encoded in
+	 * place. Pixels which are not held by an image only support the fixed
+	 * grid partition.
+	 *
+	 * @param request - the encode parameters, which must hold a private key.
+	 * @param source - the pixels to watermark.
+	 * @param sink - the pixels to write the encoded image to.
+	 */
+	@Override
+	public void encode(WatermarkRequest request, PixelSource source, PixelSink sink) {
+		encode(new EncodeSession(request, source, sink));
+	}
+
+	private BufferedImage encode(EncodeSession session) {
+		int total = session.open();
+
+		for (int index = 0; index < total; index++) {
+			session.process(index);
 		}
 
-		return ImageUtil.recombine(blocks);
+		return session.finish();
+	}
+
+	/**
+	 * Encode a watermark on the service's executor.
+	 *
+	 * @param request - the encode parameters, which must hold a private key.
+	 * @return a future of the encoded image.
+	 */
+	@Override
+	public CompletableFuture<BufferedImage> encodeAsync(WatermarkRequest request) {
+		return submit(request, this::encode);
 	}
 
 	/**
-	 * Handles encoding a watermark hash into the LSB of the designated image
-	 * block. This modifies the image block in-place.
+	 * Handles encoding a watermark hash into the embedding bits of the
+	 * designated image block. This modifies the image block in-place. The
+	 * block's buffers come from the thread's scratch arena, so encoding a
+	 * block does not allocate once the arena has grown to the block size.
 	 *
 	 * @param cipher - the cipher method for encoding.
 	 * @param key - the private key.
-	 * @param block - the current image block.
+	 * @param image - the image being encoded.
+	 * @param block - the bounds of the current block.
 	 * @param watermark - the watermark mask to XOR with with block MD5 hash.
+	 * @param embedding - the channels and bits which carry the payload.
+	 * @param payloadLength - the number of cipher bytes the key produces.
 	 * @param imgWidth - the width of the whole image to be watermarked.
 	 * @param imgHeight - the height of the whole image to be watermarked.
+	 * @return the number of cipher bytes embedded into the block, or -1 if the
+	 *         hash could not be encrypted.
 	 */
-	private void encodeBlock(KeyCipher cipher, PrivateKey key, BufferedImage block, byte[] watermark, int imgWidth, int imgHeight) {
-		int w = block.getWidth();
-		int h = block.getHeight();
-		int[] pixels = ImageUtil.getPixels(block);
+	private int encodeBlock(KeyCipher cipher, PrivateKey key, BlockCanvas image, Rectangle block, byte[] watermark,
+			ChannelEmbedding embedding, int payloadLength, int imgWidth, int imgHeight) {
+		ScratchArena arena = ScratchArena.get();
+		int count = block.width * block.height;
+		int[] pixels = image.getPixels(block.x, block.y, block.width, block.height, arena.getPixels(count));
+
+		// Set the embedding bits of each pixel to 0.
+		BitUtil.dropBits(pixels, count, embedding.getChannels(), embedding.getBitsPerChannel());
 
-		// Set LSB of each pixel to 0.
-		BitUtil.dropLSB(pixels);
-		block.setRGB(0, 0, block.getWidth(), block.getHeight(), pixels, 0, block.getWidth());
+		byte[] params = arena.getParams();
+		params[0] = (byte) imgWidth;
+		params[1] = (byte) imgHeight;
+		params[2] = getHashSample(image, block, pixels[0], embedding);
 
-		byte[] params = new byte[] { (byte) imgWidth, (byte) imgHeight, (byte) block.getRGB(0, 0) };
-		byte[] hashBytes = CommonUtil.hashMD5(params);
-		byte[] xorBytes = CommonUtil.xor(hashBytes, watermark);
-		byte[] cipherData = cipher.encrypt(xorBytes, key);
+		byte[] hashBytes = CommonUtil.hashMD5(params, 0, params.length, arena.getHash());
+		byte[] xorBytes = CommonUtil.xor(hashBytes, watermark, arena.getXor(), ScratchArena.HASH_SIZE);
+		byte[] cipherData = arena.getCipherText(payloadLength);
+		int length = cipher.encrypt(xorBytes, 0, ScratchArena.HASH_SIZE, key, cipherData);
 
-		// Set all the pixels' LSB to the cipher data bits.
-		BitUtil.setLSB(pixels, cipherData);
-		block.setRGB(0, 0, w, h, pixels, 0, w);
+		if (length < 0) {
+			// The block is left as it was, without a signature.
+			return -1;
+		}
+
+		if (embedding.getCapacity(count) < length * 8L) {
+			throw new IllegalArgumentException(String.format(
+					"A %dx%d block cannot hold a %d-bit payload using %s embedding.",
+					block.width, block.height, length * 8, embedding));
+		}
+
+		// Set all the pixels' embedding bits to the cipher data bits.
+		BitUtil.setBits(pixels, count, cipherData, length, embedding.getChannels(), embedding.getBitsPerChannel());
+		image.setPixels(block.x, block.y, block.width, block.height, pixels);
+
+		return length;
 	}
 
 	/**
@@ -98,76 +299,1054 @@ public class WatermarkServiceImpl implements WatermarkService {
 	 */
 	@Override
 	public BufferedImage decode(KeyCipher cipher, PublicKey key, BufferedImage source, BufferedImage watermark, int blockSize) {
-		int imgWidth = source.getWidth();
-		int imgHeight = source.getHeight();
+		return decode(cipher, key, source, watermark, blockSize, null);
+	}
+
+	/**
+	 * Decode a watermarked image using the parameters recorded in its header.
+	 *
+	 * @param cipher - the cipher method for decoding.
+	 * @param key - the public key.
+	 * @param source - the image that is watermarked.
+	 * @param watermark - the watermark to compare to the extracted hash.
+	 * @return the XORed watermark hash.
+	 */
+	@Override
+	public BufferedImage decode(KeyCipher cipher, PublicKey key, BufferedImage source, BufferedImage watermark) {
+		return decode(cipher, key, source, watermark, WatermarkHeader.LEGACY_BLOCK_SIZE, null);
+	}
+
+	/**
+	 * Decode a watermarked image and record the outcome in a sidecar index of
+	 * per-block content digests. Blocks whose digest matches the index reuse
+	 * the stored result instead of being decrypted again. If the image has a
+	 * header, its block size and partition are used instead of the provided
+	 * block size.
+	 *
+	 * @param cipher - the cipher method for decoding.
+	 * @param key - the public key.
+	 * @param source - the image that is watermarked.
+	 * @param watermark - the watermark to compare to the extracted hash.
+	 * @param blockSize - image blocks pixel size of images without a header.
+	 * @param indexFile - the sidecar index to read and update, or null.
+	 * @return the XORed watermark hash.
+	 */
+	@Override
+	public BufferedImage decode(KeyCipher cipher, PublicKey key, BufferedImage source, BufferedImage watermark, int blockSize, File indexFile) {
+		WatermarkRequest request = new WatermarkRequest(cipher, key, source, watermark);
+		request.setBlockSize(blockSize);
+		request.setIndexFile(indexFile);
+		return decode(request);
+	}
+
+	/**
+	 * Decode a watermarked image as described by a request. The request is
+	 * checked for cancellation and its deadline between blocks.
+	 *
+	 * @param request - the decode parameters, which must hold a public key.
+	 * @return the XORed watermark hash.
+	 */
+	@Override
+	public BufferedImage decode(WatermarkRequest request) {
+		return decode(new DecodeSession(request, null, null));
+	}
 
-		BufferedImage[][] blocks = ImageUtil.partitionImage(source, blockSize);
-		int[] blackPixels = CommonUtil.getSolidPixels(blockSize, 0xFF000000);
+	/**
+	 * Decode a watermarked off-heap pixel store, in place. The source of the
+	 * request is ignored, and the outcome is recorded in its tamper report.
+	 * Stores encoded with an adaptive partition are not supported, and a
+	 * mapped store is not forced to its file.
+	 *
+	 * @param request - the decode parameters, which must hold a public key.
+	 * @param store - the watermarked pixels, which are replaced by the
+	 *            decoded pixels.
+	 */
+	@Override
+	public void decode(WatermarkRequest request, PixelStore store) {
+		decode(request, store, store);
+	}
 
-		int blockCountY = blocks.length;
-		int blockCountX = blocks[0].length;
+	/**
+	 * Decode watermarked pixels from a pixel source into a pixel sink. The
+	 * source of the request is ignored, and the outcome is recorded in its
+	 * tamper report. The source is copied into the sink a band of rows at a
+	 * time, unless they are the same, and the sink is decoded in place.
+	 * Pixels which are not held by an image cannot be decoded with an
+	 * adaptive partition.
+	 *
+	 * @param request - the decode parameters, which must hold a public key.
+	 * @param source - the watermarked pixels.
+	 * @param sink - the pixels to write the decoded image to.
+	 */
+	@Override
+	public void decode(WatermarkRequest request, PixelSource source, PixelSink sink) {
+		decode(new DecodeSession(request, source, sink));
+	}
 
-		int[] checksumData = new int[blockCountX * blockCountY];
+	/**
+	 * Decodes every block on the calling thread. No block result is created,
+	 * since nobody subscribes to them.
+	 */
+	private BufferedImage decode(DecodeSession session) {
+		try {
+			int total = session.open();
 
-		int[] watermarkPixels = ImageUtil.getPixels(watermark);
-		byte[] watermarkBytes = CommonUtil.integersToBytes(watermarkPixels);
-		byte[] watermarkMask = new byte[16];
-		System.arraycopy(watermarkBytes, 0, watermarkMask, 0, watermarkMask.length);
+			for (int position = 0; position < total; position++) {
+				session.process(position);
+			}
+		} finally {
+			session.close();
+		}
 
-		for (int row = 0; row < blocks.length; row++) {
-			for (int col = 0; col < blocks[row].length; col++) {
-				BufferedImage block = blocks[row][col];
-				int index = row * blockCountY + col;
+		return session.finish();
+	}
 
-				// Only watermark full image blocks.
-				if (block.getWidth() == blockSize && block.getHeight() == blockSize) {
-					decodeBlock(cipher, key, block, watermarkMask, index, imgWidth, imgHeight, blackPixels);
-				} else {
-					checksumData[index] = 0xFF7F7F7F;
-				}
+	/**
+	 * Decode a watermarked image on the service's executor.
+	 *
+	 * @param request - the decode parameters, which must hold a public key.
+	 * @return a future of the decoded image.
+	 */
+	@Override
+	public CompletableFuture<BufferedImage> decodeAsync(WatermarkRequest request) {
+		return submit(request, this::decode);
+	}
+
+	/**
+	 * Encode many images, sharing the blocks of every image across the block
+	 * pool. Each image is reassembled when its last block completes, so small
+	 * images do not leave workers idle.
+	 *
+	 * @param requests - the encode parameters, which must hold private keys.
+	 * @return a future of each encoded image, in the order of the requests.
+	 */
+	@Override
+	public List<CompletableFuture<BufferedImage>> encodeAll(List<WatermarkRequest> requests) {
+		List<CompletableFuture<BufferedImage>> futures = new ArrayList<CompletableFuture<BufferedImage>>(requests.size());
+		BlockScheduler scheduler = new BlockScheduler(blockPool, blockGrain);
+
+		for (WatermarkRequest request : requests) {
+			futures.add(schedule(scheduler, request, new EncodeSession(request, null, null)));
+		}
+
+		return futures;
+	}
+
+	/**
+	 * Decode many images, sharing the blocks of every image across the block
+	 * pool. Each image is reassembled when its last block completes, so small
+	 * images do not leave workers idle.
+	 *
+	 * @param requests - the decode parameters, which must hold public keys.
+	 * @return a future of each decoded image, in the order of the requests.
+	 */
+	@Override
+	public List<CompletableFuture<BufferedImage>> decodeAll(List<WatermarkRequest> requests) {
+		List<CompletableFuture<BufferedImage>> futures = new ArrayList<CompletableFuture<BufferedImage>>(requests.size());
+		BlockScheduler scheduler = new BlockScheduler(blockPool, blockGrain);
+
+		for (WatermarkRequest request : requests) {
+			futures.add(schedule(scheduler, request, new DecodeSession(request, null, null)));
+		}
+
+		return futures;
+	}
+
+	/**
+	 * Schedules the blocks of a request. Cancelling the returned future
+	 * cancels the request, so its remaining blocks are skipped.
+	 *
+	 * @param scheduler - the scheduler which runs the blocks.
+	 * @param request - the request to run.
+	 * @param job - the encode or decode of the request.
+	 * @return a future of the resulting image.
+	 */
+	private CompletableFuture<BufferedImage> schedule(BlockScheduler scheduler, WatermarkRequest request, BlockJob job) {
+		if (request.getCancellationToken() == null) {
+			request.setCancellationToken(new CancellationToken());
+		}
+
+		final CancellationToken token = request.getCancellationToken();
+		final CompletableFuture<BufferedImage> future = scheduler.submit(job);
+
+		future.whenComplete((image, error) -> {
+			if (future.isCancelled()) {
+				token.cancel();
 			}
+		});
+
+		return future;
+	}
+
+	/**
+	 * Runs an operation on the service's executor. Cancelling the returned
+	 * future cancels the request, so the operation stops at the next block.
+	 *
+	 * @param request - the request to run.
+	 * @param operation - the encode or decode.
+	 * @return a future of the resulting image.
+	 */
+	private CompletableFuture<BufferedImage> submit(final WatermarkRequest request, final Function<WatermarkRequest, BufferedImage> operation) {
+		if (request.getCancellationToken() == null) {
+			request.setCancellationToken(new CancellationToken());
 		}
 
-		return ImageUtil.recombine(blocks);
+		final CancellationToken token = request.getCancellationToken();
+		final CompletableFuture<BufferedImage> future = CompletableFuture.supplyAsync(() -> operation.apply(request), executor);
+
+		future.whenComplete((image, error) -> {
+			if (future.isCancelled()) {
+				token.cancel();
+			}
+		});
+
+		return future;
+	}
+
+	/**
+	 * Decode a watermarked image block by block. Each block's result is
+	 * published once the subscriber requests it.
+	 *
+	 * @param request - the decode parameters, which must hold a public key.
+	 * @param executor - runs the decode, or null to decode on the thread which
+	 *            requests blocks.
+	 * @return a publisher of the block results, for a single subscriber.
+	 */
+	@Override
+	public Flow.Publisher<BlockResult> decodeBlocks(WatermarkRequest request, Executor executor) {
+		return new BlockPublisher(new DecodeSession(request, null, null), executor);
+	}
+
+	/**
+	 * Reports a processed block to the request's listener, then stops the
+	 * request if it was cancelled or its deadline has passed.
+	 *
+	 * @param request - the running request.
+	 * @param done - the number of blocks processed so far.
+	 * @param total - the number of blocks in the image.
+	 */
+	private void blockProcessed(WatermarkRequest request, int done, int total) {
+		if (request.getListener() != null) {
+			request.getListener().blockProcessed(done, total);
+		}
+
+		if (done < total) {
+			request.checkCancelled(done, total);
+		}
 	}
 
 	/**
 	 *
 	 *@param cipher - the cipher method for decoding.
 	 * @param key - the public key.
-	 * @param block - the current watermarked image block.
+	 * @param image - the image being decoded.
+	 * @param block - the bounds of the current block.
+	 * @param pixels - the pixels of the block, which are modified.
 	 * @param watermark - the watermark mask to compare to the decrypted hash.
-	 * @param index - the current index for the image block.
+	 * @param embedding - the channels and bits which carry the payload.
+	 * @param payloadLength - the number of cipher bytes embedded in the block.
 	 * @param imgWidth - the width of the whole watermarked image.
 	 * @param imgHeight - the height of the whole watermarked image.
-	 * @return
+	 * @return whether the block's hash matched the watermark.
 	 */
-	private void decodeBlock(KeyCipher cipher, PublicKey key, BufferedImage block, byte[] watermark, int index, int imgWidth, int imgHeight, int[] mark) {
-		int w = block.getWidth();
-		int h = block.getHeight();
-		int[] pixels = ImageUtil.getPixels(block);
-		byte[] lsbs = BitUtil.extractLsb(pixels, 128);
+	private boolean decodeBlock(KeyCipher cipher, PublicKey key, BlockCanvas image, Rectangle block, int[] pixels, byte[] watermark,
+			ChannelEmbedding embedding, int payloadLength, int imgWidth, int imgHeight) {
+		int count = block.width * block.height;
+
+		if (verifyBlock(cipher, key, image, block, pixels, watermark, embedding, payloadLength, imgWidth, imgHeight)) {
+			// Set the embedding bits of each pixel to 0.
+			BitUtil.dropBits(pixels, count, embedding.getChannels(), embedding.getBitsPerChannel());
+			image.setPixels(block.x, block.y, block.width, block.height, pixels);
+			return true;
+		}
+
+		image.fill(block.x, block.y, block.width, block.height, TAMPERED_COLOR);
+		return false;
+	}
+
+	/**
+	 * Checks the signature embedded in the pixels of a block without
+	 * modifying them.
+	 *
+	 * @param cipher - the cipher method for decoding.
+	 * @param key - the public key.
+	 * @param image - the image which holds the block.
+	 * @param block - the bounds of the block.
+	 * @param pixels - the pixels of the block.
+	 * @param watermark - the watermark mask to compare to the decrypted hash.
+	 * @param embedding - the channels and bits which carry the payload.
+	 * @param payloadLength - the number of cipher bytes embedded in the block.
+	 * @param imgWidth - the width of the whole watermarked image.
+	 * @param imgHeight - the height of the whole watermarked image.
+	 * @return whether the block's hash matched the watermark.
+	 */
+	private boolean verifyBlock(KeyCipher cipher, PublicKey key, BlockCanvas image, Rectangle block, int[] pixels, byte[] watermark,
+			ChannelEmbedding embedding, int payloadLength, int imgWidth, int imgHeight) {
+		ScratchArena arena = ScratchArena.get();
+		int count = block.width * block.height;
+		byte[] lsbs = BitUtil.extractBits(pixels, count, arena.getPayload(payloadLength), payloadLength,
+				embedding.getChannels(), embedding.getBitsPerChannel());
+		byte[] cipherData = arena.getCipherText(payloadLength);
+		int length = cipher.decrypt(lsbs, 0, payloadLength, key, cipherData); // Decryption Error...
+
+		if (length != ScratchArena.HASH_SIZE) {
+			return false;
+		}
+
+		// Expected Hash, of the first pixel without its embedding bits.
+		byte[] params = arena.getParams();
+		params[0] = (byte) imgWidth;
+		params[1] = (byte) imgHeight;
+		params[2] = getHashSample(image, block, pixels[0], embedding);
+
+		byte[] hashBytes = CommonUtil.hashMD5(params, 0, params.length, arena.getHash());
+		byte[] xorData = CommonUtil.xor(hashBytes, cipherData, arena.getXor(), ScratchArena.HASH_SIZE);
+
+		// The decrypted hash matches the expected watermark.
+		return Arrays.equals(xorData, watermark);
+	}
+
+	/**
+	 * Returns the sample of a block's first pixel which the block hash covers:
+	 * its blue channel without the embedding bits. The pixels only present
+	 * the low byte of a 16-bit sample, which holds the embedding and noise,
+	 * so a 16-bit sample is covered by its high byte instead.
+	 *
+	 * @param image - the image which holds the block.
+	 * @param block - the bounds of the block.
+	 * @param pixel - the first pixel of the block.
+	 * @param embedding - the channels and bits which carry the payload.
+	 * @return the byte to hash.
+	 */
+	private static byte getHashSample(BlockCanvas image, Rectangle block, int pixel, ChannelEmbedding embedding) {
+		BufferedImage img = image.getImage();
+
+		if (img != null && RasterUtil.isWide(img)) {
+			int band = img.getColorModel().getNumColorComponents() == 1 ? 0 : 2;
+			return (byte) (img.getRaster().getSample(block.x, block.y, band) >>> 8);
+		}
+
+		return (byte) (pixel & ~BitUtil.getEmbeddingMask(embedding.getChannels(), embedding.getBitsPerChannel()));
+	}
+
+	/**
+	 * Hashes the content of a block for the index. The high bytes of 16-bit
+	 * samples are hashed after the pixels, so a change to them is not taken
+	 * for an unchanged block.
+	 *
+	 * @param image - the image which holds the block.
+	 * @param block - the bounds of the block.
+	 * @param pixels - the pixels of the block.
+	 * @param digest - the array which receives the 16 byte digest.
+	 * @return the digest array.
+	 */
+	private static byte[] digestBlock(BlockCanvas image, Rectangle block, int[] pixels, byte[] digest) {
+		int count = block.width * block.height;
+		BufferedImage img = image.getImage();
+
+		if (img == null || !RasterUtil.isWide(img)) {
+			return CommonUtil.hashMD5(pixels, count, digest);
+		}
+
+		int[] data = Arrays.copyOf(pixels, count * 2);
+		int[] high = RasterUtil.getHighPixels(img, block.x, block.y, block.width, block.height, null);
+		System.arraycopy(high, 0, data, count, count);
+
+		return CommonUtil.hashMD5(data, data.length, digest);
+	}
+
+	/**
+	 * Reproduces the output of {@link #decodeBlock} for a block whose result
+	 * was read from the index.
+	 *
+	 * @param image - the image being decoded.
+	 * @param block - the bounds of the current block.
+	 * @param pixels - the pixels of the block, which are modified.
+	 * @param status - the stored verification status.
+	 * @param embedding - the channels and bits which carry the payload.
+	 */
+	private void applyStatus(BlockCanvas image, Rectangle block, int[] pixels, byte status, ChannelEmbedding embedding) {
+		if (status == BlockIndex.STATUS_VERIFIED) {
+			BitUtil.dropBits(pixels, block.width * block.height, embedding.getChannels(), embedding.getBitsPerChannel());
+			image.setPixels(block.x, block.y, block.width, block.height, pixels);
+		} else if (status == BlockIndex.STATUS_TAMPERED) {
+			image.fill(block.x, block.y, block.width, block.height, TAMPERED_COLOR);
+		}
+	}
+
+	/**
+	 * Copies the source into the image which is encoded or decoded in-place.
+	 * The copy keeps the source type when its raster can hold the embedding,
+	 * and is converted to ARGB otherwise. An in-place request uses the source
+	 * itself.
+	 *
+	 * @param request - the request holding the source image.
+	 * @param embedding - the channels and bits which carry the payload.
+	 * @return the output image.
+	 */
+	private BufferedImage createOutputImage(WatermarkRequest request, ChannelEmbedding embedding) {
+		BufferedImage source = request.getSource();
+
+		if (request.isInPlace()) {
+			if (!RasterUtil.canEmbed(source, embedding)) {
+				throw new IllegalArgumentException("The image cannot hold the embedding in place.");
+			}
+
+			return source;
+		}
+
+		if (RasterUtil.canEmbed(source, embedding)) {
+			return ImageUtil.cloneImage(source);
+		}
+
+		return ImageUtil.cloneImage(source, BufferedImage.TYPE_INT_ARGB);
+	}
+
+	/**
+	 * Returns the number of bytes the cipher produces for a block, which is
+	 * the modulus size for RSA keys.
+	 *
+	 * @param cipher - the cipher method for encoding.
+	 * @param key - the private key.
+	 * @return the number of cipher bytes per block.
+	 */
+	private int getPayloadLength(KeyCipher cipher, PrivateKey key) {
+		if (key instanceof RSAKey) {
+			return (((RSAKey) key).getModulus().bitLength() + 7) / 8;
+		}
+
+		byte[] cipherData = cipher.encrypt(new byte[16], key);
+
+		if (cipherData == null) {
+			throw new IllegalStateException("The cipher could not encrypt with the provided key.");
+		}
+
+		return cipherData.length;
+	}
+
+	/**
+	 * Truncate the watermark to fit 16 bytes (128 bits) since the MD5 hash
+	 * outputs the hashed image, to be XORed, in 16 bytes.
+	 *
+	 * @param watermark - the watermark image.
+	 * @return the watermark mask.
+	 */
+	private byte[] createWatermarkMask(BufferedImage watermark) {
+		int[] watermarkPixels = ImageUtil.getPixels(watermark);
+		byte[] watermarkBytes = CommonUtil.integersToBytes(watermarkPixels);
+		byte[] watermarkMask = new byte[16];
+		System.arraycopy(watermarkBytes, 0, watermarkMask, 0, watermarkMask.length);
+		return watermarkMask;
+	}
+
+	/**
+	 * Signs the strip at the top of an image, which holds the header and the
+	 * partition stored below it. The signature is embedded in the LSB of the
+	 * pixels which follow the header, so the strip is signed by the same key
+	 * as the blocks.
+	 *
+	 * @param cipher - the cipher method for encoding.
+	 * @param key - the private key.
+	 * @param image - the encoded image, whose strip is already written.
+	 * @param rows - the height of the strip.
+	 * @param payloadLength - the number of cipher bytes of the signature.
+	 */
+	private void signStrip(KeyCipher cipher, PrivateKey key, BlockCanvas image, int rows, int payloadLength) {
+		int width = image.getWidth();
+		int[] pixels = image.getPixels(0, 0, width, rows, null);
+		byte[] signature = cipher.encrypt(hashStrip(image, pixels, payloadLength), key);
+
+		if (signature == null || signature.length != payloadLength) {
+			throw new IllegalStateException("The header strip could not be signed.");
+		}
+
+		for (int i = 0; i < payloadLength * 8; i++) {
+			int pixel = WatermarkHeader.BITS + i;
+			pixels[pixel] = BitUtil.setLSB(pixels[pixel], (signature[i / 8] >>> (7 - i % 8)) & 1);
+		}
+
+		image.setPixels(0, 0, width, rows, pixels);
+	}
+
+	/**
+	 * Checks the signature of the strip at the top of an image.
+	 *
+	 * @param cipher - the cipher method for decoding.
+	 * @param key - the public key.
+	 * @param image - the watermarked image.
+	 * @param rows - the height of the strip.
+	 * @param payloadLength - the number of cipher bytes of the signature.
+	 * @return whether the strip is unchanged since it was signed.
+	 */
+	private boolean verifyStrip(KeyCipher cipher, PublicKey key, BlockCanvas image, int rows, int payloadLength) {
+		int width = image.getWidth();
+		int[] pixels = image.getPixels(0, 0, width, rows, null);
+		byte[] bits = BitUtil.extractLsb(pixels, WatermarkHeader.SIZE + payloadLength);
+		byte[] hash = cipher.decrypt(Arrays.copyOfRange(bits, WatermarkHeader.SIZE, bits.length), key);
+
+		return hash != null && Arrays.equals(hash, hashStrip(image, pixels, payloadLength));
+	}
+
+	/**
+	 * Hashes the size of an image and every pixel of its strip, without the
+	 * bits which hold the signature. A gray image presents its sample in
+	 * every color channel, so only its blue and alpha channels are hashed.
+	 * The high bytes of 16-bit samples are hashed after the pixels.
+	 */
+	private static byte[] hashStrip(BlockCanvas image, int[] pixels, int payloadLength) {
+		int channels = image.getImage() != null ? RasterUtil.getChannels(image.getImage()) : 0;
+		int keep = channels != 0 && (channels & ChannelEmbedding.RED) == 0 ? 0xFF0000FF : 0xFFFFFFFF;
+		BufferedImage img = image.getImage();
+		int[] high = null;
+
+		if (img != null && RasterUtil.isWide(img)) {
+			high = RasterUtil.getHighPixels(img, 0, 0, img.getWidth(), pixels.length / img.getWidth(), null);
+		}
+
+		int[] data = new int[2 + pixels.length + (high != null ? high.length : 0)];
+		data[0] = image.getWidth();
+		data[1] = image.getHeight();
+
+		for (int i = 0; i < pixels.length; i++) {
+			data[2 + i] = pixels[i] & keep;
+		}
+
+		if (high != null) {
+			for (int i = 0; i < high.length; i++) {
+				data[2 + pixels.length + i] = high[i] & keep;
+			}
+		}
+
+		for (int i = WatermarkHeader.BITS; i < WatermarkHeader.BITS + payloadLength * 8; i++) {
+			data[2 + i] = BitUtil.setLSB(data[2 + i], 0);
+		}
+
+		return CommonUtil.hashMD5(data, data.length, new byte[ScratchArena.HASH_SIZE]);
+	}
+
+	/**
+	 * Opens the sidecar index for a decode. A missing index file disables the
+	 * index, and an index which cannot be mapped falls back to a full decode.
+	 *
+	 * @return the opened index, or null.
+	 */
+	private BlockIndex openIndex(File indexFile, int imgWidth, int imgHeight, int blockSize, ChannelEmbedding embedding,
+			BlockPartition partition, PublicKey key, byte[] watermarkMask) {
+		if (indexFile == null) {
+			return null;
+		}
+
+		byte[] keyBytes = key.getEncoded();
+		byte[] keyDigest = CommonUtil.hashMD5(keyBytes != null ? keyBytes : new byte[0]);
+		byte[] watermarkDigest = CommonUtil.hashMD5(watermarkMask);
 
 		try {
-			byte[] cipherData = cipher.decrypt(lsbs, key); // Decryption Error...
+			return BlockIndex.open(indexFile, imgWidth, imgHeight, blockSize, embedding.toFlags(), partition.getBlockCount(),
+					partition.getLayoutHash(), keyDigest, watermarkDigest);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 
-			// Set LSB of each pixel to 0.
-			BitUtil.dropLSB(pixels);
-			block.setRGB(0, 0, w, h, pixels, 0, w);
+		return null;
+	}
 
-			// Expected Hash
-			byte[] params = new byte[] { (byte) imgWidth, (byte) imgHeight, (byte) block.getRGB(0, 0) };
-			byte[] hashBytes = CommonUtil.hashMD5(params);
-			byte[] xorData = CommonUtil.xor(hashBytes, cipherData);
+	/**
+	 * Copies the pixels of a source into a sink, a band of rows at a time from
+	 * top to bottom, unless the sink is the source.
+	 *
+	 * @param source - the pixels to encode or decode.
+	 * @param sink - the pixels to write the output to.
+	 * @return a canvas over the sink, which is encoded or decoded in place.
+	 */
+	private BlockCanvas openSink(PixelSource source, PixelSink sink) {
+		int width = source.getWidth();
+		int height = source.getHeight();
+
+		if (sink.getWidth() != width || sink.getHeight() != height) {
+			throw new IllegalArgumentException(String.format("A %dx%d sink cannot hold a %dx%d source.",
+					sink.getWidth(), sink.getHeight(), width, height));
+		}
 
-			if (Arrays.equals(xorData, watermark)) {
-				// The decrypted hash matches the expected watermark.
-				return;
+		if (source != sink) {
+			int rows = Math.max(1, COPY_BAND_PIXELS / width);
+			int[] band = new int[Math.min(rows, height) * width];
+
+			for (int y = 0; y < height; y += rows) {
+				int h = Math.min(rows, height - y);
+				source.getPixels(0, y, width, h, band);
+				sink.setPixels(0, y, width, h, band);
 			}
-		} catch (Exception e) {
-			// Expecting a javax.crypto.BadPaddingException.
 		}
 
-		block.setRGB(0, 0, w, h, mark, 0, w);
+		return new SinkCanvas(sink);
+	}
+
+	/**
+	 * Checks that a canvas which is processed in place can hold the embedding.
+	 *
+	 * @param canvas - the canvas.
+	 * @param embedding - the channels and bits which carry the payload.
+	 * @return the canvas.
+	 */
+	private BlockCanvas checkEmbedding(BlockCanvas canvas, ChannelEmbedding embedding) {
+		if (canvas.getImage() != null && !RasterUtil.canEmbed(canvas.getImage(), embedding)) {
+			throw new IllegalArgumentException("The image cannot hold the embedding in place.");
+		}
+
+		return canvas;
+	}
+
+	/**
+	 * Partitions the pixels of an encode. Pixels which are not held by an
+	 * image only support the fixed grid, since the other partitioners read
+	 * the image.
+	 *
+	 * @param partitioner - the strategy which divides the image into blocks.
+	 * @param canvas - the pixels to partition.
+	 * @param top - the first row which belongs to the blocks.
+	 * @param blockSize - image blocks pixel size.
+	 * @param embedding - the channels and bits which carry the payload.
+	 * @param payloadLength - the number of cipher bytes each block holds.
+	 * @return the blocks of the image.
+	 */
+	private BlockPartition partition(BlockPartitioner partitioner, BlockCanvas canvas, int top, int blockSize, ChannelEmbedding embedding,
+			int payloadLength) {
+		if (canvas.getImage() != null) {
+			return partitioner.partition(canvas.getImage(), top, blockSize, embedding, payloadLength);
+		}
+
+		if (!(partitioner instanceof GridPartitioner)) {
+			throw new IllegalArgumentException("Pixels which are not held by an image can only be encoded with the grid partition.");
+		}
+
+		return GridPartitioner.partition(canvas.getWidth(), canvas.getHeight(), top, blockSize);
+	}
+
+	/**
+	 * Orders the blocks of a request by its block order, or by the service's
+	 * order if it has none.
+	 *
+	 * @param request - the running request.
+	 * @param image - the image which holds the blocks, or null if they are not
+	 *            held by an image.
+	 * @param partition - the blocks of the image.
+	 * @return the block indices in processing order, or null for the order of
+	 *         the partition.
+	 */
+	private int[] getOrder(WatermarkRequest request, BufferedImage image, BlockPartition partition) {
+		BlockOrder order = request.getBlockOrder() != null ? request.getBlockOrder() : blockOrder;
+		return order.order(image, partition);
+	}
+
+	private void closeIndex(BlockIndex blockIndex) {
+		if (blockIndex != null) {
+			try {
+				blockIndex.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * The state of a single encode. The blocks are views into the output, so
+	 * they are encoded in-place and may be encoded in any order. If the request
+	 * stops, the partially encoded output is dropped, except in a pixel sink,
+	 * which is encoded in place.
+	 */
+	private class EncodeSession implements BlockJob {
+		private final WatermarkRequest request;
+		private final PixelSource pixels;
+		private final PixelSink sink;
+		private final AtomicInteger processed = new AtomicInteger();
+		private BlockCanvas output;
+		private BlockPartition partition;
+		private ChannelEmbedding embedding;
+		private int payloadLength;
+		private int headerRows;
+		private int structureRows;
+		private byte[] watermarkMask;
+		private int[] order;
+		private int total;
+		private PublicKey verificationKey;
+		private VerificationResult verification;
+
+		/**
+		 * @param request - the encode parameters.
+		 * @param pixels - the pixels to encode, or null to encode the request's
+		 *            source.
+		 * @param sink - the pixels to write the output to, or null to encode a
+		 *            copy of the request's source.
+		 */
+		EncodeSession(WatermarkRequest request, PixelSource pixels, PixelSink sink) {
+			this.request = request;
+			this.pixels = pixels;
+			this.sink = sink;
+		}
+
+		@Override
+		public int open() {
+			if (!(request.getKey() instanceof PrivateKey)) {
+				throw new IllegalArgumentException("Encoding requires a private key.");
+			}
+
+			KeyCipher cipher = request.getCipher();
+			PrivateKey key = (PrivateKey) request.getKey();
+			BlockCanvas source = sink != null ? openSink(pixels, sink) : new ImageCanvas(request.getSource());
+			int blockSize = request.getBlockSize();
+			BlockPartitioner partitioner = request.getPartitioner() != null ? request.getPartitioner() : new GridPartitioner();
+			int imgWidth = source.getWidth();
+			int imgHeight = source.getHeight();
+			embedding = request.getEmbedding();
+			payloadLength = getPayloadLength(cipher, key);
+
+			// Reserve the top rows for the header and its signature, and
+			// partition the rest of the image into blocks.
+			headerRows = WatermarkHeader.getStripHeight(imgWidth, imgHeight, payloadLength);
+			partition = partition(partitioner, source, headerRows, blockSize, embedding, payloadLength);
+
+			if (headerRows == 0 && (partition.isAdaptive() || !embedding.equals(ChannelEmbedding.LEGACY))) {
+				throw new IllegalArgumentException(String.format(
+						"A %dx%d image is too small to record its embedding header.", imgWidth, imgHeight));
+			}
+
+			// An adaptive partition is stored below the header, which shrinks the
+			// area left for blocks, so partition again until the strip fits.
+			while (partition.isAdaptive()) {
+				int rowsNeeded = QuadtreePartitioner.getStructureRows(partition, imgWidth);
+
+				if (rowsNeeded <= structureRows) {
+					break;
+				}
+
+				structureRows = rowsNeeded;
+
+				if (headerRows + structureRows >= imgHeight) {
+					throw new IllegalArgumentException(String.format(
+							"A %dx%d image is too small to record its partition.", imgWidth, imgHeight));
+				}
+
+				partition = partition(partitioner, source, headerRows + structureRows, blockSize, embedding, payloadLength);
+			}
+
+			total = partition.getBlockCount();
+			request.checkCancelled(0, total);
+
+			output = sink != null ? checkEmbedding(source, embedding) : new ImageCanvas(createOutputImage(request, embedding));
+			watermarkMask = createWatermarkMask(request.getWatermark());
+			order = getOrder(request, output.getImage(), partition);
+
+			if (request.isVerify()) {
+				verificationKey = request.getVerificationKey() != null ? request.getVerificationKey() : CommonUtil.getPublicKey(key);
+
+				if (verificationKey == null) {
+					throw new IllegalArgumentException("Verifying an encode requires a public key.");
+				}
+
+				verification = new VerificationResult(total);
+				request.setVerification(verification);
+			}
+
+			return total;
+		}
+
+		@Override
+		public void process(int position) {
+			int index = order != null ? order[position] : position;
+			Rectangle r = partition.getBlock(index);
+			int length = encodeBlock(request.getCipher(), (PrivateKey) request.getKey(), output, r, watermarkMask,
+					embedding, payloadLength, output.getWidth(), output.getHeight());
+
+			if (verification != null) {
+				verify(index, r, length);
+			} else if (length < 0) {
+				throw new IllegalStateException("The block hash could not be encrypted.");
+			}
+
+			blockProcessed(request, processed.incrementAndGet(), total);
+		}
+
+		/**
+		 * Checks a block right after it was written, while its pixels are still
+		 * in the worker's cache, and records it if it does not verify.
+		 */
+		private void verify(int index, Rectangle r, int length) {
+			long start = System.nanoTime();
+			boolean verified = false;
+
+			if (length >= 0) {
+				int count = r.width * r.height;
+
+				// Read the block back, so samples the raster cannot hold are
+				// caught as well.
+				int[] pixels = output.getPixels(r.x, r.y, r.width, r.height, ScratchArena.get().getPixels(count));
+				verified = verifyBlock(request.getCipher(), verificationKey, output, r, pixels, watermarkMask, embedding, payloadLength,
+						output.getWidth(), output.getHeight());
+			}
+
+			if (!verified) {
+				verification.addFailure(new BlockResult(index, total, r, BlockResult.STATUS_TAMPERED, System.nanoTime() - start, false));
+			}
+		}
+
+		@Override
+		public BufferedImage finish() {
+			if (headerRows > 0) {
+				Key key = request.getKey();
+				int flags = embedding.toFlags();
+
+				if (partition.isAdaptive()) {
+					flags |= WatermarkHeader.FLAG_ADAPTIVE_PARTITION;
+					QuadtreePartitioner.writeStructure(output.getImage(), headerRows, structureRows, partition);
+				}
+
+				output.writeHeader(new WatermarkHeader(flags, request.getBlockSize(), payloadLength, key.getAlgorithm(), CommonUtil.getKeyId(key)));
+
+				// Sign the header and partition last, once the strip is final.
+				signStrip(request.getCipher(), (PrivateKey) key, output, headerRows + structureRows, payloadLength);
+			}
+
+			return output.getImage();
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * The state of a single decode, which is either advanced one block at a
+	 * time or has its blocks decoded in any order. The header, partition and
+	 * index are read when the first block is requested.
+	 */
+	private class DecodeSession implements BlockPublisher.BlockSource, BlockJob {
+		private final WatermarkRequest request;
+		private final PixelSource pixels;
+		private final PixelSink sink;
+		private final AtomicInteger processed = new AtomicInteger();
+		private BlockCanvas output;
+		private BlockPartition partition;
+		private ChannelEmbedding embedding;
+		private int payloadLength;
+		private boolean keyMatches;
+		private byte[] watermarkMask;
+		private BlockIndex blockIndex;
+		private int[] order;
+		private TamperReport tamperReport;
+		private int next;
+		private int total;
+		private boolean opened;
+
+		/**
+		 * @param request - the decode parameters.
+		 * @param pixels - the pixels to decode, or null to decode the request's
+		 *            source.
+		 * @param sink - the pixels to write the output to, or null to decode a
+		 *            copy of the request's source.
+		 */
+		DecodeSession(WatermarkRequest request, PixelSource pixels, PixelSink sink) {
+			this.request = request;
+			this.pixels = pixels;
+			this.sink = sink;
+		}
+
+		@Override
+		public int open() {
+			opened = true;
+
+			if (!(request.getKey() instanceof PublicKey)) {
+				throw new IllegalArgumentException("Decoding requires a public key.");
+			}
+
+			BlockCanvas source = sink != null ? openSink(pixels, sink) : new ImageCanvas(request.getSource());
+			int blockSize = request.getBlockSize();
+			int imgWidth = source.getWidth();
+			int imgHeight = source.getHeight();
+
+			// Images without a header are decoded with the legacy layout.
+			WatermarkHeader header = source.readHeader();
+			int headerRows = 0;
+			int stripRows = 0;
+			payloadLength = WatermarkHeader.LEGACY_PAYLOAD_LENGTH;
+			embedding = ChannelEmbedding.LEGACY;
+			keyMatches = true;
+
+			if (header != null) {
+				headerRows = header.getStripHeight(imgWidth, imgHeight);
+				stripRows = headerRows;
+				blockSize = header.getBlockSize();
+				payloadLength = header.getPayloadLength();
+				embedding = ChannelEmbedding.fromFlags(header.getFlags());
+				keyMatches = header.matches(request.getKey());
+			}
+
+			output = sink != null ? checkEmbedding(source, embedding) : new ImageCanvas(createOutputImage(request, embedding));
+
+			if (header != null && headerRows == 0) {
+				// The header claims a signature the image cannot hold.
+				return damaged(imgWidth, imgHeight, 0);
+			}
+
+			if (header != null && (header.getFlags() & WatermarkHeader.FLAG_ADAPTIVE_PARTITION) != 0) {
+				if (source.getImage() == null) {
+					throw new IllegalArgumentException("Pixels which are not held by an image cannot be decoded with an adaptive partition.");
+				}
+
+				partition = QuadtreePartitioner.read(source.getImage(), headerRows, blockSize, embedding, payloadLength);
+
+				if (partition == null) {
+					// The stored partition is damaged, so no block can be located.
+					return damaged(imgWidth, imgHeight, headerRows);
+				}
+
+				stripRows += QuadtreePartitioner.readStructureRows(source.getImage(), headerRows);
+			} else {
+				partition = GridPartitioner.partition(imgWidth, imgHeight, headerRows, blockSize);
+			}
+
+			total = partition.getBlockCount();
+			request.checkCancelled(0, total);
+
+			watermarkMask = createWatermarkMask(request.getWatermark());
+			order = getOrder(request, output.getImage(), partition);
+			tamperReport = new TamperReport(partition, imgWidth, imgHeight);
+			request.setTamperReport(tamperReport);
+
+			if (header != null) {
+				tamperReport.setStrip(checkStrip(header, source, stripRows), stripRows);
+			}
+
+			blockIndex = openIndex(request.getIndexFile(), imgWidth, imgHeight, blockSize, embedding, partition,
+					(PublicKey) request.getKey(), watermarkMask);
+
+			return total;
+		}
+
+		/**
+		 * Checks the signature of the strip and marks a tampered strip in the
+		 * output. Strips written before they were signed are reported as
+		 * unsigned.
+		 *
+		 * @return the status of the strip.
+		 */
+		private int checkStrip(WatermarkHeader header, BlockCanvas source, int stripRows) {
+			if (!header.isStripSigned()) {
+				return TamperReport.STRIP_UNSIGNED;
+			}
+
+			if (keyMatches && verifyStrip(request.getCipher(), (PublicKey) request.getKey(), source, stripRows, payloadLength)) {
+				return TamperReport.STRIP_VERIFIED;
+			}
+
+			output.fill(0, 0, output.getWidth(), stripRows, TAMPERED_COLOR);
+			return TamperReport.STRIP_TAMPERED;
+		}
+
+		/**
+		 * Reports an image whose strip cannot be read, so no block can be
+		 * located, as a single tampered region below the top rows.
+		 *
+		 * @return the number of blocks to decode, which is 0.
+		 */
+		private int damaged(int imgWidth, int imgHeight, int top) {
+			output.fill(0, 0, imgWidth, imgHeight, TAMPERED_COLOR);
+
+			Rectangle bounds = new Rectangle(0, top, imgWidth, imgHeight - top);
+			tamperReport = new TamperReport(new BlockPartition(Collections.singletonList(bounds)), imgWidth, imgHeight);
+			tamperReport.addTampered(0);
+			tamperReport.setStrip(TamperReport.STRIP_TAMPERED, top);
+			request.setTamperReport(tamperReport);
+			return 0;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (!opened) {
+				open();
+			}
+
+			return next < total;
+		}
+
+		@Override
+		public BlockResult next() {
+			int index = order != null ? order[next] : next;
+			long start = System.nanoTime();
+			int outcome = decode(next++);
+
+			return new BlockResult(index, total, partition.getBlock(index),
+					(outcome & DECODE_VERIFIED) != 0 ? BlockResult.STATUS_VERIFIED : BlockResult.STATUS_TAMPERED, System.nanoTime() - start,
+					(outcome & DECODE_CACHED) != 0);
+		}
+
+		@Override
+		public void process(int position) {
+			decode(position);
+		}
+
+		@Override
+		public BufferedImage finish() {
+			return output.getImage();
+		}
+
+		/**
+		 * Decodes a block. Distinct blocks may be decoded concurrently.
+		 *
+		 * @param position - the position of the block in the block order.
+		 * @return the outcome of the block, of {@link #DECODE_VERIFIED} and
+		 *         {@link #DECODE_CACHED}.
+		 */
+		private int decode(int position) {
+			int index = order != null ? order[position] : position;
+			KeyCipher cipher = request.getCipher();
+			PublicKey key = (PublicKey) request.getKey();
+			int imgWidth = output.getWidth();
+			int imgHeight = output.getHeight();
+			Rectangle r = partition.getBlock(index);
+			boolean verified;
+			boolean cached = false;
+
+			if (!keyMatches) {
+				// The image was signed by another key, so no block can verify.
+				output.fill(r.x, r.y, r.width, r.height, TAMPERED_COLOR);
+				verified = false;
+			} else {
+				ScratchArena arena = ScratchArena.get();
+				int count = r.width * r.height;
+				int[] pixels = output.getPixels(r.x, r.y, r.width, r.height, arena.getPixels(count));
+
+				if (blockIndex == null) {
+					verified = decodeBlock(cipher, key, output, r, pixels, watermarkMask, embedding, payloadLength, imgWidth, imgHeight);
+				} else {
+					byte[] digest = digestBlock(output, r, pixels, arena.getDigest());
+
+					if (blockIndex.matches(index, digest)) {
+						// The block is unchanged since it was last verified.
+						byte status = blockIndex.getStatus(index);
+						applyStatus(output, r, pixels, status, embedding);
+						verified = status == BlockIndex.STATUS_VERIFIED;
+						cached = true;
+					} else {
+						verified = decodeBlock(cipher, key, output, r, pixels, watermarkMask, embedding, payloadLength, imgWidth, imgHeight);
+						blockIndex.put(index, digest, verified ? BlockIndex.STATUS_VERIFIED : BlockIndex.STATUS_TAMPERED);
+					}
+				}
+			}
+
+			if (!verified) {
+				tamperReport.addTampered(index);
+			}
+
+			blockProcessed(request, processed.incrementAndGet(), total);
+
+			return (verified ? DECODE_VERIFIED : 0) | (cached ? DECODE_CACHED : 0);
+		}
+
+		@Override
+		public void close() {
+			// The index entries written so far stay valid if the decode stops.
+			closeIndex(blockIndex);
+			blockIndex = null;
+		}
 	}
 }
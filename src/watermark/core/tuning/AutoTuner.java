@@ -0,0 +1,389 @@
+package watermark.core.tuning;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.PrintStream;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+import watermark.core.cipher.KeyCipher;
+import watermark.core.cipher.PublicKeyCipher;
+import watermark.core.datatypes.request.WatermarkRequest;
+import watermark.core.partition.BenchmarkedOrder;
+import watermark.core.partition.GridPartitioner;
+import watermark.core.service.WatermarkServiceImpl;
+import watermark.core.util.ExecutorUtil;
+import watermark.core.util.FileUtil;
+import watermark.core.util.ImageUtil;
+
+/**
+ * This class benchmarks the engine settings on a sample of images and picks
+ * the fastest. Each setting is tuned in turn while the others keep their best
+ * value so far: the parallelism, the block order, the block grain and
+ * finally the executor of asynchronous requests. A run encodes and then
+ * decodes every sample, and the fastest of a few rounds counts. Last, the
+ * candidates of the "auto" block order are timed on each sample shape, and
+ * the profile uses the "auto" order if any shape was large enough to time.
+ *
+ * The block size is not tuned. It is recorded in every encoded image and sets
+ * how finely tampering is located, so it stays a choice of the configuration.
+ *
+ * @author Ryan M. Kane
+ */
+public class AutoTuner {
+	public static final int MAX_SAMPLES = 16;
+	public static final int ROUNDS = 2;
+
+	private static final String CONFIG_FILENAME = "appconfig.properties";
+
+	private final KeyCipher cipher;
+	private final PrivateKey privateKey;
+	private final PublicKey publicKey;
+	private final List<BufferedImage> samples;
+	private final BufferedImage watermark;
+	private final int blockSize;
+	private List<BufferedImage> encoded;
+	private PrintStream log = System.out;
+
+	/**
+	 * @param cipher - the cipher method.
+	 * @param privateKey - the key used to encode the samples.
+	 * @param publicKey - the key used to decode the samples.
+	 * @param samples - the images to benchmark with.
+	 * @param watermark - the watermark to apply.
+	 * @param blockSize - image blocks pixel size.
+	 */
+	public AutoTuner(KeyCipher cipher, PrivateKey privateKey, PublicKey publicKey, List<BufferedImage> samples,
+			BufferedImage watermark, int blockSize) {
+		if (samples.isEmpty()) {
+			throw new IllegalArgumentException("At least one sample image is required.");
+		}
+
+		this.cipher = cipher;
+		this.privateKey = privateKey;
+		this.publicKey = publicKey;
+		this.samples = samples;
+		this.watermark = watermark;
+		this.blockSize = blockSize;
+	}
+
+	public PrintStream getLog() {
+		return log;
+	}
+
+	public void setLog(PrintStream log) {
+		this.log = log;
+	}
+
+	/**
+	 * Benchmarks the settings and returns the fastest profile.
+	 *
+	 * @return the tuned profile.
+	 */
+	public TuningProfile tune() {
+		TuningProfile best = new TuningProfile();
+		int processors = Runtime.getRuntime().availableProcessors();
+
+		// The decode runs need encoded samples, which any setting produces.
+		encoded = join(createService(best).encodeAll(createRequests(samples, true)));
+
+		Set<Integer> parallelism = new LinkedHashSet<Integer>(Arrays.asList(processors, Math.max(1, processors / 2), 1, processors * 2));
+		List<TuningProfile> candidates = new ArrayList<TuningProfile>();
+
+		for (int p : parallelism) {
+			TuningProfile candidate = new TuningProfile(best);
+			candidate.setParallelism(p);
+			candidates.add(candidate);
+		}
+
+		best = fastest("parallelism", candidates, false);
+		candidates.clear();
+
+		for (String order : new String[] { "row", "zorder" }) {
+			TuningProfile candidate = new TuningProfile(best);
+			candidate.setBlockOrder(order);
+			candidates.add(candidate);
+		}
+
+		for (int tileCells : new int[] { 4, 8, 16 }) {
+			TuningProfile candidate = new TuningProfile(best);
+			candidate.setBlockOrder("tiled");
+			candidate.setTileCells(tileCells);
+			candidates.add(candidate);
+		}
+
+		best = fastest("block order", candidates, false);
+		candidates.clear();
+
+		for (int grain : new int[] { 1, 2, 4, 8, 16 }) {
+			TuningProfile candidate = new TuningProfile(best);
+			candidate.setBlockGrain(grain);
+			candidates.add(candidate);
+		}
+
+		best = fastest("block grain", candidates, false);
+		candidates.clear();
+
+		for (String executor : ExecutorUtil.isVirtualThreadSupported() ? new String[] { "platform", "virtual" } : new String[] { "platform" }) {
+			TuningProfile candidate = new TuningProfile(best);
+			candidate.setExecutor(executor);
+			candidates.add(candidate);
+		}
+
+		best = fastest("executor", candidates, true);
+		best.setShapeOrders(benchmarkShapes(best.getTileCells()));
+
+		// The shape orders are only followed by the "auto" order.
+		if (!best.getShapeOrders().isEmpty()) {
+			best.setBlockOrder("auto");
+		}
+
+		return best;
+	}
+
+	/**
+	 * Times the candidates of the "auto" block order on each sample, so
+	 * requests look up the order for their shape rather than time it.
+	 *
+	 * @param tileCells - the tile size of the tiled order, in blocks.
+	 * @return the name of the fastest order for each benchmarked shape.
+	 */
+	private Map<String, String> benchmarkShapes(int tileCells) {
+		BenchmarkedOrder order = (BenchmarkedOrder) TuningProfile.createBlockOrder("auto", tileCells);
+		Map<String, String> shapeOrders = new TreeMap<String, String>();
+
+		for (BufferedImage sample : samples) {
+			order.benchmark(sample, GridPartitioner.partition(sample.getWidth(), sample.getHeight(), 0, blockSize));
+		}
+
+		for (Map.Entry<String, Integer> choice : order.getChoices().entrySet()) {
+			shapeOrders.put(choice.getKey(), TuningProfile.AUTO_ORDERS[choice.getValue()]);
+			log.printf("%-12s %s: %s%n", "shape order", choice.getKey(), TuningProfile.AUTO_ORDERS[choice.getValue()]);
+		}
+
+		return shapeOrders;
+	}
+
+	/**
+	 * Times each candidate and returns the fastest.
+	 *
+	 * @param setting - the name of the setting being tuned.
+	 * @param candidates - the profiles to time.
+	 * @param async - whether to time asynchronous requests instead of batches.
+	 * @return the fastest candidate.
+	 */
+	private TuningProfile fastest(String setting, List<TuningProfile> candidates, boolean async) {
+		TuningProfile best = null;
+		long bestNanos = Long.MAX_VALUE;
+
+		for (TuningProfile candidate : candidates) {
+			long nanos = async ? measureAsync(candidate) : measureBatch(candidate);
+			log.printf("%-12s %s: %.1f ms%n", setting, candidate, nanos / 1e6);
+
+			if (nanos < bestNanos) {
+				best = candidate;
+				bestNanos = nanos;
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * Times encoding and decoding every sample as one batch.
+	 */
+	private long measureBatch(TuningProfile profile) {
+		WatermarkServiceImpl service = createService(profile);
+		long best = Long.MAX_VALUE;
+
+		try {
+			for (int round = 0; round < ROUNDS; round++) {
+				long start = System.nanoTime();
+				join(service.encodeAll(createRequests(samples, true)));
+				join(service.decodeAll(createRequests(encoded, false)));
+				best = Math.min(best, System.nanoTime() - start);
+			}
+		} finally {
+			shutdown(service);
+		}
+
+		return best;
+	}
+
+	/**
+	 * Times decoding every sample as separate asynchronous requests.
+	 */
+	private long measureAsync(TuningProfile profile) {
+		WatermarkServiceImpl service = createService(profile);
+		long best = Long.MAX_VALUE;
+
+		try {
+			for (int round = 0; round < ROUNDS; round++) {
+				List<CompletableFuture<BufferedImage>> futures = new ArrayList<CompletableFuture<BufferedImage>>();
+				long start = System.nanoTime();
+
+				for (WatermarkRequest request : createRequests(encoded, false)) {
+					futures.add(service.decodeAsync(request));
+				}
+
+				join(futures);
+				best = Math.min(best, System.nanoTime() - start);
+			}
+		} finally {
+			shutdown(service);
+		}
+
+		return best;
+	}
+
+	private WatermarkServiceImpl createService(TuningProfile profile) {
+		WatermarkServiceImpl service = new WatermarkServiceImpl();
+		profile.apply(service);
+		return service;
+	}
+
+	private List<WatermarkRequest> createRequests(List<BufferedImage> images, boolean encode) {
+		List<WatermarkRequest> requests = new ArrayList<WatermarkRequest>(images.size());
+
+		for (BufferedImage image : images) {
+			WatermarkRequest request = new WatermarkRequest(cipher, encode ? privateKey : publicKey, image, watermark);
+			request.setBlockSize(blockSize);
+			requests.add(request);
+		}
+
+		return requests;
+	}
+
+	private static List<BufferedImage> join(List<CompletableFuture<BufferedImage>> futures) {
+		List<BufferedImage> images = new ArrayList<BufferedImage>(futures.size());
+
+		for (CompletableFuture<BufferedImage> future : futures) {
+			images.add(future.join());
+		}
+
+		return images;
+	}
+
+	private static void shutdown(WatermarkServiceImpl service) {
+		service.getBlockPool().shutdown();
+
+		if (service.getExecutor() instanceof ExecutorService) {
+			((ExecutorService) service.getExecutor()).shutdown();
+		}
+	}
+
+	/**
+	 * Collects up to {@link #MAX_SAMPLES} readable images from files and
+	 * directories.
+	 *
+	 * @param paths - image files, or directories of images.
+	 * @return the sample images.
+	 */
+	public static List<BufferedImage> loadSamples(List<File> paths) {
+		List<BufferedImage> samples = new ArrayList<BufferedImage>();
+
+		for (File path : paths) {
+			File[] files = path.isDirectory() ? path.listFiles() : new File[] { path };
+
+			if (files == null) {
+				continue;
+			}
+
+			Arrays.sort(files);
+
+			for (File file : files) {
+				if (samples.size() >= MAX_SAMPLES) {
+					return samples;
+				}
+
+				try {
+					BufferedImage image = file.isFile() ? ImageUtil.readImage(file) : null;
+
+					if (image != null) {
+						samples.add(image);
+					}
+				} catch (Exception e) {
+					// Not an image.
+				}
+			}
+		}
+
+		return samples;
+	}
+
+	/**
+	 * Tunes the engine on sample images and writes the profile which the
+	 * application loads at startup. The keys configured in
+	 * appconfig.properties are used if they exist, otherwise a temporary key
+	 * pair is generated.
+	 *
+	 * Usage: AutoTuner &lt;profile&gt; &lt;image or directory&gt;...
+	 *
+	 * @param args - the profile file followed by the sample images.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: AutoTuner <profile> <image or directory>...");
+			System.exit(2);
+		}
+
+		List<File> paths = new ArrayList<File>();
+
+		for (int i = 1; i < args.length; i++) {
+			paths.add(new File(args[i]));
+		}
+
+		List<BufferedImage> samples = loadSamples(paths);
+
+		if (samples.isEmpty()) {
+			System.err.println("No readable images were found.");
+			System.exit(1);
+		}
+
+		Properties props = FileUtil.fileExists(CONFIG_FILENAME) || AutoTuner.class.getResource("/resources/" + CONFIG_FILENAME) != null
+				? FileUtil.loadProperties(CONFIG_FILENAME) : new Properties();
+		PublicKeyCipher cipher = new PublicKeyCipher("RSA");
+		String privateKeyLoc = props.getProperty("privateKeyLoc", "");
+		String publicKeyLoc = props.getProperty("publicKeyLoc", "");
+		int blockSize = Integer.parseInt(props.getProperty("blockSize", "32").trim());
+		PrivateKey privateKey = null;
+		PublicKey publicKey = null;
+
+		if (cipher.areKeysPresent(publicKeyLoc, privateKeyLoc)) {
+			privateKey = cipher.getKey(privateKeyLoc);
+			publicKey = cipher.getKey(publicKeyLoc);
+		}
+
+		if (privateKey == null || publicKey == null) {
+			KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+			keyGen.initialize(1024);
+			KeyPair pair = keyGen.generateKeyPair();
+			privateKey = pair.getPrivate();
+			publicKey = pair.getPublic();
+		}
+
+		BufferedImage watermark = new BufferedImage(8, 8, BufferedImage.TYPE_INT_ARGB);
+		AutoTuner tuner = new AutoTuner(cipher, privateKey, publicKey, samples, watermark, blockSize);
+		TuningProfile profile = tuner.tune();
+		File file = new File(args[0]);
+
+		if (!profile.save(file, String.format("Tuned on %d images with %d processors.", samples.size(),
+				Runtime.getRuntime().availableProcessors()))) {
+			System.exit(1);
+		}
+
+		System.out.println("Wrote " + file + ": " + profile);
+	}
+}
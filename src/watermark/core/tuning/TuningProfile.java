@@ -0,0 +1,304 @@
+package watermark.core.tuning;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import watermark.core.partition.BenchmarkedOrder;
+import watermark.core.partition.BlockOrder;
+import watermark.core.partition.MortonOrder;
+import watermark.core.partition.RowMajorOrder;
+import watermark.core.partition.TiledOrder;
+import watermark.core.service.WatermarkServiceImpl;
+import watermark.core.util.ExecutorUtil;
+
+/**
+ * This class represents the engine settings chosen by the {@link AutoTuner}.
+ * A profile is stored as a properties file and applied to the service at
+ * startup. Settings missing from the file keep their defaults. The orders
+ * benchmarked for each image shape are stored as "blockOrder.shape" entries,
+ * which the "auto" block order follows.
+ *
+ * @author Ryan M. Kane
+ */
+public class TuningProfile {
+	public static final String DEFAULT_FILENAME = "tuning.profile";
+	// The candidates of the "auto" order, by their index in BenchmarkedOrder.
+	public static final String[] AUTO_ORDERS = { "row", "zorder", "tiled" };
+
+	private static final String SHAPE_ORDER_PREFIX = "blockOrder.";
+
+	private int parallelism;
+	private String executor;
+	private String blockOrder;
+	private int tileCells;
+	private int blockGrain;
+	private Map<String, String> shapeOrders;
+
+	public TuningProfile() {
+		this.parallelism = Runtime.getRuntime().availableProcessors();
+		this.executor = "platform";
+		this.blockOrder = "row";
+		this.tileCells = TiledOrder.DEFAULT_TILE_CELLS;
+		this.blockGrain = WatermarkServiceImpl.DEFAULT_BLOCK_GRAIN;
+		this.shapeOrders = new TreeMap<String, String>();
+	}
+
+	public TuningProfile(TuningProfile other) {
+		this.parallelism = other.parallelism;
+		this.executor = other.executor;
+		this.blockOrder = other.blockOrder;
+		this.tileCells = other.tileCells;
+		this.blockGrain = other.blockGrain;
+		this.shapeOrders = new TreeMap<String, String>(other.shapeOrders);
+	}
+
+	/**
+	 * @return the number of workers in the block pool, and of threads in a
+	 *         platform executor.
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @return the executor of asynchronous requests, "platform" or "virtual".
+	 */
+	public String getExecutor() {
+		return executor;
+	}
+
+	public void setExecutor(String executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * @return the block order, "row", "zorder", "tiled" or "auto".
+	 */
+	public String getBlockOrder() {
+		return blockOrder;
+	}
+
+	public void setBlockOrder(String blockOrder) {
+		this.blockOrder = blockOrder;
+	}
+
+	/**
+	 * @return the width and height of a tile of the tiled order, in blocks.
+	 */
+	public int getTileCells() {
+		return tileCells;
+	}
+
+	public void setTileCells(int tileCells) {
+		this.tileCells = tileCells;
+	}
+
+	/**
+	 * @return the number of blocks below which a range is not split.
+	 */
+	public int getBlockGrain() {
+		return blockGrain;
+	}
+
+	public void setBlockGrain(int blockGrain) {
+		this.blockGrain = blockGrain;
+	}
+
+	/**
+	 * @return the order benchmarked for each image shape, which the "auto"
+	 *         order uses.
+	 */
+	public Map<String, String> getShapeOrders() {
+		return shapeOrders;
+	}
+
+	public void setShapeOrders(Map<String, String> shapeOrders) {
+		this.shapeOrders = new TreeMap<String, String>(shapeOrders);
+	}
+
+	/**
+	 * Configures a service with the settings of the profile.
+	 *
+	 * @param service - the service to configure.
+	 */
+	public void apply(WatermarkServiceImpl service) {
+		service.setBlockPool(ExecutorUtil.createWorkStealingPool(parallelism));
+		service.setExecutor(ExecutorUtil.createExecutor(executor, parallelism));
+		service.setBlockOrder(createBlockOrder());
+		service.setBlockGrain(blockGrain);
+	}
+
+	/**
+	 * Creates a service with the engine settings of the application
+	 * properties: the "executor" and "blockOrder", which the tuning profile
+	 * named by "profile" overrides when its file exists.
+	 *
+	 * @param props - the application properties.
+	 * @param threads - the number of threads of a platform executor.
+	 * @return the configured service.
+	 */
+	public static WatermarkServiceImpl createService(Properties props, int threads) {
+		WatermarkServiceImpl service = new WatermarkServiceImpl(ExecutorUtil.createExecutor(props.getProperty("executor"), threads));
+		service.setBlockOrder(createBlockOrder(props.getProperty("blockOrder"), TiledOrder.DEFAULT_TILE_CELLS));
+
+		File profileFile = new File(props.getProperty("profile", DEFAULT_FILENAME).trim());
+
+		if (profileFile.isFile()) {
+			TuningProfile profile = load(profileFile);
+
+			if (profile != null) {
+				profile.apply(service);
+			}
+		}
+
+		return service;
+	}
+
+	/**
+	 * Creates the block order of the profile. The "auto" order is given the
+	 * orders benchmarked for each shape.
+	 *
+	 * @return the block order.
+	 */
+	public BlockOrder createBlockOrder() {
+		BlockOrder order = createBlockOrder(blockOrder, tileCells);
+
+		if (order instanceof BenchmarkedOrder) {
+			for (Map.Entry<String, String> entry : shapeOrders.entrySet()) {
+				int candidate = Arrays.asList(AUTO_ORDERS).indexOf(entry.getValue());
+
+				if (candidate >= 0) {
+					((BenchmarkedOrder) order).setChoice(entry.getKey(), candidate);
+				}
+			}
+		}
+
+		return order;
+	}
+
+	/**
+	 * Creates a block order from its name, which is one of "row", "zorder",
+	 * "tiled" or "auto". The "auto" order starts with no benchmarked shapes,
+	 * so it benchmarks each new shape in the background and follows the rows
+	 * until the choice is made.
+	 *
+	 * @param name - the name of the order.
+	 * @param tileCells - the tile size of the tiled order, in blocks.
+	 * @return the block order.
+	 */
+	public static BlockOrder createBlockOrder(String name, int tileCells) {
+		String order = name == null ? "" : name.trim();
+
+		if ("zorder".equalsIgnoreCase(order)) {
+			return new MortonOrder();
+		} else if ("tiled".equalsIgnoreCase(order)) {
+			return new TiledOrder(tileCells);
+		} else if ("auto".equalsIgnoreCase(order)) {
+			return new BenchmarkedOrder(new RowMajorOrder(), new MortonOrder(), new TiledOrder(tileCells));
+		}
+
+		return new RowMajorOrder();
+	}
+
+	/**
+	 * Loads a profile from a properties file.
+	 *
+	 * @param file - the profile file.
+	 * @return the profile, or null if the file cannot be read.
+	 */
+	public static TuningProfile load(File file) {
+		TuningProfile profile = new TuningProfile();
+		Properties props = new Properties();
+		InputStream in = null;
+
+		try {
+			in = new FileInputStream(file);
+			props.load(in);
+
+			profile.setParallelism(Integer.parseInt(props.getProperty("parallelism", Integer.toString(profile.parallelism)).trim()));
+			profile.setExecutor(props.getProperty("executor", profile.executor).trim());
+			profile.setBlockOrder(props.getProperty("blockOrder", profile.blockOrder).trim());
+			profile.setTileCells(Integer.parseInt(props.getProperty("tileCells", Integer.toString(profile.tileCells)).trim()));
+			profile.setBlockGrain(Integer.parseInt(props.getProperty("blockGrain", Integer.toString(profile.blockGrain)).trim()));
+
+			for (String key : props.stringPropertyNames()) {
+				if (key.startsWith(SHAPE_ORDER_PREFIX)) {
+					profile.shapeOrders.put(key.substring(SHAPE_ORDER_PREFIX.length()), props.getProperty(key).trim());
+				}
+			}
+
+			return profile;
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (Exception e) {
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Saves the profile to a properties file.
+	 *
+	 * @param file - the profile file.
+	 * @param description - a comment written at the top of the file.
+	 * @return whether the profile was saved.
+	 */
+	public boolean save(File file, String description) {
+		Properties props = new Properties();
+		OutputStream out = null;
+
+		props.setProperty("parallelism", Integer.toString(parallelism));
+		props.setProperty("executor", executor);
+		props.setProperty("blockOrder", blockOrder);
+		props.setProperty("tileCells", Integer.toString(tileCells));
+		props.setProperty("blockGrain", Integer.toString(blockGrain));
+
+		for (Map.Entry<String, String> entry : shapeOrders.entrySet()) {
+			props.setProperty(SHAPE_ORDER_PREFIX + entry.getKey(), entry.getValue());
+		}
+
+		try {
+			if (file.getParentFile() != null) {
+				file.getParentFile().mkdirs();
+			}
+
+			out = new FileOutputStream(file);
+			props.store(out, description);
+			return true;
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (Exception e) {
+				}
+			}
+		}
+
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("parallelism=%d executor=%s blockOrder=%s tileCells=%d blockGrain=%d",
+				parallelism, executor, blockOrder, tileCells, blockGrain);
+	}
+}
@@ -8,6 +8,15 @@ import watermark.core.datatypes.buffer.BitBuffer;
  * @author Ryan M. Kane
  */
 public class BitUtil {
+	// The channel shifts of every channel mask, in red, green, blue, alpha order.
+	private static final int[][] CHANNEL_SHIFTS = new int[16][];
+
+	static {
+		for (int channels = 0; channels < CHANNEL_SHIFTS.length; channels++) {
+			CHANNEL_SHIFTS[channels] = createChannelShifts(channels);
+		}
+	}
+
 	/**
 	 * Sets the least significant bit of a pixel to the specified bit.
 	 *
@@ -21,13 +30,21 @@ public class BitUtil {
 
 	/**
 	 * Sets the LBS of the source pixels and sets them to the destination.
+	 * Pixels beyond the bits of the data have their LSB set to 0.
 	 *
 	 * @param dest - the destination of the modified pixels.
 	 * @param source - the source pixels.
 	 * @param data - the bytes which store bit information.
 	 */
 	public static void setLSB(int[] dest, int[] source, byte[] data) {
+		int bitCount = data.length * 8;
+
 		for (int i = 0; i < source.length; i++) {
+			if (i >= bitCount) {
+				dest[i] = setLSB(source[i], 0);
+				continue;
+			}
+
 			int cipherByte = data[i / 8];
 			int bitPos = i % 8;
 			int cipherBit = ((cipherByte >>> (7 - bitPos)) & 1);
@@ -102,7 +119,8 @@ public class BitUtil {
 
 	/**
 	 * Extracts the least significant bit of each pixels and adds it to a
-	 * bit-buffer. The bit buffer is then returned as an array of bytes.
+	 * bit-buffer. The bit buffer is then returned as an array of bytes. Pixels
+	 * beyond the size of the buffer are ignored.
 	 *
 	 * @param pixels - the pixels which LSB will be extracted from.
 	 * @param bufferSize - the size of the buffer in bytes.
@@ -110,11 +128,184 @@ public class BitUtil {
 	 */
 	public static byte[] extractLsb(final int[] pixels, final int bufferSize) {
 		BitBuffer buffer = new BitBuffer(bufferSize);
+		int count = Math.min(pixels.length, bufferSize * BitBuffer.BITS_PER_BYTE);
 
-		for (int i = 0; i < pixels.length; i++) {
+		for (int i = 0; i < count; i++) {
 			buffer.push((byte) pixels[i]);
 		}
 
 		return buffer.getBytes();
 	}
+
+	/**
+	 * Returns a bit mask which covers the low bits of the selected channels of
+	 * a packed ARGB pixel.
+	 *
+	 * @param channels - the channel mask, one bit per channel from blue (bit 0)
+	 *            to alpha (bit 3).
+	 * @param bitsPerChannel - the number of low bits in each channel.
+	 * @return the mask of the embedding bits.
+	 */
+	public static int getEmbeddingMask(int channels, int bitsPerChannel) {
+		int low = (1 << bitsPerChannel) - 1;
+		int mask = 0;
+
+		for (int c = 0; c < 4; c++) {
+			if ((channels & (1 << c)) != 0) {
+				mask |= low << (c * 8);
+			}
+		}
+
+		return mask;
+	}
+
+	/**
+	 * Clears the embedding bits of the selected channels of all pixels.
+	 *
+	 * @param pixels - the source pixels.
+	 * @param channels - the channel mask.
+	 * @param bitsPerChannel - the number of low bits in each channel.
+	 */
+	public static void dropBits(int[] pixels, int channels, int bitsPerChannel) {
+		dropBits(pixels, pixels.length, channels, bitsPerChannel);
+	}
+
+	/**
+	 * Clears the embedding bits of the selected channels of the first pixels
+	 * of a buffer.
+	 *
+	 * @param pixels - the source pixels.
+	 * @param count - the number of pixels to clear.
+	 * @param channels - the channel mask.
+	 * @param bitsPerChannel - the number of low bits in each channel.
+	 */
+	public static void dropBits(int[] pixels, int count, int channels, int bitsPerChannel) {
+		int keep = ~getEmbeddingMask(channels, bitsPerChannel);
+
+		for (int i = 0; i < count; i++) {
+			pixels[i] &= keep;
+		}
+	}
+
+	/**
+	 * Sets the embedding bits of the selected channels of all pixels to the
+	 * bits of the data, in red, green, blue, alpha order. Embedding bits
+	 * beyond the bits of the data are set to 0.
+	 *
+	 * @param pixels - the source pixels, modified in-place.
+	 * @param data - the bytes which store bit information.
+	 * @param channels - the channel mask.
+	 * @param bitsPerChannel - the number of low bits in each channel.
+	 */
+	public static void setBits(int[] pixels, byte[] data, int channels, int bitsPerChannel) {
+		setBits(pixels, pixels.length, data, data.length, channels, bitsPerChannel);
+	}
+
+	/**
+	 * Sets the embedding bits of the first pixels of a buffer to the bits of
+	 * the first bytes of the data.
+	 *
+	 * @param pixels - the source pixels, modified in-place.
+	 * @param count - the number of pixels to modify.
+	 * @param data - the bytes which store bit information.
+	 * @param length - the number of bytes of the data to embed.
+	 * @param channels - the channel mask.
+	 * @param bitsPerChannel - the number of low bits in each channel.
+	 *
+	 * @see #setBits(int[], byte[], int, int)
+	 */
+	public static void setBits(int[] pixels, int count, byte[] data, int length, int channels, int bitsPerChannel) {
+		int[] shifts = getChannelShifts(channels);
+		int keep = ~getEmbeddingMask(channels, bitsPerChannel);
+		int bitCount = length * 8;
+		int bit = 0;
+
+		for (int i = 0; i < count; i++) {
+			int value = pixels[i] & keep;
+
+			for (int shift : shifts) {
+				for (int b = bitsPerChannel - 1; b >= 0 && bit < bitCount; b--, bit++) {
+					value |= ((data[bit >>> 3] >>> (7 - (bit & 7))) & 1) << (shift + b);
+				}
+			}
+
+			pixels[i] = value;
+		}
+	}
+
+	/**
+	 * Extracts the embedding bits of the selected channels of the pixels, in
+	 * red, green, blue, alpha order. Bits beyond the size of the buffer are
+	 * ignored.
+	 *
+	 * @param pixels - the pixels which bits will be extracted from.
+	 * @param bufferSize - the size of the buffer in bytes.
+	 * @param channels - the channel mask.
+	 * @param bitsPerChannel - the number of low bits in each channel.
+	 * @return an array of bytes which are the embedded bits of the pixels.
+	 */
+	public static byte[] extractBits(int[] pixels, int bufferSize, int channels, int bitsPerChannel) {
+		return extractBits(pixels, pixels.length, new byte[bufferSize], bufferSize, channels, bitsPerChannel);
+	}
+
+	/**
+	 * Extracts the embedding bits of the first pixels of a buffer into the
+	 * first bytes of a provided array.
+	 *
+	 * @param pixels - the pixels which bits will be extracted from.
+	 * @param count - the number of pixels to read.
+	 * @param data - the array to write the bits to.
+	 * @param bufferSize - the number of bytes to extract.
+	 * @param channels - the channel mask.
+	 * @param bitsPerChannel - the number of low bits in each channel.
+	 * @return the data array.
+	 *
+	 * @see #extractBits(int[], int, int, int)
+	 */
+	public static byte[] extractBits(int[] pixels, int count, byte[] data, int bufferSize, int channels, int bitsPerChannel) {
+		int[] shifts = getChannelShifts(channels);
+		int bitCount = bufferSize * 8;
+		int bit = 0;
+
+		for (int i = 0; i < bufferSize; i++) {
+			data[i] = 0;
+		}
+
+		for (int i = 0; i < count && bit < bitCount; i++) {
+			int value = pixels[i];
+
+			for (int shift : shifts) {
+				for (int b = bitsPerChannel - 1; b >= 0 && bit < bitCount; b--, bit++) {
+					data[bit >>> 3] |= ((value >>> (shift + b)) & 1) << (7 - (bit & 7));
+				}
+			}
+		}
+
+		return data;
+	}
+
+	/**
+	 * Returns the bit offsets of the selected channels in a packed ARGB pixel,
+	 * in red, green, blue, alpha order. The returned array is shared.
+	 *
+	 * @param channels - the channel mask.
+	 * @return the bit offset of each selected channel.
+	 */
+	private static int[] getChannelShifts(int channels) {
+		return CHANNEL_SHIFTS[channels & 0xF];
+	}
+
+	private static int[] createChannelShifts(int channels) {
+		int[] order = new int[] { 2, 1, 0, 3 };
+		int[] shifts = new int[Integer.bitCount(channels & 0xF)];
+		int n = 0;
+
+		for (int c : order) {
+			if ((channels & (1 << c)) != 0) {
+				shifts[n++] = c * 8;
+			}
+		}
+
+		return shifts;
+	}
 }
@@ -7,8 +7,17 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
+import java.security.DigestException;
+import java.security.Key;
+import java.security.KeyFactory;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.interfaces.RSAKey;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.spec.RSAPublicKeySpec;
+
+import watermark.core.datatypes.buffer.ScratchArena;
 
 /**
  * This class includes static methods to common methods.
@@ -179,13 +188,53 @@ public class CommonUtil {
 	 * @return an array of hashed bytes using MD5.
 	 */
 	public static byte[] hashMD5(byte[] bytes) {
+		return ScratchArena.get().getMD5().digest(bytes);
+	}
+
+	/**
+	 * Hashes part of a byte array using MD5 into a provided array, without
+	 * allocating.
+	 *
+	 * @param bytes - the bytes to be hashed.
+	 * @param offset - the first byte to hash.
+	 * @param length - the number of bytes to hash.
+	 * @param hash - the array which receives the 16 byte hash.
+	 * @return the hash array.
+	 */
+	public static byte[] hashMD5(byte[] bytes, int offset, int length, byte[] hash) {
+		MessageDigest md5 = ScratchArena.get().getMD5();
+		md5.update(bytes, offset, length);
+
 		try {
-			return MessageDigest.getInstance("MD5").digest(bytes);
-		} catch (NoSuchAlgorithmException e) {
-			e.printStackTrace();
+			md5.digest(hash, 0, ScratchArena.HASH_SIZE);
+		} catch (DigestException e) {
+			throw new IllegalStateException(e);
 		}
 
-		return null;
+		return hash;
+	}
+
+	/**
+	 * Hashes the first integers of an array using MD5, in the same byte order
+	 * as {@link #integersToBytes(int[])}, into a provided array.
+	 *
+	 * @param data - the integers to be hashed.
+	 * @param length - the number of integers to hash.
+	 * @param hash - the array which receives the 16 byte hash.
+	 * @return the hash array.
+	 */
+	public static byte[] hashMD5(int[] data, int length, byte[] hash) {
+		byte[] bytes = ScratchArena.get().getDigestInput(length * 4);
+
+		for (int i = 0, j = 0; i < length; i++) {
+			int value = data[i];
+			bytes[j++] = (byte) (value >>> 24);
+			bytes[j++] = (byte) (value >>> 16);
+			bytes[j++] = (byte) (value >>> 8);
+			bytes[j++] = (byte) value;
+		}
+
+		return hashMD5(bytes, 0, length * 4, hash);
 	}
 
 	/**
@@ -203,6 +252,63 @@ public class CommonUtil {
 		return null;
 	}
 
+	/**
+	 * Returns a short identifier for a key pair. Both keys of an RSA pair
+	 * share their modulus, so the private and public key have the same id.
+	 *
+	 * @param key - the private or public key.
+	 * @return the key id, or 0 if the key type is not supported.
+	 */
+	public static int getKeyId(Key key) {
+		if (!(key instanceof RSAKey)) {
+			return 0;
+		}
+
+		byte[] hash = hashMD5(((RSAKey) key).getModulus().toByteArray());
+
+		return ByteBuffer.wrap(hash).getInt();
+	}
+
+	/**
+	 * Derives the public key of a key pair from its private key. This is only
+	 * possible for RSA keys which carry their public exponent.
+	 *
+	 * @param key - the private key.
+	 * @return the public key, or null if it cannot be derived.
+	 */
+	public static PublicKey getPublicKey(PrivateKey key) {
+		if (!(key instanceof RSAPrivateCrtKey)) {
+			return null;
+		}
+
+		RSAPrivateCrtKey crtKey = (RSAPrivateCrtKey) key;
+
+		try {
+			return KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(crtKey.getModulus(), crtKey.getPublicExponent()));
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+
+		return null;
+	}
+
+	/**
+	 * XOR's the first bytes of two arrays into a provided array.
+	 *
+	 * @param a the first array of bytes.
+	 * @param b the second array of bytes.
+	 * @param result the array which receives the XORed bytes.
+	 * @param length the number of bytes to XOR.
+	 * @return the result array.
+	 */
+	public static byte[] xor(byte[] a, byte[] b, byte[] result, int length) {
+		for (int i = 0; i < length; i++) {
+			result[i] = (byte) (a[i] ^ b[i]);
+		}
+
+		return result;
+	}
+
 	/**
 	 * XOR's two byte arrays.
 	 *
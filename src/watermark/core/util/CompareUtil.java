@@ -0,0 +1,370 @@
+package watermark.core.util;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class includes static methods which compare two images in bulk. The
+ * images are read a band of rows at a time and compared a row at a time with
+ * {@link Arrays#mismatch(int[], int, int, int[], int, int)}, and the bands
+ * are compared in parallel on a work-stealing pool.
+ *
+ * Two images of the same layout are compared by their raster samples, which
+ * catches a change in any bit of the samples, including the low byte of a
+ * 16-bit sample. Other images are compared by their sRGB pixels, as
+ * {@link BufferedImage#getRGB} returns them.
+ *
+ * @author Ryan M. Kane
+ */
+public class CompareUtil {
+	// The number of pixels below which a band of rows is not split.
+	private static final int BAND_PIXELS = 1 << 16;
+
+	private static final int READ_RGB = 0;
+	private static final int READ_PACKED = 1;
+	private static final int READ_SAMPLES = 2;
+
+	/**
+	 * Compares two images pixel by pixel, on the shared block pool.
+	 *
+	 * @param imgA - the first image.
+	 * @param imgB - the second image.
+	 * @return whether the images are both the same.
+	 */
+	public static boolean compareImages(BufferedImage imgA, BufferedImage imgB) {
+		return compareImages(imgA, imgB, ExecutorUtil.getWorkStealingPool());
+	}
+
+	/**
+	 * Compares two images pixel by pixel. The comparison stops as soon as any
+	 * band finds a difference.
+	 *
+	 * @param imgA - the first image.
+	 * @param imgB - the second image.
+	 * @param pool - the pool which compares the bands.
+	 * @return whether the images are both the same.
+	 */
+	public static boolean compareImages(BufferedImage imgA, BufferedImage imgB, ForkJoinPool pool) {
+		if (imgA.getWidth() != imgB.getWidth() || imgA.getHeight() != imgB.getHeight()) {
+			return false;
+		}
+
+		Comparison comparison = new Comparison(imgA, imgB, 1, false);
+		pool.invoke(new BandTask(comparison, 0, imgA.getHeight()));
+
+		return !comparison.differs.get();
+	}
+
+	/**
+	 * Finds the changed areas of two images, on the shared block pool.
+	 *
+	 * @see CompareUtil#diffImages(BufferedImage, BufferedImage, int, ForkJoinPool)
+	 */
+	public static List<Rectangle> diffImages(BufferedImage imgA, BufferedImage imgB, int cellSize) {
+		return diffImages(imgA, imgB, cellSize, ExecutorUtil.getWorkStealingPool());
+	}
+
+	/**
+	 * Finds the changed areas of two images. The images are divided into a
+	 * grid of square cells, and the cells holding a changed pixel are
+	 * covered by rectangles: the changed cells of each row are joined into
+	 * runs, and a run is extended downwards while the next row has the same
+	 * run. A cell size of 1 gives pixel granularity, and the block size of an
+	 * encoding gives the changed blocks.
+	 *
+	 * If the images differ in size, every pixel outside their overlap counts
+	 * as changed.
+	 *
+	 * @param imgA - the first image.
+	 * @param imgB - the second image.
+	 * @param cellSize - the width and height of a cell in pixels.
+	 * @param pool - the pool which compares the bands.
+	 * @return the changed rectangles, ordered by their top left corner, or an
+	 *         empty list if the images are the same.
+	 */
+	public static List<Rectangle> diffImages(BufferedImage imgA, BufferedImage imgB, int cellSize, ForkJoinPool pool) {
+		if (cellSize < 1) {
+			throw new IllegalArgumentException("The cell size must be positive.");
+		}
+
+		Comparison comparison = new Comparison(imgA, imgB, cellSize, true);
+		pool.invoke(new BandTask(comparison, 0, comparison.height));
+
+		return comparison.getRectangles();
+	}
+
+	/**
+	 * Chooses how the pixels of two images are read. Images of the same layout
+	 * are read as packed pixels when RasterUtil reads every bit of their
+	 * samples, and as raster samples otherwise.
+	 */
+	private static int getReadMode(BufferedImage imgA, BufferedImage imgB) {
+		Raster rasterA = imgA.getRaster();
+		Raster rasterB = imgB.getRaster();
+
+		if (imgA.getType() != imgB.getType() || !imgA.getColorModel().equals(imgB.getColorModel())
+				|| rasterA.getNumBands() != rasterB.getNumBands()
+				|| !Arrays.equals(rasterA.getSampleModel().getSampleSize(), rasterB.getSampleModel().getSampleSize())) {
+			return READ_RGB;
+		}
+
+		if (RasterUtil.isNative(imgA) && RasterUtil.isNative(imgB) && !(rasterA.getDataBuffer() instanceof DataBufferUShort)) {
+			return READ_PACKED;
+		}
+
+		return READ_SAMPLES;
+	}
+
+	/**
+	 * The state of one comparison, which is shared by its bands.
+	 */
+	private static class Comparison {
+		private final BufferedImage imgA;
+		private final BufferedImage imgB;
+		private final int readMode;
+		private final int samplesPerPixel;
+		private final boolean diff;
+		private final int cellSize;
+		private final int width;
+		private final int height;
+		private final int overlapWidth;
+		private final int overlapHeight;
+		private final int cols;
+		private final int rows;
+		private final int rowWords;
+		private final AtomicBoolean differs = new AtomicBoolean();
+
+		// The changed cells, a row of cells to a word-aligned run of bits, so
+		// bands of different cell rows never write to the same word.
+		private final long[] cells;
+
+		Comparison(BufferedImage imgA, BufferedImage imgB, int cellSize, boolean diff) {
+			this.imgA = imgA;
+			this.imgB = imgB;
+			this.readMode = getReadMode(imgA, imgB);
+			this.samplesPerPixel = readMode == READ_SAMPLES ? imgA.getRaster().getNumBands() : 1;
+			this.diff = diff;
+			this.cellSize = cellSize;
+			this.width = Math.max(imgA.getWidth(), imgB.getWidth());
+			this.height = Math.max(imgA.getHeight(), imgB.getHeight());
+			this.overlapWidth = Math.min(imgA.getWidth(), imgB.getWidth());
+			this.overlapHeight = Math.min(imgA.getHeight(), imgB.getHeight());
+			this.cols = (width + cellSize - 1) / cellSize;
+			this.rows = (height + cellSize - 1) / cellSize;
+			this.rowWords = (cols + 63) >>> 6;
+			this.cells = diff ? new long[rowWords * rows] : null;
+		}
+
+		/**
+		 * Compares the rows of a band, which starts on a cell row.
+		 */
+		void compare(int top, int bottom) {
+			int bandRows = Math.min(bottom, overlapHeight) - top;
+
+			if (bandRows > 0 && overlapWidth > 0) {
+				int rowLength = overlapWidth * samplesPerPixel;
+				int chunk = Math.max(1, Math.min(bandRows, BAND_PIXELS / overlapWidth));
+				int[] pixelsA = new int[chunk * rowLength];
+				int[] pixelsB = new int[chunk * rowLength];
+
+				for (int y = top; y < top + bandRows; y += chunk) {
+					if (!diff && differs.get()) {
+						return;
+					}
+
+					int h = Math.min(chunk, top + bandRows - y);
+					read(imgA, y, h, pixelsA);
+					read(imgB, y, h, pixelsB);
+
+					for (int row = 0; row < h; row++) {
+						if (compareRow(pixelsA, pixelsB, row * rowLength, y + row) && !diff) {
+							differs.set(true);
+							return;
+						}
+					}
+				}
+			}
+
+			if (diff) {
+				markOutside(top, bottom);
+			}
+		}
+
+		private void read(BufferedImage img, int y, int h, int[] pixels) {
+			switch (readMode) {
+				case READ_PACKED:
+					RasterUtil.getPixels(img, 0, y, overlapWidth, h, pixels);
+					break;
+				case READ_SAMPLES:
+					img.getRaster().getPixels(0, y, overlapWidth, h, pixels);
+					break;
+				default:
+					img.getRGB(0, y, overlapWidth, h, pixels, 0, overlapWidth);
+			}
+		}
+
+		/**
+		 * Compares one row of the overlap and marks the cells of its changed
+		 * pixels. The search skips to the next cell after each mismatch.
+		 *
+		 * @return whether the row differs.
+		 */
+		private boolean compareRow(int[] pixelsA, int[] pixelsB, int offset, int y) {
+			int end = offset + overlapWidth * samplesPerPixel;
+			int x = 0;
+			boolean changed = false;
+
+			while (x < overlapWidth) {
+				int start = offset + x * samplesPerPixel;
+				int mismatch = Arrays.mismatch(pixelsA, start, end, pixelsB, start, end);
+
+				if (mismatch < 0) {
+					break;
+				}
+
+				changed = true;
+
+				if (!diff) {
+					break;
+				}
+
+				int col = (x + mismatch / samplesPerPixel) / cellSize;
+				mark(col, y / cellSize);
+				x = (col + 1) * cellSize;
+			}
+
+			return changed;
+		}
+
+		/**
+		 * Marks the cells of a band which lie outside the overlap of the
+		 * images.
+		 */
+		private void markOutside(int top, int bottom) {
+			int firstRow = top / cellSize;
+			int lastRow = (Math.min(bottom, height) - 1) / cellSize;
+
+			for (int row = firstRow; row <= lastRow; row++) {
+				boolean rowOutside = Math.min((row + 1) * cellSize, height) > overlapHeight;
+
+				for (int col = rowOutside ? 0 : overlapWidth / cellSize; col < cols; col++) {
+					if (rowOutside || Math.min((col + 1) * cellSize, width) > overlapWidth) {
+						mark(col, row);
+					}
+				}
+			}
+		}
+
+		private void mark(int col, int row) {
+			cells[row * rowWords + (col >>> 6)] |= 1L << col;
+		}
+
+		private boolean isMarked(int col, int row) {
+			return (cells[row * rowWords + (col >>> 6)] & (1L << col)) != 0;
+		}
+
+		/**
+		 * Covers the changed cells with rectangles by merging equal runs of
+		 * consecutive rows.
+		 */
+		List<Rectangle> getRectangles() {
+			List<Rectangle> rectangles = new ArrayList<Rectangle>();
+			List<Rectangle> open = new ArrayList<Rectangle>();
+
+			for (int row = 0; row <= rows; row++) {
+				List<Rectangle> next = new ArrayList<Rectangle>();
+				int col = 0;
+
+				while (row < rows && col < cols) {
+					if (!isMarked(col, row)) {
+						col++;
+						continue;
+					}
+
+					int start = col;
+
+					while (col < cols && isMarked(col, row)) {
+						col++;
+					}
+
+					Rectangle run = findRun(open, start, col);
+
+					if (run == null) {
+						run = new Rectangle(start, row, col - start, 0);
+					} else {
+						open.remove(run);
+					}
+
+					run.height++;
+					next.add(run);
+				}
+
+				// Runs which did not continue into this row are complete.
+				rectangles.addAll(open);
+				open = next;
+			}
+
+			List<Rectangle> result = new ArrayList<Rectangle>(rectangles.size());
+
+			for (Rectangle r : rectangles) {
+				int x = r.x * cellSize;
+				int y = r.y * cellSize;
+				result.add(new Rectangle(x, y, Math.min((r.x + r.width) * cellSize, width) - x,
+						Math.min((r.y + r.height) * cellSize, height) - y));
+			}
+
+			result.sort((a, b) -> a.y != b.y ? Integer.compare(a.y, b.y) : Integer.compare(a.x, b.x));
+
+			return result;
+		}
+
+		private static Rectangle findRun(List<Rectangle> open, int start, int end) {
+			for (Rectangle r : open) {
+				if (r.x == start && r.x + r.width == end) {
+					return r;
+				}
+			}
+
+			return null;
+		}
+	}
+
+	/**
+	 * Compares a range of rows, splitting it in halves on cell rows until a
+	 * band is small enough.
+	 */
+	private static class BandTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Comparison comparison;
+		private final int top;
+		private final int bottom;
+
+		BandTask(Comparison comparison, int top, int bottom) {
+			this.comparison = comparison;
+			this.top = top;
+			this.bottom = bottom;
+		}
+
+		@Override
+		protected void compute() {
+			int cellSize = comparison.cellSize;
+			int cellRows = (bottom - top + cellSize - 1) / cellSize;
+
+			if (cellRows > 1 && (long) (bottom - top) * comparison.width > BAND_PIXELS) {
+				int middle = top + cellRows / 2 * cellSize;
+				invokeAll(new BandTask(comparison, top, middle), new BandTask(comparison, middle, bottom));
+			} else if (comparison.diff || !comparison.differs.get()) {
+				comparison.compare(top, bottom);
+			}
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package watermark.core.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class includes static methods to create the executors which run
+ * asynchronous encodes and decodes.
+ *
+ * @author Ryan M. Kane
+ */
+public class ExecutorUtil {
+	private static ExecutorService defaultExecutor;
+	private static ForkJoinPool workStealingPool;
+	private static ExecutorService backgroundExecutor;
+
+	/**
+	 * Returns the shared pool which runs asynchronous operations when no other
+	 * executor is provided. It has one daemon thread per processor.
+	 *
+	 * @return the shared executor.
+	 */
+	public static synchronized ExecutorService getDefaultExecutor() {
+		if (defaultExecutor == null) {
+			defaultExecutor = createPlatformExecutor("watermark-worker", Runtime.getRuntime().availableProcessors());
+		}
+
+		return defaultExecutor;
+	}
+
+	/**
+	 * Returns the shared single daemon thread which runs work that no request
+	 * waits for, like benchmarks.
+	 *
+	 * @return the shared background executor.
+	 */
+	public static synchronized ExecutorService getBackgroundExecutor() {
+		if (backgroundExecutor == null) {
+			backgroundExecutor = createPlatformExecutor("watermark-background", 1);
+		}
+
+		return backgroundExecutor;
+	}
+
+	/**
+	 * Returns the shared work-stealing pool which processes the blocks of
+	 * batched encodes and decodes. It has one worker per processor.
+	 *
+	 * @return the shared block pool.
+	 */
+	public static synchronized ForkJoinPool getWorkStealingPool() {
+		if (workStealingPool == null) {
+			workStealingPool = createWorkStealingPool(Runtime.getRuntime().availableProcessors());
+		}
+
+		return workStealingPool;
+	}
+
+	/**
+	 * Creates a work-stealing pool. Its workers are daemon threads.
+	 *
+	 * @param parallelism - the number of workers.
+	 * @return the new pool.
+	 */
+	public static ForkJoinPool createWorkStealingPool(int parallelism) {
+		return new ForkJoinPool(Math.max(1, parallelism));
+	}
+
+	/**
+	 * Creates a fixed pool of daemon platform threads.
+	 *
+	 * @param name - the prefix of the thread names.
+	 * @param threads - the number of threads.
+	 * @return the new executor.
+	 */
+	public static ExecutorService createPlatformExecutor(String name, int threads) {
+		return Executors.newFixedThreadPool(Math.max(1, threads), createThreadFactory(name));
+	}
+
+	/**
+	 * Creates an executor which starts a virtual thread per task. Virtual
+	 * threads are looked up at runtime, so a Java version without them falls
+	 * back to a pool of platform threads.
+	 *
+	 * @return the new executor.
+	 */
+	public static ExecutorService createVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return createPlatformExecutor("watermark-worker", Runtime.getRuntime().availableProcessors());
+		}
+	}
+
+	/**
+	 * Creates an executor from a configured name, which is either "virtual" or
+	 * "platform".
+	 *
+	 * @param name - the name of the executor.
+	 * @return the new executor.
+	 */
+	public static ExecutorService createExecutor(String name) {
+		return createExecutor(name, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates an executor from a configured name, which is either "virtual" or
+	 * "platform".
+	 *
+	 * @param name - the name of the executor.
+	 * @param threads - the number of threads of a platform executor.
+	 * @return the new executor.
+	 */
+	public static ExecutorService createExecutor(String name, int threads) {
+		if ("virtual".equalsIgnoreCase(name == null ? null : name.trim())) {
+			return createVirtualThreadExecutor();
+		}
+
+		return createPlatformExecutor("watermark-worker", threads);
+	}
+
+	/**
+	 * Determines if the running Java version has virtual threads.
+	 *
+	 * @return whether virtual threads are available.
+	 */
+	public static boolean isVirtualThreadSupported() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	private static ThreadFactory createThreadFactory(final String name) {
+		final AtomicInteger count = new AtomicInteger();
+
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+}
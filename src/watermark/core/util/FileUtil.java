@@ -10,6 +10,7 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 /**
  * This class is responsible for handling common file operations.
@@ -141,6 +142,29 @@ public class FileUtil {
 		return fileContents.toString();
 	}
 
+	/**
+	 * Replaces the extension of a file name, numbering the name if it was
+	 * already given, so inputs such as "a.jpg" and "a.png" are not written
+	 * over each other as "a.png".
+	 *
+	 * @param name - the name, which may start with a path.
+	 * @param extension - the new extension, with its dot.
+	 * @param used - the names given so far, to which the new name is added.
+	 * @return a name which is not in the used names.
+	 */
+	public static String getUniqueName(String name, String extension, Set<String> used) {
+		int slash = Math.max(name.lastIndexOf('/'), name.lastIndexOf(File.separatorChar));
+		int dot = name.lastIndexOf('.');
+		String base = dot > slash ? name.substring(0, dot) : name;
+		String unique = base + extension;
+
+		for (int i = 2; !used.add(unique); i++) {
+			unique = base + "-" + i + extension;
+		}
+
+		return unique;
+	}
+
 	// ========================================================================
 	// Unused
 	// ========================================================================
@@ -1,24 +1,51 @@
 package watermark.core.util;
 
+import java.awt.AlphaComposite;
+import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.WritableRaster;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 import javax.swing.ImageIcon;
 
+import watermark.core.io.ChannelImageInputStream;
+import watermark.core.io.PngWriter;
+
 /**
  * This class includes static methods to load, manipulate, and save images.
  *
  * @author Ryan M. Kane
  */
 public class ImageUtil {
+	private static final PngWriter PNG_WRITER = new PngWriter();
+
+	// The plugin which reads each known format.
+	private static final Map<String, ImageReaderSpi> READER_SPIS = new ConcurrentHashMap<String, ImageReaderSpi>();
+
+	// The readers of each thread, by format.
+	private static final ThreadLocal<Map<String, ImageReader>> THREAD_READERS = ThreadLocal.withInitial(HashMap::new);
 
 	public static ImageIcon loadIcon(String path) {
 		return new ImageIcon(ImageUtil.class.getClassLoader().getResource(path));
@@ -31,34 +58,224 @@ public class ImageUtil {
 	 * @return The loaded image.
 	 */
 	public static BufferedImage loadImage(String filename) {
-		InputStream is = null;
-
 		// First try loading from the current directory
 		try {
-			is = new FileInputStream(new File(filename));
-			return ImageIO.read(is);
+			File file = new File(filename);
+
+			if (file.isFile()) {
+				return readImage(file);
+			}
 		} catch (Exception e) {
-			is = null;
 		}
 
-		try {
-			if (is == null) {
-				// Try loading from classpath
-				is = ImageUtil.class.getClassLoader().getResourceAsStream(filename);
-				return ImageIO.read(is);
+		// Try loading from classpath
+		try (InputStream is = ImageUtil.class.getClassLoader().getResourceAsStream(filename)) {
+			if (is != null) {
+				return readImage(is);
 			}
 		} catch (Exception e) {
-			System.err.println("Could not load image: " + filename);
-		} finally {
+		}
+
+		System.err.println("Could not load image: " + filename);
+
+		return null;
+	}
+
+	/**
+	 * Reads an image file through a buffered file channel, with the reader of
+	 * the format found from its first bytes.
+	 *
+	 * @param file - the image file.
+	 * @return the image, or null if no reader can decode the file.
+	 * @throws IOException if the file cannot be read or decoded.
+	 */
+	public static BufferedImage readImage(File file) throws IOException {
+		try (ImageInputStream stream = createImageInputStream(file)) {
+			return readImage(stream);
+		}
+	}
+
+	/**
+	 * Reads an image from a stream, which is cached in memory rather than in a
+	 * temporary file while it is decoded. The stream is not closed.
+	 *
+	 * @param in - the image stream.
+	 * @return the image, or null if no reader can decode the stream.
+	 * @throws IOException if the stream cannot be read or decoded.
+	 */
+	public static BufferedImage readImage(InputStream in) throws IOException {
+		try (ImageInputStream stream = createImageInputStream(in)) {
+			return readImage(stream);
+		}
+	}
+
+	/**
+	 * Reads an image from an image stream. A known format is decoded by a
+	 * reader kept by the calling thread, so the reader plugins are neither
+	 * probed nor created again for each image. Other formats fall back to
+	 * probing every plugin.
+	 *
+	 * @param stream - the image stream, which is not closed.
+	 * @return the image, or null if no reader can decode the stream.
+	 * @throws IOException if the stream cannot be read or decoded.
+	 */
+	public static BufferedImage readImage(ImageInputStream stream) throws IOException {
+		String formatName = getFormatName(stream);
+		ImageReader reader = formatName != null ? getThreadReader(formatName) : null;
+
+		if (reader != null) {
 			try {
-				is.close();
-			} catch (IOException e) {
+				reader.setInput(stream, true, true);
+				return reader.read(0);
+			} finally {
+				reader.reset();
 			}
 		}
 
+		reader = createImageReader(stream);
+
+		if (reader == null) {
+			return null;
+		}
+
+		try {
+			return reader.read(0);
+		} finally {
+			reader.dispose();
+		}
+	}
+
+	/**
+	 * Opens an image file as a stream backed by a file channel, which reads
+	 * the file in place without a cache.
+	 *
+	 * @param file - the image file.
+	 * @return the stream, which must be closed.
+	 * @throws IOException if the file cannot be opened.
+	 */
+	public static ImageInputStream createImageInputStream(File file) throws IOException {
+		return ChannelImageInputStream.open(file);
+	}
+
+	/**
+	 * Wraps a stream as an image stream which caches what it has read in
+	 * memory, as ImageIO may otherwise spill it to a temporary file.
+	 *
+	 * @param in - the stream, which is not closed with the image stream.
+	 * @return the image stream.
+	 */
+	public static ImageInputStream createImageInputStream(InputStream in) {
+		return new MemoryCacheImageInputStream(in);
+	}
+
+	/**
+	 * Creates a reader for an image stream, choosing it from the magic bytes
+	 * of the stream when the format is known and otherwise by probing every
+	 * plugin. The stream is set as the input of the reader.
+	 *
+	 * @param stream - the image stream.
+	 * @return a new reader, which must be disposed, or null if no reader can
+	 *         decode the stream.
+	 * @throws IOException if the stream cannot be read.
+	 */
+	public static ImageReader createImageReader(ImageInputStream stream) throws IOException {
+		String formatName = getFormatName(stream);
+		ImageReader reader = null;
+
+		if (formatName != null) {
+			reader = createReader(formatName);
+		}
+
+		if (reader == null) {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+
+			if (!readers.hasNext()) {
+				return null;
+			}
+
+			reader = readers.next();
+		}
+
+		reader.setInput(stream, true, true);
+
+		return reader;
+	}
+
+	/**
+	 * Determines the format of an image stream from its first bytes, leaving
+	 * the stream where it was.
+	 *
+	 * @param stream - the image stream.
+	 * @return the ImageIO name of the format, or null if it is not known.
+	 * @throws IOException if the stream cannot be read.
+	 */
+	public static String getFormatName(ImageInputStream stream) throws IOException {
+		byte[] magic = new byte[8];
+
+		stream.mark();
+
+		try {
+			stream.readFully(magic);
+		} catch (EOFException e) {
+			return null;
+		} finally {
+			stream.reset();
+		}
+
+		int b0 = magic[0] & 0xFF;
+		int b1 = magic[1] & 0xFF;
+
+		if (b0 == 0x89 && magic[1] == 'P' && magic[2] == 'N' && magic[3] == 'G') {
+			return "png";
+		} else if (b0 == 0xFF && b1 == 0xD8 && (magic[2] & 0xFF) == 0xFF) {
+			return "jpeg";
+		} else if (magic[0] == 'G' && magic[1] == 'I' && magic[2] == 'F' && magic[3] == '8') {
+			return "gif";
+		} else if (magic[0] == 'B' && magic[1] == 'M') {
+			return "bmp";
+		} else if ((magic[0] == 'I' && magic[1] == 'I' && magic[2] == 42 && magic[3] == 0)
+				|| (magic[0] == 'M' && magic[1] == 'M' && magic[2] == 0 && magic[3] == 42)) {
+			return "tiff";
+		}
+
 		return null;
 	}
 
+	/**
+	 * Returns the reader of a format which belongs to the calling thread.
+	 */
+	private static ImageReader getThreadReader(String formatName) {
+		Map<String, ImageReader> readers = THREAD_READERS.get();
+		ImageReader reader = readers.get(formatName);
+
+		if (reader == null) {
+			reader = createReader(formatName);
+
+			if (reader != null) {
+				readers.put(formatName, reader);
+			}
+		}
+
+		return reader;
+	}
+
+	/**
+	 * Creates a reader of a format from its plugin, which is looked up once.
+	 */
+	private static ImageReader createReader(String formatName) {
+		ImageReaderSpi spi = READER_SPIS.computeIfAbsent(formatName, name -> {
+			Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName(name);
+			return readers.hasNext() ? readers.next().getOriginatingProvider() : null;
+		});
+
+		try {
+			return spi != null ? spi.createReaderInstance() : null;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
 	/**
 	 * Handles writing a two-dimensional array of image blocks to individual
 	 * files.
@@ -95,8 +312,7 @@ public class ImageUtil {
 			path.append(filename);
 			File outputfile = new File(path.toString());
 			// http://stackoverflow.com/a/2833883/1762224
-			outputfile.getParentFile().mkdirs();
-			ImageIO.write(img, "png", outputfile);
+			PNG_WRITER.write(img, outputfile);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -150,13 +366,13 @@ public class ImageUtil {
 
 	/**
 	 * Handles recombining a two-dimensional array of image blocks back into a
-	 * single image.
+	 * single image. The image has the same type as the first block, and the
+	 * block rasters are copied without any color conversion.
 	 *
 	 * @param blocks - the blocks to be combined.
 	 * @return a new image with all blocks combined.
 	 */
 	public static BufferedImage recombine(BufferedImage[][] blocks) {
-		int type = 0;
 		int totalWidth = 0;
 		int totalHeight = 0;
 		int blockWidth = 0;
@@ -167,10 +383,8 @@ public class ImageUtil {
 			for (int col = 0; col < blocks[row].length; col++) {
 				BufferedImage block = blocks[row][col];
 
-				// Get block size and image type information for the first block
-				// only.
+				// Get block size information for the first block only.
 				if (row == 0 && col == 0) {
-					type = BufferedImage.TYPE_INT_ARGB; // block.getType();
 					blockWidth = block.getWidth();
 					blockHeight = block.getHeight();
 				}
@@ -185,30 +399,57 @@ public class ImageUtil {
 			}
 		}
 
-		// Create a new image with the size of the calculated blocks.
-		BufferedImage img = new BufferedImage(totalWidth, totalHeight, type);
-		// Get the graphics from the new image so that it can be drawn on.
-		Graphics g = img.getGraphics();
+		// Create a new image of the first block's type with the size of the
+		// calculated blocks.
+		BufferedImage img = createCompatibleImage(blocks[0][0], totalWidth, totalHeight);
+		WritableRaster raster = img.getRaster();
 
-		// Loop over all the image blocks and write them to the new output
+		// Loop over all the image blocks and copy them to the new output
 		// image.
 		for (int row = 0; row < blocks.length; row++) {
 			for (int col = 0; col < blocks[row].length; col++) {
-				BufferedImage block = blocks[row][col];
-				int x = col * blockWidth;
-				int y = row * blockHeight;
-				int w = block.getWidth();
-				int h = block.getHeight();
-				g.drawImage(block, x, y, w, h, null);
+				raster.setRect(col * blockWidth, row * blockHeight, blocks[row][col].getRaster());
 			}
 		}
 
-		// Release the graphics context.
-		g.dispose();
+		return img;
+	}
+
+	/**
+	 * Joins two images of the same width by placing one below the other. The
+	 * image has the same type as the upper image.
+	 *
+	 * @param top - the upper image.
+	 * @param bottom - the lower image.
+	 * @return a new image with both images combined.
+	 */
+	public static BufferedImage stackImages(BufferedImage top, BufferedImage bottom) {
+		int width = Math.max(top.getWidth(), bottom.getWidth());
+		int height = top.getHeight() + bottom.getHeight();
+		BufferedImage img = createCompatibleImage(top, width, height);
+		WritableRaster raster = img.getRaster();
+
+		raster.setRect(0, 0, top.getRaster());
+		raster.setRect(0, top.getHeight(), bottom.getRaster());
 
 		return img;
 	}
 
+	/**
+	 * Creates an empty image with the same color model and raster layout as
+	 * another image, which keeps custom image types such as 16-bit RGB.
+	 *
+	 * @param img - the image to match.
+	 * @param width - the width of the new image.
+	 * @param height - the height of the new image.
+	 * @return a new image of the same type.
+	 */
+	public static BufferedImage createCompatibleImage(BufferedImage img, int width, int height) {
+		ColorModel cm = img.getColorModel();
+		WritableRaster raster = img.getRaster().createCompatibleWritableRaster(width, height);
+		return new BufferedImage(cm, raster, cm.isAlphaPremultiplied(), null);
+	}
+
 	/**
 	 * Returns the image into an array of bytes.
 	 *
@@ -222,7 +463,15 @@ public class ImageUtil {
 
 		try {
 			stream = new ByteArrayOutputStream();
-			ImageIO.write(img, formatName, stream);
+
+			if ("png".equalsIgnoreCase(formatName)) {
+				PNG_WRITER.write(img, stream);
+			} else {
+				try (ImageOutputStream out = new MemoryCacheImageOutputStream(stream)) {
+					ImageIO.write(img, formatName, out);
+				}
+			}
+
 			stream.flush();
 			imgBytes = stream.toByteArray();
 		} catch (IOException e) {
@@ -239,13 +488,16 @@ public class ImageUtil {
 	}
 
 	/**
-	 * Clones an image.
+	 * Clones an image by copying its raster, so the copy keeps the type and the
+	 * exact samples of the original.
 	 *
 	 * @param originalImg - the original image to clone.
-	 * @return a copy of the input image in the specified type.
+	 * @return a copy of the input image in the same type.
 	 */
 	public static BufferedImage cloneImage(BufferedImage originalImg) {
-		return cloneImage(originalImg, originalImg.getType());
+		BufferedImage copyImg = createCompatibleImage(originalImg, originalImg.getWidth(), originalImg.getHeight());
+		originalImg.copyData(copyImg.getRaster());
+		return copyImg;
 	}
 
 	/**
@@ -258,39 +510,119 @@ public class ImageUtil {
 	public static BufferedImage cloneImage(BufferedImage originalImg, int imageType) {
 		BufferedImage copyImg = new BufferedImage(originalImg.getWidth(),
 				originalImg.getHeight(), imageType);
-		Graphics g = copyImg.createGraphics();
+		Graphics g = createCopyGraphics(copyImg);
 		g.drawImage(originalImg, 0, 0, null);
 		g.dispose();
 		return copyImg;
 	}
 
+	/**
+	 * Returns a graphics context which replaces the destination pixels when
+	 * drawing, rather than blending them. Blending translucent pixels onto an
+	 * empty image rounds their color channels and would alter the LSBs.
+	 *
+	 * @param img - the image to draw on.
+	 * @return a graphics context using the source composite.
+	 */
+	public static Graphics2D createCopyGraphics(BufferedImage img) {
+		Graphics2D g = img.createGraphics();
+		g.setComposite(AlphaComposite.Src);
+		return g;
+	}
+
+	/**
+	 * Fills an image with a solid color.
+	 *
+	 * @param img - the image to fill.
+	 * @param argb - the color to fill in for all pixels.
+	 */
+	public static void fillImage(BufferedImage img, int argb) {
+		Graphics2D g = createCopyGraphics(img);
+		g.setColor(new Color(argb, true));
+		g.fillRect(0, 0, img.getWidth(), img.getHeight());
+		g.dispose();
+	}
+
+	/**
+	 * Returns the number of rows needed to store a number of bits in the LSB
+	 * of the pixels of an image.
+	 *
+	 * @param width - the width of the image.
+	 * @param bitCount - the number of bits to store.
+	 * @return the number of rows the bits span.
+	 */
+	public static int getStripRows(int width, long bitCount) {
+		return (int) ((bitCount + width - 1) / width);
+	}
+
+	/**
+	 * Writes bytes into the LSB of consecutive pixels of an image, starting at
+	 * the first pixel of a row and continuing row by row.
+	 *
+	 * @param img - the image to write to.
+	 * @param top - the first row to write to.
+	 * @param data - the bytes to write.
+	 */
+	public static void writeStripBits(BufferedImage img, int top, byte[] data) {
+		int width = img.getWidth();
+		int bitCount = data.length * 8;
+		int rows = getStripRows(width, bitCount);
+		int[] pixels = RasterUtil.getPixels(img, 0, top, width, rows, null);
+
+		for (int i = 0; i < bitCount; i++) {
+			pixels[i] = BitUtil.setLSB(pixels[i], (data[i / 8] >>> (7 - i % 8)) & 1);
+		}
+
+		RasterUtil.setPixels(img, 0, top, width, rows, pixels);
+	}
+
+	/**
+	 * Reads bytes from the LSB of consecutive pixels of an image, starting at
+	 * the first pixel of a row and continuing row by row.
+	 *
+	 * @param img - the image to read from.
+	 * @param top - the first row to read from.
+	 * @param length - the number of bytes to read.
+	 * @return the bytes read, or null if the image is too small.
+	 */
+	public static byte[] readStripBits(BufferedImage img, int top, int length) {
+		int width = img.getWidth();
+		int rows = getStripRows(width, length * 8L);
+
+		if (top < 0 || top + rows > img.getHeight()) {
+			return null;
+		}
+
+		int[] pixels = RasterUtil.getPixels(img, 0, top, width, rows, null);
+
+		return BitUtil.extractLsb(pixels, length);
+	}
+
 	/**
 	 * Compares two images pixel by pixel.
 	 *
 	 * @param imgA - the first image.
 	 * @param imgB - the second image.
 	 * @return whether the images are both the same.
+	 *
+	 * @see CompareUtil#compareImages(BufferedImage, BufferedImage)
 	 */
 	public static boolean compareImages(BufferedImage imgA, BufferedImage imgB) {
-		int width = imgA.getWidth();
-		int height = imgA.getHeight();
-
-		// The images mush be the same size.
-		if (imgA.getWidth() == imgB.getWidth() && imgA.getHeight() == imgB.getHeight()) {
-			// Loop over every pixel.
-			for (int y = 0; y < height; y++) {
-				for (int x = 0; x < width; x++) {
-					// Compare the pixels for equality.
-					if (imgA.getRGB(x, y) != imgB.getRGB(x, y)) {
-						return false;
-					}
-				}
-			}
-		} else {
-			return false;
-		}
+		return CompareUtil.compareImages(imgA, imgB);
+	}
 
-		return true;
+	/**
+	 * Finds the changed areas of two images.
+	 *
+	 * @param imgA - the first image.
+	 * @param imgB - the second image.
+	 * @param cellSize - the granularity of the areas, 1 for single pixels.
+	 * @return the changed rectangles.
+	 *
+	 * @see CompareUtil#diffImages(BufferedImage, BufferedImage, int)
+	 */
+	public static List<Rectangle> diffImages(BufferedImage imgA, BufferedImage imgB, int cellSize) {
+		return CompareUtil.diffImages(imgA, imgB, cellSize);
 	}
 
 	/**
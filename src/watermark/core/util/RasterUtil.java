@@ -0,0 +1,483 @@
+package watermark.core.util;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.DirectColorModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import watermark.core.datatypes.buffer.NioDataBuffer;
+import watermark.core.datatypes.embedding.ChannelEmbedding;
+
+/**
+ * This class includes static methods which read and write packed ARGB pixels
+ * directly from the data buffer of an image, without the color conversion of
+ * {@link BufferedImage#getRGB} and {@link BufferedImage#setRGB}.
+ *
+ * The packed int, 8-bit and 16-bit component rasters are read natively, as
+ * are rasters held in an {@link NioDataBuffer} as packed ARGB ints or 8-bit
+ * components, which are read and written in place. A
+ * gray sample is presented in the red, green and blue channels and is written
+ * back from the blue channel. A 16-bit sample is presented by its low byte and
+ * only its low byte is written back, so the embedded bits are the LSBs of the
+ * actual samples. Its high byte, which holds the visible value, is read
+ * separately by {@link #getHighPixels} so hashes can cover it. Other image
+ * types fall back to getRGB and setRGB.
+ *
+ * @author Ryan M. Kane
+ */
+public class RasterUtil {
+	private static final int LAYOUT_GENERIC = 0;
+	private static final int LAYOUT_INT_ARGB = 1;
+	private static final int LAYOUT_INT_RGB = 2;
+	private static final int LAYOUT_INT_BGR = 3;
+	private static final int LAYOUT_COMPONENT = 4;
+	private static final int LAYOUT_NIO_ARGB = 5;
+
+	private static final int ALL_CHANNELS = ChannelEmbedding.RED | ChannelEmbedding.GREEN | ChannelEmbedding.BLUE
+			| ChannelEmbedding.ALPHA;
+	private static final int COLOR_CHANNELS = ChannelEmbedding.RED | ChannelEmbedding.GREEN | ChannelEmbedding.BLUE;
+
+	/**
+	 * Determines if the pixels of an image are read and written natively.
+	 *
+	 * @param img - the image to check.
+	 * @return whether the image has a raster fast path.
+	 */
+	public static boolean isNative(BufferedImage img) {
+		return getLayout(img) != LAYOUT_GENERIC;
+	}
+
+	/**
+	 * Returns the embedding channels which the raster of an image stores
+	 * independently. A gray image only stores its blue channel.
+	 *
+	 * @param img - the image to check.
+	 * @return the channel mask, or 0 if the image is not read natively.
+	 */
+	public static int getChannels(BufferedImage img) {
+		switch (getLayout(img)) {
+			case LAYOUT_INT_ARGB:
+			case LAYOUT_NIO_ARGB:
+				return ALL_CHANNELS;
+			case LAYOUT_INT_RGB:
+			case LAYOUT_INT_BGR:
+				return COLOR_CHANNELS;
+			case LAYOUT_COMPONENT:
+				ColorModel cm = img.getColorModel();
+				int channels = cm.getNumColorComponents() == 3 ? COLOR_CHANNELS : ChannelEmbedding.BLUE;
+				return cm.hasAlpha() ? channels | ChannelEmbedding.ALPHA : channels;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * Determines if an image can carry an embedding in its own type, so the
+	 * encoded image does not have to be converted.
+	 *
+	 * @param img - the image to check.
+	 * @param embedding - the channels and bits which carry the payload.
+	 * @return whether the embedded bits survive in the image's raster.
+	 */
+	public static boolean canEmbed(BufferedImage img, ChannelEmbedding embedding) {
+		return (embedding.getChannels() & ~getChannels(img)) == 0;
+	}
+
+	/**
+	 * Returns all pixels of an image as packed ARGB integers.
+	 *
+	 * @param img - the image to read from.
+	 * @return the pixels of the image.
+	 */
+	public static int[] getPixels(BufferedImage img) {
+		return getPixels(img, 0, 0, img.getWidth(), img.getHeight(), null);
+	}
+
+	/**
+	 * Writes all pixels of an image from packed ARGB integers.
+	 *
+	 * @param img - the image to write to.
+	 * @param pixels - the pixels to write.
+	 */
+	public static void setPixels(BufferedImage img, int[] pixels) {
+		setPixels(img, 0, 0, img.getWidth(), img.getHeight(), pixels);
+	}
+
+	/**
+	 * Returns a region of an image as packed ARGB integers in row-major order.
+	 *
+	 * @param img - the image to read from.
+	 * @param x - the left of the region.
+	 * @param y - the top of the region.
+	 * @param w - the width of the region.
+	 * @param h - the height of the region.
+	 * @param pixels - the array to fill, or null to allocate one.
+	 * @return the pixels of the region.
+	 */
+	public static int[] getPixels(BufferedImage img, int x, int y, int w, int h, int[] pixels) {
+		if (pixels == null || pixels.length < w * h) {
+			pixels = new int[w * h];
+		}
+
+		switch (getLayout(img)) {
+			case LAYOUT_INT_ARGB:
+			case LAYOUT_INT_RGB:
+			case LAYOUT_INT_BGR:
+				getPackedPixels(img, x, y, w, h, pixels);
+				break;
+			case LAYOUT_COMPONENT:
+				getComponentPixels(img, x, y, w, h, pixels, 0);
+				break;
+			case LAYOUT_NIO_ARGB:
+				getNioPixels(img, x, y, w, h, pixels);
+				break;
+			default:
+				img.getRGB(x, y, w, h, pixels, 0, w);
+		}
+
+		return pixels;
+	}
+
+	/**
+	 * Determines if an image stores 16-bit samples natively, which
+	 * {@link #getPixels} presents by their low byte.
+	 *
+	 * @param img - the image to check.
+	 * @return whether the samples of the image are 16 bits wide.
+	 */
+	public static boolean isWide(BufferedImage img) {
+		return getLayout(img) == LAYOUT_COMPONENT && img.getRaster().getDataBuffer() instanceof DataBufferUShort;
+	}
+
+	/**
+	 * Returns a region of a 16-bit image as the high bytes of its samples,
+	 * packed like {@link #getPixels}.
+	 *
+	 * @param img - the image to read from, which must be wide.
+	 * @param x - the left of the region.
+	 * @param y - the top of the region.
+	 * @param w - the width of the region.
+	 * @param h - the height of the region.
+	 * @param pixels - the array to fill, or null to allocate one.
+	 * @return the high bytes of the region.
+	 * @see #isWide(BufferedImage)
+	 */
+	public static int[] getHighPixels(BufferedImage img, int x, int y, int w, int h, int[] pixels) {
+		if (!isWide(img)) {
+			throw new IllegalArgumentException("The image does not have 16-bit samples.");
+		}
+
+		if (pixels == null || pixels.length < w * h) {
+			pixels = new int[w * h];
+		}
+
+		getComponentPixels(img, x, y, w, h, pixels, 8);
+
+		return pixels;
+	}
+
+	/**
+	 * Writes a region of an image from packed ARGB integers in row-major
+	 * order.
+	 *
+	 * @param img - the image to write to.
+	 * @param x - the left of the region.
+	 * @param y - the top of the region.
+	 * @param w - the width of the region.
+	 * @param h - the height of the region.
+	 * @param pixels - the pixels to write.
+	 */
+	public static void setPixels(BufferedImage img, int x, int y, int w, int h, int[] pixels) {
+		switch (getLayout(img)) {
+			case LAYOUT_INT_ARGB:
+			case LAYOUT_INT_RGB:
+			case LAYOUT_INT_BGR:
+				setPackedPixels(img, x, y, w, h, pixels);
+				break;
+			case LAYOUT_COMPONENT:
+				setComponentPixels(img, x, y, w, h, pixels);
+				break;
+			case LAYOUT_NIO_ARGB:
+				setNioPixels(img, x, y, w, h, pixels);
+				break;
+			default:
+				img.setRGB(x, y, w, h, pixels, 0, w);
+		}
+	}
+
+	private static int getLayout(BufferedImage img) {
+		WritableRaster raster = img.getRaster();
+
+		switch (img.getType()) {
+			case BufferedImage.TYPE_INT_ARGB:
+				return isPacked(raster) ? LAYOUT_INT_ARGB : LAYOUT_GENERIC;
+			case BufferedImage.TYPE_INT_RGB:
+				return isPacked(raster) ? LAYOUT_INT_RGB : LAYOUT_GENERIC;
+			case BufferedImage.TYPE_INT_BGR:
+				return isPacked(raster) ? LAYOUT_INT_BGR : LAYOUT_GENERIC;
+		}
+
+		ColorModel cm = img.getColorModel();
+
+		if (raster.getDataBuffer() instanceof NioDataBuffer && raster.getDataBuffer().getDataType() == DataBuffer.TYPE_INT) {
+			return isNioArgb(img) ? LAYOUT_NIO_ARGB : LAYOUT_GENERIC;
+		}
+
+		if (!(cm instanceof ComponentColorModel) || cm.isAlphaPremultiplied()
+				|| !(raster.getSampleModel() instanceof ComponentSampleModel)) {
+			return LAYOUT_GENERIC;
+		}
+
+		DataBuffer db = raster.getDataBuffer();
+
+		if (!(db instanceof DataBufferByte) && !(db instanceof DataBufferUShort) && !(db instanceof NioDataBuffer)) {
+			return LAYOUT_GENERIC;
+		}
+
+		int colorSpaceType = cm.getColorSpace().getType();
+		int colors = cm.getNumColorComponents();
+
+		if (!(colors == 3 && colorSpaceType == ColorSpace.TYPE_RGB) && !(colors == 1 && colorSpaceType == ColorSpace.TYPE_GRAY)) {
+			return LAYOUT_GENERIC;
+		}
+
+		for (int i = 0; i < cm.getNumComponents(); i++) {
+			if (cm.getComponentSize(i) < 8) {
+				return LAYOUT_GENERIC;
+			}
+		}
+
+		return raster.getNumBands() == cm.getNumComponents() ? LAYOUT_COMPONENT : LAYOUT_GENERIC;
+	}
+
+	private static boolean isPacked(WritableRaster raster) {
+		return raster.getSampleModel() instanceof SinglePixelPackedSampleModel && raster.getDataBuffer() instanceof DataBufferInt;
+	}
+
+	/**
+	 * Determines if an image holds unpremultiplied ARGB ints in the order of
+	 * {@link BufferedImage#TYPE_INT_ARGB}.
+	 */
+	private static boolean isNioArgb(BufferedImage img) {
+		ColorModel cm = img.getColorModel();
+
+		if (!(cm instanceof DirectColorModel) || cm.isAlphaPremultiplied()
+				|| !(img.getRaster().getSampleModel() instanceof SinglePixelPackedSampleModel)) {
+			return false;
+		}
+
+		DirectColorModel dcm = (DirectColorModel) cm;
+
+		return dcm.getAlphaMask() == 0xFF000000 && dcm.getRedMask() == 0xFF0000 && dcm.getGreenMask() == 0xFF00
+				&& dcm.getBlueMask() == 0xFF && cm.getColorSpace().isCS_sRGB();
+	}
+
+	private static void getNioPixels(BufferedImage img, int x, int y, int w, int h, int[] pixels) {
+		WritableRaster raster = img.getRaster();
+		IntBuffer data = ((NioDataBuffer) raster.getDataBuffer()).getInts();
+		int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+		int base = (y - raster.getSampleModelTranslateY()) * stride + (x - raster.getSampleModelTranslateX());
+
+		for (int row = 0; row < h; row++) {
+			data.get(base + row * stride, pixels, row * w, w);
+		}
+	}
+
+	private static void setNioPixels(BufferedImage img, int x, int y, int w, int h, int[] pixels) {
+		WritableRaster raster = img.getRaster();
+		IntBuffer data = ((NioDataBuffer) raster.getDataBuffer()).getInts();
+		int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+		int base = (y - raster.getSampleModelTranslateY()) * stride + (x - raster.getSampleModelTranslateX());
+
+		for (int row = 0; row < h; row++) {
+			data.put(base + row * stride, pixels, row * w, w);
+		}
+	}
+
+	private static void getPackedPixels(BufferedImage img, int x, int y, int w, int h, int[] pixels) {
+		WritableRaster raster = img.getRaster();
+		SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+		DataBufferInt db = (DataBufferInt) raster.getDataBuffer();
+		int[] data = db.getData();
+		int stride = sm.getScanlineStride();
+		int base = db.getOffset() + (y - raster.getSampleModelTranslateY()) * stride + (x - raster.getSampleModelTranslateX());
+		int type = img.getType();
+
+		for (int row = 0; row < h; row++) {
+			int src = base + row * stride;
+			int dst = row * w;
+
+			if (type == BufferedImage.TYPE_INT_ARGB) {
+				System.arraycopy(data, src, pixels, dst, w);
+			} else if (type == BufferedImage.TYPE_INT_RGB) {
+				for (int col = 0; col < w; col++) {
+					pixels[dst + col] = 0xFF000000 | data[src + col];
+				}
+			} else {
+				for (int col = 0; col < w; col++) {
+					pixels[dst + col] = 0xFF000000 | swapRedBlue(data[src + col]);
+				}
+			}
+		}
+	}
+
+	private static void setPackedPixels(BufferedImage img, int x, int y, int w, int h, int[] pixels) {
+		WritableRaster raster = img.getRaster();
+		SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+		DataBufferInt db = (DataBufferInt) raster.getDataBuffer();
+		int[] data = db.getData();
+		int stride = sm.getScanlineStride();
+		int base = db.getOffset() + (y - raster.getSampleModelTranslateY()) * stride + (x - raster.getSampleModelTranslateX());
+		int type = img.getType();
+
+		for (int row = 0; row < h; row++) {
+			int dst = base + row * stride;
+			int src = row * w;
+
+			if (type == BufferedImage.TYPE_INT_ARGB) {
+				System.arraycopy(pixels, src, data, dst, w);
+			} else if (type == BufferedImage.TYPE_INT_RGB) {
+				for (int col = 0; col < w; col++) {
+					data[dst + col] = pixels[src + col] & 0xFFFFFF;
+				}
+			} else {
+				for (int col = 0; col < w; col++) {
+					data[dst + col] = swapRedBlue(pixels[src + col]) & 0xFFFFFF;
+				}
+			}
+		}
+	}
+
+	private static int swapRedBlue(int pixel) {
+		return (pixel & 0xFF00FF00) | ((pixel >> 16) & 0xFF) | ((pixel & 0xFF) << 16);
+	}
+
+	/**
+	 * Reads a region of a component raster.
+	 *
+	 * @param shift - 0 to read the low byte of 16-bit samples, 8 to read
+	 *        their high byte.
+	 */
+	private static void getComponentPixels(BufferedImage img, int x, int y, int w, int h, int[] pixels, int shift) {
+		ComponentRegion region = new ComponentRegion(img, x, y);
+		boolean gray = region.colors == 1;
+
+		for (int row = 0; row < h; row++) {
+			int pos = row * region.scanlineStride;
+
+			for (int col = 0; col < w; col++, pos += region.pixelStride) {
+				int a = region.alphaBand < 0 ? 0xFF : region.get(region.alphaBand, pos, shift);
+				int r = region.get(0, pos, shift);
+				int g = gray ? r : region.get(1, pos, shift);
+				int b = gray ? r : region.get(2, pos, shift);
+
+				pixels[row * w + col] = (a << 24) | (r << 16) | (g << 8) | b;
+			}
+		}
+	}
+
+	private static void setComponentPixels(BufferedImage img, int x, int y, int w, int h, int[] pixels) {
+		ComponentRegion region = new ComponentRegion(img, x, y);
+		boolean gray = region.colors == 1;
+
+		for (int row = 0; row < h; row++) {
+			int pos = row * region.scanlineStride;
+
+			for (int col = 0; col < w; col++, pos += region.pixelStride) {
+				int pixel = pixels[row * w + col];
+
+				if (gray) {
+					region.set(0, pos, pixel & 0xFF);
+				} else {
+					region.set(0, pos, (pixel >> 16) & 0xFF);
+					region.set(1, pos, (pixel >> 8) & 0xFF);
+					region.set(2, pos, pixel & 0xFF);
+				}
+
+				if (region.alphaBand >= 0) {
+					region.set(region.alphaBand, pos, (pixel >>> 24) & 0xFF);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The band arrays and offsets of a component raster, positioned at the
+	 * top left of a region.
+	 */
+	private static class ComponentRegion {
+		private final byte[][] bytes;
+		private final short[][] shorts;
+		private final ByteBuffer buffer;
+		private final int[] offsets;
+		private final int colors;
+		private final int alphaBand;
+		private final int pixelStride;
+		private final int scanlineStride;
+
+		ComponentRegion(BufferedImage img, int x, int y) {
+			WritableRaster raster = img.getRaster();
+			ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+			DataBuffer db = raster.getDataBuffer();
+			int bands = raster.getNumBands();
+			int[] banks = sm.getBankIndices();
+			int[] bandOffsets = sm.getBandOffsets();
+			int smX = x - raster.getSampleModelTranslateX();
+			int smY = y - raster.getSampleModelTranslateY();
+
+			this.colors = img.getColorModel().getNumColorComponents();
+			this.alphaBand = img.getColorModel().hasAlpha() ? colors : -1;
+			this.pixelStride = sm.getPixelStride();
+			this.scanlineStride = sm.getScanlineStride();
+			this.offsets = new int[bands];
+			this.bytes = db instanceof DataBufferByte ? new byte[bands][] : null;
+			this.shorts = db instanceof DataBufferUShort ? new short[bands][] : null;
+			this.buffer = db instanceof NioDataBuffer ? ((NioDataBuffer) db).getBytes() : null;
+
+			for (int band = 0; band < bands; band++) {
+				offsets[band] = db.getOffsets()[banks[band]] + bandOffsets[band] + smY * scanlineStride + smX * pixelStride;
+
+				if (bytes != null) {
+					bytes[band] = ((DataBufferByte) db).getData(banks[band]);
+				} else if (shorts != null) {
+					shorts[band] = ((DataBufferUShort) db).getData(banks[band]);
+				}
+			}
+		}
+
+		/**
+		 * Reads a byte of a sample. The shift selects the byte of a 16-bit
+		 * sample and is ignored for 8-bit samples.
+		 */
+		int get(int band, int pos, int shift) {
+			if (bytes != null) {
+				return bytes[band][offsets[band] + pos] & 0xFF;
+			} else if (buffer != null) {
+				return buffer.get(offsets[band] + pos) & 0xFF;
+			}
+
+			return (shorts[band][offsets[band] + pos] >>> shift) & 0xFF;
+		}
+
+		void set(int band, int pos, int value) {
+			if (bytes != null) {
+				bytes[band][offsets[band] + pos] = (byte) value;
+			} else if (buffer != null) {
+				buffer.put(offsets[band] + pos, (byte) value);
+			} else {
+				int index = offsets[band] + pos;
+				shorts[band][index] = (short) ((shorts[band][index] & 0xFF00) | value);
+			}
+		}
+	}
+}
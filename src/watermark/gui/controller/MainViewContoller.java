@@ -3,8 +3,12 @@ package watermark.gui.controller;
 import java.awt.image.BufferedImage;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.util.concurrent.CompletableFuture;
 
 import watermark.core.cipher.KeyCipher;
+import watermark.core.datatypes.embedding.ChannelEmbedding;
+import watermark.core.datatypes.request.WatermarkRequest;
+import watermark.core.partition.BlockPartitioner;
 import watermark.core.service.WatermarkService;
 
 /**
@@ -34,10 +38,13 @@ public class MainViewContoller {
 	 * @param source - the image to be watermarked.
 	 * @param watermark - the watermark to apply to the image.
 	 * @param blockSize - image blocks pixel size.
+	 * @param embedding - the channels and bits which carry the payload.
+	 * @param partitioner - the strategy which divides the image into blocks.
 	 * @return an image encoded with an encrypted watermark hash.
 	 */
-	public BufferedImage handleEncode(KeyCipher cipher, PrivateKey key, BufferedImage source, BufferedImage watermark, int blockSize) {
-		return watermarkService.encode(cipher, key, source, watermark, blockSize);
+	public BufferedImage handleEncode(KeyCipher cipher, PrivateKey key, BufferedImage source, BufferedImage watermark, int blockSize,
+			ChannelEmbedding embedding, BlockPartitioner partitioner) {
+		return watermarkService.encode(cipher, key, source, watermark, blockSize, embedding, partitioner);
 	}
 
 	/**
@@ -53,4 +60,41 @@ public class MainViewContoller {
 	public BufferedImage handleDecode(KeyCipher cipher, PublicKey key, BufferedImage source, BufferedImage watermark, int blockSize) {
 		return watermarkService.decode(cipher, key, source, watermark, blockSize);
 	}
+
+	/**
+	 * Encode a watermark into an image without blocking the calling thread.
+	 *
+	 * @param cipher - the cipher method for encoding.
+	 * @param key - the private key.
+	 * @param source - the image to be watermarked.
+	 * @param watermark - the watermark to apply to the image.
+	 * @param blockSize - image blocks pixel size.
+	 * @param embedding - the channels and bits which carry the payload.
+	 * @param partitioner - the strategy which divides the image into blocks.
+	 * @return a future of the encoded image.
+	 */
+	public CompletableFuture<BufferedImage> handleEncodeAsync(KeyCipher cipher, PrivateKey key, BufferedImage source, BufferedImage watermark,
+			int blockSize, ChannelEmbedding embedding, BlockPartitioner partitioner) {
+		WatermarkRequest request = new WatermarkRequest(cipher, key, source, watermark);
+		request.setBlockSize(blockSize);
+		request.setEmbedding(embedding);
+		request.setPartitioner(partitioner);
+		return watermarkService.encodeAsync(request);
+	}
+
+	/**
+	 * Decode a watermarked image without blocking the calling thread.
+	 *
+	 * @param cipher - the cipher method for decoding.
+	 * @param key - the public key.
+	 * @param source - the image that is watermarked.
+	 * @param watermark - the watermark to compare to the extracted hash.
+	 * @param blockSize - image blocks pixel size.
+	 * @return a future of the decoded image.
+	 */
+	public CompletableFuture<BufferedImage> handleDecodeAsync(KeyCipher cipher, PublicKey key, BufferedImage source, BufferedImage watermark, int blockSize) {
+		WatermarkRequest request = new WatermarkRequest(cipher, key, source, watermark);
+		request.setBlockSize(blockSize);
+		return watermarkService.decodeAsync(request);
+	}
 }
@@ -16,8 +16,9 @@ import java.security.PublicKey;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
-import javax.imageio.ImageIO;
 import javax.swing.AbstractAction;
 import javax.swing.AbstractButton;
 import javax.swing.JButton;
@@ -28,9 +29,18 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 
 import watermark.core.cipher.KeyCipher;
+import watermark.core.datatypes.embedding.ChannelEmbedding;
+import watermark.core.io.DeferredImage;
+import watermark.core.io.MappedImage;
+import watermark.core.io.PngWriter;
+import watermark.core.io.PyramidWriter;
+import watermark.core.partition.BlockPartitioner;
+import watermark.core.partition.GridPartitioner;
+import watermark.core.partition.QuadtreePartitioner;
 import watermark.core.util.FileUtil;
 import watermark.core.util.GuiUtils;
 import watermark.core.util.ImageUtil;
@@ -56,6 +66,13 @@ public class MainView extends JPanel {
 	public static final String DEFAULT_PRIVATE_KEY_LOC = "C:/keys/private.key";
 	public static final String DEFAULT_PUBLIC_KEY_LOC = "C:/keys/public.key";
 	public static final int DEFAULT_BLOCK_SIZE = 32;
+	public static final String DEFAULT_EMBED_CHANNELS = "B";
+	public static final int DEFAULT_EMBED_BITS = 1;
+	public static final String DEFAULT_PARTITION = "grid";
+	public static final double DEFAULT_QUADTREE_THRESHOLD = QuadtreePartitioner.DEFAULT_THRESHOLD;
+	public static final int DEFAULT_PNG_COMPRESSION = PngWriter.DEFAULT_COMPRESSION_LEVEL;
+	public static final String DEFAULT_PNG_FILTER = "adaptive";
+	public static final int PREVIEW_SIZE = 1024;
 
 	public static final String[] REQ_PROPS = new String[] {
 		"privateKeyLoc", "publicKeyLoc", "blockSize"
@@ -69,10 +86,15 @@ public class MainView extends JPanel {
 	private String privateKeyLoc;
 	private String publicKeyLoc;
 	private int blockSize;
+	private ChannelEmbedding embedding;
+	private String partition;
+	private double quadtreeThreshold;
+	private PngWriter pngWriter;
+	private PyramidWriter pyramidWriter;
 	private boolean scaleImage;
 
-	private BufferedImage sourceImage;
-	private BufferedImage watermarkImage;
+	private DeferredImage sourceImage;
+	private DeferredImage watermarkImage;
 	private BufferedImage outputImage;
 
 	private JPanel imagesPanel;
@@ -118,6 +140,15 @@ public class MainView extends JPanel {
 		this.privateKeyLoc = props.getProperty("privateKeyLoc", DEFAULT_PRIVATE_KEY_LOC);
 		this.publicKeyLoc = props.getProperty("publicKeyLoc", DEFAULT_PUBLIC_KEY_LOC);
 		this.blockSize = Integer.parseInt(props.getProperty("blockSize", Integer.toString(DEFAULT_BLOCK_SIZE, 10)), 10);
+		this.embedding = ChannelEmbedding.parse(props.getProperty("embedChannels", DEFAULT_EMBED_CHANNELS),
+				Integer.parseInt(props.getProperty("embedBits", Integer.toString(DEFAULT_EMBED_BITS, 10)), 10));
+		this.partition = props.getProperty("partition", DEFAULT_PARTITION).trim();
+		this.quadtreeThreshold = Double.parseDouble(props.getProperty("quadtreeThreshold", Double.toString(DEFAULT_QUADTREE_THRESHOLD)));
+		this.pngWriter = new PngWriter();
+		this.pngWriter.setCompressionLevel(Integer.parseInt(props.getProperty("pngCompression", Integer.toString(DEFAULT_PNG_COMPRESSION, 10)).trim(), 10));
+		this.pngWriter.setFilter(PngWriter.parseFilter(props.getProperty("pngFilter", DEFAULT_PNG_FILTER)));
+		this.pyramidWriter = new PyramidWriter();
+		this.pyramidWriter.setPngWriter(this.pngWriter);
 	}
 
 	@SuppressWarnings("unused")
@@ -127,9 +158,29 @@ public class MainView extends JPanel {
 		propMap.put("privateKeyLoc", this.privateKeyLoc);
 		propMap.put("publicKeyLoc", this.publicKeyLoc);
 		propMap.put("blockSize", Integer.toString(this.blockSize));
+		propMap.put("embedChannels", this.embedding.getChannelList());
+		propMap.put("embedBits", Integer.toString(this.embedding.getBitsPerChannel()));
+		propMap.put("partition", this.partition);
+		propMap.put("quadtreeThreshold", Double.toString(this.quadtreeThreshold));
+		propMap.put("pngCompression", Integer.toString(this.pngWriter.getCompressionLevel()));
+		propMap.put("pngFilter", PngWriter.getFilterName(this.pngWriter.getFilter()));
 		FileUtil.saveProperties(propMap, CONFIG_FILENAME, "Application configurations.");
 	}
 
+	/**
+	 * Creates the block partitioner selected in the configuration. In quadtree
+	 * mode the block size is the size of the largest block.
+	 *
+	 * @return the configured partitioner.
+	 */
+	private BlockPartitioner createPartitioner() {
+		if ("quadtree".equalsIgnoreCase(this.partition)) {
+			return new QuadtreePartitioner(this.quadtreeThreshold);
+		}
+
+		return new GridPartitioner();
+	}
+
 	protected void initComponents() {
 		try {
 			UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
@@ -185,6 +236,17 @@ public class MainView extends JPanel {
 		this.imageSourcePanel.setScaleImage(selected);
 		this.imageWatermarkPanel.setScaleImage(selected);
 		this.imageOutputPanel.setScaleImage(selected);
+
+		// Unscaled images are shown at full resolution once they are decoded.
+		if (!selected) {
+			for (DeferredImage image : new DeferredImage[] { sourceImage, watermarkImage }) {
+				if (image != null && image.getImageIfLoaded() == null) {
+					image.getImageAsync().thenRunAsync(this::redrawImages, SwingUtilities::invokeLater);
+				}
+			}
+
+			redrawImages();
+		}
 	}
 
 	private void addChildren() {
@@ -212,11 +274,25 @@ public class MainView extends JPanel {
 	}
 
 	public void redrawImages() {
-		imageSourcePanel.setImage(sourceImage);
-		imageWatermarkPanel.setImage(watermarkImage);
+		imageSourcePanel.setImage(getDisplayImage(sourceImage));
+		imageWatermarkPanel.setImage(getDisplayImage(watermarkImage));
 		imageOutputPanel.setImage(outputImage);
 	}
 
+	/**
+	 * Returns the image to show for a loaded file, which is its preview unless
+	 * images are unscaled and the full image is decoded.
+	 */
+	private BufferedImage getDisplayImage(DeferredImage image) {
+		if (image == null) {
+			return null;
+		}
+
+		BufferedImage full = scaleImage ? null : image.getImageIfLoaded();
+
+		return full != null ? full : image.getPreview();
+	}
+
 	private boolean keysExist() {
 		return cipher.areKeysPresent(publicKeyLoc, privateKeyLoc);
 	}
@@ -240,6 +316,40 @@ public class MainView extends JPanel {
 		return true;
 	}
 
+	/**
+	 * Shows the image of a running encode or decode once it completes. The
+	 * encode and decode menus are disabled until then, and the result is
+	 * handled on the event dispatch thread.
+	 *
+	 * @param result - the future of the output image.
+	 * @param message - the message to show on success.
+	 */
+	private void showResult(CompletableFuture<BufferedImage> result, final String message) {
+		encodeMenu.setEnabled(false);
+		decodeMenu.setEnabled(false);
+
+		result.whenCompleteAsync((image, error) -> {
+			encodeMenu.setEnabled(true);
+			decodeMenu.setEnabled(true);
+
+			if (error != null) {
+				Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+
+				if (!(cause instanceof IllegalArgumentException)) {
+					cause.printStackTrace();
+				}
+
+				GuiUtils.showErrorMessage(cause.getMessage());
+				return;
+			}
+
+			outputImage = image;
+			imageOutputPanel.setImage(outputImage);
+
+			GuiUtils.showSuccessMessage(message);
+		}, SwingUtilities::invokeLater);
+	}
+
 	private JButton setupButton(JButton button) {
 		Dimension d = button.getPreferredSize();
 		d.height = 48;
@@ -249,23 +359,27 @@ public class MainView extends JPanel {
 		return button;
 	}
 
-	private BufferedImage handleLoadImage(ImagePanel imagePanel) throws IOException {
-		BufferedImage image = null;
+	private DeferredImage handleLoadImage(ImagePanel imagePanel) throws IOException {
+		DeferredImage image = null;
 		int returnVal = EXPLORER.showOpenDialog(MainView.this);
 
 		if (returnVal == JFileChooser.APPROVE_OPTION) {
 			File file = EXPLORER.getSelectedFile();
 			GuiUtils.showSuccessMessage("Opening: " + file.getName() + "...");
 
-			// Load and draw image.
-			image = ImageUtil.loadImage(file.getAbsolutePath());
+			// Load and draw a preview. The full image is decoded when needed.
+			image = DeferredImage.load(file, PREVIEW_SIZE);
 
 			if (image == null) {
 				GuiUtils.showErrorMessage("Not a valid image file.");
 				throw new IOException();
 			}
 
-			imagePanel.setImage(image);
+			imagePanel.setImage(image.getPreview());
+
+			if (!scaleImage) {
+				image.getImageAsync().thenRunAsync(this::redrawImages, SwingUtilities::invokeLater);
+			}
 
 		} else {
 			GuiUtils.showSuccessMessage("Open command cancelled.");
@@ -423,13 +537,12 @@ public class MainView extends JPanel {
 			}
 
 			PrivateKey key = cipher.getKey(privateKeyLoc);
-			BufferedImage source = ImageUtil.cloneImage(imageSourcePanel.getImage());
-			BufferedImage watermark = ImageUtil.cloneImage(imageWatermarkPanel.getImage());
-
-			outputImage = controller.handleEncode(cipher, key, source, watermark, blockSize);
-			imageOutputPanel.setImage(outputImage);
+			BlockPartitioner partitioner = createPartitioner();
+			CompletableFuture<BufferedImage> watermark = watermarkImage.getImageAsync();
 
-			GuiUtils.showSuccessMessage("Finished encoding image.");
+			showResult(sourceImage.getImageAsync().thenCompose(source -> watermark.thenCompose(mark ->
+					controller.handleEncodeAsync(cipher, key, ImageUtil.cloneImage(source), ImageUtil.cloneImage(mark),
+							blockSize, embedding, partitioner))), "Finished encoding image.");
 		}
 	}
 
@@ -448,13 +561,11 @@ public class MainView extends JPanel {
 			}
 
 			PublicKey key = cipher.getKey(publicKeyLoc);
-			BufferedImage source = ImageUtil.cloneImage(imageSourcePanel.getImage());
-			BufferedImage watermark = ImageUtil.cloneImage(imageWatermarkPanel.getImage());
+			CompletableFuture<BufferedImage> watermark = watermarkImage.getImageAsync();
 
-			outputImage = controller.handleDecode(cipher, key, source, watermark, blockSize);
-			imageOutputPanel.setImage(outputImage);
-
-			GuiUtils.showSuccessMessage("Finished decoding image.");
+			showResult(sourceImage.getImageAsync().thenCompose(source -> watermark.thenCompose(mark ->
+					controller.handleDecodeAsync(cipher, key, ImageUtil.cloneImage(source), ImageUtil.cloneImage(mark), blockSize))),
+					"Finished decoding image.");
 		}
 	}
 
@@ -527,10 +638,19 @@ public class MainView extends JPanel {
 				GuiUtils.showSuccessMessage("Saving: " + file.getName() + "...");
 
 				try {
-					ImageIO.write(outputImage, "png", file);
+					int format = MappedImage.getFormat(file);
+
+					if (format >= 0) {
+						MappedImage.write(outputImage, file, format);
+					} else if (PyramidWriter.isPyramid(file)) {
+						pyramidWriter.write(outputImage, file);
+					} else {
+						pngWriter.write(outputImage, file);
+					}
+
 					GuiUtils.showSuccessMessage("Successfully exported: " + file.getName());
 				} catch (IOException e1) {
-					GuiUtils.showErrorMessage("Could not save: " + file.getName());
+					GuiUtils.showErrorMessage("Could not save: " + file.getName() + "\n" + e1.getMessage());
 				}
 			} else {
 				GuiUtils.showSuccessMessage("Save command cancelled.");
@@ -0,0 +1,183 @@
+package watermark.cli;
+
+import static watermark.test.Assert.assertEquals;
+import static watermark.test.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import javax.imageio.ImageIO;
+
+import watermark.core.io.ArchiveReader;
+import watermark.core.io.ArchiveWriter;
+import watermark.test.Fixtures;
+
+/**
+ * Tests the exit codes of the command line for each outcome, including keys
+ * of the wrong type.
+ *
+ * @author Ryan M. Kane
+ */
+public class CommandLineAppTest {
+	private final KeyPair keyPair = Fixtures.getKeyPair();
+
+	public void testUsage() throws IOException {
+		assertEquals("help", CommandLineApp.EXIT_OK, run("--help"));
+		assertEquals("unknown command", CommandLineApp.EXIT_USAGE, run("sign", "a.png"));
+		assertEquals("unknown option", CommandLineApp.EXIT_USAGE, run("verify", "--fast", "a.png"));
+		assertEquals("no inputs", CommandLineApp.EXIT_USAGE, run("verify"));
+		assertEquals("no output", CommandLineApp.EXIT_USAGE, run("encode", "a.png"));
+		assertEquals("bad block size", CommandLineApp.EXIT_USAGE, run("verify", "-b", "0", "a.png"));
+	}
+
+	public void testKeyTypes() throws IOException {
+		File dir = createDirectory();
+
+		try {
+			File image = writeImage(dir, "image.png", Fixtures.createImage(96, 96, BufferedImage.TYPE_INT_RGB));
+			String privateKey = writeKey(dir, "private.key", keyPair.getPrivate());
+			String publicKey = writeKey(dir, "public.key", keyPair.getPublic());
+			String output = new File(dir, "out").getPath();
+
+			assertEquals("missing key", CommandLineApp.EXIT_USAGE,
+					run("encode", "--private-key", new File(dir, "none.key").getPath(), "-o", output, image.getPath()));
+			assertEquals("encode with a public key", CommandLineApp.EXIT_USAGE,
+					run("encode", "--private-key", publicKey, "-o", output, image.getPath()));
+			assertEquals("verify with a private key", CommandLineApp.EXIT_USAGE,
+					run("verify", "--public-key", privateKey, image.getPath()));
+			assertEquals("decode with a private key", CommandLineApp.EXIT_USAGE,
+					run("decode", "--public-key", privateKey, "-o", output, image.getPath()));
+			assertEquals("verify key of an encode", CommandLineApp.EXIT_USAGE,
+					run("encode", "--private-key", privateKey, "--public-key", privateKey, "--verify", "-o", output, image.getPath()));
+
+			Files.write(new File(dir, "text.key").toPath(), "not a key".getBytes(StandardCharsets.US_ASCII));
+			assertEquals("unreadable key", CommandLineApp.EXIT_ERROR,
+					run("verify", "--public-key", new File(dir, "text.key").getPath(), image.getPath()));
+		} finally {
+			delete(dir);
+		}
+	}
+
+	public void testOutcomes() throws IOException {
+		File dir = createDirectory();
+
+		try {
+			File image = writeImage(dir, "image.png", Fixtures.createImage(96, 96, BufferedImage.TYPE_INT_RGB));
+			String privateKey = writeKey(dir, "private.key", keyPair.getPrivate());
+			String publicKey = writeKey(dir, "public.key", keyPair.getPublic());
+			File output = new File(dir, "out");
+
+			assertEquals("encode", CommandLineApp.EXIT_OK, run("encode", "-q", "--private-key", privateKey, "--public-key", publicKey,
+					"--verify", "-o", output.getPath(), image.getPath()));
+
+			File encoded = new File(output, "image.png");
+			assertTrue("encoded image", encoded.isFile());
+			assertEquals("clean", CommandLineApp.EXIT_OK, run("verify", "-q", "--public-key", publicKey, encoded.getPath()));
+
+			BufferedImage tampered = ImageIO.read(encoded);
+			Fixtures.flipSample(tampered, 40, 40, 2, 1);
+			ImageIO.write(tampered, "png", encoded);
+			assertEquals("tampered", CommandLineApp.EXIT_TAMPERED, run("verify", "-q", "--public-key", publicKey, encoded.getPath()));
+
+			assertEquals("missing input", CommandLineApp.EXIT_ERROR,
+					run("verify", "-q", "--public-key", publicKey, new File(dir, "none.png").getPath()));
+		} finally {
+			delete(dir);
+		}
+	}
+
+	public void testOutputNamesAreUnique() throws IOException {
+		File dir = createDirectory();
+
+		try {
+			File images = new File(dir, "images");
+			images.mkdirs();
+
+			BufferedImage img = Fixtures.createImage(96, 96, BufferedImage.TYPE_INT_RGB);
+			ByteArrayOutputStream png = new ByteArrayOutputStream();
+			ByteArrayOutputStream bmp = new ByteArrayOutputStream();
+			ImageIO.write(img, "png", png);
+			ImageIO.write(img, "bmp", bmp);
+
+			Files.write(new File(images, "a.bmp").toPath(), bmp.toByteArray());
+			Files.write(new File(images, "a.png").toPath(), png.toByteArray());
+
+			File archive = new File(dir, "images.zip");
+
+			try (ArchiveWriter writer = ArchiveWriter.create(archive)) {
+				writer.write("a.bmp", bmp.toByteArray());
+				writer.write("a.png", png.toByteArray());
+				writer.write("a-2.bmp", bmp.toByteArray());
+			}
+
+			File output = new File(dir, "out");
+			String privateKey = writeKey(dir, "private.key", keyPair.getPrivate());
+
+			assertEquals("encode", CommandLineApp.EXIT_OK,
+					run("encode", "-q", "--private-key", privateKey, "-o", output.getPath(), images.getPath(), archive.getPath()));
+			assertEquals("files", new TreeSet<String>(Arrays.asList("a.png", "a-2.png", "images.zip")),
+					new TreeSet<String>(Arrays.asList(output.list())));
+
+			List<String> entries = new ArrayList<String>();
+
+			try (ArchiveReader reader = ArchiveReader.open(new File(output, "images.zip"))) {
+				while (reader.next()) {
+					entries.add(reader.getName());
+				}
+			}
+
+			assertEquals("entries", Arrays.asList("a.png", "a-2.png", "a-2-2.png"), entries);
+		} finally {
+			delete(dir);
+		}
+	}
+
+	private static int run(String... args) {
+		PrintStream sink = new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8);
+		return new CommandLineApp(sink, sink).run(args);
+	}
+
+	private static File createDirectory() throws IOException {
+		return Files.createTempDirectory("cli").toFile();
+	}
+
+	private static File writeImage(File dir, String name, BufferedImage img) throws IOException {
+		File file = new File(dir, name);
+		ImageIO.write(img, "png", file);
+		return file;
+	}
+
+	private static String writeKey(File dir, String name, Object key) throws IOException {
+		File file = new File(dir, name);
+
+		try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file))) {
+			out.writeObject(key);
+		}
+
+		return file.getPath();
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+
+		file.delete();
+	}
+}
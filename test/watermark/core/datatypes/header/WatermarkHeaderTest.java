@@ -0,0 +1,92 @@
+package watermark.core.datatypes.header;
+
+import static watermark.test.Assert.assertEquals;
+import static watermark.test.Assert.assertFalse;
+import static watermark.test.Assert.assertNotNull;
+import static watermark.test.Assert.assertNull;
+import static watermark.test.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import watermark.core.util.ImageUtil;
+import watermark.test.Fixtures;
+
+/**
+ * Tests the serialized header and the size of the strip which holds it.
+ *
+ * @author Ryan M. Kane
+ */
+public class WatermarkHeaderTest {
+	public void testRoundTrip() {
+		WatermarkHeader header = new WatermarkHeader(WatermarkHeader.FLAG_ADAPTIVE_PARTITION | 3, 24, 128, "RSA", 0x12345678);
+		WatermarkHeader parsed = WatermarkHeader.fromBytes(header.toBytes());
+
+		assertNotNull("parsed header", parsed);
+		assertEquals("version", WatermarkHeader.VERSION, parsed.getVersion());
+		assertEquals("flags", header.getFlags(), parsed.getFlags());
+		assertEquals("block size", 24, parsed.getBlockSize());
+		assertEquals("payload length", 128, parsed.getPayloadLength());
+		assertEquals("algorithm", "RSA", parsed.getAlgorithm());
+		assertEquals("key id", 0x12345678, parsed.getKeyId());
+		assertTrue("strip signed", parsed.isStripSigned());
+	}
+
+	public void testImageRoundTrip() {
+		BufferedImage img = Fixtures.createImage(200, 150, BufferedImage.TYPE_INT_ARGB);
+		WatermarkHeader header = new WatermarkHeader(32, 128, "RSA", 7);
+
+		header.write(img);
+		WatermarkHeader read = WatermarkHeader.read(img);
+
+		assertNotNull("read header", read);
+		assertEquals("block size", 32, read.getBlockSize());
+		assertEquals("key id", 7, read.getKeyId());
+	}
+
+	public void testDamagedHeaderIsRejected() {
+		byte[] data = new WatermarkHeader(32, 128, "RSA", 7).toBytes();
+
+		for (int bit = 0; bit < WatermarkHeader.BITS; bit++) {
+			byte[] damaged = data.clone();
+			damaged[bit / 8] ^= 1 << (bit % 8);
+			assertNull("header with bit " + bit + " flipped", WatermarkHeader.fromBytes(damaged));
+		}
+	}
+
+	public void testNewerVersionIsRejected() {
+		assertNull("version 3 header", WatermarkHeader.fromBytes(withVersion(new WatermarkHeader(32, 128, "RSA", 7), 3)));
+	}
+
+	public void testVersion1IsNotSigned() {
+		WatermarkHeader header = WatermarkHeader.fromBytes(withVersion(new WatermarkHeader(32, 128, "RSA", 7), 1));
+
+		assertNotNull("version 1 header", header);
+		assertFalse("strip signed", header.isStripSigned());
+		assertEquals("strip rows", WatermarkHeader.getHeaderRows(200, 150), header.getStripHeight(200, 150));
+	}
+
+	public void testStripHoldsHeaderAndSignature() {
+		WatermarkHeader header = new WatermarkHeader(32, 128, "RSA", 7);
+
+		assertEquals("header rows", 1, WatermarkHeader.getHeaderRows(200, 150));
+		assertEquals("strip rows", ImageUtil.getStripRows(200, WatermarkHeader.BITS + 128 * 8), header.getStripHeight(200, 150));
+		assertEquals("strip rows of a short image", 0, header.getStripHeight(200, 6));
+		assertEquals("strip rows of an empty image", 0, WatermarkHeader.getStripHeight(0, 150, 128));
+	}
+
+	/**
+	 * Serializes a header with another version and a valid checksum.
+	 */
+	static byte[] withVersion(WatermarkHeader header, int version) {
+		byte[] data = header.toBytes();
+		data[2] = (byte) version;
+
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, WatermarkHeader.SIZE - 4);
+		ByteBuffer.wrap(data).putInt(WatermarkHeader.SIZE - 4, (int) crc.getValue());
+
+		return data;
+	}
+}
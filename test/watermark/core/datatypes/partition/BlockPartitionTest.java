@@ -0,0 +1,54 @@
+package watermark.core.datatypes.partition;
+
+import static watermark.test.Assert.assertEquals;
+import static watermark.test.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+import watermark.core.partition.GridPartitioner;
+
+/**
+ * Tests that a computed grid has the blocks, and so the layout hash recorded
+ * in indexes and tamper maps, of the same grid held as a list.
+ *
+ * @author Ryan M. Kane
+ */
+public class BlockPartitionTest {
+	public void testGridMatchesList() {
+		int[][] shapes = { { 301, 203, 3, 64 }, { 640, 480, 1, 32 }, { 31, 100, 0, 32 }, { 100, 20, 8, 16 } };
+
+		for (int[] shape : shapes) {
+			int width = shape[0];
+			int height = shape[1];
+			int top = shape[2];
+			int blockSize = shape[3];
+			List<Rectangle> blocks = new ArrayList<Rectangle>();
+
+			for (int y = top; y + blockSize <= height; y += blockSize) {
+				for (int x = 0; x + blockSize <= width; x += blockSize) {
+					blocks.add(new Rectangle(x, y, blockSize, blockSize));
+				}
+			}
+
+			BlockPartition list = new BlockPartition(blocks);
+			BlockPartition grid = GridPartitioner.partition(width, height, top, blockSize);
+
+			assertTrue("grid", grid.isGrid());
+			assertEquals("block count", list.getBlockCount(), grid.getBlockCount());
+			assertEquals("blocks", list.getBlocks(), new ArrayList<Rectangle>(grid.getBlocks()));
+			assertEquals("layout", list.getLayoutHash(), grid.getLayoutHash());
+
+			for (int i = 0; i < blocks.size(); i++) {
+				Rectangle r = blocks.get(i);
+
+				assertEquals("top left of " + r, i, grid.indexOf(r.x, r.y));
+				assertEquals("bottom right of " + r, i, grid.indexOf(r.x + r.width - 1, r.y + r.height - 1));
+			}
+
+			assertEquals("above the grid", -1, grid.indexOf(0, top - 1));
+			assertEquals("right of the grid", -1, grid.indexOf(width / blockSize * blockSize, top));
+		}
+	}
+}
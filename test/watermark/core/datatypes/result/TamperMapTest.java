@@ -0,0 +1,121 @@
+package watermark.core.datatypes.result;
+
+import static watermark.test.Assert.assertEquals;
+import static watermark.test.Assert.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Tests that maps survive both encodings, that version 1 maps still read, and
+ * that corrupt maps are rejected rather than allocated by their stated size.
+ *
+ * @author Ryan M. Kane
+ */
+public class TamperMapTest {
+	private final Random random = new Random(39);
+
+	public void testBitsetRoundTrip() throws IOException {
+		BitSet tampered = new BitSet();
+
+		// Every other block defeats the runs.
+		for (int i = 0; i < 1000; i += 2) {
+			tampered.set(i);
+		}
+
+		checkRoundTrip(new TamperMap(640, 480, 1000, 77, TamperReport.STRIP_VERIFIED, tampered), TamperMap.ENCODING_BITSET);
+	}
+
+	public void testRunsRoundTrip() throws IOException {
+		BitSet tampered = new BitSet();
+		tampered.set(100, 180);
+		tampered.set(999);
+
+		checkRoundTrip(new TamperMap(640, 480, 1000, -5, TamperReport.STRIP_TAMPERED, tampered), TamperMap.ENCODING_RUNS);
+		checkRoundTrip(new TamperMap(640, 480, 1000, 0, TamperReport.STRIP_UNSIGNED, new BitSet()), TamperMap.ENCODING_RUNS);
+	}
+
+	public void testRandomRoundTrips() throws IOException {
+		for (int trial = 0; trial < 200; trial++) {
+			int blockCount = random.nextInt(3000);
+			BitSet tampered = new BitSet();
+			int density = random.nextInt(100);
+
+			for (int i = 0; i < blockCount; i++) {
+				if (random.nextInt(100) < density) {
+					tampered.set(i);
+				}
+			}
+
+			TamperMap map = new TamperMap(blockCount, 1, blockCount, random.nextInt(), random.nextInt(4), tampered);
+			checkRoundTrip(map, map.toByteArray()[6]);
+		}
+	}
+
+	public void testVersion1ReadsWithoutStrip() throws IOException {
+		BitSet tampered = new BitSet();
+		tampered.set(3);
+
+		byte[] current = new TamperMap(64, 64, 16, 9, TamperReport.STRIP_TAMPERED, tampered).toByteArray();
+		byte[] old = new byte[current.length - 1];
+
+		// Drop the strip status byte, the last byte of the header.
+		System.arraycopy(current, 0, old, 0, TamperMap.HEADER_SIZE - 1);
+		System.arraycopy(current, TamperMap.HEADER_SIZE, old, TamperMap.HEADER_SIZE - 1, current.length - TamperMap.HEADER_SIZE);
+		ByteBuffer.wrap(old).putShort(4, (short) 1);
+
+		TamperMap map = TamperMap.fromByteArray(old);
+
+		assertEquals("strip", TamperReport.STRIP_NONE, map.getStripStatus());
+		assertEquals("blocks", 16, map.getBlockCount());
+		assertEquals("tampered", tampered, map.getTampered());
+	}
+
+	public void testCorruptMapsRejected() throws IOException {
+		byte[] valid = new TamperMap(100, 100, 20, 1, TamperReport.STRIP_NONE, new BitSet()).toByteArray();
+
+		checkRejected("magic", header(valid, 0, 0x12345678));
+		checkRejected("version", ByteBuffer.wrap(valid.clone()).putShort(4, (short) (TamperMap.VERSION + 1)).array());
+		checkRejected("encoding", ByteBuffer.wrap(valid.clone()).put(6, (byte) 2).array());
+		checkRejected("negative width", header(valid, 7, -1));
+		checkRejected("negative count", header(valid, 15, -1));
+		checkRejected("count beyond pixels", header(valid, 15, 100 * 100 + 1));
+		checkRejected("strip", ByteBuffer.wrap(valid.clone()).put(TamperMap.HEADER_SIZE - 1, (byte) 4).array());
+		checkRejected("truncated header", Arrays.copyOf(valid, TamperMap.HEADER_SIZE - 1));
+		checkRejected("truncated runs", Arrays.copyOf(valid, TamperMap.HEADER_SIZE));
+
+		// A huge count in a short stream fails on the missing bytes.
+		byte[] huge = header(valid, 7, 100000);
+		ByteBuffer.wrap(huge).putInt(11, 100000).putInt(15, Integer.MAX_VALUE).put(6, TamperMap.ENCODING_BITSET);
+		checkRejected("huge bitset", huge);
+
+		byte[] run = ByteBuffer.wrap(valid.clone()).put(TamperMap.HEADER_SIZE, (byte) 21).array();
+		checkRejected("run past the blocks", run);
+	}
+
+	private static void checkRoundTrip(TamperMap map, byte encoding) throws IOException {
+		byte[] bytes = map.toByteArray();
+
+		assertEquals("encoding", encoding, bytes[6]);
+
+		TamperMap read = TamperMap.fromByteArray(bytes);
+
+		assertEquals("width", map.getWidth(), read.getWidth());
+		assertEquals("height", map.getHeight(), read.getHeight());
+		assertEquals("blocks", map.getBlockCount(), read.getBlockCount());
+		assertEquals("layout", map.getLayout(), read.getLayout());
+		assertEquals("strip", map.getStripStatus(), read.getStripStatus());
+		assertEquals("tampered", map.getTampered(), read.getTampered());
+	}
+
+	private static void checkRejected(String name, byte[] bytes) {
+		assertThrows(name, IOException.class, () -> TamperMap.fromByteArray(bytes));
+	}
+
+	private static byte[] header(byte[] bytes, int offset, int value) {
+		return ByteBuffer.wrap(bytes.clone()).putInt(offset, value).array();
+	}
+}
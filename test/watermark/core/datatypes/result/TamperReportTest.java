@@ -0,0 +1,182 @@
+package watermark.core.datatypes.result;
+
+import static watermark.test.Assert.assertEquals;
+
+import java.awt.Rectangle;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+import watermark.core.datatypes.partition.BlockPartition;
+import watermark.core.partition.GridPartitioner;
+
+/**
+ * Tests the regions of a report against a brute-force search for the
+ * connected components of the tampered blocks, on grids and on random
+ * quadtrees.
+ *
+ * @author Ryan M. Kane
+ */
+public class TamperReportTest {
+	private static final int TRIALS = 100;
+
+	private final Random random = new Random(38);
+
+	public void testGridRegions() {
+		for (int trial = 0; trial < TRIALS; trial++) {
+			int width = 1 + random.nextInt(300);
+			int height = 1 + random.nextInt(300);
+			int top = random.nextInt(Math.min(height, 8));
+			int blockSize = 3 + random.nextInt(46);
+
+			check(GridPartitioner.partition(width, height, top, blockSize), width, height);
+		}
+	}
+
+	public void testQuadtreeRegions() {
+		for (int trial = 0; trial < TRIALS; trial++) {
+			int width = 16 + random.nextInt(300);
+			int height = 16 + random.nextInt(300);
+			int top = random.nextInt(8);
+			int blockSize = 8 << random.nextInt(3);
+			List<Rectangle> blocks = new ArrayList<Rectangle>();
+
+			for (int y = top; y < height; y += blockSize) {
+				for (int x = 0; x < width; x += blockSize) {
+					split(new Rectangle(x, y, Math.min(blockSize, width - x), Math.min(blockSize, height - y)), blocks);
+				}
+			}
+
+			check(new BlockPartition(blocks), width, height);
+		}
+	}
+
+	public void testSingleTamperedBlock() {
+		BlockPartition partition = GridPartitioner.partition(200, 100, 4, 32);
+		TamperReport report = new TamperReport(partition, 200, 100);
+
+		report.addTampered(5);
+		report.addTampered(5);
+
+		assertEquals("tampered blocks", 1, report.getTamperedCount());
+		assertEquals("regions", 1, report.getRegions().size());
+		assertEquals("bounds", partition.getBlock(5), report.getRegions().get(0).getBounds());
+
+		report.setStrip(TamperReport.STRIP_TAMPERED, 2);
+		assertEquals("map strip", TamperReport.STRIP_TAMPERED, report.getTamperMap().getStripStatus());
+	}
+
+	/**
+	 * Splits a block into quarters at random, down to blocks of 2x2 pixels.
+	 */
+	private void split(Rectangle r, List<Rectangle> blocks) {
+		if (r.width < 4 || r.height < 4 || random.nextInt(3) == 0) {
+			blocks.add(r);
+			return;
+		}
+
+		int halfWidth = r.width / 2;
+		int halfHeight = r.height / 2;
+
+		split(new Rectangle(r.x, r.y, halfWidth, halfHeight), blocks);
+		split(new Rectangle(r.x + halfWidth, r.y, r.width - halfWidth, halfHeight), blocks);
+		split(new Rectangle(r.x, r.y + halfHeight, halfWidth, r.height - halfHeight), blocks);
+		split(new Rectangle(r.x + halfWidth, r.y + halfHeight, r.width - halfWidth, r.height - halfHeight), blocks);
+	}
+
+	/**
+	 * Tampers a random set of blocks, added in a random order, and compares
+	 * the regions of the report with a search of every pair of blocks.
+	 */
+	private void check(BlockPartition partition, int width, int height) {
+		int count = partition.getBlockCount();
+		boolean[] tampered = new boolean[count];
+		List<Integer> added = new ArrayList<Integer>();
+		int density = 1 + random.nextInt(4);
+
+		for (int i = 0; i < count; i++) {
+			if (random.nextInt(5) < density) {
+				tampered[i] = true;
+				added.add(i);
+			}
+		}
+
+		Collections.shuffle(added, random);
+
+		TamperReport report = new TamperReport(partition, width, height);
+
+		for (int index : added) {
+			report.addTampered(index);
+		}
+
+		List<String> expected = findRegions(partition, tampered);
+		List<String> actual = new ArrayList<String>();
+
+		for (TamperRegion region : report.getRegions()) {
+			actual.add(describe(region.getBounds(), region.getBlockCount()));
+		}
+
+		Collections.sort(actual);
+
+		assertEquals("tampered blocks", added.size(), report.getTamperedCount());
+		assertEquals("regions of " + count + " blocks", expected, actual);
+		assertEquals("tamper map", added.size(), report.getTamperMap().getTamperedCount());
+	}
+
+	private static List<String> findRegions(BlockPartition partition, boolean[] tampered) {
+		int count = partition.getBlockCount();
+		boolean[] visited = new boolean[count];
+		List<String> regions = new ArrayList<String>();
+
+		for (int start = 0; start < count; start++) {
+			if (!tampered[start] || visited[start]) {
+				continue;
+			}
+
+			Deque<Integer> queue = new ArrayDeque<Integer>();
+			Rectangle bounds = new Rectangle(partition.getBlock(start));
+			int blocks = 0;
+
+			visited[start] = true;
+			queue.add(start);
+
+			while (!queue.isEmpty()) {
+				int index = queue.removeFirst();
+				bounds.add(partition.getBlock(index));
+				blocks++;
+
+				for (int other = 0; other < count; other++) {
+					if (tampered[other] && !visited[other] && isAdjacent(partition.getBlock(index), partition.getBlock(other))) {
+						visited[other] = true;
+						queue.add(other);
+					}
+				}
+			}
+
+			regions.add(describe(bounds, blocks));
+		}
+
+		Collections.sort(regions);
+
+		return regions;
+	}
+
+	/**
+	 * Determines if two blocks share a length of edge, rather than a corner.
+	 */
+	private static boolean isAdjacent(Rectangle a, Rectangle b) {
+		boolean overlapX = a.x < b.x + b.width && b.x < a.x + a.width;
+		boolean overlapY = a.y < b.y + b.height && b.y < a.y + a.height;
+		boolean touchX = a.x + a.width == b.x || b.x + b.width == a.x;
+		boolean touchY = a.y + a.height == b.y || b.y + b.height == a.y;
+
+		return (touchX && overlapY) || (touchY && overlapX);
+	}
+
+	private static String describe(Rectangle bounds, int blocks) {
+		return String.format("%d,%d %dx%d (%d blocks)", bounds.x, bounds.y, bounds.width, bounds.height, blocks);
+	}
+}
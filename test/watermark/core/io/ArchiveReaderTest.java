@@ -0,0 +1,170 @@
+package watermark.core.io;
+
+import static watermark.test.Assert.assertArrayEquals;
+import static watermark.test.Assert.assertEquals;
+import static watermark.test.Assert.assertFalse;
+import static watermark.test.Assert.assertThrows;
+import static watermark.test.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Tests reading archives written by {@link ArchiveWriter}, and that corrupt
+ * TAR headers are rejected rather than read with a bogus size.
+ *
+ * @author Ryan M. Kane
+ */
+public class ArchiveReaderTest {
+	private static final String LONG_NAME = "images/" + "a".repeat(120) + ".png";
+
+	public void testTarRoundTrip() throws IOException {
+		checkRoundTrip(ArchiveWriter.FORMAT_TAR, ArchiveReader.FORMAT_TAR);
+	}
+
+	public void testTarGzRoundTrip() throws IOException {
+		checkRoundTrip(ArchiveWriter.FORMAT_TAR_GZ, ArchiveReader.FORMAT_TAR);
+	}
+
+	public void testZipRoundTrip() throws IOException {
+		checkRoundTrip(ArchiveWriter.FORMAT_ZIP, ArchiveReader.FORMAT_ZIP);
+	}
+
+	public void testBase256Size() throws IOException {
+		byte[] data = "base-256".getBytes(StandardCharsets.US_ASCII);
+		byte[] size = new byte[12];
+
+		size[0] = (byte) 0x80;
+		size[11] = (byte) data.length;
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(createHeader("big.bin", '0', size));
+		out.write(data);
+		out.write(new byte[512 - data.length + 1024]);
+
+		try (ArchiveReader reader = ArchiveReader.open(new ByteArrayInputStream(out.toByteArray()))) {
+			assertTrue("entry", reader.next());
+			assertEquals("size", data.length, reader.getSize());
+			assertArrayEquals("content", data, reader.getStream().readAllBytes());
+			assertFalse("end", reader.next());
+		}
+	}
+
+	public void testNegativeSizeRejected() throws IOException {
+		byte[] size = new byte[12];
+
+		for (int i = 0; i < size.length; i++) {
+			size[i] = (byte) 0xFF;
+		}
+
+		checkRejected(createHeader("negative.bin", '0', size));
+	}
+
+	public void testInvalidSizeRejected() throws IOException {
+		checkRejected(createHeader("invalid.bin", '0', "0000000009z\0".getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	public void testHugeLongNameRejected() throws IOException {
+		checkRejected(createHeader("././@LongLink", 'L', "77777777777\0".getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	public void testIsArchive() throws IOException {
+		File archive = File.createTempFile("archive", ".tar");
+		File text = File.createTempFile("archive", ".txt");
+
+		try {
+			Files.write(archive.toPath(), writeArchive(ArchiveWriter.FORMAT_TAR));
+			Files.write(text.toPath(), "not an archive".getBytes(StandardCharsets.US_ASCII));
+
+			assertTrue("tar", ArchiveReader.isArchive(archive));
+			assertFalse("text", ArchiveReader.isArchive(text));
+			assertFalse("directory", ArchiveReader.isArchive(archive.getParentFile()));
+		} finally {
+			archive.delete();
+			text.delete();
+		}
+	}
+
+	private void checkRoundTrip(int writeFormat, int readFormat) throws IOException {
+		try (ArchiveReader reader = ArchiveReader.open(new ByteArrayInputStream(writeArchive(writeFormat)))) {
+			assertEquals("format", readFormat, reader.getFormat());
+
+			assertTrue("first entry", reader.next());
+			assertEquals("short name", "a.txt", reader.getName());
+			assertArrayEquals("first content", content(1000), reader.getStream().readAllBytes());
+			assertEquals("skip past the end", 0, reader.getStream().skip(100));
+			assertEquals("available at the end", 0, reader.getStream().available());
+
+			// The second entry is skipped unread.
+			assertTrue("second entry", reader.next());
+			assertEquals("long name", LONG_NAME, reader.getName());
+
+			assertTrue("third entry", reader.next());
+			assertEquals("empty name", "empty", reader.getName());
+			assertEquals("empty content", 0, reader.getStream().readAllBytes().length);
+
+			assertFalse("end", reader.next());
+		}
+	}
+
+	private static byte[] writeArchive(int format) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		try (ArchiveWriter writer = ArchiveWriter.create(out, format)) {
+			writer.write("a.txt", content(1000));
+			writer.write(LONG_NAME, content(513));
+			writer.write("empty", new byte[0]);
+		}
+
+		return out.toByteArray();
+	}
+
+	private static void checkRejected(byte[] header) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(header);
+		out.write(new byte[4096]);
+
+		try (ArchiveReader reader = ArchiveReader.open(new ByteArrayInputStream(out.toByteArray()))) {
+			assertThrows("corrupt size", IOException.class, () -> reader.next());
+		}
+	}
+
+	/**
+	 * Creates a ustar header with a raw size field and a valid checksum.
+	 */
+	private static byte[] createHeader(String name, char type, byte[] size) {
+		byte[] header = new byte[512];
+		byte[] path = name.getBytes(StandardCharsets.UTF_8);
+
+		System.arraycopy(path, 0, header, 0, path.length);
+		System.arraycopy("0000644\0".getBytes(StandardCharsets.US_ASCII), 0, header, 100, 8);
+		System.arraycopy(size, 0, header, 124, 12);
+		header[156] = (byte) type;
+		System.arraycopy("ustar\00000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+
+		long sum = 0;
+
+		for (int i = 0; i < header.length; i++) {
+			sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xFF;
+		}
+
+		byte[] checksum = String.format("%06o\0 ", sum).getBytes(StandardCharsets.US_ASCII);
+		System.arraycopy(checksum, 0, header, 148, 8);
+
+		return header;
+	}
+
+	private static byte[] content(int length) {
+		byte[] data = new byte[length];
+
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) (i * 31 + 7);
+		}
+
+		return data;
+	}
+}
@@ -0,0 +1,124 @@
+package watermark.core.io;
+
+import static watermark.test.Assert.assertEquals;
+import static watermark.test.Assert.assertFalse;
+import static watermark.test.Assert.assertThrows;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import watermark.test.Fixtures;
+
+/**
+ * Tests that mapped files keep every sample they are given, and that corrupt
+ * headers are rejected rather than read with a bogus layout.
+ *
+ * @author Ryan M. Kane
+ */
+public class MappedImageTest {
+	public void testRoundTrips() throws IOException {
+		BufferedImage rgb = Fixtures.createImage(37, 11, BufferedImage.TYPE_INT_RGB);
+		BufferedImage argb = createTranslucentImage(37, 11);
+
+		checkRoundTrip(rgb, ".ppm");
+		checkRoundTrip(rgb, ".pam");
+		checkRoundTrip(argb, ".pam");
+		checkRoundTrip(argb, ".argb");
+	}
+
+	public void testPpmRejectsAlpha() throws IOException {
+		File file = File.createTempFile("mapped", ".ppm");
+
+		try {
+			BufferedImage argb = createTranslucentImage(8, 8);
+			assertThrows("alpha", IOException.class, () -> MappedImage.write(argb, file, MappedImage.FORMAT_PPM));
+		} finally {
+			file.delete();
+		}
+	}
+
+	public void testCorruptHeadersRejected() {
+		String[] headers = {
+				"P6\nabc 10\n255\n",
+				"P6\n10 -1\n255\n",
+				"P6\n10 99999999999\n255\n",
+				"P6\n1000000000 1\n255\n",
+				"P6\n10 10\n65535\n",
+				"P7\nWIDTH 1073741824\nHEIGHT 1\nDEPTH 4\nMAXVAL 255\nENDHDR\n",
+				"P7\nWIDTH 10\nHEIGHT 10\nDEPTH x\nMAXVAL 255\nENDHDR\n",
+				"P7\nWIDTH 10\nHEIGHT 10\nDEPTH 5\nMAXVAL 255\nENDHDR\n",
+				"P7\nWIDTH 10\nHEIGHT 10\nCOLOR 1\nENDHDR\n",
+				"P6\n10 10",
+				"BM" };
+
+		for (String header : headers) {
+			byte[] data = header.getBytes(StandardCharsets.US_ASCII);
+
+			checkRejected(header, data);
+		}
+
+		checkRejected("raw data offset 0", createRawHeader(10, 10, 64, 0));
+		checkRejected("raw data offset -1", createRawHeader(10, 10, 64, -1));
+		checkRejected("raw data offset in header", createRawHeader(10, 10, 64, 20));
+		checkRejected("raw stride", createRawHeader(10, 10, 36, 64));
+		checkRejected("raw negative stride", createRawHeader(10, 10, -64, 64));
+	}
+
+	private static void checkRoundTrip(BufferedImage img, String extension) throws IOException {
+		File file = File.createTempFile("mapped", extension);
+
+		try {
+			MappedImage.write(img, file, MappedImage.getFormat(file));
+			BufferedImage read = MappedImage.open(file, false);
+
+			assertEquals(extension + " width", img.getWidth(), read.getWidth());
+			assertEquals(extension + " height", img.getHeight(), read.getHeight());
+
+			for (int y = 0; y < img.getHeight(); y++) {
+				for (int x = 0; x < img.getWidth(); x++) {
+					assertEquals(extension + " pixel " + x + "," + y, img.getRGB(x, y), read.getRGB(x, y));
+				}
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static void checkRejected(String name, byte[] data) {
+		byte[] padded = new byte[data.length + 4096];
+		System.arraycopy(data, 0, padded, 0, data.length);
+
+		assertThrows(name + " layout", IOException.class, () -> MappedImage.readLayout(ByteBuffer.wrap(data)));
+		assertThrows(name + " stream", IOException.class, () -> new StreamPixelSource(new ByteArrayInputStream(padded)));
+	}
+
+	private static byte[] createRawHeader(int width, int height, int stride, int dataOffset) {
+		ByteBuffer header = ByteBuffer.allocate(64);
+		header.putInt(MappedImage.RAW_MAGIC);
+		header.putShort(MappedImage.RAW_VERSION);
+		header.putShort((short) 0);
+		header.putInt(width);
+		header.putInt(height);
+		header.putInt(stride);
+		header.putInt(dataOffset);
+		return header.array();
+	}
+
+	private static BufferedImage createTranslucentImage(int width, int height) {
+		BufferedImage img = Fixtures.createImage(width, height, BufferedImage.TYPE_INT_ARGB);
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				img.setRGB(x, y, (img.getRGB(x, y) & 0xFFFFFF) | ((x * 7 + y * 13) & 0xFF) << 24);
+			}
+		}
+
+		assertFalse("translucent", img.getRGB(1, 0) >>> 24 == 0xFF);
+
+		return img;
+	}
+}
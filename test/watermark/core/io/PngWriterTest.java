@@ -0,0 +1,196 @@
+package watermark.core.io;
+
+import static watermark.test.Assert.assertEquals;
+import static watermark.test.Assert.assertTrue;
+import static watermark.test.Assert.fail;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Adler32;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Tests that images written in parallel chunks decode with ImageIO to the
+ * exact samples they were written from, for every compression level, filter
+ * and supported image type, and that the checksums of the chunks join into
+ * the checksum of the whole stream.
+ *
+ * @author Ryan M. Kane
+ */
+public class PngWriterTest {
+	private static final int[] LEVELS = { 0, 1, 4, 6, 9 };
+	private static final int[] CHUNK_SIZES = { 1, 5000, PngWriter.DEFAULT_CHUNK_SIZE };
+	private static final int[] TYPES = { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_BGR,
+			BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_BYTE_GRAY,
+			BufferedImage.TYPE_USHORT_GRAY };
+
+	private final Random random = new Random(42);
+
+	public void testSmallImages() throws IOException {
+		for (BufferedImage img : createImages(67, 41)) {
+			for (int level : LEVELS) {
+				for (int filter = PngWriter.FILTER_NONE; filter <= PngWriter.FILTER_ADAPTIVE; filter++) {
+					for (int chunkSize : CHUNK_SIZES) {
+						checkRoundTrip(img, level, filter, chunkSize);
+					}
+				}
+			}
+		}
+	}
+
+	public void testLargeImages() throws IOException {
+		// Every image spans several chunks of the default size.
+		for (BufferedImage img : createImages(701, 383)) {
+			checkRoundTrip(img, PngWriter.DEFAULT_COMPRESSION_LEVEL, PngWriter.FILTER_ADAPTIVE, PngWriter.DEFAULT_CHUNK_SIZE);
+			checkRoundTrip(img, 1, PngWriter.FILTER_PAETH, PngWriter.DEFAULT_CHUNK_SIZE);
+		}
+	}
+
+	public void testCombineAdler() {
+		int[] lengths = { 0, 1, 100, 65520, 65521, 65522, 200000 };
+
+		for (int first : lengths) {
+			for (int second : lengths) {
+				byte[] a = new byte[first];
+				byte[] b = new byte[second];
+
+				random.nextBytes(a);
+				random.nextBytes(b);
+
+				// Long runs of 0xFF push the sums towards their modulus.
+				if (second > 100) {
+					Arrays.fill(b, 0, second / 2, (byte) 0xFF);
+				}
+
+				Adler32 whole = new Adler32();
+				whole.update(a);
+				whole.update(b);
+
+				long combined = PngWriter.combineAdler(adler(a), adler(b), b.length);
+
+				assertEquals(first + " then " + second + " bytes", whole.getValue(), combined);
+			}
+		}
+	}
+
+	private void checkRoundTrip(BufferedImage img, int level, int filter, int chunkSize) throws IOException {
+		PngWriter writer = new PngWriter();
+		writer.setCompressionLevel(level);
+		writer.setFilter(filter);
+		writer.setChunkSize(chunkSize);
+
+		String name = describe(img) + " at level " + level + " with " + PngWriter.getFilterName(filter) + " filter and "
+				+ chunkSize + " byte chunks";
+
+		assertTrue(name + " is written natively", writer.canWrite(img));
+
+		byte[] png = writer.toByteArray(img);
+		BufferedImage read = ImageIO.read(new ByteArrayInputStream(png));
+		Raster expected = img.getRaster();
+		Raster actual = read.getRaster();
+
+		if (chunkSize == 1 || img.getWidth() > 100) {
+			assertTrue(name + " spans chunks", countChunks(png, "IDAT") > 1);
+		}
+
+		assertEquals(name + " width", img.getWidth(), read.getWidth());
+		assertEquals(name + " height", img.getHeight(), read.getHeight());
+		assertEquals(name + " bands", expected.getNumBands(), actual.getNumBands());
+
+		for (int b = 0; b < expected.getNumBands(); b++) {
+			assertEquals(name + " sample size", expected.getSampleModel().getSampleSize(b), actual.getSampleModel().getSampleSize(b));
+		}
+
+		for (int y = 0; y < img.getHeight(); y++) {
+			for (int x = 0; x < img.getWidth(); x++) {
+				for (int b = 0; b < expected.getNumBands(); b++) {
+					if (expected.getSample(x, y, b) != actual.getSample(x, y, b)) {
+						fail(name + ": band " + b + " at " + x + "," + y + " is " + actual.getSample(x, y, b) + ", expected "
+								+ expected.getSample(x, y, b));
+					}
+				}
+			}
+		}
+	}
+
+	private BufferedImage[] createImages(int width, int height) {
+		BufferedImage[] images = new BufferedImage[TYPES.length + 2];
+
+		for (int i = 0; i < TYPES.length; i++) {
+			images[i] = new BufferedImage(width, height, TYPES[i]);
+		}
+
+		images[TYPES.length] = createUShortImage(width, height, false);
+		images[TYPES.length + 1] = createUShortImage(width, height, true);
+
+		for (BufferedImage img : images) {
+			fillRandom(img.getRaster());
+		}
+
+		return images;
+	}
+
+	private static BufferedImage createUShortImage(int width, int height, boolean alpha) {
+		ColorModel cm = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), alpha, false,
+				alpha ? Transparency.TRANSLUCENT : Transparency.OPAQUE, DataBuffer.TYPE_USHORT);
+
+		return new BufferedImage(cm, cm.createCompatibleWritableRaster(width, height), false, null);
+	}
+
+	/**
+	 * Fills every band with random samples, in smooth runs as well as noise
+	 * so that each filter is chosen somewhere by the adaptive filter.
+	 */
+	private void fillRandom(WritableRaster raster) {
+		for (int b = 0; b < raster.getNumBands(); b++) {
+			int max = (1 << raster.getSampleModel().getSampleSize(b)) - 1;
+
+			for (int y = 0; y < raster.getHeight(); y++) {
+				boolean smooth = random.nextBoolean();
+
+				for (int x = 0; x < raster.getWidth(); x++) {
+					int sample = smooth ? (x * 3 + y * 5) & max : random.nextInt(max + 1);
+					raster.setSample(x, y, b, sample);
+				}
+			}
+		}
+	}
+
+	private static long adler(byte[] data) {
+		Adler32 adler = new Adler32();
+		adler.update(data);
+		return adler.getValue();
+	}
+
+	private static int countChunks(byte[] png, String type) {
+		ByteBuffer buffer = ByteBuffer.wrap(png);
+		int count = 0;
+
+		// Skip the signature, then step over each length, type, data and CRC.
+		for (int position = 8; position < png.length; position += 12 + buffer.getInt(position)) {
+			if (type.equals(new String(png, position + 4, 4, StandardCharsets.US_ASCII))) {
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	private static String describe(BufferedImage img) {
+		return img.getType() == BufferedImage.TYPE_CUSTOM ? img.getColorModel().getNumComponents() + "x16-bit image"
+				: "image type " + img.getType();
+	}
+}
@@ -0,0 +1,96 @@
+package watermark.core.partition;
+
+import static watermark.test.Assert.assertEquals;
+import static watermark.test.Assert.assertNull;
+import static watermark.test.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+
+import watermark.core.datatypes.embedding.ChannelEmbedding;
+import watermark.core.datatypes.partition.BlockPartition;
+import watermark.test.Fixtures;
+
+/**
+ * Tests that every block order visits each block exactly once, on grids which
+ * are neither square nor a power of two, and that the automatic order
+ * benchmarks new shapes apart from the request.
+ *
+ * @author Ryan M. Kane
+ */
+public class BlockOrderTest {
+	private static final int[][] GRIDS = { { 1, 1 }, { 1, 37 }, { 37, 1 }, { 3, 5 }, { 13, 7 }, { 100, 3 }, { 31, 65 } };
+
+	private final BlockOrder[] orders = { new RowMajorOrder(), new MortonOrder(), new TiledOrder(), new TiledOrder(3),
+			new TiledOrder(16) };
+
+	public void testGridsVisitEveryBlockOnce() {
+		for (int[] grid : GRIDS) {
+			BlockPartition partition = new BlockPartition(grid[0], grid[1], 5, 8);
+
+			for (BlockOrder order : orders) {
+				checkPermutation(order.getClass().getSimpleName() + " on " + grid[0] + "x" + grid[1], order, partition);
+			}
+		}
+	}
+
+	public void testQuadtreeVisitsEveryBlockOnce() {
+		BufferedImage img = Fixtures.createImage(301, 203, BufferedImage.TYPE_INT_RGB);
+
+		for (int y = 0; y < img.getHeight(); y++) {
+			for (int x = 0; x < 150; x++) {
+				img.setRGB(x, y, 0xFF808080);
+			}
+		}
+
+		BlockPartition partition = new QuadtreePartitioner().partition(img, 3, 64, ChannelEmbedding.parse("RGB", 2), 128);
+
+		for (BlockOrder order : orders) {
+			checkPermutation(order.getClass().getSimpleName() + " on a quadtree", order, partition);
+		}
+	}
+
+	public void testAutoBenchmarksNewShapes() {
+		BufferedImage img = new BufferedImage(520, 513, BufferedImage.TYPE_INT_RGB);
+		BlockPartition partition = GridPartitioner.partition(img.getWidth(), img.getHeight(), 2, 32);
+		BenchmarkedOrder order = new BenchmarkedOrder();
+		Runnable[] queued = new Runnable[1];
+
+		order.setFallback(1);
+		order.setExecutor(task -> queued[0] = task);
+
+		assertTrue("fallback before the benchmark", order.choose(img, partition) instanceof MortonOrder);
+		assertTrue("benchmark queued", queued[0] != null);
+		assertEquals("no choice yet", 0, order.getChoices().size());
+
+		queued[0].run();
+		queued[0] = null;
+
+		assertEquals("choice recorded", 1, order.getChoices().size());
+		order.choose(img, partition);
+		assertNull("benchmarked once", queued[0]);
+		checkPermutation("chosen order", order, partition);
+
+		// Small images are not worth a benchmark.
+		BufferedImage small = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+		order.choose(small, GridPartitioner.partition(64, 64, 0, 8));
+		assertNull("small image", queued[0]);
+	}
+
+	private static void checkPermutation(String name, BlockOrder order, BlockPartition partition) {
+		int[] visited = order.order(null, partition);
+		int count = partition.getBlockCount();
+
+		if (visited == null) {
+			// The order of the partition.
+			return;
+		}
+
+		boolean[] seen = new boolean[count];
+		assertEquals(name + " length", count, visited.length);
+
+		for (int index : visited) {
+			assertTrue(name + " index " + index, index >= 0 && index < count && !seen[index]);
+			seen[index] = true;
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package watermark.core.partition;
+
+import static watermark.test.Assert.assertEquals;
+import static watermark.test.Assert.assertFalse;
+import static watermark.test.Assert.assertNotNull;
+import static watermark.test.Assert.assertNull;
+import static watermark.test.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+
+import watermark.core.datatypes.embedding.ChannelEmbedding;
+import watermark.core.datatypes.header.WatermarkHeader;
+import watermark.core.datatypes.partition.BlockPartition;
+import watermark.core.datatypes.request.WatermarkRequest;
+import watermark.core.datatypes.result.TamperReport;
+import watermark.core.service.WatermarkService;
+import watermark.core.service.WatermarkServiceImpl;
+import watermark.core.util.ImageUtil;
+import watermark.test.Fixtures;
+
+/**
+ * Tests that an adaptive partition is stored and rebuilt exactly, and that
+ * the rows which store it are signed with the header.
+ *
+ * @author Ryan M. Kane
+ */
+public class QuadtreePartitionerTest {
+	private static final int WIDTH = 301;
+	private static final int HEIGHT = 203;
+	private static final int BLOCK_SIZE = 64;
+	private static final int BLUE = 2;
+
+	private final ChannelEmbedding embedding = ChannelEmbedding.parse("RGB", 2);
+	private final WatermarkService service = new WatermarkServiceImpl();
+	private final KeyPair keyPair = Fixtures.getKeyPair();
+	private final BufferedImage watermark = Fixtures.createWatermark();
+
+	public void testStructureRoundTrip() {
+		BufferedImage img = createImage();
+		BlockPartition partition = new QuadtreePartitioner().partition(img, 4, BLOCK_SIZE, embedding, 128);
+		int rows = QuadtreePartitioner.getStructureRows(partition, WIDTH);
+
+		assertTrue("adaptive", partition.isAdaptive());
+		assertTrue("split", partition.getBlockCount() > (WIDTH / BLOCK_SIZE) * ((HEIGHT - 4) / BLOCK_SIZE));
+
+		// The blocks were laid out below the structure, which is stored there.
+		BlockPartition below = new QuadtreePartitioner().partition(img, 4 + rows, BLOCK_SIZE, embedding, 128);
+		QuadtreePartitioner.writeStructure(img, 4, rows, below);
+		BlockPartition read = QuadtreePartitioner.read(img, 4, BLOCK_SIZE, embedding, 128);
+
+		assertNotNull("read partition", read);
+		assertEquals("structure rows", rows, QuadtreePartitioner.readStructureRows(img, 4));
+		assertEquals("block count", below.getBlockCount(), read.getBlockCount());
+		assertEquals("layout", below.getLayoutHash(), read.getLayoutHash());
+	}
+
+	public void testRebuildRejectsWrongBitCount() {
+		BlockPartition partition = new QuadtreePartitioner().partition(createImage(), 4, BLOCK_SIZE, embedding, 128);
+
+		assertNull("rebuild with a missing bit", QuadtreePartitioner.rebuild(WIDTH, HEIGHT, 4, BLOCK_SIZE, embedding, 128,
+				partition.getStructure(), partition.getStructureBits() - 1));
+	}
+
+	public void testEncodeDecodeRoundTrip() {
+		TamperReport report = decode(encode());
+
+		assertEquals("tampered blocks", 0, report.getTamperedCount());
+		assertEquals("strip status", TamperReport.STRIP_VERIFIED, report.getStripStatus());
+		assertTrue("verified", report.isVerified());
+	}
+
+	public void testUnusedStructureBitIsTampered() {
+		BufferedImage encoded = encode();
+		int top = WatermarkHeader.read(encoded).getStripHeight(WIDTH, HEIGHT);
+		int rows = QuadtreePartitioner.readStructureRows(encoded, top);
+		// The last pixel of the structure rows is past the stored structure, so
+		// the partition still reads.
+		Fixtures.flipSample(encoded, WIDTH - 1, top + rows - 1, BLUE, 1);
+
+		assertNotNull("partition", QuadtreePartitioner.read(encoded, top, BLOCK_SIZE, embedding, 128));
+
+		TamperReport report = decode(encoded);
+		assertEquals("strip status", TamperReport.STRIP_TAMPERED, report.getStripStatus());
+		assertFalse("verified", report.isVerified());
+	}
+
+	public void testStructureBitIsTampered() {
+		BufferedImage encoded = encode();
+		int top = WatermarkHeader.read(encoded).getStripHeight(WIDTH, HEIGHT);
+		// Flip a bit of the structure itself, past its prefix.
+		int bit = QuadtreePartitioner.PREFIX_SIZE * 8 + 1;
+		Fixtures.flipSample(encoded, bit % WIDTH, top + bit / WIDTH, BLUE, 1);
+
+		TamperReport report = decode(encoded);
+		assertTrue("tampered", report.isTampered());
+		assertEquals("strip status", TamperReport.STRIP_TAMPERED, report.getStripStatus());
+	}
+
+	public void testOversizedPrefixIsTampered() {
+		int[][] prefixes = { { 1, Integer.MAX_VALUE - 3 }, { Integer.MAX_VALUE, 8 }, { 1, WIDTH } };
+
+		for (int[] prefix : prefixes) {
+			BufferedImage encoded = encode();
+			int top = WatermarkHeader.read(encoded).getStripHeight(WIDTH, HEIGHT);
+			ByteBuffer buffer = ByteBuffer.allocate(QuadtreePartitioner.PREFIX_SIZE);
+			buffer.putInt(prefix[0]);
+			buffer.putInt(prefix[1]);
+			buffer.putInt(0);
+			ImageUtil.writeStripBits(encoded, top, buffer.array());
+
+			String name = "rows " + prefix[0] + ", bits " + prefix[1];
+			assertNull(name + " partition", QuadtreePartitioner.read(encoded, top, BLOCK_SIZE, embedding, 128));
+			assertTrue(name + " structure rows", top + QuadtreePartitioner.readStructureRows(encoded, top) < HEIGHT);
+
+			TamperReport report = decode(encoded);
+			assertEquals(name + " strip status", TamperReport.STRIP_TAMPERED, report.getStripStatus());
+		}
+	}
+
+	public void testStructureRowsAreReserved() {
+		BufferedImage encoded = encode();
+		int top = WatermarkHeader.read(encoded).getStripHeight(WIDTH, HEIGHT);
+		int rows = QuadtreePartitioner.readStructureRows(encoded, top);
+		BlockPartition partition = QuadtreePartitioner.read(encoded, top, BLOCK_SIZE, embedding, 128);
+
+		assertEquals("strip rows", top + rows, decode(encoded).getStripRows());
+
+		for (int i = 0; i < partition.getBlockCount(); i++) {
+			assertTrue("block " + i + " below the strip", partition.getBlock(i).y >= top + rows);
+		}
+	}
+
+	private BufferedImage createImage() {
+		BufferedImage img = Fixtures.createImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+
+		// A flat left half keeps large blocks, the noisy right half is split.
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < 150; x++) {
+				img.setRGB(x, y, 0xFF808080);
+			}
+		}
+
+		return img;
+	}
+
+	private BufferedImage encode() {
+		return service.encode(Fixtures.CIPHER, keyPair.getPrivate(), createImage(), watermark, BLOCK_SIZE, embedding,
+				new QuadtreePartitioner());
+	}
+
+	private TamperReport decode(BufferedImage encoded) {
+		WatermarkRequest request = new WatermarkRequest(Fixtures.CIPHER, keyPair.getPublic(), encoded, watermark);
+		service.decode(request);
+		return request.getTamperReport();
+	}
+}
@@ -0,0 +1,93 @@
+package watermark.core.service;
+
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.security.KeyPair;
+
+import watermark.core.cipher.PublicKeyCipher;
+import watermark.core.datatypes.buffer.ScratchArena;
+import watermark.core.datatypes.header.WatermarkHeader;
+import watermark.test.Fixtures;
+
+/**
+ * Measures the bytes allocated per block by encode and decode, which run on
+ * the calling thread. Each operation is measured on two images of the same
+ * width, so the costs of each image cancel out, and the copy of the output
+ * image is subtracted. The bytes allocated by the cipher itself are measured
+ * apart, so what is left is allocated by the block code.
+ *
+ * <pre>
+ * java -cp out watermark.core.service.AllocationBenchmark [width] [blockSize] [iterations]
+ * </pre>
+ *
+ * @author Ryan M. Kane
+ */
+public class AllocationBenchmark {
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	public static void main(String[] args) {
+		int width = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+		int blockSize = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+		int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+		PublicKeyCipher cipher = Fixtures.CIPHER;
+		KeyPair keyPair = Fixtures.getKeyPair();
+		WatermarkService service = new WatermarkServiceImpl();
+		BufferedImage watermark = Fixtures.createWatermark();
+		BufferedImage small = Fixtures.createImage(width, width / 2, BufferedImage.TYPE_INT_ARGB);
+		BufferedImage large = Fixtures.createImage(width, width, BufferedImage.TYPE_INT_ARGB);
+		BufferedImage smallEncoded = service.encode(cipher, keyPair.getPrivate(), small, watermark, blockSize);
+		BufferedImage largeEncoded = service.encode(cipher, keyPair.getPrivate(), large, watermark, blockSize);
+
+		// Warm up, so the scratch buffers and the cipher state are in place.
+		for (int i = 0; i < iterations; i++) {
+			service.encode(cipher, keyPair.getPrivate(), large, watermark, blockSize);
+			service.decode(cipher, keyPair.getPublic(), largeEncoded, watermark, blockSize);
+		}
+
+		long encodeSmall = measure(iterations, () -> service.encode(cipher, keyPair.getPrivate(), small, watermark, blockSize));
+		long encodeLarge = measure(iterations, () -> service.encode(cipher, keyPair.getPrivate(), large, watermark, blockSize));
+		long decodeSmall = measure(iterations, () -> service.decode(cipher, keyPair.getPublic(), smallEncoded, watermark, blockSize));
+		long decodeLarge = measure(iterations, () -> service.decode(cipher, keyPair.getPublic(), largeEncoded, watermark, blockSize));
+
+		byte[] hash = new byte[ScratchArena.HASH_SIZE];
+		byte[] signature = cipher.encrypt(hash, keyPair.getPrivate());
+		byte[] output = new byte[signature.length];
+		long encrypt = measure(iterations * 64, () -> cipher.encrypt(hash, 0, hash.length, keyPair.getPrivate(), output));
+		long decrypt = measure(iterations * 64, () -> cipher.decrypt(signature, 0, signature.length, keyPair.getPublic(), output));
+
+		long blocks = getBlocks(largeEncoded, blockSize) - getBlocks(smallEncoded, blockSize);
+		long pixels = (long) width * (width - width / 2) * 4;
+		long encodeBlock = (encodeLarge - encodeSmall - pixels) / blocks;
+		long decodeBlock = (decodeLarge - decodeSmall - pixels) / blocks;
+
+		System.out.printf("%dx%d blocks of %d pixels%n", width, width, blockSize);
+		System.out.printf("encode: %d bytes per block, %d of them in the cipher%n", encodeBlock, encrypt);
+		System.out.printf("decode: %d bytes per block, %d of them in the cipher%n", decodeBlock, decrypt);
+		System.out.printf("block code: %d bytes per encoded block, %d bytes per decoded block%n", encodeBlock - encrypt,
+				decodeBlock - decrypt);
+	}
+
+	/**
+	 * Returns the mean bytes an operation allocates on the calling thread.
+	 */
+	private static long measure(int iterations, Runnable operation) {
+		long id = Thread.currentThread().getId();
+		long start = THREADS.getThreadAllocatedBytes(id);
+
+		for (int i = 0; i < iterations; i++) {
+			operation.run();
+		}
+
+		return (THREADS.getThreadAllocatedBytes(id) - start) / iterations;
+	}
+
+	/**
+	 * Returns the number of blocks of an encoded image, below its strip.
+	 */
+	private static long getBlocks(BufferedImage encoded, int blockSize) {
+		int top = WatermarkHeader.read(encoded).getStripHeight(encoded.getWidth(), encoded.getHeight());
+		return (long) (encoded.getWidth() / blockSize) * ((encoded.getHeight() - top) / blockSize);
+	}
+}
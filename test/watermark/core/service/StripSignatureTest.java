@@ -0,0 +1,127 @@
+package watermark.core.service;
+
+import static watermark.test.Assert.assertEquals;
+import static watermark.test.Assert.assertFalse;
+import static watermark.test.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.util.zip.CRC32;
+
+import watermark.core.datatypes.header.WatermarkHeader;
+import watermark.core.datatypes.request.WatermarkRequest;
+import watermark.core.datatypes.result.TamperReport;
+import watermark.core.util.ImageUtil;
+import watermark.test.Fixtures;
+
+/**
+ * Tests that the strip at the top of an encoded image, which holds the header
+ * and its signature, is verified with the key like the blocks.
+ *
+ * @author Ryan M. Kane
+ */
+public class StripSignatureTest {
+	private static final int BLUE = 2;
+
+	private final WatermarkService service = new WatermarkServiceImpl();
+	private final KeyPair keyPair = Fixtures.getKeyPair();
+	private final BufferedImage watermark = Fixtures.createWatermark();
+
+	public void testCleanStripVerifies() {
+		TamperReport report = decode(encode());
+
+		assertEquals("strip status", TamperReport.STRIP_VERIFIED, report.getStripStatus());
+		assertEquals("strip rows", ImageUtil.getStripRows(200, WatermarkHeader.BITS + 128 * 8), report.getStripRows());
+		assertTrue("verified", report.isVerified());
+	}
+
+	public void testGrayStripVerifies() {
+		BufferedImage encoded = service.encode(Fixtures.CIPHER, keyPair.getPrivate(),
+				Fixtures.createImage(200, 150, BufferedImage.TYPE_BYTE_GRAY), watermark, 32);
+
+		assertEquals("strip status", TamperReport.STRIP_VERIFIED, decode(encoded).getStripStatus());
+
+		Fixtures.flipSample(encoded, 190, 5, 0, 1);
+		assertStripTampered(decode(encoded));
+	}
+
+	public void testUnusedStripBitIsTampered() {
+		BufferedImage encoded = encode();
+		// Past the header and its signature, but within the strip.
+		Fixtures.flipSample(encoded, 190, 5, BLUE, 1);
+
+		assertStripTampered(decode(encoded));
+	}
+
+	public void testHeaderRowBitIsTampered() {
+		BufferedImage encoded = encode();
+		// Past the 160 header bits, where the signature starts.
+		Fixtures.flipSample(encoded, 180, 0, BLUE, 1);
+
+		assertStripTampered(decode(encoded));
+	}
+
+	public void testSignatureBitIsTampered() {
+		BufferedImage encoded = encode();
+		Fixtures.flipSample(encoded, 10, 2, BLUE, 1);
+
+		assertStripTampered(decode(encoded));
+	}
+
+	public void testHighStripBitIsTampered() {
+		BufferedImage encoded = encode();
+		Fixtures.flipSample(encoded, 3, 0, 0, 0x80);
+
+		assertStripTampered(decode(encoded));
+	}
+
+	public void testOtherKeyDoesNotVerifyStrip() {
+		WatermarkRequest request = new WatermarkRequest(Fixtures.CIPHER, Fixtures.createKeyPair().getPublic(), encode(), watermark);
+		service.decode(request);
+
+		assertStripTampered(request.getTamperReport());
+	}
+
+	public void testDowngradedHeaderIsUnsigned() {
+		BufferedImage encoded = encode();
+		byte[] data = ImageUtil.readStripBits(encoded, 0, WatermarkHeader.SIZE);
+		data[2] = 1;
+
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, WatermarkHeader.SIZE - 4);
+		ByteBuffer.wrap(data).putInt(WatermarkHeader.SIZE - 4, (int) crc.getValue());
+		ImageUtil.writeStripBits(encoded, 0, data);
+
+		TamperReport report = decode(encoded);
+
+		assertEquals("strip status", TamperReport.STRIP_UNSIGNED, report.getStripStatus());
+		assertFalse("verified", report.isVerified());
+	}
+
+	public void testBlockTamperLeavesStripVerified() {
+		BufferedImage encoded = encode();
+		Fixtures.flipSample(encoded, 40, 40, BLUE, 1);
+
+		TamperReport report = decode(encoded);
+
+		assertEquals("strip status", TamperReport.STRIP_VERIFIED, report.getStripStatus());
+		assertEquals("tampered blocks", 1, report.getTamperedCount());
+	}
+
+	private BufferedImage encode() {
+		return service.encode(Fixtures.CIPHER, keyPair.getPrivate(), Fixtures.createImage(200, 150, BufferedImage.TYPE_INT_ARGB), watermark, 32);
+	}
+
+	private TamperReport decode(BufferedImage encoded) {
+		WatermarkRequest request = new WatermarkRequest(Fixtures.CIPHER, keyPair.getPublic(), encoded, watermark);
+		service.decode(request);
+		return request.getTamperReport();
+	}
+
+	private static void assertStripTampered(TamperReport report) {
+		assertEquals("strip status", TamperReport.STRIP_TAMPERED, report.getStripStatus());
+		assertTrue("tampered", report.isTampered());
+		assertFalse("verified", report.isVerified());
+	}
+}
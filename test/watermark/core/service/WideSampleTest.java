@@ -0,0 +1,89 @@
+package watermark.core.service;
+
+import static watermark.test.Assert.assertEquals;
+import static watermark.test.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.KeyPair;
+
+import watermark.core.datatypes.header.WatermarkHeader;
+import watermark.core.datatypes.request.WatermarkRequest;
+import watermark.core.datatypes.result.TamperReport;
+import watermark.test.Fixtures;
+
+/**
+ * Tests that every bit of a 16-bit sample which the block and strip hashes
+ * cover is verified, not only its low byte.
+ *
+ * @author Ryan M. Kane
+ */
+public class WideSampleTest {
+	private static final int WIDTH = 200;
+	private static final int HEIGHT = 150;
+
+	private final WatermarkService service = new WatermarkServiceImpl();
+	private final KeyPair keyPair = Fixtures.getKeyPair();
+	private final BufferedImage watermark = Fixtures.createWatermark();
+
+	public void testCleanImageVerifies() {
+		BufferedImage encoded = encode();
+
+		assertEquals("type", BufferedImage.TYPE_USHORT_GRAY, encoded.getType());
+		assertTrue("verified", decode(encoded, null).isVerified());
+	}
+
+	public void testHighBitOfFirstPixelIsTampered() {
+		BufferedImage encoded = encode();
+		Fixtures.flipSample(encoded, 0, getTop(encoded), 0, 0x8000);
+
+		assertEquals("tampered blocks", 1, decode(encoded, null).getTamperedCount());
+	}
+
+	public void testEmbeddedBitIsTampered() {
+		BufferedImage encoded = encode();
+		Fixtures.flipSample(encoded, 5, getTop(encoded) + 3, 0, 1);
+
+		assertEquals("tampered blocks", 1, decode(encoded, null).getTamperedCount());
+	}
+
+	public void testHighBitOfStripIsTampered() {
+		BufferedImage encoded = encode();
+		Fixtures.flipSample(encoded, 190, 1, 0, 0x8000);
+
+		assertEquals("strip status", TamperReport.STRIP_TAMPERED, decode(encoded, null).getStripStatus());
+	}
+
+	public void testIndexSeesHighBitChange() throws IOException {
+		File index = File.createTempFile("wide", ".idx");
+
+		try {
+			index.delete();
+			BufferedImage encoded = encode();
+			assertTrue("first decode verified", decode(encoded, index).isVerified());
+
+			Fixtures.flipSample(encoded, 0, getTop(encoded), 0, 0x8000);
+			assertEquals("tampered blocks with the index", 1, decode(encoded, index).getTamperedCount());
+		} finally {
+			Files.deleteIfExists(index.toPath());
+		}
+	}
+
+	private BufferedImage encode() {
+		return service.encode(Fixtures.CIPHER, keyPair.getPrivate(), Fixtures.createImage(WIDTH, HEIGHT, BufferedImage.TYPE_USHORT_GRAY),
+				watermark, 32);
+	}
+
+	private TamperReport decode(BufferedImage encoded, File index) {
+		WatermarkRequest request = new WatermarkRequest(Fixtures.CIPHER, keyPair.getPublic(), encoded, watermark);
+		request.setIndexFile(index);
+		service.decode(request);
+		return request.getTamperReport();
+	}
+
+	private static int getTop(BufferedImage encoded) {
+		return WatermarkHeader.read(encoded).getStripHeight(WIDTH, HEIGHT);
+	}
+}
@@ -0,0 +1,87 @@
+package watermark.core.tuning;
+
+import static watermark.test.Assert.assertEquals;
+import static watermark.test.Assert.assertFalse;
+import static watermark.test.Assert.assertNotNull;
+import static watermark.test.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.security.KeyPair;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+
+import watermark.core.partition.BenchmarkedOrder;
+import watermark.core.partition.BlockOrder;
+import watermark.core.service.WatermarkServiceImpl;
+import watermark.test.Fixtures;
+
+/**
+ * Tests that the block orders the tuner records for each shape are saved,
+ * loaded and followed by the service.
+ *
+ * @author Ryan M. Kane
+ */
+public class TuningProfileTest {
+	public void testTunedShapeOrdersAreUsed() throws IOException {
+		KeyPair keyPair = Fixtures.getKeyPair();
+		BufferedImage sample = Fixtures.createImage(512, 512, BufferedImage.TYPE_INT_RGB);
+		AutoTuner tuner = new AutoTuner(Fixtures.CIPHER, keyPair.getPrivate(), keyPair.getPublic(),
+				Collections.singletonList(sample), Fixtures.createWatermark(), 64);
+
+		tuner.setLog(new PrintStream(new ByteArrayOutputStream()));
+
+		TuningProfile tuned = tuner.tune();
+		Map<String, String> shapeOrders = tuned.getShapeOrders();
+
+		assertEquals("shapes", 1, shapeOrders.size());
+		assertEquals("block order", "auto", tuned.getBlockOrder());
+
+		File file = File.createTempFile("tuning", ".profile");
+
+		try {
+			assertTrue("saved", tuned.save(file, "test"));
+
+			TuningProfile loaded = TuningProfile.load(file);
+			assertNotNull("loaded", loaded);
+			assertEquals("loaded shape orders", shapeOrders, loaded.getShapeOrders());
+			checkChoices(loaded.createBlockOrder(), shapeOrders);
+
+			// The service set up from the application properties follows it.
+			Properties props = new Properties();
+			props.setProperty("blockOrder", "row");
+			props.setProperty("profile", file.getPath());
+
+			WatermarkServiceImpl service = TuningProfile.createService(props, 1);
+			checkChoices(service.getBlockOrder(), shapeOrders);
+			service.getBlockPool().shutdown();
+		} finally {
+			file.delete();
+		}
+	}
+
+	public void testUnknownShapeOrderIsIgnored() {
+		TuningProfile profile = new TuningProfile();
+		profile.setBlockOrder("auto");
+		profile.setShapeOrders(Collections.singletonMap("1:512x512:64x64", "spiral"));
+
+		BlockOrder order = profile.createBlockOrder();
+		assertTrue("auto", order instanceof BenchmarkedOrder);
+		assertFalse("no choice", ((BenchmarkedOrder) order).getChoices().containsKey("1:512x512:64x64"));
+	}
+
+	private static void checkChoices(BlockOrder order, Map<String, String> shapeOrders) {
+		assertTrue("auto order", order instanceof BenchmarkedOrder);
+
+		Map<String, Integer> choices = ((BenchmarkedOrder) order).getChoices();
+		assertEquals("choices", shapeOrders.size(), choices.size());
+
+		for (Map.Entry<String, String> entry : shapeOrders.entrySet()) {
+			assertEquals("choice for " + entry.getKey(), entry.getValue(), TuningProfile.AUTO_ORDERS[choices.get(entry.getKey())]);
+		}
+	}
+}
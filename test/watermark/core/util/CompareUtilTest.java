@@ -0,0 +1,270 @@
+package watermark.core.util;
+
+import static watermark.test.Assert.assertEquals;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests the changed areas of two images against a brute-force diff of every
+ * pixel, for random edits to images of random sizes, cell sizes and types,
+ * including images of different sizes and grids wider than a word of cells.
+ *
+ * @author Ryan M. Kane
+ */
+public class CompareUtilTest {
+	private static final int TRIALS = 300;
+	private static final int[] CELL_SIZES = { 1, 2, 3, 5, 8, 16, 32 };
+	private static final int[] TYPES = { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR,
+			BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_USHORT_GRAY };
+
+	private final Random random = new Random(41);
+
+	public void testRandomEdits() {
+		for (int trial = 0; trial < TRIALS; trial++) {
+			int type = TYPES[random.nextInt(TYPES.length)];
+			BufferedImage imgA = createImage(1 + random.nextInt(300), 1 + random.nextInt(200), type);
+			BufferedImage imgB = copy(imgA, imgA.getWidth(), imgA.getHeight(), type);
+
+			edit(imgB);
+			check(imgA, imgB, CELL_SIZES[random.nextInt(CELL_SIZES.length)]);
+		}
+	}
+
+	public void testSizeMismatch() {
+		for (int trial = 0; trial < TRIALS; trial++) {
+			int type = TYPES[random.nextInt(TYPES.length)];
+			BufferedImage imgA = createImage(1 + random.nextInt(300), 1 + random.nextInt(200), type);
+			BufferedImage imgB = copy(imgA, 1 + random.nextInt(300), 1 + random.nextInt(200), type);
+
+			edit(imgB);
+			check(imgA, imgB, CELL_SIZES[random.nextInt(CELL_SIZES.length)]);
+		}
+	}
+
+	public void testMixedLayouts() {
+		for (int trial = 0; trial < TRIALS / 3; trial++) {
+			BufferedImage imgA = createImage(1 + random.nextInt(200), 1 + random.nextInt(150), BufferedImage.TYPE_INT_RGB);
+			BufferedImage imgB = copy(imgA, imgA.getWidth(), imgA.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+
+			edit(imgB);
+			check(imgA, imgB, CELL_SIZES[random.nextInt(CELL_SIZES.length)]);
+		}
+	}
+
+	public void testWordBoundaries() {
+		for (int cols : new int[] { 63, 64, 65, 127, 128, 129, 200 }) {
+			for (int cellSize : new int[] { 1, 3 }) {
+				BufferedImage imgA = createImage(cols * cellSize, 4 * cellSize, BufferedImage.TYPE_INT_RGB);
+				BufferedImage imgB = copy(imgA, imgA.getWidth(), imgA.getHeight(), BufferedImage.TYPE_INT_RGB);
+
+				// Change the cells either side of each word boundary, and a run across one.
+				for (int col : new int[] { 0, 62, 63, 64, 65, 126, 127, 128, 129, cols - 1 }) {
+					if (col < cols) {
+						flip(imgB, col * cellSize, 0);
+						flip(imgB, col * cellSize + cellSize - 1, 3 * cellSize);
+					}
+				}
+
+				for (int col = 60; col < Math.min(cols, 70); col++) {
+					flip(imgB, col * cellSize, cellSize);
+					flip(imgB, col * cellSize, 2 * cellSize);
+				}
+
+				check(imgA, imgB, cellSize);
+			}
+		}
+	}
+
+	public void testLargeImagesSplitIntoBands() {
+		for (int trial = 0; trial < 6; trial++) {
+			int type = TYPES[random.nextInt(TYPES.length)];
+			BufferedImage imgA = createImage(300 + random.nextInt(400), 300 + random.nextInt(400), type);
+			BufferedImage imgB = copy(imgA, imgA.getWidth() - random.nextInt(20), imgA.getHeight() + random.nextInt(20), type);
+
+			edit(imgB);
+			check(imgA, imgB, CELL_SIZES[random.nextInt(CELL_SIZES.length)]);
+		}
+	}
+
+	/**
+	 * Compares the rectangles of an image diff with the runs of cells found by
+	 * checking every pixel.
+	 */
+	private static void check(BufferedImage imgA, BufferedImage imgB, int cellSize) {
+		int width = Math.max(imgA.getWidth(), imgB.getWidth());
+		int height = Math.max(imgA.getHeight(), imgB.getHeight());
+		int cols = (width + cellSize - 1) / cellSize;
+		int rows = (height + cellSize - 1) / cellSize;
+		boolean[][] changed = new boolean[rows][cols];
+		boolean sameLayout = imgA.getType() == imgB.getType();
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				if (isChanged(imgA, imgB, x, y, sameLayout)) {
+					changed[y / cellSize][x / cellSize] = true;
+				}
+			}
+		}
+
+		List<Rectangle> expected = mergeRuns(changed, cellSize, width, height);
+		List<Rectangle> actual = CompareUtil.diffImages(imgA, imgB, cellSize);
+		String name = imgA.getWidth() + "x" + imgA.getHeight() + " and " + imgB.getWidth() + "x" + imgB.getHeight() + " of type "
+				+ imgA.getType() + " in " + cellSize + " pixel cells";
+
+		assertEquals(name, expected, actual);
+
+		if (imgA.getWidth() == imgB.getWidth() && imgA.getHeight() == imgB.getHeight()) {
+			assertEquals(name + " compare", expected.isEmpty(), CompareUtil.compareImages(imgA, imgB));
+		}
+	}
+
+	private static boolean isChanged(BufferedImage imgA, BufferedImage imgB, int x, int y, boolean sameLayout) {
+		if (x >= imgA.getWidth() || y >= imgA.getHeight() || x >= imgB.getWidth() || y >= imgB.getHeight()) {
+			return true;
+		}
+
+		if (!sameLayout) {
+			return imgA.getRGB(x, y) != imgB.getRGB(x, y);
+		}
+
+		Raster rasterA = imgA.getRaster();
+		Raster rasterB = imgB.getRaster();
+
+		for (int b = 0; b < rasterA.getNumBands(); b++) {
+			if (rasterA.getSample(x, y, b) != rasterB.getSample(x, y, b)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Joins the changed cells of each row into runs, extends a rectangle down
+	 * while the row below has the same run, and scales the rectangles to
+	 * pixels, clipped to the image.
+	 */
+	private static List<Rectangle> mergeRuns(boolean[][] changed, int cellSize, int width, int height) {
+		List<Rectangle> cells = new ArrayList<Rectangle>();
+		Map<Long, Rectangle> open = new HashMap<Long, Rectangle>();
+
+		for (int row = 0; row < changed.length; row++) {
+			Map<Long, Rectangle> next = new HashMap<Long, Rectangle>();
+
+			for (int col = 0; col < changed[row].length; col++) {
+				if (!changed[row][col] || (col > 0 && changed[row][col - 1])) {
+					continue;
+				}
+
+				int end = col;
+
+				while (end < changed[row].length && changed[row][end]) {
+					end++;
+				}
+
+				long key = (long) col << 32 | end;
+				Rectangle run = open.remove(key);
+
+				if (run == null) {
+					run = new Rectangle(col, row, end - col, 0);
+					cells.add(run);
+				}
+
+				run.height++;
+				next.put(key, run);
+			}
+
+			open = next;
+		}
+
+		List<Rectangle> rectangles = new ArrayList<Rectangle>();
+
+		for (Rectangle r : cells) {
+			Rectangle pixels = new Rectangle(r.x * cellSize, r.y * cellSize, r.width * cellSize, r.height * cellSize);
+			rectangles.add(pixels.intersection(new Rectangle(0, 0, width, height)));
+		}
+
+		rectangles.sort((a, b) -> a.y != b.y ? Integer.compare(a.y, b.y) : Integer.compare(a.x, b.x));
+
+		return rectangles;
+	}
+
+	/**
+	 * Changes random pixels, and random rectangles of pixels so that runs
+	 * continue over several rows.
+	 */
+	private void edit(BufferedImage img) {
+		int edits = random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(40);
+
+		for (int i = 0; i < edits; i++) {
+			int x = random.nextInt(img.getWidth());
+			int y = random.nextInt(img.getHeight());
+
+			if (random.nextBoolean()) {
+				flip(img, x, y);
+				continue;
+			}
+
+			int w = Math.min(img.getWidth() - x, 1 + random.nextInt(40));
+			int h = Math.min(img.getHeight() - y, 1 + random.nextInt(40));
+
+			for (int dy = 0; dy < h; dy++) {
+				for (int dx = 0; dx < w; dx++) {
+					flip(img, x + dx, y + dy);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Flips the lowest bit of a random band, the smallest change a diff must
+	 * find.
+	 */
+	private void flip(BufferedImage img, int x, int y) {
+		WritableRaster raster = img.getRaster();
+		int band = random.nextInt(raster.getNumBands());
+
+		raster.setSample(x, y, band, raster.getSample(x, y, band) ^ 1);
+	}
+
+	private BufferedImage createImage(int width, int height, int type) {
+		BufferedImage img = new BufferedImage(width, height, type);
+		WritableRaster raster = img.getRaster();
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				for (int b = 0; b < raster.getNumBands(); b++) {
+					raster.setSample(x, y, b, random.nextInt(1 << raster.getSampleModel().getSampleSize(b)));
+				}
+			}
+		}
+
+		return img;
+	}
+
+	/**
+	 * Copies the overlap of an image into a new image, which may differ in
+	 * size and type.
+	 */
+	private static BufferedImage copy(BufferedImage img, int width, int height, int type) {
+		BufferedImage copy = new BufferedImage(width, height, type);
+		int w = Math.min(width, img.getWidth());
+		int h = Math.min(height, img.getHeight());
+
+		if (type == img.getType()) {
+			copy.getRaster().setRect(img.getRaster().createChild(0, 0, w, h, 0, 0, null));
+		} else {
+			copy.setRGB(0, 0, w, h, img.getRGB(0, 0, w, h, null, 0, w), 0, w);
+		}
+
+		return copy;
+	}
+}
@@ -0,0 +1,57 @@
+package watermark.core.util;
+
+import static watermark.test.Assert.assertEquals;
+import static watermark.test.Assert.assertFalse;
+import static watermark.test.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+
+/**
+ * Tests how 16-bit samples are presented: the embedding goes into the low
+ * byte, while the high byte is read separately for hashing.
+ *
+ * @author Ryan M. Kane
+ */
+public class RasterUtilTest {
+	public void testWideImages() {
+		assertTrue("16-bit gray", RasterUtil.isWide(new BufferedImage(4, 4, BufferedImage.TYPE_USHORT_GRAY)));
+		assertFalse("8-bit gray", RasterUtil.isWide(new BufferedImage(4, 4, BufferedImage.TYPE_BYTE_GRAY)));
+		assertFalse("ARGB", RasterUtil.isWide(new BufferedImage(4, 4, BufferedImage.TYPE_INT_ARGB)));
+	}
+
+	public void testLowByteIsPresented() {
+		BufferedImage img = new BufferedImage(2, 1, BufferedImage.TYPE_USHORT_GRAY);
+		img.getRaster().setSample(0, 0, 0, 0xABCD);
+
+		assertEquals("pixel", 0xFFCDCDCD, RasterUtil.getPixels(img)[0]);
+		assertEquals("high pixel", 0xFFABABAB, RasterUtil.getHighPixels(img, 0, 0, 2, 1, null)[0]);
+	}
+
+	public void testHighByteOfNegativeShort() {
+		BufferedImage img = new BufferedImage(1, 1, BufferedImage.TYPE_USHORT_GRAY);
+		img.getRaster().setSample(0, 0, 0, 0x8001);
+
+		assertEquals("high pixel", 0xFF808080, RasterUtil.getHighPixels(img, 0, 0, 1, 1, null)[0]);
+	}
+
+	public void testWriteKeepsHighByte() {
+		BufferedImage img = new BufferedImage(1, 1, BufferedImage.TYPE_USHORT_GRAY);
+		WritableRaster raster = img.getRaster();
+		raster.setSample(0, 0, 0, 0xABCD);
+
+		RasterUtil.setPixels(img, new int[] { BitUtil.setLSB(RasterUtil.getPixels(img)[0], 0) });
+
+		assertEquals("sample", 0xABCC, raster.getSample(0, 0, 0));
+	}
+
+	public void testNarrowImageHasNoHighBytes() {
+		try {
+			RasterUtil.getHighPixels(new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY), 0, 0, 1, 1, null);
+		} catch (IllegalArgumentException e) {
+			return;
+		}
+
+		throw new AssertionError("An 8-bit image has no high bytes.");
+	}
+}
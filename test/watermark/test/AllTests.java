@@ -0,0 +1,100 @@
+package watermark.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Runs the tests without a test framework. Every class on the class path
+ * whose name ends in "Test" is loaded, and each of its public methods named
+ * "test..." is run on a new instance. The exit code is the number of failed
+ * tests, capped at 100.
+ *
+ * <pre>
+ * javac -d out $(find src test -name '*.java')
+ * java -cp out watermark.test.AllTests [class name filter]
+ * </pre>
+ *
+ * @author Ryan M. Kane
+ */
+public class AllTests {
+	public static void main(String[] args) throws Exception {
+		String filter = args.length > 0 ? args[0] : "";
+		int run = 0;
+		int failed = 0;
+
+		for (String className : findTestClasses()) {
+			if (!className.contains(filter)) {
+				continue;
+			}
+
+			Class<?> type = Class.forName(className);
+
+			for (Method method : getTestMethods(type)) {
+				run++;
+				long start = System.nanoTime();
+
+				try {
+					method.invoke(type.getDeclaredConstructor().newInstance());
+					System.out.printf("PASS %s.%s (%d ms)%n", type.getSimpleName(), method.getName(), (System.nanoTime() - start) / 1000000);
+				} catch (InvocationTargetException e) {
+					failed++;
+					System.out.printf("FAIL %s.%s%n", type.getSimpleName(), method.getName());
+					e.getCause().printStackTrace(System.out);
+				}
+			}
+		}
+
+		System.out.printf("%d tests, %d failed%n", run, failed);
+		System.exit(Math.min(failed, 100));
+	}
+
+	private static List<Method> getTestMethods(Class<?> type) {
+		List<Method> methods = new ArrayList<Method>();
+
+		for (Method method : type.getMethods()) {
+			if (method.getName().startsWith("test") && method.getParameterCount() == 0 && !Modifier.isStatic(method.getModifiers())) {
+				methods.add(method);
+			}
+		}
+
+		// Reflection returns the methods in no particular order.
+		methods.sort((a, b) -> a.getName().compareTo(b.getName()));
+
+		return methods;
+	}
+
+	private static List<String> findTestClasses() throws IOException {
+		List<String> classes = new ArrayList<String>();
+
+		for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+			Path root = new File(entry).toPath();
+
+			if (!Files.isDirectory(root)) {
+				continue;
+			}
+
+			try (Stream<Path> files = Files.walk(root)) {
+				files.forEach(file -> {
+					String name = root.relativize(file).toString();
+
+					if (name.endsWith("Test.class")) {
+						classes.add(name.substring(0, name.length() - 6).replace(File.separatorChar, '.'));
+					}
+				});
+			}
+		}
+
+		Collections.sort(classes);
+
+		return classes;
+	}
+}
@@ -0,0 +1,78 @@
+package watermark.test;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * The checks used by the tests. A failed check throws an AssertionError,
+ * which the runner reports for the test method.
+ *
+ * @author Ryan M. Kane
+ */
+public final class Assert {
+	private Assert() {
+	}
+
+	public static void fail(String message) {
+		throw new AssertionError(message);
+	}
+
+	public static void assertTrue(String message, boolean condition) {
+		if (!condition) {
+			fail(message);
+		}
+	}
+
+	public static void assertFalse(String message, boolean condition) {
+		assertTrue(message, !condition);
+	}
+
+	public static void assertNull(String message, Object value) {
+		assertTrue(message + ": expected null but was " + value, value == null);
+	}
+
+	public static void assertNotNull(String message, Object value) {
+		assertTrue(message + ": expected a value", value != null);
+	}
+
+	public static void assertEquals(String message, long expected, long actual) {
+		assertTrue(message + ": expected " + expected + " but was " + actual, expected == actual);
+	}
+
+	public static void assertEquals(String message, Object expected, Object actual) {
+		assertTrue(message + ": expected " + expected + " but was " + actual, Objects.equals(expected, actual));
+	}
+
+	public static void assertArrayEquals(String message, byte[] expected, byte[] actual) {
+		assertTrue(message + ": the arrays differ", Arrays.equals(expected, actual));
+	}
+
+	/**
+	 * Checks that an operation throws an exception of a type.
+	 *
+	 * @param message - the message of the failure.
+	 * @param type - the expected type of exception.
+	 * @param operation - the operation to run.
+	 * @return the thrown exception.
+	 */
+	public static <T extends Throwable> T assertThrows(String message, Class<T> type, Operation operation) {
+		try {
+			operation.run();
+		} catch (Throwable e) {
+			if (type.isInstance(e)) {
+				return type.cast(e);
+			}
+
+			throw new AssertionError(message + ": expected " + type.getSimpleName() + " but was " + e, e);
+		}
+
+		throw new AssertionError(message + ": expected " + type.getSimpleName());
+	}
+
+	/**
+	 * An operation which may throw any exception.
+	 */
+	public interface Operation {
+		void run() throws Exception;
+	}
+}
@@ -0,0 +1,91 @@
+package watermark.test;
+
+import java.awt.image.BufferedImage;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+import watermark.core.cipher.PublicKeyCipher;
+
+/**
+ * The keys and images shared by the tests. The key pair is generated once,
+ * since generating RSA keys is slow.
+ *
+ * @author Ryan M. Kane
+ */
+public final class Fixtures {
+	public static final PublicKeyCipher CIPHER = new PublicKeyCipher("RSA");
+
+	private static KeyPair keyPair;
+
+	private Fixtures() {
+	}
+
+	/**
+	 * @return a 1024-bit RSA key pair, the same for every call.
+	 */
+	public static synchronized KeyPair getKeyPair() {
+		if (keyPair == null) {
+			keyPair = createKeyPair();
+		}
+
+		return keyPair;
+	}
+
+	/**
+	 * @return a new 1024-bit RSA key pair.
+	 */
+	public static KeyPair createKeyPair() {
+		try {
+			KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+			generator.initialize(1024);
+			return generator.generateKeyPair();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Creates an image of opaque random pixels, the same for every call with
+	 * the same arguments.
+	 *
+	 * @param width - the width of the image.
+	 * @param height - the height of the image.
+	 * @param type - the image type.
+	 * @return the image.
+	 */
+	public static BufferedImage createImage(int width, int height, int type) {
+		Random random = new Random(width * 31L + height);
+		BufferedImage img = new BufferedImage(width, height, type);
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				img.setRGB(x, y, 0xFF000000 | random.nextInt());
+			}
+		}
+
+		return img;
+	}
+
+	/**
+	 * @return the watermark image the tests encode and decode with.
+	 */
+	public static BufferedImage createWatermark() {
+		return createImage(8, 8, BufferedImage.TYPE_INT_ARGB);
+	}
+
+	/**
+	 * Flips a bit of a pixel through the raster, so any sample size is
+	 * changed exactly.
+	 *
+	 * @param img - the image.
+	 * @param x - the column of the pixel.
+	 * @param y - the row of the pixel.
+	 * @param band - the band of the sample.
+	 * @param mask - the bits to flip.
+	 */
+	public static void flipSample(BufferedImage img, int x, int y, int band, int mask) {
+		img.getRaster().setSample(x, y, band, img.getRaster().getSample(x, y, band) ^ mask);
+	}
+}